@@ -0,0 +1,63 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.util.IdentityHashMap;
+
+import com.vaadin.pontus.vizcomponent.client.Edge;
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+
+/**
+ * Timing harness for converting graphs with deep cluster hierarchies to the
+ * shared state. It is not a test and is only compiled with the benchmark
+ * profile, see {@link com.vaadin.pontus.vizcomponent.model.GraphBenchmark
+ * GraphBenchmark} for running it.
+ */
+public class ConversionBenchmark {
+
+    /**
+     * Counts the distinct client nodes in the converted graph
+     */
+    static int countNodes(Node graph) {
+        IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+        countNodes(graph, seen);
+        return seen.size();
+    }
+
+    private static void countNodes(Node node,
+            IdentityHashMap<Node, Boolean> seen) {
+        if (node == null || seen.put(node, Boolean.TRUE) != null
+                || node.graph == null) {
+            return;
+        }
+        for (Edge edge : node.graph) {
+            countNodes(edge.source, seen);
+            countNodes(edge.dest, seen);
+        }
+    }
+
+    static void measure(int depth, int children, int nodes) {
+        Graph graph = GraphConverterTest.createClusters(depth, children, nodes);
+        // Warm up
+        for (int i = 0; i < 5; i++) {
+            new GraphConverter().convert(graph);
+        }
+        int rounds = 20;
+        Node converted = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            converted = new GraphConverter().convert(graph);
+        }
+        long nanos = (System.nanoTime() - start) / rounds;
+        System.out.println(String.format(
+                "depth %d, %d children: %8d nodes %8d edges %10.2f ms %8d client nodes",
+                depth, children, graph.nodeCount(true),
+                graph.edgeCount(true), nanos / 1e6, countNodes(converted)));
+    }
+
+    public static void main(String[] args) {
+        measure(4, 4, 10);
+        measure(6, 3, 10);
+        measure(8, 2, 10);
+        measure(12, 2, 5);
+    }
+}
@@ -0,0 +1,241 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simple timing harness for the graph model. It is not a test and is only
+ * compiled with the benchmark profile, run the main method to get the
+ * numbers:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.mainClass=com.vaadin.pontus.vizcomponent.model.GraphBenchmark
+ * </pre>
+ */
+public class GraphBenchmark {
+
+    static long removeNodes(int size) {
+        Graph graph = GraphTest.createChain(size);
+        List<Graph.Node> nodes = new ArrayList<Graph.Node>(graph.getNodes());
+        long start = System.nanoTime();
+        for (Graph.Node node : nodes) {
+            graph.remove(node);
+        }
+        return System.nanoTime() - start;
+    }
+
+    static long removeEdges(int size) {
+        Graph graph = GraphTest.createChain(size);
+        List<Subgraph.Edge> edges = new ArrayList<Subgraph.Edge>(
+                graph.getEdges());
+        long start = System.nanoTime();
+        for (Subgraph.Edge edge : edges) {
+            graph.remove(edge);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Builds a star where every edge is checked for before it is added
+     */
+    static long addStarEdges(int size) {
+        Graph graph = new Graph("bench", Graph.DIGRAPH);
+        Graph.Node hub = new Graph.Node("hub");
+        graph.addNode(hub);
+        List<Graph.Node> nodes = new ArrayList<Graph.Node>(size);
+        for (int i = 0; i < size; i++) {
+            Graph.Node node = new Graph.Node("n" + i);
+            graph.addNode(node);
+            nodes.add(node);
+        }
+        long start = System.nanoTime();
+        for (Graph.Node node : nodes) {
+            if (graph.getEdge(hub, node) == null) {
+                graph.addEdge(hub, node);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Adds edges inside a subgraph to nodes that are not in the graph yet
+     */
+    static long addEdgesToNewNodes(int size) {
+        Graph graph = new Graph("bench", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_0", sub));
+        long start = System.nanoTime();
+        Graph.Node previous = new Graph.Node("n0");
+        for (int i = 1; i < size; i++) {
+            Graph.Node node = new Graph.Node("n" + i);
+            sub.addEdge(previous, node);
+            previous = node;
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Loads a graph with the given number of edges between 1000 nodes, either
+     * with addEdge or with the GraphBuilder
+     */
+    static long loadEdges(int size, boolean bulk) {
+        int nodes = 1000;
+        List<GraphBuilder.EdgeSpec> batch = new ArrayList<GraphBuilder.EdgeSpec>(
+                size);
+        for (int i = 0; i < size; i++) {
+            batch.add(new GraphBuilder.EdgeSpec("n" + (i % nodes), "n"
+                    + ((i / nodes * 7 + i) % nodes), null));
+        }
+        long start = System.nanoTime();
+        if (bulk) {
+            new GraphBuilder("bench", Graph.DIGRAPH, nodes, size).addEdges(
+                    batch).build();
+        } else {
+            Graph graph = new Graph("bench", Graph.DIGRAPH);
+            for (GraphBuilder.EdgeSpec edge : batch) {
+                graph.addEdge(new Graph.Node(edge.getSourceId()),
+                        new Graph.Node(edge.getDestId()));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Counts the edges with a parameter once per node, the way styling code
+     * calls getEdges and edgeCount in a loop
+     */
+    static long countEdgesInLoop(int size) {
+        Graph graph = GraphTest.createChain(size);
+        int rounds = 1000;
+        long start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (Subgraph.Edge edge : graph.getEdges()) {
+                if (edge.getParam(AttributeKey.COLOR) != null) {
+                    found++;
+                }
+            }
+            found += graph.edgeCount(true);
+        }
+        if (found < 0) {
+            System.out.println(found);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Takes a snapshot of a large graph after changing a few nodes, and
+     * reports the time of the first snapshot and the following ones
+     */
+    static void measureSnapshots(int size, int changes) {
+        Graph graph = GraphTest.createChain(size);
+        long start = System.nanoTime();
+        graph.snapshot();
+        report("first snapshot", size, System.nanoTime() - start);
+        int rounds = 100;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < changes; i++) {
+                graph.getNode("n" + (r * changes + i) % size).setParam("color",
+                        "red" + r);
+            }
+            graph.snapshot();
+        }
+        report("snapshot of " + changes + " changes", size,
+                (System.nanoTime() - start) / rounds);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Reports the heap used per node and per edge by the graph model and the
+     * compact graph
+     */
+    static void measureMemory(int nodes, int edgesPerNode) {
+        long before = usedMemory();
+        Graph graph = new Graph("bench", Graph.DIGRAPH);
+        List<Graph.Node> list = new ArrayList<Graph.Node>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            Graph.Node node = new Graph.Node("n" + i);
+            graph.addNode(node);
+            list.add(node);
+        }
+        long nodesOnly = usedMemory();
+        for (int i = 0; i < nodes; i++) {
+            for (int j = 1; j <= edgesPerNode; j++) {
+                graph.addEdge(list.get(i), list.get((i + j) % nodes));
+            }
+        }
+        long after = usedMemory();
+        reportMemory("graph", nodes, edgesPerNode, nodesOnly - before,
+                after - nodesOnly);
+        list = null;
+        graph = null;
+
+        long nodeBytes = compactMemory(nodes, 0);
+        long totalBytes = compactMemory(nodes, edgesPerNode);
+        reportMemory("compact graph", nodes, edgesPerNode, nodeBytes,
+                totalBytes - nodeBytes);
+    }
+
+    private static long compactMemory(int nodes, int edgesPerNode) {
+        long before = usedMemory();
+        CompactGraph.Builder builder = new CompactGraph.Builder("bench",
+                Graph.DIGRAPH, nodes, nodes * edgesPerNode);
+        for (int i = 0; i < nodes; i++) {
+            builder.addNode("n" + i);
+        }
+        for (int i = 0; i < nodes; i++) {
+            for (int j = 1; j <= edgesPerNode; j++) {
+                builder.addEdge(i, (i + j) % nodes);
+            }
+        }
+        CompactGraph compact = builder.build();
+        builder = null;
+        long after = usedMemory();
+        if (compact.nodeCount() != nodes) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    private static void reportMemory(String name, int nodes, int edgesPerNode,
+            long nodeBytes, long edgeBytes) {
+        System.out.println(String.format(
+                "%-24s %8d %10.1f bytes/node %8.1f bytes/edge", name, nodes,
+                (double) nodeBytes / nodes,
+                (double) edgeBytes / (nodes * edgesPerNode)));
+    }
+
+    private static void report(String name, int size, long nanos) {
+        System.out.println(String.format("%-24s %8d %10.2f ms", name, size,
+                nanos / 1e6));
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = { 10000, 100000 };
+        // Warm up
+        removeNodes(10000);
+        for (int size : sizes) {
+            report("remove nodes", size, removeNodes(size));
+            report("remove edges", size, removeEdges(size));
+            report("check and add hub edges", size, addStarEdges(size));
+            report("add edges in subgraph", size, addEdgesToNewNodes(size));
+            report("iterate edges 1000 times", size, countEdgesInLoop(size));
+        }
+        for (int i = 0; i < 5; i++) {
+            loadEdges(200000, false);
+            loadEdges(200000, true);
+        }
+        report("load with addEdge", 200000, loadEdges(200000, false));
+        report("load with GraphBuilder", 200000, loadEdges(200000, true));
+        measureMemory(100000, 10);
+        measureSnapshots(100000, 10);
+    }
+}
@@ -0,0 +1,147 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.pontus.vizcomponent.client.Edge;
+import com.vaadin.pontus.vizcomponent.client.GraphDelta;
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.GraphChange;
+import com.vaadin.pontus.vizcomponent.model.GraphElement;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+/**
+ * Converts changes in a graph to a {@link GraphDelta} for a graph converted
+ * earlier by {@link GraphConverter}. Only the current contents of the changed
+ * nodes and edges are sent, so several changes of the same element are sent
+ * once. Changes of the subgraphs themselves are not supported, the graph
+ * has to be converted again then. As nodes without parameters may be
+ * declared only by their edges, the ends of removed edges are sent too, and
+ * retargeted edges are not supported either, since the previous destination
+ * is not known.
+ */
+class DeltaConverter {
+
+    private final Graph graph;
+    // Ids of the nodes representing the subgraphs when the graph was converted
+    private final Map<Subgraph, String> subgraphIds;
+
+    DeltaConverter(Graph graph, Map<Subgraph, String> subgraphIds) {
+        this.graph = graph;
+        this.subgraphIds = subgraphIds;
+    }
+
+    /**
+     * Converts the changes
+     *
+     * @return null if the changes can not be sent as a delta
+     */
+    GraphDelta convert(List<GraphChange> changes) {
+        GraphDelta delta = new GraphDelta();
+        Set<String> nodeIds = new LinkedHashSet<String>();
+        Set<String> edgeIds = new LinkedHashSet<String>();
+        for (GraphChange change : changes) {
+            GraphElement element = change.getElement();
+            if (change.getType() == GraphChange.Type.GRAPH_ATTRIBUTE_CHANGED
+                    || change.getType() == GraphChange.Type.EDGE_RETARGETED
+                    || element instanceof Subgraph.GraphNode) {
+                return null;
+            }
+            if (change.getType() != GraphChange.Type.ATTRIBUTE_CHANGED) {
+                delta.topologyChanged = true;
+            }
+            if (element instanceof Subgraph.Edge) {
+                edgeIds.add(element.getId());
+                if (change.getType() == GraphChange.Type.EDGE_REMOVED) {
+                    // The ends may have been declared by the edge only
+                    Subgraph.Edge edge = (Subgraph.Edge) element;
+                    addNode(edge.getSource(), nodeIds);
+                    addNode(edge.getDest(), nodeIds);
+                }
+            } else {
+                nodeIds.add(element.getId());
+            }
+        }
+        for (String id : nodeIds) {
+            Subgraph.Node node = graph.findNode(id);
+            if (node == null) {
+                delta.removedNodes.add(id);
+                continue;
+            }
+            String graphId = graphId(node.getOwner());
+            if (graphId == null && node.getOwner() != graph) {
+                return null;
+            }
+            Node newNode = new Node();
+            newNode.id = GraphConverter.escapeId(id);
+            newNode.params = params(node);
+            delta.nodes.add(newNode);
+            delta.nodeGraphs.add(graphId);
+        }
+        HashMap<String, Node> refs = new HashMap<String, Node>();
+        for (String id : edgeIds) {
+            Subgraph.Edge edge = graph.findEdge(id);
+            if (edge == null) {
+                delta.removedEdges.add(id);
+                continue;
+            }
+            Subgraph owner = edge.getOwner();
+            if (edge.getSource() instanceof Subgraph.GraphNode
+                    || edge.getDest() instanceof Subgraph.GraphNode
+                    || (owner != graph && graphId(owner) == null)) {
+                return null;
+            }
+            Edge newEdge = new Edge();
+            newEdge.id = GraphConverter.escapeId(id);
+            newEdge.params = params(edge);
+            newEdge.source = ref(edge.getSource().getId(), refs);
+            newEdge.dest = ref(edge.getDest().getId(), refs);
+            delta.edges.add(newEdge);
+            // Edges between subgraphs are in the root graph
+            boolean inOwner = owner.getNodes().contains(edge.getDest());
+            delta.edgeGraphs.add(inOwner ? graphId(owner) : null);
+        }
+        return delta;
+    }
+
+    private static void addNode(Subgraph.Node node, Set<String> nodeIds) {
+        if (node != null && !(node instanceof Subgraph.GraphNode)) {
+            nodeIds.add(node.getId());
+        }
+    }
+
+    private String graphId(Subgraph sub) {
+        return sub == graph ? null : subgraphIds.get(sub);
+    }
+
+    private static Node ref(String id, HashMap<String, Node> refs) {
+        Node ref = refs.get(id);
+        if (ref == null) {
+            ref = new Node();
+            ref.id = GraphConverter.escapeId(id);
+            refs.put(id, ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Returns all parameters of the element, including the ones from the
+     * shared attribute set
+     */
+    private static HashMap<String, String> params(GraphElement element) {
+        AttributeSet attributes = element.getAttributes();
+        HashMap<String, String> params = attributes == null
+                ? new HashMap<String, String>()
+                : GraphConverter.toMap(attributes);
+        for (int i = 0; i < element.getOwnParamCount(); i++) {
+            params.put(element.getOwnParamKey(i).getName(),
+                    element.getOwnParamValue(i));
+        }
+        return params;
+    }
+}
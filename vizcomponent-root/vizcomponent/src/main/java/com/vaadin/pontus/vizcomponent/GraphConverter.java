@@ -0,0 +1,496 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.vaadin.pontus.vizcomponent.client.Edge;
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.GraphElement;
+import com.vaadin.pontus.vizcomponent.model.GraphSnapshot;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+/**
+ * Converts graphs to the representation in the shared state. A converter is
+ * used for converting one graph, the attribute sets used by the graph are
+ * collected in it.
+ *
+ * Graphs and snapshots are converted by the same traversal, which reads them
+ * through a small {@link Elements adapter}. Each subgraph is converted once,
+ * where it is declared. A node is declared in its graph, before the edges of
+ * the graph, only if it has parameters or no edges in its graph: the other
+ * nodes are declared by the edges, like in DOT. The edges refer to their ends
+ * by small reference nodes that only hold the id and are shared by all edges.
+ * A reference to a subgraph has an empty graph, so that it is written as an
+ * empty subgraph statement with the same name, which stands for all the nodes
+ * in the subgraph. Edges between different subgraphs are added to the root
+ * graph in the order they are met.
+ */
+class GraphConverter {
+
+    /**
+     * Access to the subgraphs, nodes and edges of one kind of graph
+     */
+    private abstract static class Elements<G, N, E> {
+
+        abstract String getName(G graph);
+
+        /**
+         * Sets the parameters and default node and edge parameters of the
+         * graph on the converted node
+         */
+        abstract void copyParams(G graph, Node clientNode);
+
+        abstract Collection<N> getNodes(G graph);
+
+        abstract Collection<E> getEdges(G graph);
+
+        abstract boolean contains(G graph, String nodeId);
+
+        abstract String getId(N node);
+
+        /**
+         * Returns the subgraph the node represents, null for ordinary nodes
+         */
+        abstract G getSubgraph(N node);
+
+        abstract AttributeSet getAttributes(N node);
+
+        /**
+         * Copies the parameters of the node to the map
+         *
+         * @return the id of a shared attribute set or null
+         */
+        abstract String copyParams(N node, HashMap<String, String> params);
+
+        abstract String getEdgeId(E edge);
+
+        abstract String getSourceId(E edge);
+
+        abstract String getDestId(E edge);
+
+        abstract AttributeSet getEdgeAttributes(E edge);
+
+        abstract String copyEdgeParams(E edge, HashMap<String, String> params);
+
+        /**
+         * Called for each subgraph found when scanning
+         */
+        void subgraphFound(G subgraph, String id) {
+        }
+    }
+
+    /**
+     * Graphs are read directly, shared attribute sets are always sent once
+     * and referred to by id
+     */
+    private final Elements<Subgraph, Subgraph.Node, Subgraph.Edge> graphElements = new Elements<Subgraph, Subgraph.Node, Subgraph.Edge>() {
+
+        @Override
+        String getName(Subgraph graph) {
+            return ((Graph) graph).getName();
+        }
+
+        @Override
+        void copyParams(Subgraph graph, Node clientNode) {
+            clientNode.params = new HashMap<String, String>();
+            for (String param : graph.getParams()) {
+                clientNode.params.put(param, graph.getParam(param));
+            }
+            clientNode.nodeParams = new HashMap<String, String>();
+            for (String param : graph.getNodeParams()) {
+                clientNode.nodeParams.put(param, graph.getNodeParam(param));
+            }
+            clientNode.edgeParams = new HashMap<String, String>();
+            for (String param : graph.getEdgeParams()) {
+                clientNode.edgeParams.put(param, graph.getEdgeParam(param));
+            }
+        }
+
+        @Override
+        Collection<Subgraph.Node> getNodes(Subgraph graph) {
+            return graph.getNodes();
+        }
+
+        @Override
+        Collection<Subgraph.Edge> getEdges(Subgraph graph) {
+            return graph.getEdges();
+        }
+
+        @Override
+        boolean contains(Subgraph graph, String nodeId) {
+            return graph.getNode(nodeId) != null;
+        }
+
+        @Override
+        String getId(Subgraph.Node node) {
+            return node.getId();
+        }
+
+        @Override
+        Subgraph getSubgraph(Subgraph.Node node) {
+            return node instanceof Subgraph.GraphNode ? ((Subgraph.GraphNode) node)
+                    .getGraph() : null;
+        }
+
+        @Override
+        AttributeSet getAttributes(Subgraph.Node node) {
+            return node.getAttributes();
+        }
+
+        @Override
+        String copyParams(Subgraph.Node node, HashMap<String, String> params) {
+            return GraphConverter.this.copyParams(node, params);
+        }
+
+        @Override
+        String getEdgeId(Subgraph.Edge edge) {
+            return edge.getId();
+        }
+
+        @Override
+        String getSourceId(Subgraph.Edge edge) {
+            return edge.getSource().getId();
+        }
+
+        @Override
+        String getDestId(Subgraph.Edge edge) {
+            return edge.getDest().getId();
+        }
+
+        @Override
+        AttributeSet getEdgeAttributes(Subgraph.Edge edge) {
+            return edge.getAttributes();
+        }
+
+        @Override
+        String copyEdgeParams(Subgraph.Edge edge,
+                HashMap<String, String> params) {
+            return GraphConverter.this.copyParams(edge, params);
+        }
+
+        @Override
+        void subgraphFound(Subgraph subgraph, String id) {
+            subgraphs.put(subgraph, id);
+        }
+    };
+
+    /**
+     * Attribute sets used by only one element of a snapshot are copied to
+     * the element
+     */
+    private final Elements<GraphSnapshot, GraphSnapshot.Node, GraphSnapshot.Edge> snapshotElements = new Elements<GraphSnapshot, GraphSnapshot.Node, GraphSnapshot.Edge>() {
+
+        @Override
+        String getName(GraphSnapshot graph) {
+            return graph.getName();
+        }
+
+        @Override
+        void copyParams(GraphSnapshot graph, Node clientNode) {
+            clientNode.params = toMap(graph.getParams());
+            clientNode.nodeParams = toMap(graph.getNodeParams());
+            clientNode.edgeParams = toMap(graph.getEdgeParams());
+        }
+
+        @Override
+        Collection<GraphSnapshot.Node> getNodes(GraphSnapshot graph) {
+            return graph.getNodes();
+        }
+
+        @Override
+        Collection<GraphSnapshot.Edge> getEdges(GraphSnapshot graph) {
+            return graph.getEdges();
+        }
+
+        @Override
+        boolean contains(GraphSnapshot graph, String nodeId) {
+            return graph.getNode(nodeId) != null;
+        }
+
+        @Override
+        String getId(GraphSnapshot.Node node) {
+            return node.getId();
+        }
+
+        @Override
+        GraphSnapshot getSubgraph(GraphSnapshot.Node node) {
+            return node.getSubgraph();
+        }
+
+        @Override
+        AttributeSet getAttributes(GraphSnapshot.Node node) {
+            return node.getAttributes();
+        }
+
+        @Override
+        String copyParams(GraphSnapshot.Node node,
+                HashMap<String, String> params) {
+            return GraphConverter.this.copyParams(node.getAttributes(), params);
+        }
+
+        @Override
+        String getEdgeId(GraphSnapshot.Edge edge) {
+            return edge.getId();
+        }
+
+        @Override
+        String getSourceId(GraphSnapshot.Edge edge) {
+            return edge.getSourceId();
+        }
+
+        @Override
+        String getDestId(GraphSnapshot.Edge edge) {
+            return edge.getDestId();
+        }
+
+        @Override
+        AttributeSet getEdgeAttributes(GraphSnapshot.Edge edge) {
+            return edge.getAttributes();
+        }
+
+        @Override
+        String copyEdgeParams(GraphSnapshot.Edge edge,
+                HashMap<String, String> params) {
+            return GraphConverter.this.copyParams(edge.getAttributes(), params);
+        }
+    };
+
+    // Ids of the attribute sets in the converted graph
+    private final IdentityHashMap<AttributeSet, String> attributeSetIds = new IdentityHashMap<AttributeSet, String>();
+    private final HashMap<String, HashMap<String, String>> attributeSets = new HashMap<String, HashMap<String, String>>();
+    // Number of elements using each attribute set in the graph being
+    // converted
+    private IdentityHashMap<AttributeSet, Integer> attributeSetUses;
+    // Ids of the subgraphs in the graph being converted
+    private Set<String> subgraphIds;
+    // Ids of the nodes that are ends of edges in their own graph, which
+    // declare them
+    private Set<String> linkedIds;
+    // References to the nodes by id
+    private final HashMap<String, Node> refs = new HashMap<String, Node>();
+    // Ids of the nodes representing the subgraphs in the converted graph
+    private final IdentityHashMap<Subgraph, String> subgraphs = new IdentityHashMap<Subgraph, String>();
+
+    /**
+     * Returns the attribute sets referred to by the converted graph
+     */
+    HashMap<String, HashMap<String, String>> getAttributeSets() {
+        return attributeSets;
+    }
+
+    /**
+     * Returns the ids of the nodes representing the subgraphs in the
+     * converted graph
+     */
+    IdentityHashMap<Subgraph, String> getSubgraphIds() {
+        return subgraphs;
+    }
+
+    /**
+     * Converts the snapshot. Attribute sets used by only one element are
+     * copied to the element.
+     */
+    Node convert(GraphSnapshot snapshot) {
+        return convert(snapshot, snapshotElements);
+    }
+
+    /**
+     * Converts the graph. Shared attribute sets are always sent once and
+     * referred to by id.
+     */
+    Node convert(Graph graph) {
+        return convert(graph, graphElements);
+    }
+
+    private <G, N, E> Node convert(G graph, Elements<G, N, E> elements) {
+        attributeSetUses = new IdentityHashMap<AttributeSet, Integer>();
+        subgraphIds = new HashSet<String>();
+        linkedIds = new HashSet<String>();
+        scan(graph, elements);
+        Node root = new Node();
+        root.id = escapeId(elements.getName(graph));
+        ArrayList<Edge> crossGraphEdges = new ArrayList<Edge>();
+        convert(root, graph, elements, crossGraphEdges);
+        root.graph.addAll(crossGraphEdges);
+        attributeSetUses = null;
+        subgraphIds = null;
+        linkedIds = null;
+        return root;
+    }
+
+    private <G, N, E> void convert(Node clientNode, G graph,
+            Elements<G, N, E> elements, ArrayList<Edge> crossGraphEdges) {
+
+        elements.copyParams(graph, clientNode);
+        Collection<N> graphNodes = elements.getNodes(graph);
+        Collection<E> graphEdges = elements.getEdges(graph);
+        ArrayList<Edge> newGraph = new ArrayList<Edge>(graphNodes.size()
+                + graphEdges.size());
+        for (N node : graphNodes) {
+            String id = elements.getId(node);
+            Node newNode = new Node();
+            newNode.id = escapeId(id);
+            G sub = elements.getSubgraph(node);
+            if (sub != null) {
+                convert(newNode, sub, elements, crossGraphEdges);
+                // The parameters of the node are ignored
+            } else {
+                newNode.attributeSet = elements.copyParams(node,
+                        newNode.params);
+                if (newNode.attributeSet == null && newNode.params.isEmpty()
+                        && linkedIds.contains(id)) {
+                    // Declared by its edges
+                    continue;
+                }
+            }
+            // Declare the node
+            Edge declaration = new Edge();
+            declaration.source = newNode;
+            newGraph.add(declaration);
+        }
+        for (E edge : graphEdges) {
+            Edge newEdge = new Edge();
+            newEdge.id = escapeId(elements.getEdgeId(edge));
+            newEdge.source = ref(elements.getSourceId(edge));
+            newEdge.dest = ref(elements.getDestId(edge));
+            if (newEdge.dest.graph == null) {
+                // The parameters of edges to subgraphs are ignored
+                newEdge.attributeSet = elements.copyEdgeParams(edge,
+                        newEdge.params);
+            }
+            if (elements.contains(graph, elements.getDestId(edge))) {
+                newGraph.add(newEdge);
+            } else {
+                // The destination is in another graph
+                crossGraphEdges.add(newEdge);
+            }
+        }
+        clientNode.graph = newGraph;
+    }
+
+    /**
+     * Returns the shared reference to the node or subgraph with the id
+     */
+    private Node ref(String id) {
+        Node ref = refs.get(id);
+        if (ref == null) {
+            ref = new Node();
+            ref.id = escapeId(id);
+            if (subgraphIds.contains(id)) {
+                ref.graph = new ArrayList<Edge>(0);
+            }
+            refs.put(id, ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Counts the uses of the attribute sets and collects the subgraph ids and
+     * the ids of the nodes declared by edges
+     */
+    private <G, N, E> void scan(G graph, Elements<G, N, E> elements) {
+        for (N node : elements.getNodes(graph)) {
+            G sub = elements.getSubgraph(node);
+            if (sub != null) {
+                String id = elements.getId(node);
+                subgraphIds.add(id);
+                elements.subgraphFound(sub, id);
+                scan(sub, elements);
+            } else {
+                countAttributeSet(elements.getAttributes(node));
+            }
+        }
+        for (E edge : elements.getEdges(graph)) {
+            countAttributeSet(elements.getEdgeAttributes(edge));
+            String destId = elements.getDestId(edge);
+            String sourceId = elements.getSourceId(edge);
+            if (elements.contains(graph, destId)
+                    && elements.contains(graph, sourceId)) {
+                linkedIds.add(sourceId);
+                linkedIds.add(destId);
+            }
+        }
+    }
+
+    private void countAttributeSet(AttributeSet attributes) {
+        if (attributes == null) {
+            return;
+        }
+        Integer uses = attributeSetUses.get(attributes);
+        attributeSetUses.put(attributes, uses == null ? 1 : uses + 1);
+    }
+
+    /**
+     * Copies the attributes of a snapshot element. Attribute sets used by
+     * several elements are shared, the others are copied to the map.
+     *
+     * @return the id of the shared attribute set or null
+     */
+    private String copyParams(AttributeSet attributes,
+            HashMap<String, String> params) {
+        if (attributes.size() == 0) {
+            return null;
+        }
+        if (attributeSetUses.get(attributes) > 1) {
+            return attributeSetId(attributes);
+        }
+        params.putAll(toMap(attributes));
+        return null;
+    }
+
+    static HashMap<String, String> toMap(AttributeSet attributes) {
+        HashMap<String, String> values = new HashMap<String, String>();
+        for (int i = 0; i < attributes.size(); i++) {
+            values.put(attributes.getKey(i).getName(), attributes.getValue(i));
+        }
+        return values;
+    }
+
+    /**
+     * Copies the parameters set on the element to the map. Shared attribute
+     * sets are sent once in the state and referred to by id.
+     *
+     * @return the id of the attribute set or null if the element has none
+     */
+    String copyParams(GraphElement element, HashMap<String, String> params) {
+        for (int i = 0; i < element.getOwnParamCount(); i++) {
+            params.put(element.getOwnParamKey(i).getName(),
+                    element.getOwnParamValue(i));
+        }
+        AttributeSet attributes = element.getAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        return attributeSetId(attributes);
+    }
+
+    /**
+     * Returns the id of the attribute set, adding it to the attribute sets
+     * the first time
+     */
+    private String attributeSetId(AttributeSet attributes) {
+        String id = attributeSetIds.get(attributes);
+        if (id == null) {
+            id = Integer.toString(attributeSetIds.size());
+            attributeSetIds.put(attributes, id);
+            attributeSets.put(id, toMap(attributes));
+        }
+        return id;
+    }
+
+    static String escapeId(String id) {
+        if (id.startsWith("\"") && id.endsWith("\"")) {
+            throw new RedundantDoubleQouteException();
+        } else {
+            // Automatically enclose with "" so that special characters work
+            // automatically in id:s
+            return "\"" + id + "\"";
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.pontus.vizcomponent.client.EncodedGraph;
+import com.vaadin.pontus.vizcomponent.model.AttributeKey;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.CompactGraph;
+import com.vaadin.pontus.vizcomponent.model.DotWriter;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.GraphElement;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+/**
+ * Encodes graphs to the compact form of {@link EncodedGraph}. Like in
+ * {@link GraphConverter}, the parameters of nodes representing subgraphs and
+ * of edges to subgraphs are ignored, and edges between subgraphs are put in
+ * the root graph. {@link CompactGraph CompactGraphs} are encoded straight
+ * from their arrays.
+ */
+class GraphEncoder {
+
+    /**
+     * Growable array of ints
+     */
+    private static final class Ints {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private final HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private final IdentityHashMap<Subgraph, Integer> graphIndexes = new IdentityHashMap<Subgraph, Integer>();
+    private final HashMap<String, Integer> nodeIndexes = new HashMap<String, Integer>();
+    private final Ints graphs = new Ints();
+    private final Ints nodes = new Ints();
+    private final Ints edges = new Ints();
+    private int nodeCount;
+    private int edgeCount;
+    // Number of the previous generated edge id
+    private long previousEdgeNumber;
+    private String edgeIdPrefix = EncodedGraph.GENERATED_EDGE_ID_PREFIX;
+
+    EncodedGraph encode(Graph graph) {
+        List<Subgraph> order = new ArrayList<Subgraph>();
+        addGraph(graph, graph.getName(), -1, order);
+        List<Subgraph.Edge> crossGraphEdges = new ArrayList<Subgraph.Edge>();
+        addEdges(graph, crossGraphEdges);
+        for (Subgraph.Edge edge : crossGraphEdges) {
+            addEdge(edge, 0);
+        }
+
+        return toEncodedGraph(order.size());
+    }
+
+    /**
+     * Encodes the compact graph. All its edge ids are generated, so none are
+     * in the string table.
+     */
+    EncodedGraph encode(CompactGraph graph) {
+        edgeIdPrefix = CompactGraph.EDGE_ID_PREFIX;
+        graphs.add(string(checkId(graph.getName())));
+        graphs.add(-1);
+        graphs.add(0);
+        addParams(graph.getParams(), graphs);
+        addParams(graph.getNodeParams(), graphs);
+        addParams(graph.getEdgeParams(), graphs);
+        nodeCount = graph.nodeCount();
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.add(string(checkId(graph.getNodeId(i))));
+            nodes.add(0);
+            addParams(graph.getNodeParams(i), nodes);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            for (int e = graph.edgeStart(i); e < graph.edgeEnd(i); e++) {
+                edgeCount++;
+                edges.add(edgeId(graph.getEdgeId(e)));
+                edges.add(0);
+                edges.add(i);
+                edges.add(graph.getDest(e));
+                addParams(graph.getEdgeParams(e), edges);
+            }
+        }
+        return toEncodedGraph(1);
+    }
+
+    private EncodedGraph toEncodedGraph(int graphCount) {
+        EncodedGraph encoded = new EncodedGraph();
+        encoded.strings = strings.toArray(new String[strings.size()]);
+        encoded.graphs = graphs.toArray();
+        encoded.nodes = nodes.toArray();
+        encoded.edges = edges.toArray();
+        encoded.graphCount = graphCount;
+        encoded.nodeCount = nodeCount;
+        encoded.edgeCount = edgeCount;
+        encoded.edgeIdPrefix = edgeIdPrefix;
+        return encoded;
+    }
+
+    /**
+     * Adds the records of the graph, its nodes and its subgraphs, parents
+     * first
+     */
+    private void addGraph(Subgraph graph, String name, int parent,
+            List<Subgraph> order) {
+        int index = order.size();
+        order.add(graph);
+        graphIndexes.put(graph, index);
+        graphs.add(string(checkId(name)));
+        graphs.add(parent);
+        graphs.add(nodeCount);
+        graphs.add(graph.getParams().size());
+        for (String param : graph.getParams()) {
+            graphs.add(string(param));
+            graphs.add(string(graph.getParam(param)));
+        }
+        graphs.add(graph.getNodeParams().size());
+        for (String param : graph.getNodeParams()) {
+            graphs.add(string(param));
+            graphs.add(string(graph.getNodeParam(param)));
+        }
+        graphs.add(graph.getEdgeParams().size());
+        for (String param : graph.getEdgeParams()) {
+            graphs.add(string(param));
+            graphs.add(string(graph.getEdgeParam(param)));
+        }
+        for (Subgraph.Node node : graph.getNodes()) {
+            if (node instanceof Subgraph.GraphNode) {
+                addGraph(((Subgraph.GraphNode) node).getGraph(), node.getId(),
+                        index, order);
+            } else {
+                addNode(node.getId(), index, node);
+            }
+        }
+    }
+
+    /**
+     * Adds the edges of the subgraphs and then the edges of the graph. Edges
+     * between different graphs are collected in the order they are met.
+     */
+    private void addEdges(Subgraph graph, List<Subgraph.Edge> crossGraphEdges) {
+        Set<Subgraph.Node> graphNodes = graph.getNodes();
+        for (Subgraph.Node node : graphNodes) {
+            if (node instanceof Subgraph.GraphNode) {
+                addEdges(((Subgraph.GraphNode) node).getGraph(),
+                        crossGraphEdges);
+            }
+        }
+        int index = graphIndexes.get(graph);
+        for (Subgraph.Edge edge : graph.getEdges()) {
+            if (graphNodes.contains(edge.getDest())) {
+                addEdge(edge, index);
+            } else {
+                crossGraphEdges.add(edge);
+            }
+        }
+    }
+
+    private int addNode(String id, int graph, GraphElement node) {
+        int index = nodeCount++;
+        nodeIndexes.put(id, index);
+        nodes.add(string(checkId(id)));
+        nodes.add(graph);
+        addParams(node, nodes);
+        return index;
+    }
+
+    private void addEdge(Subgraph.Edge edge, int graph) {
+        edgeCount++;
+        edges.add(edgeId(edge.getId()));
+        edges.add(graph);
+        edges.add(end(edge.getSource()));
+        edges.add(end(edge.getDest()));
+        if (edge.getDest() instanceof Subgraph.GraphNode) {
+            // The parameters of edges to subgraphs are ignored
+            edges.add(0);
+        } else {
+            addParams(edge, edges);
+        }
+    }
+
+    private int end(Subgraph.Node node) {
+        if (node instanceof Subgraph.GraphNode) {
+            Integer graph = graphIndexes.get(((Subgraph.GraphNode) node)
+                    .getGraph());
+            if (graph != null) {
+                return -1 - graph;
+            }
+        }
+        Integer index = nodeIndexes.get(node.getId());
+        if (index == null) {
+            // The node is not in the graph, it is created by the edge
+            index = addNode(node.getId(), 0, node);
+        }
+        return index;
+    }
+
+    /**
+     * Adds the parameters of the element, including the ones from the shared
+     * attribute set
+     */
+    private void addParams(GraphElement element, Ints target) {
+        AttributeSet attributes = element.getAttributes();
+        int ownCount = element.getOwnParamCount();
+        int sizeIndex = target.size;
+        target.add(0);
+        int count = 0;
+        if (attributes != null) {
+            for (int i = 0; i < attributes.size(); i++) {
+                if (!hasOwnParam(element, attributes.getKey(i))) {
+                    target.add(string(attributes.getKey(i).getName()));
+                    target.add(string(attributes.getValue(i)));
+                    count++;
+                }
+            }
+        }
+        for (int i = 0; i < ownCount; i++) {
+            target.add(string(element.getOwnParamKey(i).getName()));
+            target.add(string(element.getOwnParamValue(i)));
+            count++;
+        }
+        target.values[sizeIndex] = count;
+    }
+
+    private void addParams(Map<String, String> params, Ints target) {
+        target.add(params.size());
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            target.add(string(param.getKey()));
+            target.add(string(param.getValue()));
+        }
+    }
+
+    private static boolean hasOwnParam(GraphElement element, AttributeKey key) {
+        for (int i = 0; i < element.getOwnParamCount(); i++) {
+            if (element.getOwnParamKey(i) == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The decoder writes the ids in quoted DOT strings, see
+     * {@link DotWriter#checkId(String)}
+     */
+    private static String checkId(String id) {
+        if (id != null) {
+            DotWriter.checkId(id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the encoded id of the edge. Generated ids are encoded by the
+     * difference from the previous generated id.
+     */
+    private int edgeId(String id) {
+        String prefix = edgeIdPrefix;
+        long number = parseNumber(id, prefix.length());
+        if (id.startsWith(prefix) && number >= 0) {
+            long difference = number - previousEdgeNumber;
+            if (difference > Integer.MIN_VALUE / 2
+                    && difference < Integer.MAX_VALUE / 2) {
+                previousEdgeNumber = number;
+                return -1 - EncodedGraph.zigzag((int) difference);
+            }
+        }
+        return string(checkId(id));
+    }
+
+    /**
+     * Returns the number at the position in the string
+     *
+     * @return -1 if the rest of the string is not a number without leading
+     *         zeros
+     */
+    private static long parseNumber(String s, int start) {
+        int length = s.length() - start;
+        if (length <= 0 || length > 15
+                || (s.charAt(start) == '0' && length > 1)) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private int string(String s) {
+        if (s == null) {
+            return -1;
+        }
+        Integer index = stringIndexes.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndexes.put(s, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,109 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Lays out graphs on the server by running the bundled viz.js in a
+ * Javascript engine of the JVM. GraalJS is used where available, otherwise
+ * Nashorn, which is included in Java 8 to 14. Creating an engine evaluates
+ * viz.js, which takes seconds, so engines should be reused.
+ * <p>
+ * An engine is not thread safe, it must only be used by one thread at a
+ * time. {@link LayoutService} keeps a pool of engines for many threads.
+ */
+public class LayoutEngine {
+
+    /**
+     * The names of the engines tried, in order
+     */
+    static final String[] ENGINE_NAMES = { "graal.js", "nashorn",
+            "JavaScript" };
+
+    private static final String LAYOUT_FUNCTION = "vizcomponentLayout";
+
+    private final ScriptEngine engine;
+
+    /**
+     * Creates an engine and evaluates viz.js in it
+     *
+     * @throws LayoutException
+     *             if no Javascript engine is available or viz.js could not
+     *             be evaluated
+     */
+    public LayoutEngine() {
+        this(findEngine());
+        if (engine == null) {
+            throw new LayoutException("No Javascript engine available");
+        }
+        InputStream in = LayoutEngine.class.getResourceAsStream("viz.js");
+        if (in == null) {
+            throw new LayoutException("viz.js not found");
+        }
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        try {
+            try {
+                engine.eval(reader);
+            } finally {
+                reader.close();
+            }
+            engine.eval("function " + LAYOUT_FUNCTION
+                    + "(dot) { return Viz(dot, { format: \"svg\" }); }");
+        } catch (ScriptException e) {
+            throw new LayoutException("Evaluating viz.js failed", e);
+        } catch (IOException e) {
+            throw new LayoutException("Reading viz.js failed", e);
+        }
+    }
+
+    LayoutEngine(ScriptEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Returns true if there is a Javascript engine in the JVM
+     */
+    public static boolean isAvailable() {
+        return findEngine() != null;
+    }
+
+    private static ScriptEngine findEngine() {
+        ScriptEngineManager manager = new ScriptEngineManager();
+        for (String name : ENGINE_NAMES) {
+            ScriptEngine engine = manager.getEngineByName(name);
+            if (engine != null) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lays out the graph
+     *
+     * @param dot
+     *            the graph in the DOT language
+     * @return the graph as SVG
+     * @throws LayoutException
+     *             if Graphviz failed, the message is the error from Graphviz
+     */
+    public String layout(String dot) {
+        try {
+            Object svg = ((Invocable) engine).invokeFunction(LAYOUT_FUNCTION,
+                    dot);
+            return String.valueOf(svg);
+        } catch (ScriptException e) {
+            throw new LayoutException(e.getMessage(), e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.vaadin.pontus.vizcomponent;
+
+/**
+ * Thrown when a graph can not be laid out on the server, because no
+ * Javascript engine is available or because Graphviz failed
+ */
+public class LayoutException extends RuntimeException {
+
+    public LayoutException(String msg) {
+        super(msg);
+    }
+
+    public LayoutException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
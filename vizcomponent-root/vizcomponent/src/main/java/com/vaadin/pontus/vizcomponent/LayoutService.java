@@ -0,0 +1,484 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.server.ServiceDestroyEvent;
+import com.vaadin.server.ServiceDestroyListener;
+import com.vaadin.server.ServiceInitEvent;
+import com.vaadin.server.VaadinServiceInitListener;
+
+/**
+ * Lays out graphs on the server for many sessions, see
+ * {@link VizComponent#setServerSideLayout(boolean)}. Graphs are laid out by a
+ * fixed number of threads, by default one per core, each using a
+ * {@link LayoutEngine} from a pool of engines created when the service is
+ * started. At most a given number of graphs wait for a thread. When the queue
+ * is full, new graphs are rejected instead of making the callers wait, and
+ * graphs that waited longer than the timeout are not laid out at all.
+ * <p>
+ * The pool size, the queue depth, the time graphs waited in the queue and the
+ * time taken to lay them out are available from the getters of the service.
+ * <p>
+ * The default service created by {@link #getDefault()} is shut down when a
+ * Vaadin service is destroyed, by the {@link VaadinServiceInitListener}
+ * registered in META-INF/services, so that its threads do not outlive the
+ * web application. Services created by the application have to be shut down
+ * by it.
+ */
+public class LayoutService {
+
+    /**
+     * Receives the result of a graph laid out with
+     * {@link LayoutService#submit(String, LayoutCallback)}. The methods are
+     * called in the thread that laid out the graph, and not at all if the
+     * layout was cancelled.
+     */
+    public interface LayoutCallback {
+
+        void done(String svg);
+
+        void failed(LayoutException e);
+    }
+
+    /**
+     * Shuts down the default service when the Vaadin service is destroyed
+     */
+    @SuppressWarnings("serial")
+    public static class InitListener implements VaadinServiceInitListener {
+
+        @Override
+        public void serviceInit(ServiceInitEvent event) {
+            event.getSource().addServiceDestroyListener(
+                    new ServiceDestroyListener() {
+                        @Override
+                        public void serviceDestroy(
+                                ServiceDestroyEvent destroyEvent) {
+                            shutdownDefault();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Creates the engines, replaced in tests
+     */
+    interface EngineFactory {
+
+        LayoutEngine create();
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private static LayoutService defaultService;
+    // Whether the default service was created by getDefault
+    private static boolean defaultCreated;
+
+    private final EngineFactory engineFactory;
+    private final int poolSize;
+    private final long timeoutNanos;
+    private final ThreadPoolExecutor executor;
+    private final BlockingQueue<LayoutEngine> engines;
+    private final AtomicInteger createdEngines = new AtomicInteger();
+    private volatile LayoutException unavailable;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalQueueWait = new AtomicLong();
+    private final AtomicLong maxQueueWait = new AtomicLong();
+    private final AtomicLong totalRenderTime = new AtomicLong();
+    private final AtomicLong maxRenderTime = new AtomicLong();
+
+    /**
+     * Creates a service with one thread and engine per core
+     */
+    public LayoutService() {
+        this(Runtime.getRuntime().availableProcessors(),
+                DEFAULT_QUEUE_CAPACITY, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a service and starts creating the engines
+     *
+     * @param poolSize
+     *            the number of threads and engines
+     * @param queueCapacity
+     *            the number of graphs that may wait for a thread
+     * @param timeoutMillis
+     *            the time a caller waits for a graph to be laid out
+     */
+    public LayoutService(int poolSize, int queueCapacity, long timeoutMillis) {
+        this(new EngineFactory() {
+            @Override
+            public LayoutEngine create() {
+                return new LayoutEngine();
+            }
+        }, poolSize, queueCapacity, timeoutMillis);
+    }
+
+    LayoutService(EngineFactory engineFactory, int poolSize,
+            int queueCapacity, long timeoutMillis) {
+        if (poolSize < 1 || queueCapacity < 1 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "The pool size, the queue capacity and the timeout must be positive");
+        }
+        this.engineFactory = engineFactory;
+        this.poolSize = poolSize;
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        engines = new LinkedBlockingQueue<LayoutEngine>();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "vizcomponent-layout-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // Create the engines before they are needed, as evaluating viz.js
+        // and laying out the first graph takes seconds. Each task starts a
+        // thread of its own.
+        for (int i = 0; i < poolSize; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        LayoutEngine engine = createEngine();
+                        if (engine != null) {
+                            warmUp(engine);
+                            engines.add(engine);
+                        }
+                    } catch (LayoutException e) {
+                        // Reported when graphs are laid out
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the service shared by all components that do not have a
+     * service of their own, created when first needed
+     */
+    public static synchronized LayoutService getDefault() {
+        if (defaultService == null) {
+            defaultService = new LayoutService();
+            defaultCreated = true;
+        }
+        return defaultService;
+    }
+
+    /**
+     * Sets the service shared by all components that do not have a service
+     * of their own. The previous service is not shut down, and the service
+     * set is not shut down by {@link #shutdownDefault()}.
+     */
+    public static synchronized void setDefault(LayoutService service) {
+        defaultService = service;
+        defaultCreated = false;
+    }
+
+    /**
+     * Shuts down the default service if it was created by
+     * {@link #getDefault()}. A new one is created when one is needed again.
+     */
+    public static synchronized void shutdownDefault() {
+        if (defaultCreated) {
+            defaultService.shutdown();
+            defaultService = null;
+            defaultCreated = false;
+        }
+    }
+
+    /**
+     * Lays out the graph and waits for the result at most the timeout of the
+     * service
+     *
+     * @param dot
+     *            the graph in the DOT language
+     * @return the graph as SVG
+     * @throws LayoutException
+     *             if the graph was rejected because the queue is full, timed
+     *             out or Graphviz failed
+     */
+    public String layout(String dot) {
+        Future<String> future = submit(dot, null);
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.incrementAndGet();
+            throw new LayoutException("Layout timed out");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new LayoutException("Interrupted");
+        } catch (CancellationException e) {
+            throw new LayoutException("Layout cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LayoutException) {
+                throw (LayoutException) e.getCause();
+            }
+            throw new LayoutException("Layout failed", e.getCause());
+        }
+    }
+
+    /**
+     * Lays out the graph in the background. A graph that waited longer than
+     * the timeout of the service for a thread fails without being laid out.
+     * The layout of a graph that has started is not stopped when cancelled,
+     * as the Javascript engines can not be interrupted, but the callback is
+     * not called.
+     *
+     * @param dot
+     *            the graph in the DOT language
+     * @param callback
+     *            receives the result, may be null
+     * @return the future to cancel the layout with
+     * @throws LayoutException
+     *             if the graph was rejected because the queue is full
+     */
+    public Future<String> submit(final String dot,
+            final LayoutCallback callback) {
+        if (unavailable != null) {
+            throw unavailable;
+        }
+        final long submitted = System.nanoTime();
+        final Task task = new Task(new Callable<String>() {
+            @Override
+            public String call() {
+                long started = System.nanoTime();
+                long wait = started - submitted;
+                totalQueueWait.addAndGet(wait);
+                updateMax(maxQueueWait, wait);
+                if (wait > timeoutNanos) {
+                    timedOut.incrementAndGet();
+                    throw new LayoutException("Layout timed out in the queue");
+                }
+                LayoutEngine engine = takeEngine();
+                try {
+                    String svg = engine.layout(dot);
+                    completed.incrementAndGet();
+                    return svg;
+                } catch (LayoutException e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    long time = System.nanoTime() - started;
+                    totalRenderTime.addAndGet(time);
+                    updateMax(maxRenderTime, time);
+                    engines.add(engine);
+                }
+            }
+        }, callback);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new LayoutException("Layout queue full", e);
+        }
+        return task;
+    }
+
+    /**
+     * Stops the threads. Graphs waiting in the queue are not laid out.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private LayoutEngine takeEngine() {
+        LayoutEngine engine = engines.poll();
+        if (engine == null) {
+            // Created here if creating it in advance failed
+            engine = createEngine();
+        }
+        if (engine == null) {
+            try {
+                // There are as many engines as threads
+                engine = engines.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LayoutException("Interrupted");
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Creates an engine unless the pool is full
+     *
+     * @return null if the pool is full
+     */
+    private LayoutEngine createEngine() {
+        if (unavailable != null) {
+            throw unavailable;
+        }
+        if (createdEngines.incrementAndGet() > poolSize) {
+            createdEngines.decrementAndGet();
+            return null;
+        }
+        try {
+            return engineFactory.create();
+        } catch (LayoutException e) {
+            createdEngines.decrementAndGet();
+            if (!LayoutEngine.isAvailable()) {
+                unavailable = e;
+            }
+            throw e;
+        }
+    }
+
+    private static void warmUp(LayoutEngine engine) {
+        try {
+            engine.layout("digraph { }");
+        } catch (LayoutException e) {
+            // The engine can still be used
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns true if graphs can be laid out, false if there is no
+     * Javascript engine
+     */
+    public boolean isAvailable() {
+        return unavailable == null;
+    }
+
+    /**
+     * Returns the number of engines and threads of the service
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Returns the number of engines created so far
+     */
+    public int getEngineCount() {
+        return createdEngines.get();
+    }
+
+    /**
+     * Returns the number of engines not laying out a graph
+     */
+    public int getIdleEngineCount() {
+        return engines.size();
+    }
+
+    /**
+     * Returns the number of graphs waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of graphs Graphviz failed to lay out
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of graphs rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * Returns the average time graphs waited for a thread in milliseconds
+     */
+    public double getAverageQueueWaitMillis() {
+        return average(totalQueueWait.get());
+    }
+
+    public double getMaxQueueWaitMillis() {
+        return maxQueueWait.get() / 1e6;
+    }
+
+    /**
+     * Returns the average time taken to lay out a graph in milliseconds
+     */
+    public double getAverageRenderMillis() {
+        return average(totalRenderTime.get());
+    }
+
+    public double getMaxRenderMillis() {
+        return maxRenderTime.get() / 1e6;
+    }
+
+    private double average(long totalNanos) {
+        long count = completed.get() + failed.get();
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    /**
+     * Runs the layout and calls the callback unless cancelled
+     */
+    private static class Task extends FutureTask<String> {
+
+        private final LayoutCallback callback;
+
+        Task(Callable<String> callable, LayoutCallback callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            try {
+                callback.done(get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof LayoutException) {
+                    callback.failed((LayoutException) e.getCause());
+                } else {
+                    callback.failed(new LayoutException("Layout failed",
+                            e.getCause()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
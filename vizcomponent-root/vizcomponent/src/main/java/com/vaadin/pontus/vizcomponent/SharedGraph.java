@@ -0,0 +1,161 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.client.VizComponentState;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.GraphSnapshot;
+import com.vaadin.server.JsonCodec;
+import com.vaadin.server.Resource;
+import com.vaadin.server.StreamResource;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * A read-only graph converted once for rendering, to be shown by any number of
+ * {@link VizComponent VizComponents} in any number of sessions at the same
+ * time, see {@link VizComponent#drawGraph(SharedGraph)}.
+ * <p>
+ * The graph is converted and written as JSON once, when the shared graph is
+ * created. The components do not put the graph in their state, the browser
+ * loads the JSON from a URL instead. If {@link StaticResourceHandler} is
+ * installed, the URL is the same for all components and the JSON is cached by
+ * browsers like the Javascript libraries. Otherwise each component publishes
+ * the same bytes as its own resource, named by a hash of the JSON. Only the snapshot and the JSON are kept on
+ * the server, the components keep a reference to them and their own
+ * overrides.
+ *
+ * A shared graph never changes. To show a changed graph, create a new shared
+ * graph from a new snapshot and draw it.
+ *
+ * @author Pontus Boström
+ *
+ */
+public final class SharedGraph {
+
+    // The shared graphs served by StaticResourceHandler by file name. The
+    // components showing a graph keep it from being collected.
+    private static final ConcurrentHashMap<String, WeakReference<SharedGraph>> published = new ConcurrentHashMap<String, WeakReference<SharedGraph>>();
+
+    private final GraphSnapshot snapshot;
+    private final byte[] json;
+    private final String fileName;
+
+    /**
+     * Creates a shared graph from a snapshot of the graph
+     */
+    public SharedGraph(Graph graph) {
+        this(graph.snapshot());
+    }
+
+    public SharedGraph(GraphSnapshot snapshot) {
+        this.snapshot = snapshot;
+        GraphConverter converter = new GraphConverter();
+        Node root = converter.convert(snapshot);
+        JsonObject object = Json.createObject();
+        object.put(VizComponentState.SHARED_GRAPH,
+                JsonCodec.encode(root, null, Node.class, null)
+                        .getEncodedValue());
+        try {
+            object.put(VizComponentState.SHARED_ATTRIBUTE_SETS,
+                    JsonCodec.encode(converter.getAttributeSets(), null,
+                            VizComponentState.class
+                                    .getField("attributeSets")
+                                    .getGenericType(),
+                            null).getEncodedValue());
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+        json = object.toJson().getBytes(StandardCharsets.UTF_8);
+        fileName = "graph." + hash(json) + ".json";
+        publish(this);
+    }
+
+    /**
+     * Returns the snapshot the graph was converted from
+     */
+    public GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the converted graph as JSON, an object with the graph and the
+     * attribute sets it refers to encoded like in the state. It must not be
+     * modified.
+     */
+    byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * Returns the content hashed file name of the JSON
+     */
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns a resource for the JSON, to be set in one component
+     */
+    Resource getResource() {
+        Resource resource = StaticResources.getGraphResource(fileName);
+        if (resource != null) {
+            return resource;
+        }
+        StreamResource stream = new StreamResource(
+                new StreamResource.StreamSource() {
+                    @Override
+                    public InputStream getStream() {
+                        return new ByteArrayInputStream(json);
+                    }
+                }, fileName);
+        stream.setMIMEType("application/json");
+        return stream;
+    }
+
+    /**
+     * Returns the shared graph with the file name, or null if there is no
+     * such graph in use
+     */
+    static SharedGraph getPublished(String fileName) {
+        WeakReference<SharedGraph> reference = published.get(fileName);
+        return reference != null ? reference.get() : null;
+    }
+
+    private static void publish(SharedGraph graph) {
+        // Drop the graphs no longer in use
+        Iterator<Map.Entry<String, WeakReference<SharedGraph>>> i = published
+                .entrySet().iterator();
+        while (i.hasNext()) {
+            if (i.next().getValue().get() == null) {
+                i.remove();
+            }
+        }
+        published.put(graph.fileName, new WeakReference<SharedGraph>(graph));
+    }
+
+    private static String hash(byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(content);
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            hex.append(String.format("%02x", hash[i] & 0xff));
+        }
+        return hex.toString();
+    }
+}
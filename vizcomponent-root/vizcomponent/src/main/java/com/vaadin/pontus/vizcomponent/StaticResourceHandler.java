@@ -0,0 +1,153 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.vaadin.server.RequestHandler;
+import com.vaadin.server.ServiceInitEvent;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinServiceInitListener;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Serves the content hashed Javascript libraries written by the build, and
+ * the JSON of the {@link SharedGraph SharedGraphs} in use, from the path
+ * vizcomponent/ under the Vaadin servlet. As the content of a file never
+ * changes, the files are sent with headers letting browsers and proxies cache
+ * them for a year without revalidating. The precompressed brotli or gzip
+ * variant of a library is sent if the browser accepts it.
+ * <p>
+ * The handler is installed in every Vaadin service by the
+ * {@link VaadinServiceInitListener} registered in
+ * META-INF/services. {@link VizComponent} then loads viz.js, svg-pan-zoom and
+ * shared graphs from here instead of from the Vaadin published resources.
+ */
+@SuppressWarnings("serial")
+public class StaticResourceHandler implements RequestHandler {
+
+    static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /**
+     * Installs the handler
+     */
+    public static class InitListener implements VaadinServiceInitListener {
+
+        @Override
+        public void serviceInit(ServiceInitEvent event) {
+            event.addRequestHandler(new StaticResourceHandler());
+            StaticResources.setHandlerInstalled(true);
+        }
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request,
+            VaadinResponse response) throws IOException {
+        String path = request.getPathInfo();
+        if (path == null || !path.startsWith("/" + StaticResources.PATH)) {
+            return false;
+        }
+        String fileName = path.substring(StaticResources.PATH.length() + 1);
+        SharedGraph graph = null;
+        if (!StaticResources.isFileName(fileName)) {
+            graph = SharedGraph.getPublished(fileName);
+            if (graph == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, null);
+                return true;
+            }
+        }
+        String etag = "\"" + fileName + "\"";
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setHeader("ETag", etag);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        if (graph != null) {
+            byte[] json = graph.getJson();
+            response.setContentType("application/json; charset=UTF-8");
+            response.setHeader("Content-Length", Integer.toString(json.length));
+            response.getOutputStream().write(json);
+            return true;
+        }
+
+        URL url = null;
+        String encoding = null;
+        for (String accepted : new String[] { "br", "gzip" }) {
+            if (accepts(request.getHeader("Accept-Encoding"), accepted)) {
+                url = getURL(fileName + (accepted.equals("br") ? ".br" : ".gz"));
+                if (url != null) {
+                    encoding = accepted;
+                    break;
+                }
+            }
+        }
+        if (url == null) {
+            url = getURL(fileName);
+        }
+        if (url == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, null);
+            return true;
+        }
+
+        URLConnection connection = url.openConnection();
+        response.setContentType("application/javascript; charset=UTF-8");
+        if (encoding != null) {
+            response.setHeader("Content-Encoding", encoding);
+        }
+        long length = connection.getContentLengthLong();
+        if (length >= 0) {
+            response.setHeader("Content-Length", Long.toString(length));
+        }
+        InputStream in = connection.getInputStream();
+        try {
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[32768];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the Accept-Encoding header accepts the encoding
+     */
+    static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase(encoding)) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static URL getURL(String fileName) {
+        return StaticResourceHandler.class.getClassLoader()
+                .getResource(StaticResources.DIRECTORY + "/" + fileName);
+    }
+}
@@ -0,0 +1,98 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import com.vaadin.server.ExternalResource;
+import com.vaadin.server.Resource;
+
+/**
+ * The content hashed Javascript libraries written by the build and served by
+ * {@link StaticResourceHandler}. The hashed names are read from the manifest
+ * written by the build.
+ */
+class StaticResources {
+
+    /**
+     * The libraries, found next to {@link VizComponent}
+     */
+    static final String[] RESOURCES = { "viz.js", "svg-pan-zoom.min.js" };
+
+    /**
+     * The directory of the libraries in the class path
+     */
+    static final String DIRECTORY = "com/vaadin/pontus/vizcomponent/static";
+    static final String MANIFEST = "manifest.properties";
+
+    /**
+     * The path under the Vaadin servlet the libraries are served from
+     */
+    static final String PATH = "vizcomponent/";
+
+    private static Properties manifest;
+    private static volatile boolean handlerInstalled;
+
+    /**
+     * Returns the content hashed file name of the library, or null if the
+     * build did not write it
+     */
+    static synchronized String getFileName(String name) {
+        if (manifest == null) {
+            manifest = new Properties();
+            InputStream in = StaticResources.class.getClassLoader()
+                    .getResourceAsStream(DIRECTORY + "/" + MANIFEST);
+            if (in != null) {
+                try {
+                    try {
+                        manifest.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    manifest.clear();
+                }
+            }
+        }
+        return manifest.getProperty(name);
+    }
+
+    /**
+     * Returns true if the name is one of the content hashed file names
+     */
+    static boolean isFileName(String fileName) {
+        for (String name : RESOURCES) {
+            if (fileName.equals(getFileName(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the resource for the content hashed library, or null if it is
+     * not available and the library has to be published by Vaadin
+     */
+    static Resource getResource(String name) {
+        String fileName = getFileName(name);
+        if (fileName == null || !handlerInstalled) {
+            return null;
+        }
+        return new ExternalResource("app://" + PATH + fileName);
+    }
+
+    /**
+     * Returns the resource for the JSON of a shared graph, or null if it has
+     * to be published by the component
+     */
+    static Resource getGraphResource(String fileName) {
+        if (!handlerInstalled) {
+            return null;
+        }
+        return new ExternalResource("app://" + PATH + fileName);
+    }
+
+    static void setHandlerInstalled(boolean installed) {
+        handlerInstalled = installed;
+    }
+}
@@ -0,0 +1,158 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.pontus.vizcomponent.client.StyleChanges;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+/**
+ * Css changes to many nodes and edges, applied with
+ * {@link VizComponent#applyStyles(StyleBatch)} in one call to the browser
+ * instead of one call per element. The browser applies all changes in one
+ * pass before the next repaint.
+ *
+ * <pre>
+ * StyleBatch batch = new StyleBatch();
+ * for (Graph.Node node : found) {
+ *     batch.addCss(node, &quot;fill&quot;, &quot;yellow&quot;);
+ * }
+ * component.applyStyles(batch);
+ * </pre>
+ *
+ * The changes are applied in the order they were added. Like the single
+ * element css methods of {@link VizComponent}, the changes are lost when the
+ * graph is rendered again.
+ */
+public class StyleBatch {
+
+    private final HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private int[] changes = new int[64];
+    private int size;
+
+    /**
+     * Adds a css property with the given value to the polygon or ellipse that
+     * makes up the node, see {@link VizComponent#addCss(Subgraph.Node, String,
+     * String)}
+     *
+     * @param value
+     *            the value, null to remove the property
+     */
+    public StyleBatch addCss(Subgraph.Node node, String property,
+            String value) {
+        add(StyleChanges.NODE, node.getId(), property, value);
+        return this;
+    }
+
+    /**
+     * Removes a css property from the polygon or ellipse that makes up the
+     * node
+     */
+    public StyleBatch removeCss(Subgraph.Node node, String property) {
+        return addCss(node, property, null);
+    }
+
+    /**
+     * Adds the css properties to the nodes
+     *
+     * @param styles
+     *            the properties and their values by node, null values remove
+     *            the property
+     */
+    public StyleBatch addCss(
+            Map<? extends Subgraph.Node, ? extends Map<String, String>> styles) {
+        for (Map.Entry<? extends Subgraph.Node, ? extends Map<String, String>> style : styles
+                .entrySet()) {
+            for (Map.Entry<String, String> property : style.getValue()
+                    .entrySet()) {
+                addCss(style.getKey(), property.getKey(), property.getValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a css property with the given value to the node text
+     *
+     * @param value
+     *            the value, null to remove the property
+     */
+    public StyleBatch addTextCss(Subgraph.Node node, String property,
+            String value) {
+        add(StyleChanges.NODE_TEXT, node.getId(), property, value);
+        return this;
+    }
+
+    /**
+     * Adds a css property with the given value to the paths, heads and tails
+     * of the edge
+     *
+     * @param value
+     *            the value, null to remove the property
+     */
+    public StyleBatch addCss(Subgraph.Edge edge, String property,
+            String value) {
+        add(StyleChanges.EDGE, edge.getId(), property, value);
+        return this;
+    }
+
+    public StyleBatch removeCss(Subgraph.Edge edge, String property) {
+        return addCss(edge, property, null);
+    }
+
+    /**
+     * Adds a css property with the given value to the edge label
+     *
+     * @param value
+     *            the value, null to remove the property
+     */
+    public StyleBatch addTextCss(Subgraph.Edge edge, String property,
+            String value) {
+        add(StyleChanges.EDGE_TEXT, edge.getId(), property, value);
+        return this;
+    }
+
+    /**
+     * Returns the number of changes in the batch
+     */
+    public int size() {
+        return size / StyleChanges.RECORD_LENGTH;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the changes encoded for sending
+     */
+    StyleChanges toChanges() {
+        StyleChanges result = new StyleChanges();
+        result.strings = strings.toArray(new String[strings.size()]);
+        result.changes = Arrays.copyOf(changes, size);
+        return result;
+    }
+
+    private void add(int target, String id, String property, String value) {
+        if (size + StyleChanges.RECORD_LENGTH > changes.length) {
+            changes = Arrays.copyOf(changes, changes.length * 2);
+        }
+        changes[size++] = target;
+        changes[size++] = string(id);
+        changes[size++] = string(property);
+        changes[size++] = value == null ? -1 : string(value);
+    }
+
+    private int string(String s) {
+        Integer index = stringIndexes.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndexes.put(s, index);
+        }
+        return index;
+    }
+}
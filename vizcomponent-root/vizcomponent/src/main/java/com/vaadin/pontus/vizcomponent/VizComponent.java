@@ -1,23 +1,35 @@
 package com.vaadin.pontus.vizcomponent;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.AbstractMap;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import com.vaadin.pontus.vizcomponent.client.Edge;
+import com.vaadin.pontus.vizcomponent.client.GraphDelta;
 import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.client.Overlay;
 import com.vaadin.pontus.vizcomponent.client.VizComponentClientRpc;
 import com.vaadin.pontus.vizcomponent.client.VizComponentServerRpc;
 import com.vaadin.pontus.vizcomponent.client.VizComponentState;
 import com.vaadin.pontus.vizcomponent.client.ZoomSettings;
+import com.vaadin.pontus.vizcomponent.model.CompactGraph;
+import com.vaadin.pontus.vizcomponent.model.DotWriter;
 import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.GraphChange;
+import com.vaadin.pontus.vizcomponent.model.GraphSnapshot;
 import com.vaadin.pontus.vizcomponent.model.Subgraph;
+import com.vaadin.server.ClassResource;
+import com.vaadin.server.Resource;
 import com.vaadin.shared.MouseEventDetails;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.util.ReflectTools;
 
 /**
@@ -30,8 +42,10 @@ import com.vaadin.util.ReflectTools;
  * implemented by event handlers. The style of the rendered graph can be
  * modified by methods to set css properties for nodes and edges. Note that the
  * graph must be rendered before these methods are called. Otherwise they will
- * have no effect. Re-rendering the graph will remove all css effects. Note that
- * resizing the graphs does not re-render it.
+ * have no effect. Re-rendering the graph will remove all css effects, except
+ * the ones set as overrides. Note that resizing the graphs does not re-render
+ * it. A {@link SharedGraph} can be shown by many components at once, each with
+ * its own overrides.
  *
  * @author Pontus Boström
  *
@@ -137,7 +151,20 @@ public class VizComponent extends com.vaadin.ui.AbstractComponent {
 
         @Override
         public void nodeClicked(String nodeId, MouseEventDetails mouseDetails) {
-            Subgraph.Node gnode = graph.getNode(nodeId);
+            Subgraph.Node gnode = null;
+            if (graph != null) {
+                gnode = graph.findNode(nodeId);
+            } else if (snapshot != null) {
+                GraphSnapshot.Node node = snapshot.findNode(nodeId);
+                if (node != null) {
+                    gnode = node.toNode();
+                }
+            } else if (compactGraph != null) {
+                int index = compactGraph.indexOf(nodeId);
+                if (index >= 0) {
+                    gnode = compactGraph.toNode(index);
+                }
+            }
             if (gnode != null) {
                 fireEvent(new NodeClickEvent(VizComponent.this, gnode,
                         mouseDetails));
@@ -146,7 +173,20 @@ public class VizComponent extends com.vaadin.ui.AbstractComponent {
 
         @Override
         public void edgeClicked(String edgeId, MouseEventDetails mouseDetails) {
-            Subgraph.Edge gedge = graph.getEdge(edgeId);
+            Subgraph.Edge gedge = null;
+            if (graph != null) {
+                gedge = graph.findEdge(edgeId);
+            } else if (snapshot != null) {
+                GraphSnapshot.Edge edge = snapshot.findEdge(edgeId);
+                if (edge != null) {
+                    gedge = edge.toEdge();
+                }
+            } else if (compactGraph != null) {
+                int index = compactGraph.edgeIndexOf(edgeId);
+                if (index >= 0) {
+                    gedge = compactGraph.toEdge(index);
+                }
+            }
             if (gedge != null) {
                 fireEvent(new EdgeClickEvent(VizComponent.this, gedge,
                         mouseDetails));
@@ -155,6 +195,35 @@ public class VizComponent extends com.vaadin.ui.AbstractComponent {
     };
 
     private Subgraph graph;
+    // Modification stamp of the graph when it was drawn
+    private long drawnStamp;
+    private CompactGraph compactGraph;
+    private GraphSnapshot snapshot;
+    private SharedGraph sharedGraph;
+    // Whether graphs are sent as DOT text
+    private boolean dotMode;
+    // Whether graphs are laid out on the server
+    private boolean serverSideLayout;
+    // Whether graphs are sent in the compact encoding
+    private boolean compactEncoding;
+    // Whether changes are sent instead of whole graphs
+    private boolean incrementalUpdates;
+    // Capacity of the journal enabled in graphs without one, 0 for none
+    private int journalCapacity;
+    // True if changes have been sent after the graph in the state
+    private boolean sentChanges;
+    // Ids of the subgraphs in the graph in the state
+    private IdentityHashMap<Subgraph, String> subgraphIds;
+
+    // Lays out graphs on the server, null for the default service
+    private LayoutService layoutService;
+    // The graph being laid out on the server in the background
+    private Future<String> pendingLayout;
+    private Object layoutRequest;
+    private String pendingDot;
+    // The graph whose layout was cancelled when the component was detached,
+    // laid out again when it is attached
+    private String detachedDot;
 
     /**
      * The constructor creates an empty component
@@ -162,12 +231,28 @@ public class VizComponent extends com.vaadin.ui.AbstractComponent {
     public VizComponent() {
 
         graph = null;
-        // Load the Graphviz library
-        new JSLoader(UI.getCurrent());
+        // Graphviz, loaded by the page or the Web Worker doing the layout
+        // when the first graph is rendered. The content hashed copy is cached
+        // by browsers for good.
+        setLibraryResource(VizComponentState.LAYOUT_RESOURCE, "viz.js");
+        // svg-pan-zoom, loaded by the page when the first graph with zoom
+        // settings is rendered
+        setLibraryResource(VizComponentState.PAN_ZOOM_RESOURCE,
+                "svg-pan-zoom.min.js");
         // To receive events from the client, we register ServerRpc
         registerRpc(rpc);
     }
 
+    /**
+     * Sets the resource of a Javascript library, the content hashed copy if
+     * it is served by {@link StaticResourceHandler}
+     */
+    private void setLibraryResource(String key, String name) {
+        Resource resource = StaticResources.getResource(name);
+        setResource(key, resource != null ? resource
+                : new ClassResource(VizComponent.class, name));
+    }
+
     /**
      * Sets the zoomsettings NULL disables zoom and pan support in general
      * 
@@ -178,133 +263,614 @@ public class VizComponent extends com.vaadin.ui.AbstractComponent {
     }
 
     /**
-     * This method renders and displays the graph given as the argument
+     * This method renders and displays the graph given as the argument. If
+     * the same graph is drawn again without changes since the last time, it
+     * is not converted and laid out again. Only the css added with
+     * {@link #addCss(Subgraph.Node, String, String) addCss} and
+     * {@link #addTextCss(Subgraph.Node, String, String) addTextCss} is
+     * removed, as when the graph is rendered again.
      *
      * @param graph
-     *            if null then the component is emptied
+     *            if null then the component is emptied, see
+     *            {@link #clearGraph()}
      */
     public void drawGraph(Graph graph) {
 
-        this.graph = graph;
+        if (graph != null && graph == this.graph) {
+            if (graph.getModificationStamp() == drawnStamp) {
+                getRpcProxy(VizComponentClientRpc.class).clearCss();
+                return;
+            }
+            if (incrementalUpdates && !writesDot() && !compactEncoding
+                    && sendChanges(graph)) {
+                return;
+            }
+        }
         if (graph == null) {
-            getState().graph = null;
+            clearGraph();
             return;
         }
+        this.graph = graph;
+        compactGraph = null;
+        snapshot = null;
+        setSharedGraph(null);
+        drawnStamp = graph.getModificationStamp();
         getState().graphType = graph.getType();
+        if (writesDot()) {
+            writeDot();
+            return;
+        }
+        getState().dot = null;
+        clearSvg();
+        if (compactEncoding) {
+            setGraphState(null);
+            getState().attributeSets = null;
+            getState().encoded = new GraphEncoder().encode(graph);
+            return;
+        }
+        getState().encoded = null;
+        convert(graph);
+        if (incrementalUpdates && journalCapacity > 0
+                && graph.getJournalCapacity() == 0) {
+            // The changes are needed for the next update
+            graph.setJournalCapacity(journalCapacity);
+        }
+
+    }
+
+    private void convert(Graph graph) {
+        GraphConverter converter = new GraphConverter();
+        setGraphState(converter.convert(graph));
+        getState().attributeSets = converter.getAttributeSets();
+        subgraphIds = converter.getSubgraphIds();
+    }
+
+    /**
+     * Sets the graph in the state. If changes have been sent since the
+     * previous graph, the revision is changed so that the client drops its
+     * copy with the changes applied, also when the new graph is equal to the
+     * previous one and Vaadin sends nothing for it.
+     */
+    private void setGraphState(Node root) {
+        getState().graph = root;
+        if (sentChanges) {
+            getState().revision++;
+            sentChanges = false;
+        }
+    }
+
+    /**
+     * Sends the changes made since the graph was drawn to the client
+     *
+     * @return false if the changes could not be sent and the graph has to be
+     *         drawn again
+     */
+    private boolean sendChanges(Graph graph) {
+        long stamp = graph.getModificationStamp();
+        List<GraphChange> changes = graph.getChangesSince(drawnStamp);
+        if (changes == null) {
+            return false;
+        }
+        GraphDelta delta = new DeltaConverter(graph, subgraphIds)
+                .convert(changes);
+        if (delta == null) {
+            return false;
+        }
+        // Changes made after reading the stamp may be sent again next time
+        drawnStamp = stamp;
+        if (!delta.isEmpty()) {
+            getRpcProxy(VizComponentClientRpc.class).updateGraph(delta);
+            sentChanges = true;
+        }
+        return true;
+    }
 
-        getState().graph = null;
-        getState().graph = new Node();
-        getState().graph.id = escapeId(graph.getName());
-        Set<Edge> crossGraphEdges = new HashSet<Edge>();
-        drawGraph(getState().graph, graph, crossGraphEdges);
-        getState().graph.graph.addAll(crossGraphEdges);
+    /**
+     * Sets whether changes in a graph drawn again with
+     * {@link #drawGraph(Graph)} are sent as changes instead of sending the
+     * whole graph. Only the changed nodes and edges are sent, and the browser
+     * updates its copy of the graph. Adding or removing subgraphs and changing
+     * the parameters of subgraphs still sends the whole graph. If only
+     * colors, pen widths or line styles of nodes and edges changed, the
+     * browser updates the rendered graph in place without laying it out
+     * again.
+     *
+     * The changes are taken from the change journal of the graph, which has
+     * to be enabled with {@link Subgraph#setJournalCapacity(int)}, or by
+     * {@link #setIncrementalUpdates(boolean, int)}. Without a journal, or if
+     * the journal does not reach back to the previous drawing, the whole
+     * graph is sent. Changes are not used in DOT mode.
+     *
+     * @param incrementalUpdates
+     *            true to send changes
+     */
+    public void setIncrementalUpdates(boolean incrementalUpdates) {
+        setIncrementalUpdates(incrementalUpdates, 0);
+    }
 
+    /**
+     * Sets whether changes are sent instead of whole graphs, see
+     * {@link #setIncrementalUpdates(boolean)}, and enables a change journal in
+     * the graphs drawn that do not keep one. The journal is enabled in the
+     * graph given to {@link #drawGraph(Graph)}, so it records changes made by
+     * all code using the graph. A journal enabled by the application is never
+     * replaced, whatever its capacity.
+     *
+     * @param incrementalUpdates
+     *            true to send changes
+     * @param journalCapacity
+     *            the maximum number of changes kept by the journal enabled,
+     *            0 to not enable journals
+     */
+    public void setIncrementalUpdates(boolean incrementalUpdates,
+            int journalCapacity) {
+        if (journalCapacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        this.incrementalUpdates = incrementalUpdates;
+        this.journalCapacity = journalCapacity;
     }
 
-    private void drawGraph(Node clientNode, Subgraph graph,
-            Set<Edge> crossGraphEdges) {
+    public boolean isIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    @Override
+    public void beforeClientResponse(boolean initial) {
+        super.beforeClientResponse(initial);
+        if (initial && sentChanges && graph != null && !writesDot()
+                && !compactEncoding) {
+            // The graph in the state does not include the changes sent so
+            // far, so the whole graph is sent again
+            drawnStamp = graph.getModificationStamp();
+            convert((Graph) graph);
+        }
+    }
 
-        // Set the graph parameters
-        HashMap<String, String> params = new HashMap<String, String>();
-        for (String param : graph.getParams()) {
-            params.put(param, graph.getParam(param));
+    /**
+     * Writes the graph in the DOT language to the state
+     */
+    private void writeDot() {
+        StringBuilder builder = new StringBuilder();
+        DotWriter writer = new DotWriter(builder);
+        writer.setIdPrefixes(VizComponentState.DOT_NODE_ID_PREFIX,
+                VizComponentState.DOT_EDGE_ID_PREFIX);
+        Overlay overlay = getState(false).overlay;
+        if (overlay != null) {
+            writer.setNodeOverrides(overlay.nodeParams);
+            writer.setEdgeOverrides(overlay.edgeParams);
         }
-        clientNode.params = params;
+        try {
+            writer.write((Graph) graph);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        setGraphState(null);
+        getState().attributeSets = null;
+        getState().encoded = null;
+        String dot = builder.toString();
+        cancelLayout();
+        if (serverSideLayout) {
+            layOutDot(dot);
+        } else {
+            getState().dot = dot;
+            getState().svg = null;
+        }
+    }
 
-        // Set the node parameters
-        clientNode.nodeParams = null;
-        params = new HashMap<String, String>();
-        for (String param : graph.getNodeParams()) {
-            params.put(param, graph.getNodeParam(param));
+    /**
+     * Lays out the graph on the server in the background if possible, or
+     * else while the request waits
+     */
+    private void layOutDot(String dot) {
+        if (layOutLater(dot)) {
+            return;
         }
-        clientNode.nodeParams = params;
+        String svg = layOut(dot);
+        getState().dot = svg == null ? dot : null;
+        getState().svg = svg;
+    }
+
+    private void clearSvg() {
+        getState().svg = null;
+        cancelLayout();
+    }
 
-        // Set the edge parameters
-        clientNode.edgeParams = null;
-        params = new HashMap<String, String>();
-        for (String param : graph.getEdgeParams()) {
-            params.put(param, graph.getEdgeParam(param));
+    private boolean writesDot() {
+        return dotMode || serverSideLayout;
+    }
+
+    /**
+     * Lays out the graph with the layout service and waits for the result
+     *
+     * @return the SVG, or null if the graph has to be laid out in the browser
+     */
+    private String layOut(String dot) {
+        LayoutService service = getLayoutService();
+        if (!service.isAvailable()) {
+            return null;
+        }
+        try {
+            return service.layout(dot);
+        } catch (LayoutException e) {
+            // The browser lays out the graph or shows the error
+            getLogger().log(Level.WARNING, "Laying out on the server failed",
+                    e);
+            return null;
         }
-        clientNode.edgeParams = params;
+    }
 
-        // Set the graph itself
-        ArrayList<Edge> newGraph = new ArrayList<Edge>();
+    /**
+     * Lays out the graph in the background if the result can be pushed to
+     * the browser. The graph shown stays until the new one has been laid
+     * out.
+     *
+     * @return false if the graph has to be laid out while the request waits
+     */
+    private boolean layOutLater(final String dot) {
+        final UI ui = getUI();
+        LayoutService service = getLayoutService();
+        if (ui == null || !ui.getPushConfiguration().getPushMode().isEnabled()
+                || !service.isAvailable()) {
+            return false;
+        }
+        final Object request = new Object();
+        LayoutService.LayoutCallback callback = new LayoutService.LayoutCallback() {
+            @Override
+            public void done(final String svg) {
+                show(svg, null);
+            }
 
-        Set<Graph.Node> graphNodes = graph.getNodes();
-        for (Subgraph.Node node : graphNodes) {
-            Node newNode = new Node();
-            if (node instanceof Subgraph.GraphNode) {
-                newNode.id = escapeId(node.getId());
-                drawGraph(newNode, ((Subgraph.GraphNode) node).getGraph(),
-                        crossGraphEdges);
-                // The parameters of the node are ignored
-            } else {
-                newNode.id = escapeId(node.getId());
+            @Override
+            public void failed(LayoutException e) {
+                show(null, e);
+            }
 
-                // Add all parameters to node
-                for (String param : node.getParams()) {
-                    newNode.params.put(param, node.getParam(param));
+            private void show(final String svg, final LayoutException e) {
+                try {
+                    access(svg, e);
+                } catch (UIDetachedException detached) {
+                    // The UI has been closed, nobody waits for the graph
                 }
             }
-            // Add all edges
-            Set<AbstractMap.SimpleEntry<Subgraph.Node, Subgraph.Edge>> conns = graph
-                    .getConnections(node);
-            if (conns.isEmpty()) {
-                Edge newEdge = new Edge();
-                newEdge.source = newNode;
-                newGraph.add(newEdge);
-            } else {
-                for (AbstractMap.SimpleEntry<Subgraph.Node, Subgraph.Edge> conn : conns) {
-                    Edge newEdge = new Edge();
-
-                    newEdge.id = escapeId(conn.getValue().getId());
-                    newEdge.source = newNode;
-                    Subgraph.Node dest = conn.getKey();
-                    Node destNode = new Node();
-                    if (dest instanceof Subgraph.GraphNode) {
-                        destNode.id = escapeId(dest.getId());
-                        drawGraph(destNode,
-                                ((Subgraph.GraphNode) dest).getGraph(),
-                                crossGraphEdges);
-                        // The parameters of the node are ignored
-                    } else {
-                        destNode.id = escapeId(dest.getId());
-
-                        for (String param : conn.getValue().getParams()) {
-                            newEdge.params.put(param,
-                                    conn.getValue().getParam(param));
+
+            private void access(final String svg, final LayoutException e) {
+                ui.access(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (layoutRequest != request) {
+                            // Another graph has been drawn
+                            return;
                         }
+                        pendingLayout = null;
+                        layoutRequest = null;
+                        pendingDot = null;
+                        if (e != null) {
+                            getLogger().log(Level.WARNING,
+                                    "Laying out on the server failed", e);
+                        }
+                        getState().dot = svg == null ? dot : null;
+                        getState().svg = svg;
                     }
-                    newEdge.dest = destNode;
-                    if (graphNodes.contains(conn.getKey())) {
-                        newGraph.add(newEdge);
-                    } else {
-                        crossGraphEdges.add(newEdge);
-                    }
-                }
+                });
             }
+        };
+        try {
+            layoutRequest = request;
+            pendingDot = dot;
+            pendingLayout = service.submit(dot, callback);
+            return true;
+        } catch (LayoutException e) {
+            // The queue is full
+            layoutRequest = null;
+            pendingDot = null;
+            getLogger().log(Level.WARNING, "Laying out on the server failed",
+                    e);
+            getState().dot = dot;
+            getState().svg = null;
+            return true;
+        }
+    }
+
+    private void cancelLayout() {
+        if (pendingLayout != null) {
+            pendingLayout.cancel(true);
+            pendingLayout = null;
+        }
+        layoutRequest = null;
+        pendingDot = null;
+        detachedDot = null;
+    }
 
+    /**
+     * Sets the service laying out graphs on the server for this component,
+     * see {@link #setServerSideLayout(boolean)}
+     *
+     * @param layoutService
+     *            null to use the default service shared by all components
+     */
+    public void setLayoutService(LayoutService layoutService) {
+        this.layoutService = layoutService;
+    }
+
+    /**
+     * Returns the service laying out graphs on the server for this
+     * component, the default service if none has been set
+     */
+    public LayoutService getLayoutService() {
+        return layoutService != null ? layoutService
+                : LayoutService.getDefault();
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        if (detachedDot != null) {
+            String dot = detachedDot;
+            detachedDot = null;
+            layOutDot(dot);
         }
-        clientNode.graph = newGraph;
+    }
+
+    @Override
+    public void detach() {
+        // Nobody waits for the graph any more, it is laid out again if the
+        // component is attached again
+        String dot = pendingDot;
+        cancelLayout();
+        detachedDot = dot;
+        super.detach();
+    }
 
+    private static Logger getLogger() {
+        return Logger.getLogger(VizComponent.class.getName());
     }
 
-    private static String escapeId(String id) {
-        if (id.startsWith("\"") && id.endsWith("\"")) {
-            throw new RedundantDoubleQouteException();
-        } else {
-            // Automatically enclose with "" so that special characters work
-            // automatically in id:s
-            return "\"" + id + "\"";
+    /**
+     * Sets whether graphs drawn with {@link #drawGraph(Graph)} are written in
+     * the DOT language on the server. Then only the DOT text is sent to the
+     * browser instead of the graph structure, which is smaller and faster to
+     * handle in the browser. The graph shown currently is drawn again.
+     *
+     * @param dotMode
+     *            true to send DOT text, false to send the graph structure
+     */
+    public void setDotMode(boolean dotMode) {
+        if (this.dotMode == dotMode) {
+            return;
+        }
+        this.dotMode = dotMode;
+        if (graph != null) {
+            Graph shown = (Graph) graph;
+            graph = null;
+            drawGraph(shown);
+        }
+    }
+
+    public boolean isDotMode() {
+        return dotMode;
+    }
+
+    /**
+     * Sets whether graphs drawn with {@link #drawGraph(Graph)} are laid out
+     * on the server. The graph is written in the DOT language like in
+     * {@link #setDotMode(boolean) DOT mode} and laid out by viz.js running in
+     * a Javascript engine of the JVM, see {@link LayoutEngine}. Only the SVG
+     * is sent, so the browser neither lays out the graph nor downloads
+     * viz.js. If no Javascript engine is available or the layout fails, the
+     * DOT text is sent and the graph is laid out in the browser. The graph
+     * shown currently is drawn again.
+     *
+     * Graphs are laid out by the {@link #getLayoutService() layout service}.
+     * If push is enabled in the UI, the graph is laid out in the background
+     * and pushed to the browser when done, and the layout is cancelled if
+     * the component is detached first. Otherwise the request waits for the
+     * layout at most the timeout of the service.
+     *
+     * @param serverSideLayout
+     *            true to lay out graphs on the server
+     */
+    public void setServerSideLayout(boolean serverSideLayout) {
+        if (this.serverSideLayout == serverSideLayout) {
+            return;
+        }
+        this.serverSideLayout = serverSideLayout;
+        if (graph != null) {
+            Graph shown = (Graph) graph;
+            graph = null;
+            drawGraph(shown);
+        }
+    }
+
+    public boolean isServerSideLayout() {
+        return serverSideLayout;
+    }
+
+    /**
+     * Sets whether graphs are laid out in a Web Worker in the browser. The
+     * layout then does not block the page, a placeholder is shown while it is
+     * in progress, and results for graphs replaced before they were laid out
+     * are discarded. One worker is shared by all components on the page.
+     * Graphs are laid out in the page if the browser does not support
+     * workers. Enabled by default.
+     *
+     * @param layoutInWorker
+     *            true to lay out in a worker, false to lay out in the page
+     */
+    public void setLayoutInWorker(boolean layoutInWorker) {
+        getState().layoutInWorker = layoutInWorker;
+    }
+
+    public boolean isLayoutInWorker() {
+        return getState(false).layoutInWorker;
+    }
+
+    /**
+     * Sets whether graphs drawn with {@link #drawGraph(Graph)} are sent in a
+     * compact encoding. Every string is then sent once and the nodes and
+     * edges are sent as arrays of numbers, which is several times smaller
+     * than the graph structure for large graphs. DOT mode takes precedence,
+     * and changes are not sent as such in the compact encoding, see
+     * {@link #setIncrementalUpdates(boolean)}. The graph shown currently is
+     * drawn again.
+     *
+     * @param compactEncoding
+     *            true to send graphs in the compact encoding
+     */
+    public void setCompactEncoding(boolean compactEncoding) {
+        if (this.compactEncoding == compactEncoding) {
+            return;
+        }
+        this.compactEncoding = compactEncoding;
+        if (graph != null) {
+            Graph shown = (Graph) graph;
+            graph = null;
+            drawGraph(shown);
         }
     }
 
+    public boolean isCompactEncoding() {
+        return compactEncoding;
+    }
+
+    /**
+     * This method renders and displays the compact graph given as the
+     * argument. The graph is sent in the compact encoding, see
+     * {@link #setCompactEncoding(boolean)}, so it is never expanded to nodes
+     * and edges on the server. The nodes and edges in click events are
+     * detached copies created from the compact graph.
+     *
+     * @param graph
+     *            if null then the component is emptied, see
+     *            {@link #clearGraph()}
+     */
+    public void drawGraph(CompactGraph graph) {
+
+        if (graph == null) {
+            clearGraph();
+            return;
+        }
+        this.graph = null;
+        snapshot = null;
+        setSharedGraph(null);
+        compactGraph = graph;
+        getState().graphType = graph.getType();
+        getState().attributeSets = null;
+        getState().dot = null;
+        clearSvg();
+        setGraphState(null);
+        getState().encoded = new GraphEncoder().encode(graph);
+    }
+
+    /**
+     * This method renders and displays the graph snapshot given as the
+     * argument. The same snapshot can be drawn by several components in
+     * different sessions at the same time. The nodes and edges in click
+     * events are detached copies created from the snapshot. Drawing the same
+     * snapshot again does nothing.
+     *
+     * @param snapshot
+     *            if null then the component is emptied, see
+     *            {@link #clearGraph()}
+     */
+    public void drawGraph(GraphSnapshot snapshot) {
+
+        if (snapshot != null && snapshot == this.snapshot) {
+            return;
+        }
+        if (snapshot == null) {
+            clearGraph();
+            return;
+        }
+        this.graph = null;
+        compactGraph = null;
+        setSharedGraph(null);
+        this.snapshot = snapshot;
+        getState().graphType = snapshot.getType();
+        getState().dot = null;
+        clearSvg();
+        getState().encoded = null;
+
+        GraphConverter converter = new GraphConverter();
+        setGraphState(converter.convert(snapshot));
+        getState().attributeSets = converter.getAttributeSets();
+    }
+
+    /**
+     * This method displays the shared graph given as the argument. The graph
+     * is not put in the state of the component, the browser loads the JSON
+     * written once by the shared graph instead. Only the overrides of the
+     * component are in its state. Changes made with
+     * {@link #overrideParam(Subgraph.Node, String, String) overrideParam} and
+     * {@link #overrideCss(Subgraph.Node, String, String) overrideCss} only
+     * affect this component. The nodes and edges in click events are detached
+     * copies created from the snapshot of the shared graph. Drawing the same
+     * shared graph again does nothing.
+     *
+     * @param graph
+     *            if null then the component is emptied, see
+     *            {@link #clearGraph()}
+     */
+    public void drawGraph(SharedGraph graph) {
+
+        if (graph != null && graph == sharedGraph) {
+            return;
+        }
+        if (graph == null) {
+            clearGraph();
+            return;
+        }
+        this.graph = null;
+        compactGraph = null;
+        setSharedGraph(graph);
+        snapshot = graph.getSnapshot();
+        getState().graphType = snapshot.getType();
+        getState().attributeSets = null;
+        setGraphState(null);
+        getState().dot = null;
+        clearSvg();
+        getState().encoded = null;
+    }
+
+    private void setSharedGraph(SharedGraph graph) {
+        sharedGraph = graph;
+        setResource(VizComponentState.SHARED_GRAPH_RESOURCE,
+                graph != null ? graph.getResource() : null);
+    }
+
+    /**
+     * Empties the component, whichever way the graph shown was drawn. As
+     * drawGraph is overloaded, drawGraph(null) does not compile without a
+     * cast.
+     */
+    public void clearGraph() {
+        graph = null;
+        compactGraph = null;
+        snapshot = null;
+        setSharedGraph(null);
+        setGraphState(null);
+        getState().attributeSets = null;
+        getState().dot = null;
+        clearSvg();
+        getState().encoded = null;
+    }
+
+    private static String escapeId(String id) {
+        return GraphConverter.escapeId(id);
+    }
+
     // We must override getState() to cast the state to VizComponentState
     @Override
     protected VizComponentState getState() {
         return (VizComponentState) super.getState();
     }
 
+    @Override
+    protected VizComponentState getState(boolean markAsDirty) {
+        return (VizComponentState) super.getState(markAsDirty);
+    }
+
     public void addClickListener(NodeClickListener listener) {
         addListener(NodeClickEvent.class, listener,
                 NodeClickListener.CLICK_HANDLER);
@@ -404,4 +970,218 @@ public class VizComponent extends com.vaadin.ui.AbstractComponent {
                 property, value);
     }
 
+    /**
+     * Applies the css changes in the batch to the nodes and edges of the
+     * rendered graph. All changes are sent to the browser in one call and
+     * applied together before the next repaint, which is much faster than
+     * calling {@link #addCss(Subgraph.Node, String, String) addCss} for each
+     * element when styling many elements. Note that the graph must be rendered
+     * before this method has any effect.
+     *
+     * @param batch
+     *            the changes to apply
+     */
+    public void applyStyles(StyleBatch batch) {
+        if (!batch.isEmpty()) {
+            getRpcProxy(VizComponentClientRpc.class).applyStyles(
+                    batch.toChanges());
+        }
+    }
+
+    /**
+     * Overrides a parameter of the node in this component only, for example to
+     * highlight it. Unlike the css methods the override is kept when the graph
+     * is rendered again, also when another graph is drawn. The graph is laid
+     * out again with the new parameter. In DOT mode the graph is written again
+     * with its current contents.
+     *
+     * @param node
+     *            the node to override the parameter for
+     * @param name
+     *            the parameter name
+     * @param value
+     *            the parameter value, null to remove the override
+     */
+    public void overrideParam(Subgraph.Node node, String name, String value) {
+        override(getOverlay().nodeParams, node.getId(), name, value);
+        if (writesDot() && graph != null) {
+            writeDot();
+        }
+    }
+
+    /**
+     * The same as overrideParam for nodes, but for the edge.
+     */
+    public void overrideParam(Subgraph.Edge edge, String name, String value) {
+        override(getOverlay().edgeParams, edge.getId(), name, value);
+        if (writesDot() && graph != null) {
+            writeDot();
+        }
+    }
+
+    /**
+     * Sets a css property of the node in this component only. The property is
+     * applied like in {@link #addCss(Subgraph.Node, String, String) addCss},
+     * but it is applied again whenever the graph is rendered.
+     *
+     * @param node
+     *            node to apply the css rule to.
+     * @param property
+     *            the css property.
+     * @param value
+     *            the css property value, null to remove the override.
+     */
+    public void overrideCss(Subgraph.Node node, String property, String value) {
+        override(getOverlay().nodeCss, node.getId(), property, value);
+    }
+
+    /**
+     * The same as overrideCss for nodes, but for the edge.
+     */
+    public void overrideCss(Subgraph.Edge edge, String property, String value) {
+        override(getOverlay().edgeCss, edge.getId(), property, value);
+    }
+
+    /**
+     * Removes all parameter and css overrides made in this component
+     */
+    public void clearOverrides() {
+        if (getState(false).overlay != null) {
+            getState().overlay = null;
+            if (writesDot() && graph != null) {
+                writeDot();
+            }
+        }
+    }
+
+    /**
+     * Adds a style name to the node. The style name is added as a class to
+     * the SVG group element of the node, so that the node can be styled with
+     * a stylesheet, for example in the theme:
+     *
+     * <pre>
+     * .vizcomponent .node.failed polygon, .vizcomponent .node.failed ellipse {
+     *     fill: red;
+     * }
+     * </pre>
+     *
+     * Unlike css set with {@link #addCss(Subgraph.Node, String, String)
+     * addCss}, style names are kept in the state of the component and applied
+     * again whenever the graph is rendered, also when another graph with a
+     * node with the same id is drawn.
+     *
+     * @param node
+     *            the node to add the style name to
+     * @param styleName
+     *            the style name
+     */
+    public void addStyleName(Subgraph.Node node, String styleName) {
+        addStyleName(getNodeStyleNames(), node.getId(), styleName);
+    }
+
+    public void removeStyleName(Subgraph.Node node, String styleName) {
+        removeStyleName(getNodeStyleNames(), node.getId(), styleName);
+    }
+
+    /**
+     * The same as addStyleName for nodes, but for the edge.
+     */
+    public void addStyleName(Subgraph.Edge edge, String styleName) {
+        addStyleName(getEdgeStyleNames(), edge.getId(), styleName);
+    }
+
+    public void removeStyleName(Subgraph.Edge edge, String styleName) {
+        removeStyleName(getEdgeStyleNames(), edge.getId(), styleName);
+    }
+
+    /**
+     * Removes the style name from all nodes and edges
+     *
+     * @param styleName
+     *            the style name
+     */
+    public void removeStyleNameFromAll(String styleName) {
+        removeFromAll(getNodeStyleNames(), styleName);
+        removeFromAll(getEdgeStyleNames(), styleName);
+    }
+
+    private HashMap<String, HashSet<String>> getNodeStyleNames() {
+        // Marks the state as changed
+        if (getState().nodeStyleNames == null) {
+            getState().nodeStyleNames = new HashMap<String, HashSet<String>>();
+        }
+        return getState().nodeStyleNames;
+    }
+
+    private HashMap<String, HashSet<String>> getEdgeStyleNames() {
+        // Marks the state as changed
+        if (getState().edgeStyleNames == null) {
+            getState().edgeStyleNames = new HashMap<String, HashSet<String>>();
+        }
+        return getState().edgeStyleNames;
+    }
+
+    private static void addStyleName(
+            HashMap<String, HashSet<String>> styleNames, String id,
+            String styleName) {
+        HashSet<String> names = styleNames.get(id);
+        if (names == null) {
+            names = new HashSet<String>();
+            styleNames.put(id, names);
+        }
+        names.add(styleName);
+    }
+
+    private static void removeStyleName(
+            HashMap<String, HashSet<String>> styleNames, String id,
+            String styleName) {
+        HashSet<String> names = styleNames.get(id);
+        if (names != null) {
+            names.remove(styleName);
+            if (names.isEmpty()) {
+                styleNames.remove(id);
+            }
+        }
+    }
+
+    private static void removeFromAll(
+            HashMap<String, HashSet<String>> styleNames, String styleName) {
+        Iterator<HashSet<String>> it = styleNames.values().iterator();
+        while (it.hasNext()) {
+            HashSet<String> names = it.next();
+            names.remove(styleName);
+            if (names.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private Overlay getOverlay() {
+        // Marks the state as changed
+        if (getState().overlay == null) {
+            getState().overlay = new Overlay();
+        }
+        return getState().overlay;
+    }
+
+    private static void override(
+            HashMap<String, HashMap<String, String>> overrides, String id,
+            String name, String value) {
+        HashMap<String, String> values = overrides.get(id);
+        if (value == null) {
+            if (values != null) {
+                values.remove(name);
+                if (values.isEmpty()) {
+                    overrides.remove(id);
+                }
+            }
+            return;
+        }
+        if (values == null) {
+            values = new HashMap<String, String>();
+            overrides.put(id, values);
+        }
+        values.put(name, value);
+    }
+
 }
@@ -5,6 +5,8 @@ import java.util.HashMap;
 public class Edge {
 
     public HashMap<String, String> params;
+    // Id of a shared attribute set in VizComponentState.attributeSets
+    public String attributeSet;
     public Node source;
     public Node dest;
     public String id;
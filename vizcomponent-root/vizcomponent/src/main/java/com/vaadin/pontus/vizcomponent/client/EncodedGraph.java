@@ -0,0 +1,50 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+/**
+ * A graph encoded in a compact form for the state. Every string is sent once
+ * in a string table, and the graphs, nodes and edges are sent as records in
+ * integer arrays, with strings referred to by their index in the table.
+ *
+ * The graphs are listed parents first, the root graph first. Each graph
+ * record is the name, the index of the parent graph (-1 for the root), the
+ * number of nodes declared before it, and the graph parameters, the node
+ * parameters and the edge parameters, each given as the number of parameters
+ * followed by the name and value of each.
+ *
+ * Each node record is the id, the index of the graph it is in and the
+ * parameters.
+ *
+ * Each edge record is the id, the index of the graph it is in, the source, the
+ * destination and the parameters. The ends are node indexes, or -1 - g for
+ * graph g. Generated ids, the {@link #edgeIdPrefix prefix} followed by a
+ * number, are not in the string table: the id is then given as -1 - z, where
+ * z is the difference from the number of the previous generated id,
+ * zigzag-encoded so that small differences give small numbers.
+ */
+public class EncodedGraph {
+
+    public static final String GENERATED_EDGE_ID_PREFIX = "edge";
+
+    // Prefix of the generated edge ids
+    public String edgeIdPrefix = GENERATED_EDGE_ID_PREFIX;
+
+    public String[] strings;
+    public int[] graphs;
+    public int[] nodes;
+    public int[] edges;
+
+    public int graphCount;
+    public int nodeCount;
+    public int edgeCount;
+
+    /**
+     * Returns the difference encoded so that it is not negative
+     */
+    public static int zigzag(int difference) {
+        return difference >= 0 ? 2 * difference : -2 * difference - 1;
+    }
+
+    public static int unzigzag(int value) {
+        return (value & 1) == 0 ? value / 2 : -(value + 1) / 2;
+    }
+}
@@ -0,0 +1,284 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Decodes an {@link EncodedGraph} and writes it in the DOT language. The
+ * records are read once into per-graph lists, and the DOT text is written
+ * from them in the same order as the graph was encoded.
+ */
+public class EncodedGraphDecoder {
+
+    private final EncodedGraph encoded;
+    private final String[] strings;
+    // Start of the record of each graph, node and edge
+    private final int[] graphRecords;
+    private final int[] nodeRecords;
+    private final int[] edgeRecords;
+    private final String[] edgeIds;
+    // Child graphs, nodes and edges of each graph in order
+    private final ArrayList<ArrayList<Integer>> childGraphs;
+    private final ArrayList<ArrayList<Integer>> graphNodes;
+    private final ArrayList<ArrayList<Integer>> graphEdges;
+
+    private StringBuilder builder;
+    private String connSymbol;
+    private String nodeIdPrefix;
+    private String edgeIdPrefix;
+    private HashMap<String, HashMap<String, String>> nodeOverrides;
+    private HashMap<String, HashMap<String, String>> edgeOverrides;
+
+    public EncodedGraphDecoder(EncodedGraph encoded) {
+        this.encoded = encoded;
+        strings = encoded.strings;
+        graphRecords = new int[encoded.graphCount];
+        nodeRecords = new int[encoded.nodeCount];
+        edgeRecords = new int[encoded.edgeCount];
+        edgeIds = new String[encoded.edgeCount];
+        childGraphs = new ArrayList<ArrayList<Integer>>(encoded.graphCount);
+        graphNodes = new ArrayList<ArrayList<Integer>>(encoded.graphCount);
+        graphEdges = new ArrayList<ArrayList<Integer>>(encoded.graphCount);
+
+        int position = 0;
+        for (int g = 0; g < encoded.graphCount; g++) {
+            graphRecords[g] = position;
+            childGraphs.add(new ArrayList<Integer>());
+            graphNodes.add(new ArrayList<Integer>());
+            graphEdges.add(new ArrayList<Integer>());
+            int parent = encoded.graphs[position + 1];
+            if (parent >= 0) {
+                childGraphs.get(parent).add(g);
+            }
+            position += 3;
+            for (int group = 0; group < 3; group++) {
+                position = skipParams(encoded.graphs, position);
+            }
+        }
+        position = 0;
+        for (int n = 0; n < encoded.nodeCount; n++) {
+            nodeRecords[n] = position;
+            graphNodes.get(encoded.nodes[position + 1]).add(n);
+            position = skipParams(encoded.nodes, position + 2);
+        }
+        position = 0;
+        long edgeNumber = 0;
+        for (int e = 0; e < encoded.edgeCount; e++) {
+            edgeRecords[e] = position;
+            int id = encoded.edges[position];
+            if (id < 0) {
+                edgeNumber += EncodedGraph.unzigzag(-1 - id);
+                edgeIds[e] = encoded.edgeIdPrefix + edgeNumber;
+            } else {
+                edgeIds[e] = strings[id];
+            }
+            graphEdges.get(encoded.edges[position + 1]).add(e);
+            position = skipParams(encoded.edges, position + 4);
+        }
+    }
+
+    private static int skipParams(int[] records, int position) {
+        return position + 1 + 2 * records[position];
+    }
+
+    public int getNodeCount() {
+        return encoded.nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return encoded.edgeCount;
+    }
+
+    public String getNodeId(int node) {
+        return strings[encoded.nodes[nodeRecords[node]]];
+    }
+
+    public String getEdgeId(int edge) {
+        return edgeIds[edge];
+    }
+
+    /**
+     * Sets the prefixes of the ids given to the nodes and edges in the DOT
+     * text. The id of a node or edge is the prefix followed by its index.
+     */
+    public void setIdPrefixes(String nodePrefix, String edgePrefix) {
+        nodeIdPrefix = nodePrefix;
+        edgeIdPrefix = edgePrefix;
+    }
+
+    /**
+     * Sets parameters that override the ones of the nodes and edges, by id
+     */
+    public void setOverrides(
+            HashMap<String, HashMap<String, String>> nodeOverrides,
+            HashMap<String, HashMap<String, String>> edgeOverrides) {
+        this.nodeOverrides = nodeOverrides;
+        this.edgeOverrides = edgeOverrides;
+    }
+
+    /**
+     * Returns the graph in the DOT language
+     *
+     * @param type
+     *            graph or digraph
+     */
+    public String toDot(String type) {
+        builder = new StringBuilder();
+        connSymbol = "graph".equals(type) ? " -- " : " -> ";
+        builder.append(type);
+        if (encoded.graphCount > 0) {
+            int name = encoded.graphs[0];
+            if (name >= 0) {
+                builder.append(' ');
+                writeId(strings[name]);
+            }
+            builder.append(" {\n");
+            writeBody(0);
+        } else {
+            builder.append(" {\n");
+        }
+        builder.append("}\n");
+        String dot = builder.toString();
+        builder = null;
+        return dot;
+    }
+
+    private void writeBody(int graph) {
+        int position = graphRecords[graph] + 3;
+        int count = encoded.graphs[position];
+        for (int i = 0; i < count; i++) {
+            builder.append(param(encoded.graphs, position, i)).append('=')
+                    .append(value(encoded.graphs, position, i)).append(";\n");
+        }
+        position = skipParams(encoded.graphs, position);
+        position = writeDefaults("node", position);
+        writeDefaults("edge", position);
+
+        // Subgraphs are declared where they were among the nodes
+        ArrayList<Integer> children = childGraphs.get(graph);
+        int child = 0;
+        for (Integer node : graphNodes.get(graph)) {
+            while (child < children.size()
+                    && firstNode(children.get(child)) <= node) {
+                writeSubgraph(children.get(child++));
+            }
+            writeNode(node);
+        }
+        while (child < children.size()) {
+            writeSubgraph(children.get(child++));
+        }
+        for (Integer edge : graphEdges.get(graph)) {
+            writeEdge(edge);
+        }
+    }
+
+    private int firstNode(int graph) {
+        return encoded.graphs[graphRecords[graph] + 2];
+    }
+
+    private int writeDefaults(String statement, int position) {
+        int count = encoded.graphs[position];
+        if (count > 0) {
+            builder.append(statement).append(" [");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(param(encoded.graphs, position, i))
+                        .append('=')
+                        .append(value(encoded.graphs, position, i));
+            }
+            builder.append("];\n");
+        }
+        return skipParams(encoded.graphs, position);
+    }
+
+    private void writeSubgraph(int graph) {
+        builder.append("subgraph ");
+        writeId(strings[encoded.graphs[graphRecords[graph]]]);
+        builder.append(" {\n");
+        writeBody(graph);
+        builder.append("}\n");
+    }
+
+    private void writeNode(int node) {
+        int position = nodeRecords[node];
+        String id = getNodeId(node);
+        writeId(id);
+        writeParams(encoded.nodes, position + 2, nodeIdPrefix, node,
+                nodeOverrides == null ? null : nodeOverrides.get(id));
+        builder.append(";\n");
+    }
+
+    private void writeEdge(int edge) {
+        int position = edgeRecords[edge];
+        writeEnd(encoded.edges[position + 2]);
+        builder.append(connSymbol);
+        writeEnd(encoded.edges[position + 3]);
+        writeParams(encoded.edges, position + 4, edgeIdPrefix, edge,
+                edgeOverrides == null ? null : edgeOverrides
+                        .get(edgeIds[edge]));
+        builder.append(";\n");
+    }
+
+    private void writeEnd(int end) {
+        if (end < 0) {
+            builder.append("subgraph ");
+            writeId(strings[encoded.graphs[graphRecords[-1 - end]]]);
+            builder.append(" {}");
+        } else {
+            writeId(getNodeId(end));
+        }
+    }
+
+    private void writeParams(int[] records, int position, String idPrefix,
+            int index, HashMap<String, String> override) {
+        int count = records[position];
+        if (count == 0 && idPrefix == null
+                && (override == null || override.isEmpty())) {
+            return;
+        }
+        builder.append(" [");
+        String sep = "";
+        for (int i = 0; i < count; i++) {
+            String param = param(records, position, i);
+            if (override == null || !override.containsKey(param)) {
+                builder.append(sep).append(param).append('=')
+                        .append(value(records, position, i));
+                sep = ",";
+            }
+        }
+        if (override != null) {
+            for (String param : override.keySet()) {
+                builder.append(sep).append(param).append('=')
+                        .append(override.get(param));
+                sep = ",";
+            }
+        }
+        if (idPrefix != null) {
+            builder.append(sep).append("id=");
+            writeId(idPrefix + index);
+        }
+        builder.append(']');
+    }
+
+    private String param(int[] records, int position, int i) {
+        return strings[records[position + 1 + 2 * i]];
+    }
+
+    private String value(int[] records, int position, int i) {
+        return strings[records[position + 2 + 2 * i]];
+    }
+
+    private void writeId(String id) {
+        builder.append('"');
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '"') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,41 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+import java.util.ArrayList;
+
+/**
+ * Changes to a graph already shown by the widget, sent instead of the whole
+ * graph. Nodes and edges are identified by their ids. The subgraphs the nodes
+ * and edges are in are given by the ids of the subgraphs, null for the root
+ * graph.
+ */
+public class GraphDelta {
+
+    // Added or changed nodes with all their parameters
+    public ArrayList<Node> nodes;
+    public ArrayList<String> nodeGraphs;
+    public ArrayList<String> removedNodes;
+
+    // Added or changed edges with all their parameters. The ends of the edges
+    // only have the id.
+    public ArrayList<Edge> edges;
+    public ArrayList<String> edgeGraphs;
+    public ArrayList<String> removedEdges;
+
+    // True if nodes or edges were added, removed or retargeted, so that the
+    // graph has to be laid out again
+    public boolean topologyChanged;
+
+    public GraphDelta() {
+        nodes = new ArrayList<Node>();
+        nodeGraphs = new ArrayList<String>();
+        removedNodes = new ArrayList<String>();
+        edges = new ArrayList<Edge>();
+        edgeGraphs = new ArrayList<String>();
+        removedEdges = new ArrayList<String>();
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty() && removedNodes.isEmpty() && edges.isEmpty()
+                && removedEdges.isEmpty();
+    }
+}
@@ -0,0 +1,364 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Index of a graph received in the state, used to apply
+ * {@link GraphDelta GraphDeltas} to the graph in place. The changes are
+ * applied to a {@link #copy(Node) copy}, not to the graph in the state. The
+ * graph must have been converted from a
+ * {@link com.vaadin.pontus.vizcomponent.model.Graph Graph}, where the
+ * declared nodes come before the edges of their graph. Nodes without
+ * parameters may be declared only by their edges, so they are not found by
+ * {@link #getNode(String)}.
+ */
+public class GraphModel {
+
+    private final Node root;
+    // The subgraphs, nodes and edges by id
+    private final HashMap<String, Node> graphs;
+    private final HashMap<String, Edge> declarations;
+    private final HashMap<String, Edge> edges;
+    // The entries of the graphs, by the id of the graph, null for the root
+    // graph
+    private final HashMap<String, Slots> slots;
+    // The positions of the nodes and edges in the entries of their graphs
+    private final HashMap<String, Integer> nodeSlots;
+    private final HashMap<String, Integer> edgeSlots;
+    // The ids of the graphs the subgraphs, nodes and edges are in, null for
+    // the root graph
+    private final HashMap<String, String> graphParents;
+    private final HashMap<String, String> nodeGraphs;
+    private final HashMap<String, String> edgeGraphs;
+
+    /**
+     * The entries of a graph. Removed entries are set to null so that the
+     * positions of the others stay valid, and dropped when the graph is
+     * rebuilt or when more than half of the entries are removed. The
+     * declarations are kept before the edges.
+     */
+    private static class Slots {
+        final Node graph;
+        final ArrayList<Edge> declarations = new ArrayList<Edge>();
+        final ArrayList<Edge> edges = new ArrayList<Edge>();
+        int removedDeclarations;
+        int removedEdges;
+        // Whether graph.graph has to be rebuilt from the entries
+        boolean changed;
+
+        Slots(Node graph) {
+            this.graph = graph;
+        }
+    }
+
+    public GraphModel(Node root) {
+        this.root = root;
+        graphs = new HashMap<String, Node>();
+        declarations = new HashMap<String, Edge>();
+        edges = new HashMap<String, Edge>();
+        slots = new HashMap<String, Slots>();
+        nodeSlots = new HashMap<String, Integer>();
+        edgeSlots = new HashMap<String, Integer>();
+        graphParents = new HashMap<String, String>();
+        nodeGraphs = new HashMap<String, String>();
+        edgeGraphs = new HashMap<String, String>();
+        index(root, null);
+    }
+
+    /**
+     * Returns the graph with the changes applied
+     */
+    public Node getRoot() {
+        for (Slots graphSlots : slots.values()) {
+            if (graphSlots.changed) {
+                rebuild(graphSlots);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Returns a copy of the graph for applying changes to. The nodes, edges
+     * and lists are copied, the parameter maps are shared as they are never
+     * changed in place.
+     */
+    public static Node copy(Node node) {
+        if (node == null) {
+            return null;
+        }
+        Node copy = new Node();
+        copy.id = node.id;
+        copy.params = node.params;
+        copy.attributeSet = node.attributeSet;
+        copy.nodeParams = node.nodeParams;
+        copy.edgeParams = node.edgeParams;
+        if (node.graph != null) {
+            copy.graph = new ArrayList<Edge>(node.graph.size());
+            for (Edge edge : node.graph) {
+                copy.graph.add(copy(edge));
+            }
+        }
+        return copy;
+    }
+
+    private static Edge copy(Edge edge) {
+        Edge copy = new Edge();
+        copy.id = edge.id;
+        copy.params = edge.params;
+        copy.attributeSet = edge.attributeSet;
+        copy.source = copy(edge.source);
+        copy.dest = copy(edge.dest);
+        return copy;
+    }
+
+    /**
+     * Returns the node with the id
+     *
+     * @return null if there is no such node
+     */
+    public Node getNode(String id) {
+        Edge declaration = declarations.get(id);
+        return declaration == null ? null : declaration.source;
+    }
+
+    public Edge getEdge(String id) {
+        return edges.get(id);
+    }
+
+    /**
+     * Returns the id of the graph the node is in, null for the root graph
+     */
+    public String getNodeGraph(String id) {
+        return nodeGraphs.get(id);
+    }
+
+    /**
+     * Returns the id of the graph the edge is in, null for the root graph
+     */
+    public String getEdgeGraph(String id) {
+        return edgeGraphs.get(id);
+    }
+
+    /**
+     * Returns the default value of a node parameter in the graph, given by
+     * the graph or the graphs it is in
+     *
+     * @param graphId
+     *            id of the graph, null for the root graph
+     * @return null if there is no default value
+     */
+    public String getNodeDefault(String graphId, String name) {
+        while (graphId != null && graphs.containsKey(graphId)) {
+            Node graph = graphs.get(graphId);
+            if (graph.nodeParams != null && graph.nodeParams.containsKey(name)) {
+                return graph.nodeParams.get(name);
+            }
+            graphId = graphParents.get(graphId);
+        }
+        return root.nodeParams == null ? null : root.nodeParams.get(name);
+    }
+
+    /**
+     * Returns the default value of an edge parameter in the graph, given by
+     * the graph or the graphs it is in
+     *
+     * @param graphId
+     *            id of the graph, null for the root graph
+     * @return null if there is no default value
+     */
+    public String getEdgeDefault(String graphId, String name) {
+        while (graphId != null && graphs.containsKey(graphId)) {
+            Node graph = graphs.get(graphId);
+            if (graph.edgeParams != null && graph.edgeParams.containsKey(name)) {
+                return graph.edgeParams.get(name);
+            }
+            graphId = graphParents.get(graphId);
+        }
+        return root.edgeParams == null ? null : root.edgeParams.get(name);
+    }
+
+    private void index(Node graph, String graphId) {
+        Slots graphSlots = new Slots(graph);
+        slots.put(graphId, graphSlots);
+        for (Edge edge : graph.graph) {
+            if (edge.dest == null) {
+                String id = deescapeId(edge.source.id);
+                graphSlots.declarations.add(edge);
+                if (edge.source.graph != null) {
+                    graphs.put(id, edge.source);
+                    graphParents.put(id, graphId);
+                    index(edge.source, id);
+                } else {
+                    declarations.put(id, edge);
+                    nodeSlots.put(id, graphSlots.declarations.size() - 1);
+                    nodeGraphs.put(id, graphId);
+                }
+            } else {
+                String id = deescapeId(edge.id);
+                graphSlots.edges.add(edge);
+                edges.put(id, edge);
+                edgeSlots.put(id, graphSlots.edges.size() - 1);
+                edgeGraphs.put(id, graphId);
+            }
+        }
+        // Put the declarations before the edges if they were not
+        graphSlots.changed = true;
+    }
+
+    /**
+     * Applies the changes to the graph. The lists of the graphs are updated
+     * when the graph is next {@link #getRoot() returned}.
+     *
+     * @return true if the graph changed
+     */
+    public boolean apply(GraphDelta delta) {
+        boolean changed = false;
+        for (String id : delta.removedEdges) {
+            if (edges.remove(id) != null) {
+                removeEdgeSlot(id);
+                changed = true;
+            }
+        }
+        for (String id : delta.removedNodes) {
+            if (declarations.remove(id) != null) {
+                removeNodeSlot(id);
+                changed = true;
+            }
+        }
+        for (int i = 0; i < delta.nodes.size(); i++) {
+            Node node = delta.nodes.get(i);
+            String id = deescapeId(node.id);
+            String graphId = graphOf(delta.nodeGraphs.get(i));
+            Slots graphSlots = slots.get(graphId);
+            Edge declaration = declarations.get(id);
+            if (declaration != null && isSame(nodeGraphs.get(id), graphId)) {
+                declaration.source = node;
+            } else {
+                if (declaration != null) {
+                    removeNodeSlot(id);
+                }
+                declaration = new Edge();
+                declaration.source = node;
+                graphSlots.declarations.add(declaration);
+                declarations.put(id, declaration);
+                nodeSlots.put(id, graphSlots.declarations.size() - 1);
+                nodeGraphs.put(id, graphId);
+            }
+            graphSlots.changed = true;
+            changed = true;
+        }
+        for (int i = 0; i < delta.edges.size(); i++) {
+            Edge edge = delta.edges.get(i);
+            String id = deescapeId(edge.id);
+            String graphId = graphOf(delta.edgeGraphs.get(i));
+            Slots graphSlots = slots.get(graphId);
+            if (edges.containsKey(id) && isSame(edgeGraphs.get(id), graphId)) {
+                graphSlots.edges.set(edgeSlots.get(id), edge);
+            } else {
+                if (edges.containsKey(id)) {
+                    removeEdgeSlot(id);
+                }
+                graphSlots.edges.add(edge);
+                edgeSlots.put(id, graphSlots.edges.size() - 1);
+                edgeGraphs.put(id, graphId);
+            }
+            edges.put(id, edge);
+            graphSlots.changed = true;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void removeNodeSlot(String id) {
+        Slots graphSlots = slots.get(nodeGraphs.remove(id));
+        graphSlots.declarations.set(nodeSlots.remove(id), null);
+        graphSlots.removedDeclarations++;
+        graphSlots.changed = true;
+        if (graphSlots.removedDeclarations > graphSlots.declarations.size() / 2) {
+            compactDeclarations(graphSlots);
+        }
+    }
+
+    private void removeEdgeSlot(String id) {
+        Slots graphSlots = slots.get(edgeGraphs.remove(id));
+        graphSlots.edges.set(edgeSlots.remove(id), null);
+        graphSlots.removedEdges++;
+        graphSlots.changed = true;
+        if (graphSlots.removedEdges > graphSlots.edges.size() / 2) {
+            compactEdges(graphSlots);
+        }
+    }
+
+    private void compactDeclarations(Slots graphSlots) {
+        int j = 0;
+        for (int i = 0; i < graphSlots.declarations.size(); i++) {
+            Edge declaration = graphSlots.declarations.get(i);
+            if (declaration != null) {
+                graphSlots.declarations.set(j, declaration);
+                if (declaration.source.graph == null) {
+                    nodeSlots.put(deescapeId(declaration.source.id), j);
+                }
+                j++;
+            }
+        }
+        truncate(graphSlots.declarations, j);
+        graphSlots.removedDeclarations = 0;
+    }
+
+    private void compactEdges(Slots graphSlots) {
+        int j = 0;
+        for (int i = 0; i < graphSlots.edges.size(); i++) {
+            Edge edge = graphSlots.edges.get(i);
+            if (edge != null) {
+                graphSlots.edges.set(j, edge);
+                edgeSlots.put(deescapeId(edge.id), j);
+                j++;
+            }
+        }
+        truncate(graphSlots.edges, j);
+        graphSlots.removedEdges = 0;
+    }
+
+    private static void truncate(ArrayList<Edge> list, int size) {
+        for (int i = list.size() - 1; i >= size; i--) {
+            list.remove(i);
+        }
+    }
+
+    /**
+     * Sets the list of the graph to its declarations followed by its edges
+     */
+    private void rebuild(Slots graphSlots) {
+        if (graphSlots.removedDeclarations > 0) {
+            compactDeclarations(graphSlots);
+        }
+        if (graphSlots.removedEdges > 0) {
+            compactEdges(graphSlots);
+        }
+        ArrayList<Edge> list = graphSlots.graph.graph;
+        list.clear();
+        list.addAll(graphSlots.declarations);
+        list.addAll(graphSlots.edges);
+        graphSlots.changed = false;
+    }
+
+    private static boolean isSame(String graphId, String other) {
+        return graphId == null ? other == null : graphId.equals(other);
+    }
+
+    /**
+     * Returns the id of the graph, null if it is the root graph or not known
+     */
+    private String graphOf(String graphId) {
+        return graphId != null && graphs.containsKey(graphId) ? graphId : null;
+    }
+
+    private static String deescapeId(String str) {
+        if (str.startsWith("\"") && str.endsWith("\"")) {
+            return str.substring(1, str.length() - 1);
+        } else {
+            return str;
+        }
+    }
+}
@@ -8,6 +8,10 @@ public class Node {
 
     public HashMap<String, String> params;
 
+    // Id of a shared attribute set in VizComponentState.attributeSets, the
+    // params override the values in the set
+    public String attributeSet;
+
     // Inheritance in shared state appears not to work, hence also data needed
     // only in graph nodes is included here
 
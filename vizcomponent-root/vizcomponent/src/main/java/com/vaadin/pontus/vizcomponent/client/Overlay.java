@@ -0,0 +1,26 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+import java.util.HashMap;
+
+/**
+ * Changes made by one component to the look of the graph it shows, kept apart
+ * from the graph so that the graph itself can be shared. All maps are keyed by
+ * the id of the node or edge.
+ */
+public class Overlay {
+
+    // Parameters overriding the ones in the graph
+    public HashMap<String, HashMap<String, String>> nodeParams;
+    public HashMap<String, HashMap<String, String>> edgeParams;
+
+    // CSS properties applied to the rendered graph
+    public HashMap<String, HashMap<String, String>> nodeCss;
+    public HashMap<String, HashMap<String, String>> edgeCss;
+
+    public Overlay() {
+        nodeParams = new HashMap<String, HashMap<String, String>>();
+        edgeParams = new HashMap<String, HashMap<String, String>>();
+        nodeCss = new HashMap<String, HashMap<String, String>>();
+        edgeCss = new HashMap<String, HashMap<String, String>>();
+    }
+}
@@ -0,0 +1,28 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+/**
+ * Css changes to many nodes and edges, sent in one call. Every id, property
+ * and value is sent once in a string table, and each change is a record of
+ * four integers in the changes array: the target, the id of the node or edge,
+ * the property and the value, where the value is -1 to remove the property.
+ */
+public class StyleChanges {
+
+    // The polygons or ellipses of a node
+    public static final int NODE = 0;
+    // The text of a node
+    public static final int NODE_TEXT = 1;
+    // The paths, polygons and ellipses of an edge
+    public static final int EDGE = 2;
+    // The text of an edge
+    public static final int EDGE_TEXT = 3;
+
+    public static final int RECORD_LENGTH = 4;
+
+    public String[] strings;
+    public int[] changes;
+
+    public int size() {
+        return changes == null ? 0 : changes.length / RECORD_LENGTH;
+    }
+}
@@ -0,0 +1,274 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * Finds out whether a {@link GraphDelta} only changes parameters that do not
+ * affect the layout, and if so, computes the values to set on the elements of
+ * the rendered SVG instead of laying out the graph again.
+ *
+ * Only the colors, the pen width and the line styles solid, dashed, dotted,
+ * bold and filled are patched. The values are resolved like Graphviz does,
+ * from the parameters of the element, the overrides of the component, the
+ * defaults of the graphs the element is in and the Graphviz defaults. Colors
+ * must be plain color names or #rrggbb values.
+ */
+public class StylePatcher {
+
+    /**
+     * Values of the presentation attributes of the SVG elements of a node or
+     * an edge. Null values are removed from the elements.
+     */
+    public static class Style {
+        // Of the shapes of nodes and the lines of edges
+        public String stroke;
+        public String fill;
+        public String strokeWidth;
+        public String strokeDasharray;
+        // Of the arrowheads of edges
+        public String arrowFill;
+        // Of the labels
+        public String fontColor;
+    }
+
+    private static final HashSet<String> STYLE_PARAMS = new HashSet<String>();
+    private static final HashSet<String> LINE_STYLES = new HashSet<String>();
+    static {
+        STYLE_PARAMS.add("color");
+        STYLE_PARAMS.add("fillcolor");
+        STYLE_PARAMS.add("fontcolor");
+        STYLE_PARAMS.add("penwidth");
+        STYLE_PARAMS.add("style");
+        LINE_STYLES.add("solid");
+        LINE_STYLES.add("dashed");
+        LINE_STYLES.add("dotted");
+        LINE_STYLES.add("bold");
+        LINE_STYLES.add("filled");
+    }
+
+    private final GraphModel model;
+    private final HashMap<String, HashMap<String, String>> attributeSets;
+    private final Overlay overlay;
+    private final LinkedHashMap<String, Style> nodeStyles = new LinkedHashMap<String, Style>();
+    private final LinkedHashMap<String, Style> edgeStyles = new LinkedHashMap<String, Style>();
+
+    public StylePatcher(GraphModel model,
+            HashMap<String, HashMap<String, String>> attributeSets,
+            Overlay overlay) {
+        this.model = model;
+        this.attributeSets = attributeSets;
+        this.overlay = overlay;
+    }
+
+    /**
+     * Computes the styles of the nodes and edges changed by the delta. Must
+     * be called before the delta is applied to the model.
+     *
+     * @return false if the graph has to be laid out again
+     */
+    public boolean prepare(GraphDelta delta) {
+        if (delta.topologyChanged || !delta.removedNodes.isEmpty()
+                || !delta.removedEdges.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < delta.nodes.size(); i++) {
+            Node node = delta.nodes.get(i);
+            String id = deescapeId(node.id);
+            Node old = model.getNode(id);
+            String graphId = delta.nodeGraphs.get(i);
+            if (old == null || !equal(graphId, model.getNodeGraph(id))) {
+                return false;
+            }
+            HashMap<String, String> override = overlay == null ? null
+                    : overlay.nodeParams.get(id);
+            HashMap<String, String> params = withAttributeSet(node.params,
+                    node.attributeSet);
+            if (!onlyStyleChanged(
+                    withAttributeSet(old.params, old.attributeSet), params,
+                    override)) {
+                return false;
+            }
+            Style style = resolve(params, override, graphId, true);
+            if (style == null) {
+                return false;
+            }
+            nodeStyles.put(id, style);
+        }
+        for (int i = 0; i < delta.edges.size(); i++) {
+            Edge edge = delta.edges.get(i);
+            String id = deescapeId(edge.id);
+            Edge old = model.getEdge(id);
+            String graphId = delta.edgeGraphs.get(i);
+            if (old == null || !equal(graphId, model.getEdgeGraph(id))) {
+                return false;
+            }
+            HashMap<String, String> override = overlay == null ? null
+                    : overlay.edgeParams.get(id);
+            HashMap<String, String> params = withAttributeSet(edge.params,
+                    edge.attributeSet);
+            if (!onlyStyleChanged(
+                    withAttributeSet(old.params, old.attributeSet), params,
+                    override)) {
+                return false;
+            }
+            Style style = resolve(params, override, graphId, false);
+            if (style == null) {
+                return false;
+            }
+            edgeStyles.put(id, style);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the styles of the changed nodes by id
+     */
+    public LinkedHashMap<String, Style> getNodeStyles() {
+        return nodeStyles;
+    }
+
+    /**
+     * Returns the styles of the changed edges by id
+     */
+    public LinkedHashMap<String, Style> getEdgeStyles() {
+        return edgeStyles;
+    }
+
+    /**
+     * Returns true if the parameters only differ in parameters that can be
+     * patched, ignoring the ones overridden by the component
+     */
+    private static boolean onlyStyleChanged(HashMap<String, String> oldParams,
+            HashMap<String, String> newParams,
+            HashMap<String, String> override) {
+        HashSet<String> names = new HashSet<String>(oldParams.keySet());
+        names.addAll(newParams.keySet());
+        for (String name : names) {
+            if (override != null && override.containsKey(name)) {
+                continue;
+            }
+            if (!equal(oldParams.get(name), newParams.get(name))
+                    && !STYLE_PARAMS.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolves the style of a node or an edge
+     *
+     * @return null if a value can not be patched
+     */
+    private Style resolve(HashMap<String, String> params,
+            HashMap<String, String> override, String graphId, boolean node) {
+        String color = value("color", params, override, graphId, node);
+        String fillColor = value("fillcolor", params, override, graphId, node);
+        String fontColor = value("fontcolor", params, override, graphId, node);
+        String penWidth = value("penwidth", params, override, graphId, node);
+        String lineStyle = value("style", params, override, graphId, node);
+        if (!isColor(color) || !isColor(fillColor) || !isColor(fontColor)
+                || (penWidth != null && !isNumber(penWidth))) {
+            return null;
+        }
+        HashSet<String> styles = new HashSet<String>();
+        if (lineStyle != null) {
+            for (String s : lineStyle.split(",")) {
+                s = s.trim();
+                if (!LINE_STYLES.contains(s)) {
+                    return null;
+                }
+                styles.add(s);
+            }
+        }
+
+        Style style = new Style();
+        style.stroke = color == null ? "black" : color;
+        if (node) {
+            if (styles.contains("filled")) {
+                style.fill = fillColor != null ? fillColor
+                        : color != null ? color : "lightgrey";
+            } else {
+                style.fill = "none";
+            }
+        } else {
+            style.fill = "none";
+            style.arrowFill = fillColor != null ? fillColor : style.stroke;
+        }
+        if (styles.contains("bold")) {
+            style.strokeWidth = "2";
+        } else {
+            style.strokeWidth = penWidth;
+        }
+        if (styles.contains("dashed")) {
+            style.strokeDasharray = "5,2";
+        } else if (styles.contains("dotted")) {
+            style.strokeDasharray = "1,5";
+        }
+        style.fontColor = fontColor == null ? "black" : fontColor;
+        return style;
+    }
+
+    private String value(String name, HashMap<String, String> params,
+            HashMap<String, String> override, String graphId, boolean node) {
+        String value;
+        if (override != null && override.containsKey(name)) {
+            value = override.get(name);
+        } else if (params.containsKey(name)) {
+            value = params.get(name);
+        } else if (node) {
+            value = model.getNodeDefault(graphId, name);
+        } else {
+            value = model.getEdgeDefault(graphId, name);
+        }
+        return value == null ? null : unquote(value);
+    }
+
+    private static boolean isColor(String value) {
+        if (value == null) {
+            return true;
+        }
+        if (value.startsWith("#")) {
+            return value.matches("#[0-9a-fA-F]{6}");
+        }
+        return value.matches("[a-zA-Z]+");
+    }
+
+    private static boolean isNumber(String value) {
+        return value.matches("[0-9]+(\\.[0-9]*)?|\\.[0-9]+");
+    }
+
+    private HashMap<String, String> withAttributeSet(
+            HashMap<String, String> params, String attributeSet) {
+        if (attributeSet == null || attributeSets == null
+                || !attributeSets.containsKey(attributeSet)) {
+            return params;
+        }
+        HashMap<String, String> merged = new HashMap<String, String>(
+                attributeSets.get(attributeSet));
+        merged.putAll(params);
+        return merged;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"")
+                && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String deescapeId(String str) {
+        if (str.startsWith("\"") && str.endsWith("\"")) {
+            return str.substring(1, str.length() - 1);
+        } else {
+            return str;
+        }
+    }
+}
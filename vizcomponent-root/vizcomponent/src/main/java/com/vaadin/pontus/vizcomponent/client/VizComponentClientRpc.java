@@ -22,4 +22,14 @@ public interface VizComponentClientRpc extends ClientRpc {
 
     public void addEdgeTextCss(String edgeId, String property, String value);
 
+    // Removes the css added to the nodes and edges, as rendering the graph
+    // again does
+    public void clearCss();
+
+    // Applies css changes to many nodes and edges
+    public void applyStyles(StyleChanges changes);
+
+    // Applies changes to the client copy of the graph in the state
+    public void updateGraph(GraphDelta delta);
+
 }
\ No newline at end of file
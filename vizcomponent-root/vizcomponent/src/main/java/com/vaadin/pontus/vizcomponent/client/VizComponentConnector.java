@@ -1,15 +1,28 @@
 package com.vaadin.pontus.vizcomponent.client;
 
+import java.util.HashMap;
+
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.NativeEvent;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
 import com.vaadin.client.MouseEventDetailsBuilder;
+import com.vaadin.client.communication.JsonDecoder;
 import com.vaadin.client.communication.RpcProxy;
 import com.vaadin.client.communication.StateChangeEvent;
+import com.vaadin.client.metadata.Type;
 import com.vaadin.client.ui.AbstractComponentConnector;
 import com.vaadin.pontus.vizcomponent.VizComponent;
 import com.vaadin.shared.MouseEventDetails;
 import com.vaadin.shared.ui.Connect;
 
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
 // Connector binds client-side widget class to server-side component class
 // Connector lives in the client and the @Connect annotation specifies the
 // corresponding server-side component
@@ -22,6 +35,24 @@ public class VizComponentConnector extends AbstractComponentConnector {
     VizComponentServerRpc rpc = RpcProxy.create(VizComponentServerRpc.class,
             this);
 
+    // Copy of the graph in the state with the changes received applied,
+    // created when changes are received. The graph in the state is left as
+    // the server sent it, since Vaadin sends later state changes relative to
+    // it.
+    private GraphModel model;
+    // The revision of the graph the model was copied from
+    private int modelRevision;
+
+    // Type of the attribute sets in the JSON of a shared graph
+    private static final Type ATTRIBUTE_SETS_TYPE = new Type(
+            HashMap.class.getName(), new Type[] { new Type(String.class),
+                    new Type(HashMap.class.getName(), new Type[] {
+                            new Type(String.class), new Type(String.class) }) });
+    // The shared graph loaded from the resource, null while it is loading
+    private String sharedGraphUrl;
+    private Node sharedGraph;
+    private HashMap<String, HashMap<String, String>> sharedAttributeSets;
+
     public VizComponentConnector() {
 
         // To receive RPC events from server, we register ClientRpc
@@ -30,53 +61,154 @@ public class VizComponentConnector extends AbstractComponentConnector {
 
             @Override
             public void fitGraph() {
-                getWidget().fitGraph();
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().fitGraph();
+                    }
+                });
             }
 
             @Override
             public void centerGraph() {
-                getWidget().centerGraph();
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().centerGraph();
+                    }
+                });
             }
 
             @Override
-            public void centerToNode(String nodeId) {
-                getWidget().centerToNode(nodeId);
+            public void centerToNode(final String nodeId) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().centerToNode(nodeId);
+                    }
+                });
             }
 
             @Override
-            public void addNodeCss(String nodeId, String property,
-                    String value) {
-                getWidget().addNodeCss(nodeId, property, value);
+            public void addNodeCss(final String nodeId,
+                    final String property, final String value) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().addNodeCss(nodeId, property, value);
+                    }
+                });
+            }
 
+            @Override
+            public void removeNodeCss(final String nodeId,
+                    final String property) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().removeNodeCss(nodeId, property);
+                    }
+                });
             }
 
             @Override
-            public void removeNodeCss(String nodeId, String property) {
-                getWidget().removeNodeCss(nodeId, property);
+            public void addEdgeCss(final String edgeId,
+                    final String property, final String value) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().addEdgeCss(edgeId, property, value);
+                    }
+                });
             }
 
             @Override
-            public void addEdgeCss(String edgeId, String property,
-                    String value) {
-                getWidget().addEdgeCss(edgeId, property, value);
+            public void addNodeTextCss(final String nodeId,
+                    final String property, final String value) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().addNodeTextCss(nodeId, property, value);
+                    }
+                });
+            }
 
+            @Override
+            public void addEdgeTextCss(final String edgeId,
+                    final String property, final String value) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().addEdgeTextCss(edgeId, property, value);
+                    }
+                });
             }
 
             @Override
-            public void addNodeTextCss(String nodeId, String property,
-                    String value) {
-                getWidget().addNodeTextCss(nodeId, property, value);
+            public void clearCss() {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().clearCss(getState().overlay);
+                    }
+                });
+            }
 
+            @Override
+            public void applyStyles(final StyleChanges changes) {
+                whenRendered(new ScheduledCommand() {
+                    @Override
+                    public void execute() {
+                        getWidget().applyStyles(changes);
+                    }
+                });
             }
 
             @Override
-            public void addEdgeTextCss(String edgeId, String property,
-                    String value) {
-                getWidget().addEdgeTextCss(edgeId, property, value);
+            public void updateGraph(GraphDelta delta) {
+                Node graph = getState().graph;
+                if (graph == null || graph.graph == null) {
+                    return;
+                }
+                if (model == null || modelRevision != getState().revision) {
+                    model = new GraphModel(GraphModel.copy(graph));
+                    modelRevision = getState().revision;
+                }
+                // Changes that do not affect the layout are patched to the
+                // rendered graph
+                StylePatcher patcher = new StylePatcher(model,
+                        getState().attributeSets, getState().overlay);
+                boolean patch = patcher.prepare(delta);
+                if (model.apply(delta)) {
+                    if (!patch || !getWidget().patchStyles(patcher)) {
+                        VizComponentConnector.this.updateGraph();
+                    }
+                }
+            }
+        });
 
+    }
+
+    @Override
+    protected void init() {
+        super.init();
+        getWidget().setRenderListener(new VizRenderListener() {
+            @Override
+            public void rendered() {
+                getWidget().setStyleNames(getState().nodeStyleNames,
+                        getState().edgeStyleNames);
+                getWidget().addNodeClickHandler(new NodeClickHandler());
+                getWidget().addEdgeClickHandler(new EdgeClickHandler());
             }
         });
+    }
 
+    /**
+     * Runs the command on the rendered graph, after the layout in progress if
+     * any
+     */
+    private void whenRendered(ScheduledCommand command) {
+        getWidget().whenRendered(command);
     }
 
     class NodeClickHandler implements VizClickHandler {
@@ -127,21 +259,128 @@ public class VizComponentConnector extends AbstractComponentConnector {
         super.onStateChanged(stateChangeEvent);
 
         if (stateChangeEvent.hasPropertyChanged("graph")
+                || stateChangeEvent.hasPropertyChanged("revision")
+                || stateChangeEvent.hasPropertyChanged("dot")
+                || stateChangeEvent.hasPropertyChanged("encoded")
+                || stateChangeEvent.hasPropertyChanged("svg")
                 || stateChangeEvent.hasPropertyChanged("graphType")
-                || stateChangeEvent.hasPropertyChanged("name")
-                || stateChangeEvent.hasPropertyChanged("params")
-                || stateChangeEvent.hasPropertyChanged("nodeParams")
-                || stateChangeEvent.hasPropertyChanged("edgeParams")) {
+                || stateChangeEvent.hasPropertyChanged("attributeSets")
+                || stateChangeEvent.hasPropertyChanged("overlay")
+                || stateChangeEvent.hasPropertyChanged("resources")) {
             updateGraph();
+        } else if (stateChangeEvent.hasPropertyChanged("nodeStyleNames")
+                || stateChangeEvent.hasPropertyChanged("edgeStyleNames")) {
+            whenRendered(new ScheduledCommand() {
+                @Override
+                public void execute() {
+                    getWidget().setStyleNames(getState().nodeStyleNames,
+                            getState().edgeStyleNames);
+                }
+            });
         }
 
     }
 
+    /**
+     * Returns the graph in the state with the changes received since applied
+     */
+    private Node currentGraph() {
+        if (model != null && modelRevision == getState().revision) {
+            return model.getRoot();
+        }
+        return getState().graph;
+    }
+
     private void updateGraph() {
-        getWidget().renderGraph(getState().graph, getState().graphType,
-                getState().zoomsettings);
-        getWidget().addNodeClickHandler(new NodeClickHandler());
-        getWidget().addEdgeClickHandler(new EdgeClickHandler());
+        getWidget().setLayoutUrl(
+                getResourceUrl(VizComponentState.LAYOUT_RESOURCE));
+        getWidget().setPanZoomUrl(
+                getResourceUrl(VizComponentState.PAN_ZOOM_RESOURCE));
+        getWidget().setLayoutInWorker(getState().layoutInWorker);
+        if (getState().svg != null) {
+            getWidget().renderSvg(getState().svg, getState().overlay,
+                    getState().zoomsettings);
+        } else if (getState().dot != null) {
+            getWidget().renderDot(getState().dot, getState().overlay,
+                    getState().zoomsettings);
+        } else if (getState().encoded != null) {
+            getWidget().renderEncoded(getState().encoded,
+                    getState().graphType, getState().overlay,
+                    getState().zoomsettings);
+        } else if (getResourceUrl(
+                VizComponentState.SHARED_GRAPH_RESOURCE) != null) {
+            renderSharedGraph(getResourceUrl(
+                    VizComponentState.SHARED_GRAPH_RESOURCE));
+        } else {
+            getWidget().renderGraph(currentGraph(), getState().graphType,
+                    getState().attributeSets, getState().overlay,
+                    getState().zoomsettings);
+        }
+    }
+
+    /**
+     * Renders the shared graph, loading it from the URL unless it was loaded
+     * already
+     */
+    private void renderSharedGraph(final String url) {
+        if (url.equals(sharedGraphUrl)) {
+            if (sharedGraph != null) {
+                getWidget().renderGraph(sharedGraph, getState().graphType,
+                        sharedAttributeSets, getState().overlay,
+                        getState().zoomsettings);
+            }
+            // Otherwise the graph is rendered when it has been loaded
+            return;
+        }
+        sharedGraphUrl = url;
+        sharedGraph = null;
+        sharedAttributeSets = null;
+        RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, url);
+        try {
+            builder.sendRequest(null, new RequestCallback() {
+                @Override
+                public void onResponseReceived(Request request,
+                        Response response) {
+                    if (!url.equals(sharedGraphUrl)) {
+                        // Another graph has been drawn since
+                        return;
+                    }
+                    if (response.getStatusCode() != Response.SC_OK) {
+                        sharedGraphUrl = null;
+                        getWidget().renderError("Loading the graph failed: "
+                                + response.getStatusText());
+                        return;
+                    }
+                    sharedLoaded(response.getText());
+                    renderSharedGraph(url);
+                }
+
+                @Override
+                public void onError(Request request, Throwable exception) {
+                    if (url.equals(sharedGraphUrl)) {
+                        sharedGraphUrl = null;
+                        getWidget().renderError("Loading the graph failed: "
+                                + exception.getMessage());
+                    }
+                }
+            });
+        } catch (RequestException e) {
+            sharedGraphUrl = null;
+            getWidget().renderError(
+                    "Loading the graph failed: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sharedLoaded(String text) {
+        JsonObject json = Json.parse(text);
+        sharedGraph = (Node) JsonDecoder.decodeValue(new Type(Node.class),
+                json.get(VizComponentState.SHARED_GRAPH), null,
+                getConnection());
+        sharedAttributeSets = (HashMap<String, HashMap<String, String>>) JsonDecoder
+                .decodeValue(ATTRIBUTE_SETS_TYPE,
+                        json.get(VizComponentState.SHARED_ATTRIBUTE_SETS),
+                        null, getConnection());
     }
 
 }
@@ -1,5 +1,8 @@
 package com.vaadin.pontus.vizcomponent.client;
 
+import java.util.HashMap;
+import java.util.HashSet;
+
 @SuppressWarnings("serial")
 public class VizComponentState extends com.vaadin.shared.AbstractComponentState {
 
@@ -7,6 +10,50 @@ public class VizComponentState extends com.vaadin.shared.AbstractComponentState
 
     public Node graph;
 
+    // Changed when the graph is sent again after changes were sent with
+    // VizComponentClientRpc.updateGraph. The client applies the changes to a
+    // copy of the graph, and drops the copy when the revision changes.
+    public int revision;
+
+    // The graph in the DOT language, used instead of graph when set
+    public String dot;
+
+    // Prefixes of the ids of the nodes and edges in the SVG rendered from dot
+    public static final String DOT_NODE_ID_PREFIX = "node:";
+    public static final String DOT_EDGE_ID_PREFIX = "edge:";
+
+    // The graph in the compact encoding, used instead of graph when set
+    public EncodedGraph encoded;
+
+    // The graph laid out on the server, SVG rendered from dot with the same
+    // ids, used instead of graph when set
+    public String svg;
+
+    // Key of the resource the JSON of a shared graph is loaded from, used
+    // instead of graph when set. The JSON has the graph and the attribute sets
+    // it refers to under the two names.
+    public static final String SHARED_GRAPH_RESOURCE = "graph";
+    public static final String SHARED_GRAPH = "graph";
+    public static final String SHARED_ATTRIBUTE_SETS = "attributeSets";
+
+    // Attribute sets shared by nodes and edges in the graph
+    public HashMap<String, HashMap<String, String>> attributeSets;
+
+    // Overrides made by this component to a possibly shared graph
+    public Overlay overlay;
+
+    // Style names of the nodes and edges by id, applied as classes to the
+    // rendered elements. Kept apart from the overlay so that changing them
+    // does not render the graph again.
+    public HashMap<String, HashSet<String>> nodeStyleNames;
+    public HashMap<String, HashSet<String>> edgeStyleNames;
+
+    // Whether graphs are laid out in a Web Worker loading viz.js from the
+    // resource
+    public boolean layoutInWorker = true;
+    public static final String LAYOUT_RESOURCE = "viz";
+    public static final String PAN_ZOOM_RESOURCE = "panzoom";
+
     // graph, digraph
     public String graphType;
 
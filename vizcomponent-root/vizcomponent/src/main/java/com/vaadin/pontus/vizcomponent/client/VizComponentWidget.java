@@ -2,9 +2,13 @@ package com.vaadin.pontus.vizcomponent.client;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.core.client.Callback;
 import com.google.gwt.core.client.JavaScriptException;
 import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.core.client.Scheduler;
@@ -40,8 +44,41 @@ public class VizComponentWidget extends FlowPanel {
     static int globalComponentID = 1;
     private final int componentID;
     private JavaScriptObject zoomPanHandler;
+    // Zoom and pan commands waiting for svg-pan-zoom to be set up for the
+    // graph
+    private final ArrayList<ScheduledCommand> afterZoomSetup = new ArrayList<ScheduledCommand>();
+    // URL of svg-pan-zoom, loaded when the first graph with zoom settings is
+    // rendered
+    private String panZoomUrl;
     private int nodeCounter;
     private int edgeCounter;
+    // Shared attribute sets of the graph being rendered
+    private HashMap<String, HashMap<String, String>> attributeSets;
+    // Overrides of the graph being rendered
+    private Overlay overlay;
+    // Classes of the elements that have style names, by svg id, to be
+    // restored when the style names change
+    private final HashMap<String, String> baseClasses = new HashMap<String, String>();
+    // The worker laying out graphs for all widgets, created when first needed
+    private static JavaScriptObject worker;
+    private static boolean workerUnavailable;
+    private static int nextLayoutRequest = 1;
+    // The widgets waiting for layouts by request
+    private static final HashMap<Integer, VizComponentWidget> layoutRequests = new HashMap<Integer, VizComponentWidget>();
+    // URL of viz.js, loaded when the first graph is rendered
+    private String layoutUrl;
+    private boolean layoutInWorker;
+    // The layout in progress, 0 if none
+    private int layoutRequest;
+    private String layoutDot;
+    private ZoomSettings layoutZoomSettings;
+    private ScheduledCommand layoutCallback;
+    private Element placeholder;
+    // Commands waiting for the layout in progress
+    private final ArrayList<ScheduledCommand> afterRender = new ArrayList<ScheduledCommand>();
+    private VizRenderListener renderListener;
+    // Css changes waiting for the next animation frame
+    private final ArrayList<StyleChanges> pendingStyles = new ArrayList<StyleChanges>();
 
     public VizComponentWidget() {
 
@@ -58,22 +95,12 @@ public class VizComponentWidget extends FlowPanel {
     }
 
     public void renderGraph(Node graph, String type,
-            final ZoomSettings zoomSettings) {
+            HashMap<String, HashMap<String, String>> attributeSets,
+            final Overlay overlay, final ZoomSettings zoomSettings) {
 
-        svgIdToNodeIdMap.clear();
-        svgIdToEdgeIdMap.clear();
-        nodeIdToSvgIdMap.clear();
-        edgeIdToSvgIdMap.clear();
-        nodeCounter = 1;
-        edgeCounter = 1;
-        if (svg != null) {
-            getElement().removeChild(svg);
-            svg = null;
-        }
-        if (graph == null || graph.graph == null) {
-            return;
-        }
-        if (graph.graph.isEmpty()) {
+        removeSvg();
+        if (graph == null || graph.graph == null || graph.graph.isEmpty()) {
+            rendered();
             return;
         }
         String connSymbol;
@@ -92,34 +119,565 @@ public class VizComponentWidget extends FlowPanel {
             builder.append(graph.id);
         }
 
+        this.attributeSets = attributeSets;
+        this.overlay = overlay;
         renderGraph(graph, connSymbol, builder);
+        this.attributeSets = null;
+        this.overlay = null;
 
-        try {
-            String result = compileSVG(builder.toString());
-            getElement().setInnerHTML(result);
-            svg = getElement().getFirstChildElement();
-            final String boxid = "_svgbox" + componentID;
-            svg = getElement().getFirstChildElement();
-            svg.setAttribute("width", "100%");
-            svg.setAttribute("height", "100%");
-            svg.setId(boxid);
-            if (zoomSettings != null) {
-                // For some reason zooming doesn't work when the component is
-                // created
-                // This way zoom actions are deferred until afterwards.
-                Scheduler.get().scheduleDeferred(new ScheduledCommand() {
-                    @Override
-                    public void execute() {
-                        zoomPanHandler = setupZoomPanHandler(boxid,
-                                zoomSettings);
-                    }
-                });
+        render(builder.toString(), zoomSettings, new ScheduledCommand() {
+            @Override
+            public void execute() {
+                if (svg != null && overlay != null) {
+                    applyOverlayCss(overlay);
+                }
+            }
+        });
+    }
+
+    /**
+     * Renders a graph given in the DOT language. The nodes and edges are
+     * found from the ids Graphviz gives them in the SVG, which must start with
+     * {@link VizComponentState#DOT_NODE_ID_PREFIX} and
+     * {@link VizComponentState#DOT_EDGE_ID_PREFIX}.
+     */
+    public void renderDot(String dot, final Overlay overlay,
+            ZoomSettings zoomSettings) {
+        removeSvg();
+        if (dot == null) {
+            rendered();
+            return;
+        }
+        render(dot, zoomSettings, dotRendered(overlay));
+    }
+
+    /**
+     * Shows a graph laid out on the server, the SVG rendered from DOT text
+     * written with the DOT id prefixes
+     */
+    public void renderSvg(String svg, Overlay overlay,
+            ZoomSettings zoomSettings) {
+        removeSvg();
+        if (svg != null) {
+            insertSvg(svg, zoomSettings);
+            dotRendered(overlay).execute();
+        }
+        rendered();
+    }
+
+    private ScheduledCommand dotRendered(final Overlay overlay) {
+        return new ScheduledCommand() {
+            @Override
+            public void execute() {
+                if (svg != null) {
+                    collectIds();
+                }
+                if (svg != null && overlay != null) {
+                    applyOverlayCss(overlay);
+                }
+            }
+        };
+    }
+
+    /**
+     * Shows the error message instead of a graph
+     */
+    public void renderError(String message) {
+        removeSvg();
+        showError(message);
+        rendered();
+    }
+
+    /**
+     * Renders a graph given in the compact encoding
+     */
+    public void renderEncoded(EncodedGraph encoded, String type,
+            final Overlay overlay, ZoomSettings zoomSettings) {
+        removeSvg();
+        if (encoded == null || encoded.graphCount == 0) {
+            rendered();
+            return;
+        }
+        EncodedGraphDecoder decoder = new EncodedGraphDecoder(encoded);
+        decoder.setIdPrefixes("node", "edge");
+        if (overlay != null) {
+            decoder.setOverrides(overlay.nodeParams, overlay.edgeParams);
+        }
+        for (int i = 0; i < decoder.getNodeCount(); i++) {
+            String nodeId = decoder.getNodeId(i);
+            svgIdToNodeIdMap.put("node" + i, nodeId);
+            nodeIdToSvgIdMap.put(nodeId, "node" + i);
+        }
+        for (int i = 0; i < decoder.getEdgeCount(); i++) {
+            String edgeId = decoder.getEdgeId(i);
+            svgIdToEdgeIdMap.put("edge" + i, edgeId);
+            edgeIdToSvgIdMap.put(edgeId, "edge" + i);
+        }
+        render(decoder.toDot(type), zoomSettings, new ScheduledCommand() {
+            @Override
+            public void execute() {
+                if (svg != null && overlay != null) {
+                    applyOverlayCss(overlay);
+                }
             }
+        });
+    }
 
+    /**
+     * Sets the styles computed by the patcher on the rendered SVG elements
+     * without laying out the graph again. Css set on the elements is kept.
+     *
+     * @return false if some node or edge is not in the rendered graph, so
+     *         that the graph has to be rendered again
+     */
+    public boolean patchStyles(StylePatcher patcher) {
+        if (svg == null) {
+            return false;
+        }
+        for (String nodeId : patcher.getNodeStyles().keySet()) {
+            if (!nodeIdToSvgIdMap.containsKey(nodeId)) {
+                return false;
+            }
+        }
+        for (String edgeId : patcher.getEdgeStyles().keySet()) {
+            if (!edgeIdToSvgIdMap.containsKey(edgeId)) {
+                return false;
+            }
+        }
+        for (String nodeId : patcher.getNodeStyles().keySet()) {
+            StylePatcher.Style style = patcher.getNodeStyles().get(nodeId);
+            Element svgNode = DOM.getElementById(nodeIdToSvgIdMap.get(nodeId));
+            for (String tag : new String[] { "ellipse", "polygon", "path",
+                    "polyline" }) {
+                NodeList<Element> shapes = svgNode.getElementsByTagName(tag);
+                for (int i = 0; i < shapes.getLength(); i++) {
+                    setLineStyle(shapes.getItem(i), style, style.fill);
+                }
+            }
+            setTextColor(svgNode, style);
+        }
+        for (String edgeId : patcher.getEdgeStyles().keySet()) {
+            StylePatcher.Style style = patcher.getEdgeStyles().get(edgeId);
+            Element svgEdge = DOM.getElementById(edgeIdToSvgIdMap.get(edgeId));
+            NodeList<Element> lines = svgEdge.getElementsByTagName("path");
+            for (int i = 0; i < lines.getLength(); i++) {
+                setLineStyle(lines.getItem(i), style, style.fill);
+            }
+            NodeList<Element> arrows = svgEdge.getElementsByTagName("polygon");
+            for (int i = 0; i < arrows.getLength(); i++) {
+                setLineStyle(arrows.getItem(i), style, style.arrowFill);
+                // Arrowheads are always drawn solid
+                arrows.getItem(i).removeAttribute("stroke-dasharray");
+            }
+            setTextColor(svgEdge, style);
+        }
+        return true;
+    }
+
+    private static void setLineStyle(Element shape, StylePatcher.Style style,
+            String fill) {
+        setAttribute(shape, "stroke", style.stroke);
+        setAttribute(shape, "fill", fill);
+        setAttribute(shape, "stroke-width", style.strokeWidth);
+        setAttribute(shape, "stroke-dasharray", style.strokeDasharray);
+    }
+
+    private static void setTextColor(Element svgElement,
+            StylePatcher.Style style) {
+        NodeList<Element> texts = svgElement.getElementsByTagName("text");
+        for (int i = 0; i < texts.getLength(); i++) {
+            setAttribute(texts.getItem(i), "fill", style.fontColor);
+        }
+    }
+
+    private static void setAttribute(Element element, String name,
+            String value) {
+        if (value == null) {
+            element.removeAttribute(name);
+        } else {
+            element.setAttribute(name, value);
+        }
+    }
+
+    /**
+     * Adds the style names as classes to the group elements of the nodes and
+     * edges, replacing the style names set earlier
+     *
+     * @param nodeStyleNames
+     *            style names by node id, can be null
+     * @param edgeStyleNames
+     *            style names by edge id, can be null
+     */
+    public void setStyleNames(HashMap<String, HashSet<String>> nodeStyleNames,
+            HashMap<String, HashSet<String>> edgeStyleNames) {
+        if (svg == null) {
+            return;
+        }
+        for (String svgId : baseClasses.keySet()) {
+            Element element = DOM.getElementById(svgId);
+            if (element != null) {
+                element.setAttribute("class", baseClasses.get(svgId));
+            }
+        }
+        baseClasses.clear();
+        addStyleNames(nodeStyleNames, nodeIdToSvgIdMap);
+        addStyleNames(edgeStyleNames, edgeIdToSvgIdMap);
+    }
+
+    private void addStyleNames(HashMap<String, HashSet<String>> styleNames,
+            HashMap<String, String> svgIds) {
+        if (styleNames == null) {
+            return;
+        }
+        for (String id : styleNames.keySet()) {
+            String svgId = svgIds.get(id);
+            if (svgId == null) {
+                continue;
+            }
+            Element element = DOM.getElementById(svgId);
+            // The class name property of SVG elements is not a string
+            String base = element.getAttribute("class");
+            StringBuilder classes = new StringBuilder(base);
+            for (String styleName : styleNames.get(id)) {
+                classes.append(' ').append(styleName);
+            }
+            baseClasses.put(svgId, base);
+            element.setAttribute("class", classes.toString());
+        }
+    }
+
+    private void removeSvg() {
+        cancelLayout();
+        baseClasses.clear();
+        svgIdToNodeIdMap.clear();
+        svgIdToEdgeIdMap.clear();
+        nodeIdToSvgIdMap.clear();
+        edgeIdToSvgIdMap.clear();
+        nodeCounter = 1;
+        edgeCounter = 1;
+        zoomPanHandler = null;
+        if (svg != null) {
+            getElement().removeChild(svg);
+            svg = null;
+        }
+    }
+
+    private void collectIds() {
+        NodeList<Element> groups = svg.getElementsByTagName("g");
+        for (int i = 0; i < groups.getLength(); i++) {
+            String svgId = groups.getItem(i).getAttribute("id");
+            String nodePrefix = VizComponentState.DOT_NODE_ID_PREFIX;
+            String edgePrefix = VizComponentState.DOT_EDGE_ID_PREFIX;
+            if (svgId.startsWith(nodePrefix)) {
+                String nodeId = svgId.substring(nodePrefix.length());
+                svgIdToNodeIdMap.put(svgId, nodeId);
+                nodeIdToSvgIdMap.put(nodeId, svgId);
+            } else if (svgId.startsWith(edgePrefix)) {
+                String edgeId = svgId.substring(edgePrefix.length());
+                svgIdToEdgeIdMap.put(svgId, edgeId);
+                edgeIdToSvgIdMap.put(edgeId, svgId);
+            }
+        }
+    }
+
+    /**
+     * Sets the URL viz.js is loaded from when the first graph is rendered
+     *
+     * @param url
+     *            null if viz.js is loaded by the page
+     */
+    public void setLayoutUrl(String url) {
+        layoutUrl = url;
+    }
+
+    /**
+     * Sets whether graphs are laid out in a Web Worker, which needs the URL
+     * of viz.js
+     */
+    public void setLayoutInWorker(boolean layoutInWorker) {
+        this.layoutInWorker = layoutInWorker;
+    }
+
+    /**
+     * Calls the callback when graphs can be laid out in the page, loading
+     * viz.js if it has not been loaded yet
+     */
+    public void whenLayoutReady(Callback<Void, Exception> callback) {
+        if (layoutUrl == null || VizLoader.VIZ.isLoaded()) {
+            callback.onSuccess(null);
+        } else {
+            VizLoader.VIZ.whenReady(layoutUrl, callback);
+        }
+    }
+
+    /**
+     * Sets the URL svg-pan-zoom is loaded from when the first graph with zoom
+     * settings is rendered
+     *
+     * @param url
+     *            null if svg-pan-zoom is loaded by the page
+     */
+    public void setPanZoomUrl(String url) {
+        panZoomUrl = url;
+    }
+
+    /**
+     * Calls the callback when svg-pan-zoom has been loaded into the page
+     */
+    private void whenPanZoomReady(Callback<Void, Exception> callback) {
+        if (panZoomUrl == null || VizLoader.PAN_ZOOM.isLoaded()) {
+            callback.onSuccess(null);
+        } else {
+            VizLoader.PAN_ZOOM.whenReady(panZoomUrl, callback);
+        }
+    }
+
+    /**
+     * Sets the listener notified whenever a graph has been rendered
+     */
+    public void setRenderListener(VizRenderListener listener) {
+        renderListener = listener;
+    }
+
+    /**
+     * Runs the command when the graph being laid out has been rendered, or
+     * right away if no layout is in progress. Commands changing the rendered
+     * graph must be run through this.
+     */
+    public void whenRendered(ScheduledCommand command) {
+        if (layoutRequest == 0) {
+            command.execute();
+        } else {
+            afterRender.add(command);
+        }
+    }
+
+    /**
+     * Lays out the graph and inserts the SVG. If a worker can be used, the
+     * layout is done in the worker and a placeholder is shown meanwhile.
+     *
+     * @param onRendered
+     *            run after the SVG has been inserted, before the render
+     *            listener
+     */
+    private void render(String dot, ZoomSettings zoomSettings,
+            ScheduledCommand onRendered) {
+        if (layoutInWorker && layoutUrl != null
+                && getWorker(layoutUrl) != null) {
+            startLayout(dot, zoomSettings, onRendered);
+            postLayout(worker, layoutRequest, dot);
+            return;
+        }
+        if (layoutUrl != null && !VizLoader.VIZ.isLoaded()) {
+            // Lay out when viz.js has been loaded
+            final int request = startLayout(dot, zoomSettings, onRendered);
+            whenLayoutReady(new Callback<Void, Exception>() {
+                @Override
+                public void onSuccess(Void result) {
+                    if (layoutRequest != request) {
+                        return;
+                    }
+                    try {
+                        layoutDone(request, compileSVG(layoutDot), null);
+                    } catch (JavaScriptException e) {
+                        layoutDone(request, null, e.getDescription());
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception reason) {
+                    layoutDone(request, null, "Loading viz.js failed: "
+                            + reason.getMessage());
+                }
+            });
+            return;
+        }
+        try {
+            insertSvg(compileSVG(dot), zoomSettings);
         } catch (JavaScriptException e) {
-            String result = e.getDescription();
-            Label label = new Label(result);
-            add(label);
+            showError(e.getDescription());
+        }
+        onRendered.execute();
+        rendered();
+    }
+
+    private int startLayout(String dot, ZoomSettings zoomSettings,
+            ScheduledCommand onRendered) {
+        layoutRequest = nextLayoutRequest++;
+        layoutRequests.put(layoutRequest, this);
+        layoutDot = dot;
+        layoutZoomSettings = zoomSettings;
+        layoutCallback = onRendered;
+        showPlaceholder();
+        return layoutRequest;
+    }
+
+    /**
+     * Called when a graph has been laid out asynchronously
+     */
+    private static void layoutDone(int request, String result, String error) {
+        VizComponentWidget widget = layoutRequests.remove(request);
+        if (widget == null || widget.layoutRequest != request) {
+            // A newer graph is being rendered
+            return;
+        }
+        ScheduledCommand onRendered = widget.layoutCallback;
+        widget.clearLayout();
+        if (error == null) {
+            widget.insertSvg(result, widget.layoutZoomSettings);
+        } else {
+            widget.showError(error);
+        }
+        widget.layoutZoomSettings = null;
+        onRendered.execute();
+        widget.rendered();
+    }
+
+    /**
+     * Called if the worker can not be used, the graphs being laid out in the
+     * worker are laid out in the page
+     */
+    private static void workerFailed() {
+        worker = null;
+        workerUnavailable = true;
+        ArrayList<VizComponentWidget> widgets = new ArrayList<VizComponentWidget>();
+        for (VizComponentWidget widget : layoutRequests.values()) {
+            if (widget.layoutInWorker) {
+                widgets.add(widget);
+            }
+        }
+        for (VizComponentWidget widget : widgets) {
+            layoutRequests.remove(widget.layoutRequest);
+            String dot = widget.layoutDot;
+            ZoomSettings zoomSettings = widget.layoutZoomSettings;
+            ScheduledCommand onRendered = widget.layoutCallback;
+            widget.clearLayout();
+            widget.layoutZoomSettings = null;
+            widget.render(dot, zoomSettings, onRendered);
+        }
+    }
+
+    private static JavaScriptObject getWorker(String url) {
+        if (worker == null && !workerUnavailable) {
+            worker = createWorker(url);
+            workerUnavailable = worker == null;
+        }
+        return worker;
+    }
+
+    /**
+     * Discards the result of the layout in progress
+     */
+    private void cancelLayout() {
+        if (layoutRequest != 0) {
+            layoutRequests.remove(layoutRequest);
+            clearLayout();
+            layoutZoomSettings = null;
+        }
+    }
+
+    private void clearLayout() {
+        layoutRequest = 0;
+        layoutDot = null;
+        layoutCallback = null;
+        if (placeholder != null) {
+            getElement().removeChild(placeholder);
+            placeholder = null;
+        }
+        removeStyleDependentName("loading");
+    }
+
+    private void showPlaceholder() {
+        if (placeholder == null) {
+            placeholder = DOM.createDiv();
+            placeholder.setClassName("vizcomponent-placeholder");
+            getElement().appendChild(placeholder);
+        }
+        addStyleDependentName("loading");
+    }
+
+    /**
+     * Notifies the listener and runs the commands waiting for the graph
+     */
+    private void rendered() {
+        if (renderListener != null) {
+            renderListener.rendered();
+        }
+        ArrayList<ScheduledCommand> commands = new ArrayList<ScheduledCommand>(
+                afterRender);
+        afterRender.clear();
+        for (ScheduledCommand command : commands) {
+            command.execute();
+        }
+    }
+
+    private void showError(String message) {
+        Label label = new Label(message);
+        add(label);
+    }
+
+    private void insertSvg(String result, final ZoomSettings zoomSettings) {
+        getElement().setInnerHTML(result);
+        svg = getElement().getFirstChildElement();
+        final String boxid = "_svgbox" + componentID;
+        svg = getElement().getFirstChildElement();
+        svg.setAttribute("width", "100%");
+        svg.setAttribute("height", "100%");
+        svg.setId(boxid);
+        if (zoomSettings != null) {
+            final Element inserted = svg;
+            // For some reason zooming doesn't work when the component is
+            // created
+            // This way zoom actions are deferred until afterwards, and until
+            // svg-pan-zoom has been loaded.
+            Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+                @Override
+                public void execute() {
+                    whenPanZoomReady(new Callback<Void, Exception>() {
+                        @Override
+                        public void onSuccess(Void result) {
+                            if (svg != inserted) {
+                                return;
+                            }
+                            zoomPanHandler = setupZoomPanHandler(boxid,
+                                    zoomSettings);
+                            runZoomCommands();
+                        }
+
+                        @Override
+                        public void onFailure(Exception reason) {
+                            if (svg == inserted) {
+                                afterZoomSetup.clear();
+                                showError("Loading svg-pan-zoom failed: "
+                                        + reason.getMessage());
+                            }
+                        }
+                    });
+                }
+            });
+        } else {
+            // The graph cannot be zoomed
+            afterZoomSetup.clear();
+        }
+    }
+
+    /**
+     * Runs the command when svg-pan-zoom has been set up for the graph
+     */
+    private void whenZoomReady(ScheduledCommand command) {
+        if (zoomPanHandler != null) {
+            command.execute();
+        } else {
+            afterZoomSetup.add(command);
+        }
+    }
+
+    private void runZoomCommands() {
+        ArrayList<ScheduledCommand> commands = new ArrayList<ScheduledCommand>(
+                afterZoomSetup);
+        afterZoomSetup.clear();
+        for (ScheduledCommand command : commands) {
+            command.execute();
         }
     }
 
@@ -128,7 +686,6 @@ public class VizComponentWidget extends FlowPanel {
         ArrayList<Edge> connections = graph.graph;
         // connections should not be empty
 
-        String svgNodeId = null;
         String svgEdgeId = null;
 
         builder.append(" { ");
@@ -136,12 +693,13 @@ public class VizComponentWidget extends FlowPanel {
             writeParameters(graph.params, builder, ";\n");
             builder.append(";\n");
         }
-        if (!graph.nodeParams.isEmpty()) {
+        // References to subgraphs have no parameters
+        if (graph.nodeParams != null && !graph.nodeParams.isEmpty()) {
             builder.append("node ");
             writeParameters(graph.nodeParams, builder);
             builder.append(";");
         }
-        if (!graph.edgeParams.isEmpty()) {
+        if (graph.edgeParams != null && !graph.edgeParams.isEmpty()) {
             builder.append("edge ");
             writeParameters(graph.edgeParams, builder);
         }
@@ -153,25 +711,11 @@ public class VizComponentWidget extends FlowPanel {
                 renderGraph(source, connSymbol, builder);
 
             } else {
-                // Produce a node in case there are parameters for it and it
-                // hasn't been processed before
-                String sourceId = deescapeId(source.id);
-                if (!nodeIdToSvgIdMap.containsKey(sourceId)) {
-                    svgNodeId = "node" + nodeCounter++;
-                    svgIdToNodeIdMap.put(svgNodeId, sourceId);
-                    nodeIdToSvgIdMap.put(sourceId, svgNodeId);
-                    // TODO: The below is redundant. This would be an edge
-                    // statement with empty dest
-                    HashMap<String, String> params = source.params;
-                    builder.append(source.id);
-                    // Produce params
-                    params.put("id", svgNodeId); // Use this ID for GraphViz
-                    // also
-                    if (!params.isEmpty()) {
-                        writeParameters(params, builder);
-                    }
-                    builder.append(";\n");
-                }
+                declareNode(source, builder);
+            }
+            if (edge.dest != null && edge.dest.graph == null) {
+                // Nodes may be declared only by their edges
+                declareNode(edge.dest, builder);
             }
             if (edge.dest != null) {
                 // Produce an edge
@@ -195,7 +739,9 @@ public class VizComponentWidget extends FlowPanel {
                 } else {
                     builder.append(edge.dest.id);
                 }
-                HashMap<String, String> params = edge.params;
+                HashMap<String, String> params = withOverrides(
+                        withAttributeSet(edge.params, edge.attributeSet),
+                        overlay == null ? null : overlay.edgeParams, edgeId);
                 params.put("id", svgEdgeId); // Use this ID for GraphViz also
                 // Produce parameters
                 if (!params.isEmpty()) {
@@ -210,6 +756,73 @@ public class VizComponentWidget extends FlowPanel {
 
     }
 
+    /**
+     * Produces a node with its parameters and the id used in the SVG, if it
+     * hasn't been processed before
+     */
+    private void declareNode(Node node, StringBuilder builder) {
+        String nodeId = deescapeId(node.id);
+        if (nodeIdToSvgIdMap.containsKey(nodeId)) {
+            return;
+        }
+        String svgNodeId = "node" + nodeCounter++;
+        svgIdToNodeIdMap.put(svgNodeId, nodeId);
+        nodeIdToSvgIdMap.put(nodeId, svgNodeId);
+        HashMap<String, String> params = withOverrides(
+                withAttributeSet(node.params, node.attributeSet),
+                overlay == null ? null : overlay.nodeParams, nodeId);
+        builder.append(node.id);
+        // Use this ID for GraphViz also
+        params.put("id", svgNodeId);
+        writeParameters(params, builder);
+        builder.append(";\n");
+    }
+
+    /**
+     * Returns the parameters of the shared attribute set overridden by the
+     * parameters of the element
+     */
+    private HashMap<String, String> withAttributeSet(
+            HashMap<String, String> params, String attributeSet) {
+        if (attributeSet == null || attributeSets == null
+                || !attributeSets.containsKey(attributeSet)) {
+            return params;
+        }
+        HashMap<String, String> merged = new HashMap<String, String>(
+                attributeSets.get(attributeSet));
+        merged.putAll(params);
+        return merged;
+    }
+
+    /**
+     * Returns the parameters overridden by the overrides for the element
+     */
+    private HashMap<String, String> withOverrides(
+            HashMap<String, String> params,
+            HashMap<String, HashMap<String, String>> overrides, String id) {
+        if (overrides == null || !overrides.containsKey(id)) {
+            return params;
+        }
+        HashMap<String, String> merged = new HashMap<String, String>(params);
+        merged.putAll(overrides.get(id));
+        return merged;
+    }
+
+    private void applyOverlayCss(Overlay overlay) {
+        for (String nodeId : overlay.nodeCss.keySet()) {
+            HashMap<String, String> css = overlay.nodeCss.get(nodeId);
+            for (String property : css.keySet()) {
+                addNodeCss(nodeId, property, css.get(property));
+            }
+        }
+        for (String edgeId : overlay.edgeCss.keySet()) {
+            HashMap<String, String> css = overlay.edgeCss.get(edgeId);
+            for (String property : css.keySet()) {
+                addEdgeCss(edgeId, property, css.get(property));
+            }
+        }
+    }
+
     private String deescapeId(String str) {
         if (str.startsWith("\"") && str.endsWith("\"")) {
             return str.substring(1, str.length() - 1);
@@ -268,6 +881,49 @@ public class VizComponentWidget extends FlowPanel {
         }-*/
     ;
 
+    /**
+     * Creates the worker shared by all widgets. The worker loads viz.js when
+     * it starts and answers each message with the SVG or the error.
+     *
+     * @return null if workers are not supported
+     */
+    private static native JavaScriptObject createWorker(String url)
+    /*-{
+          if (typeof $wnd.Worker === 'undefined' || typeof $wnd.Blob === 'undefined'
+                  || typeof $wnd.URL === 'undefined') {
+              return null;
+          }
+          try {
+              var script = new $wnd.URL(url, $doc.baseURI).href;
+              var source = 'importScripts(' + JSON.stringify(script) + ');\n'
+                  + 'onmessage = function(e) {\n'
+                  + '  try {\n'
+                  + '    postMessage({id: e.data.id, svg: Viz(e.data.dot, {format: "svg"})});\n'
+                  + '  } catch (error) {\n'
+                  + '    postMessage({id: e.data.id, error: String(error)});\n'
+                  + '  }\n'
+                  + '};\n';
+              var blob = new $wnd.Blob([source], {type: 'application/javascript'});
+              var worker = new $wnd.Worker($wnd.URL.createObjectURL(blob));
+              worker.onmessage = $entry(function(e) {
+                  @com.vaadin.pontus.vizcomponent.client.VizComponentWidget::layoutDone(ILjava/lang/String;Ljava/lang/String;)(e.data.id, e.data.svg || null, e.data.error || null);
+              });
+              worker.onerror = $entry(function(e) {
+                  e.preventDefault();
+                  @com.vaadin.pontus.vizcomponent.client.VizComponentWidget::workerFailed()();
+              });
+              return worker;
+          } catch (e) {
+              return null;
+          }
+        }-*/;
+
+    private static native void postLayout(JavaScriptObject worker,
+            int request, String dot)
+    /*-{
+          worker.postMessage({id: request, dot: dot});
+        }-*/;
+
     private static native String compileSVG(String graph)
     /*-{
           var result = $wnd.Viz(graph, { format: "svg" });
@@ -347,23 +1003,40 @@ public class VizComponentWidget extends FlowPanel {
         return svgIdToEdgeIdMap.get(id);
     }
 
-    public void centerToNode(String nodeId) {
+    public void centerToNode(final String nodeId) {
         if (svg != null) {
-            String id = nodeIdToSvgIdMap.get(nodeId);
-            panToElement(zoomPanHandler, DOM.getElementById(id));
+            whenZoomReady(new ScheduledCommand() {
+                @Override
+                public void execute() {
+                    String id = nodeIdToSvgIdMap.get(nodeId);
+                    if (id != null) {
+                        panToElement(zoomPanHandler, DOM.getElementById(id));
+                    }
+                }
+            });
         }
     }
 
     public void centerGraph() {
-        center(zoomPanHandler);
+        whenZoomReady(new ScheduledCommand() {
+            @Override
+            public void execute() {
+                center(zoomPanHandler);
+            }
+        });
     }
 
     public void fitGraph() {
-        fit(zoomPanHandler);
+        whenZoomReady(new ScheduledCommand() {
+            @Override
+            public void execute() {
+                fit(zoomPanHandler);
+            }
+        });
     }
 
     public void addNodeCss(String nodeId, String property, String value) {
-        if (svg != null) {
+        if (svg != null && nodeIdToSvgIdMap.containsKey(nodeId)) {
             String id = nodeIdToSvgIdMap.get(nodeId);
             Element svgNode = DOM.getElementById(id);
             applyCssToElement(svgNode, property, value);
@@ -371,7 +1044,7 @@ public class VizComponentWidget extends FlowPanel {
     }
     
     public void removeNodeCss(String nodeId, String property) {
-        if (svg != null) {
+        if (svg != null && nodeIdToSvgIdMap.containsKey(nodeId)) {
             String id = nodeIdToSvgIdMap.get(nodeId);
             Element svgNode = DOM.getElementById(id);
             clearCssFromElement(svgNode, property);
@@ -417,7 +1090,7 @@ public class VizComponentWidget extends FlowPanel {
     }
 
     public void addNodeTextCss(String nodeId, String property, String value) {
-        if (svg != null) {
+        if (svg != null && nodeIdToSvgIdMap.containsKey(nodeId)) {
             // Style the text in node
             String id = nodeIdToSvgIdMap.get(nodeId);
             Element svgNode = DOM.getElementById(id);
@@ -426,7 +1099,7 @@ public class VizComponentWidget extends FlowPanel {
     }
 
     public void addEdgeTextCss(String edgeId, String property, String value) {
-        if (svg != null) {
+        if (svg != null && edgeIdToSvgIdMap.containsKey(edgeId)) {
             // Style the text in node
             String id = edgeIdToSvgIdMap.get(edgeId);
             Element svgNode = DOM.getElementById(id);
@@ -443,8 +1116,132 @@ public class VizComponentWidget extends FlowPanel {
         }
     }
 
+    /**
+     * Removes the css set on the nodes and edges, leaving them as they were
+     * when the graph was rendered
+     *
+     * @param overlay
+     *            the overrides of the graph, whose css is set again, can be
+     *            null
+     */
+    public void clearCss(Overlay overlay) {
+        if (svg == null) {
+            return;
+        }
+        pendingStyles.clear();
+        clearCss(nodeIdToSvgIdMap);
+        clearCss(edgeIdToSvgIdMap);
+        if (overlay != null) {
+            applyOverlayCss(overlay);
+        }
+    }
+
+    private static void clearCss(HashMap<String, String> svgIds) {
+        for (String svgId : svgIds.values()) {
+            Element svgElement = DOM.getElementById(svgId);
+            if (svgElement == null) {
+                continue;
+            }
+            for (String tag : new String[] { "polygon", "ellipse", "path",
+                    "text" }) {
+                NodeList<Element> parts = svgElement.getElementsByTagName(tag);
+                for (int i = 0; i < parts.getLength(); i++) {
+                    parts.getItem(i).removeAttribute("style");
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the css changes in the next animation frame. Changes received
+     * before the frame are applied together in one pass.
+     */
+    public void applyStyles(StyleChanges changes) {
+        if (changes.size() == 0) {
+            return;
+        }
+        pendingStyles.add(changes);
+        if (pendingStyles.size() == 1) {
+            AnimationScheduler.get().requestAnimationFrame(
+                    new AnimationCallback() {
+                        @Override
+                        public void execute(double timestamp) {
+                            applyPendingStyles();
+                        }
+                    });
+        }
+    }
+
+    private void applyPendingStyles() {
+        // The styled parts of each element, looked up once
+        HashMap<String, ArrayList<Element>> parts = new HashMap<String, ArrayList<Element>>();
+        for (StyleChanges changes : pendingStyles) {
+            if (svg == null) {
+                break;
+            }
+            for (int i = 0; i < changes.changes.length; i += StyleChanges.RECORD_LENGTH) {
+                int target = changes.changes[i];
+                String id = changes.strings[changes.changes[i + 1]];
+                String property = changes.strings[changes.changes[i + 2]];
+                int value = changes.changes[i + 3];
+                String key = target + ":" + id;
+                ArrayList<Element> elements = parts.get(key);
+                if (elements == null) {
+                    elements = findParts(target, id);
+                    parts.put(key, elements);
+                }
+                for (Element element : elements) {
+                    if (value < 0) {
+                        element.getStyle().clearProperty(property);
+                    } else {
+                        element.getStyle().setProperty(property,
+                                changes.strings[value]);
+                    }
+                }
+            }
+        }
+        pendingStyles.clear();
+    }
+
+    /**
+     * Returns the elements styled by a change of the target
+     */
+    private ArrayList<Element> findParts(int target, String id) {
+        ArrayList<Element> elements = new ArrayList<Element>();
+        boolean node = target == StyleChanges.NODE
+                || target == StyleChanges.NODE_TEXT;
+        String svgId = node ? nodeIdToSvgIdMap.get(id) : edgeIdToSvgIdMap
+                .get(id);
+        if (svgId == null) {
+            return elements;
+        }
+        Element svgElement = DOM.getElementById(svgId);
+        if (target == StyleChanges.NODE_TEXT
+                || target == StyleChanges.EDGE_TEXT) {
+            addAll(elements, svgElement.getElementsByTagName("text"));
+            return elements;
+        }
+        // The polygon or ellipse that make up the node
+        NodeList<Element> shapes = svgElement.getElementsByTagName("polygon");
+        if (shapes.getLength() == 0) {
+            shapes = svgElement.getElementsByTagName("ellipse");
+        }
+        addAll(elements, shapes);
+        if (target == StyleChanges.EDGE) {
+            addAll(elements, svgElement.getElementsByTagName("path"));
+        }
+        return elements;
+    }
+
+    private static void addAll(ArrayList<Element> elements,
+            NodeList<Element> list) {
+        for (int i = 0; i < list.getLength(); i++) {
+            elements.add(list.getItem(i));
+        }
+    }
+
     public void addEdgeCss(String edgeId, String property, String value) {
-        if (svg != null) {
+        if (svg != null && edgeIdToSvgIdMap.containsKey(edgeId)) {
             // Style the path and polygon that make up the node
             String id = edgeIdToSvgIdMap.get(edgeId);
             Element svgNode = DOM.getElementById(id);
@@ -0,0 +1,89 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+import java.util.ArrayList;
+
+import com.google.gwt.core.client.Callback;
+import com.google.gwt.core.client.ScriptInjector;
+
+/**
+ * Loads a Javascript library into the page when it is first needed instead of
+ * when the page is loaded. The library is loaded once for all widgets,
+ * callbacks given while it is loading are called when it has been loaded.
+ */
+public class VizLoader {
+
+    /**
+     * Loads viz.js, used for layouts in the page
+     */
+    public static final VizLoader VIZ = new VizLoader("Viz");
+
+    /**
+     * Loads svg-pan-zoom, used for graphs with zoom settings
+     */
+    public static final VizLoader PAN_ZOOM = new VizLoader("svgPanZoom");
+
+    // The function defined by the library in the page
+    private final String function;
+    private boolean loading;
+    private final ArrayList<Callback<Void, Exception>> waiting = new ArrayList<Callback<Void, Exception>>();
+
+    private VizLoader(String function) {
+        this.function = function;
+    }
+
+    /**
+     * Calls the callback when the library has been loaded, right away if it
+     * is already loaded
+     *
+     * @param url
+     *            the URL to load the library from
+     */
+    public void whenReady(String url, Callback<Void, Exception> callback) {
+        if (isLoaded()) {
+            callback.onSuccess(null);
+            return;
+        }
+        waiting.add(callback);
+        if (loading) {
+            return;
+        }
+        loading = true;
+        ScriptInjector.fromUrl(url).setWindow(ScriptInjector.TOP_WINDOW)
+                .setCallback(new Callback<Void, Exception>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                        for (Callback<Void, Exception> callback : done()) {
+                            callback.onSuccess(null);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception reason) {
+                        // Loading is tried again for the next graph
+                        for (Callback<Void, Exception> callback : done()) {
+                            callback.onFailure(reason);
+                        }
+                    }
+                }).inject();
+    }
+
+    private ArrayList<Callback<Void, Exception>> done() {
+        loading = false;
+        ArrayList<Callback<Void, Exception>> callbacks = new ArrayList<Callback<Void, Exception>>(
+                waiting);
+        waiting.clear();
+        return callbacks;
+    }
+
+    /**
+     * Returns true if the library has been loaded into the page
+     */
+    public boolean isLoaded() {
+        return isDefined(function);
+    }
+
+    private static native boolean isDefined(String function)
+    /*-{
+          return typeof $wnd[function] === 'function';
+        }-*/;
+}
@@ -0,0 +1,7 @@
+package com.vaadin.pontus.vizcomponent.client;
+
+public interface VizRenderListener {
+
+    // Called when a graph has been rendered, also if the layout failed
+    public void rendered();
+}
@@ -0,0 +1,161 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The name of a dot attribute. Keys are interned, there is only one key for
+ * each name, so parameters can be stored in arrays and compared by identity
+ * instead of hashing the name for every element. Each key also has an ordinal
+ * that is unique and dense, starting from 0.
+ *
+ * The common attributes are available as constants. Keys for other names are
+ * created with {@link #of(String)}.
+ *
+ * <pre>
+ * node.setParam(AttributeKey.LABEL, "Server");
+ * node.setParam(AttributeKey.PENWIDTH, 2.5);
+ * </pre>
+ */
+public final class AttributeKey {
+
+    private static final Map<String, AttributeKey> KEYS = new ConcurrentHashMap<String, AttributeKey>();
+    private static final List<AttributeKey> BY_ORDINAL = new ArrayList<AttributeKey>();
+
+    public static final AttributeKey ID = register("id", false);
+    public static final AttributeKey LABEL = register("label", false);
+    public static final AttributeKey TOOLTIP = register("tooltip", false);
+    public static final AttributeKey COLOR = register("color", false);
+    public static final AttributeKey FILLCOLOR = register("fillcolor", false);
+    public static final AttributeKey FONTCOLOR = register("fontcolor", false);
+    public static final AttributeKey FONTNAME = register("fontname", false);
+    public static final AttributeKey SHAPE = register("shape", false);
+    public static final AttributeKey STYLE = register("style", false);
+    public static final AttributeKey RANKDIR = register("rankdir", false);
+    public static final AttributeKey FONTSIZE = register("fontsize", true);
+    public static final AttributeKey PENWIDTH = register("penwidth", true);
+    public static final AttributeKey WIDTH = register("width", true);
+    public static final AttributeKey HEIGHT = register("height", true);
+    public static final AttributeKey WEIGHT = register("weight", true);
+    public static final AttributeKey ARROWSIZE = register("arrowsize", true);
+
+    private final String name;
+    private final int ordinal;
+    private final boolean numeric;
+
+    private AttributeKey(String name, int ordinal, boolean numeric) {
+        this.name = name;
+        this.ordinal = ordinal;
+        this.numeric = numeric;
+    }
+
+    /**
+     * Returns the key for the attribute name, creating it the first time the
+     * name is used
+     *
+     * @param name
+     * @throws IllegalArgumentException
+     *             if the name is null or empty
+     */
+    public static AttributeKey of(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Attribute name must not be empty");
+        }
+        AttributeKey key = KEYS.get(name);
+        if (key != null) {
+            return key;
+        }
+        return register(name, false);
+    }
+
+    /**
+     * Returns the key for the name without creating it
+     *
+     * @return null if no key has the name
+     */
+    static AttributeKey find(String name) {
+        return name == null ? null : KEYS.get(name);
+    }
+
+    /**
+     * Returns the key with the given ordinal
+     *
+     * @throws IndexOutOfBoundsException
+     *             if there is no such key
+     */
+    public static AttributeKey forOrdinal(int ordinal) {
+        synchronized (BY_ORDINAL) {
+            return BY_ORDINAL.get(ordinal);
+        }
+    }
+
+    /**
+     * Returns the number of keys created so far. All ordinals are smaller
+     * than this.
+     */
+    public static int count() {
+        synchronized (BY_ORDINAL) {
+            return BY_ORDINAL.size();
+        }
+    }
+
+    private static AttributeKey register(String name, boolean numeric) {
+        synchronized (BY_ORDINAL) {
+            AttributeKey key = KEYS.get(name);
+            if (key == null) {
+                key = new AttributeKey(name, BY_ORDINAL.size(), numeric);
+                BY_ORDINAL.add(key);
+                KEYS.put(name, key);
+            }
+            return key;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int ordinal() {
+        return ordinal;
+    }
+
+    /**
+     * Returns true if the attribute takes a number, these keys can be used
+     * with the numeric setters
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Formats the number as a dot value
+     *
+     * @throws IllegalArgumentException
+     *             if this is not a numeric attribute or the value is not a
+     *             finite number
+     */
+    String format(double value) {
+        if (!numeric) {
+            throw new IllegalArgumentException("Attribute " + name
+                    + " does not take a number");
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Invalid value " + value
+                    + " for attribute " + name);
+        }
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        // Dot does not accept exponents
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,191 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of parameters that can be shared by many nodes or edges,
+ * like a style class. Elements that use the set only store a reference to it,
+ * and parameters set directly on an element override the ones in the set.
+ *
+ * <pre>
+ * AttributeSet server = AttributeSet.of("shape", "box", "color", "gray");
+ * node.setAttributes(server);
+ * node.setParam("color", "red"); // Only this node is red
+ * </pre>
+ *
+ * The names and values need to be valid dot parameters in the same way as
+ * for {@link Subgraph.Node#setParam(String, String) setParam}.
+ */
+public final class AttributeSet {
+
+    private final AttributeKey[] names;
+    private final String[] values;
+
+    private AttributeSet(AttributeKey[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Creates a set with the same parameters as the map
+     *
+     * @param params
+     */
+    public AttributeSet(Map<String, String> params) {
+        names = new AttributeKey[params.size()];
+        values = new String[params.size()];
+        int i = 0;
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            names[i] = AttributeKey.of(param.getKey());
+            values[i] = param.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * Creates a set from alternating names and values
+     *
+     * @param namesAndValues
+     *            name1, value1, name2, value2, ...
+     * @throws IllegalArgumentException
+     *             if there is an odd number of arguments
+     */
+    public static AttributeSet of(String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "Names and values must come in pairs");
+        }
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            params.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return new AttributeSet(params);
+    }
+
+    /**
+     * Returns a new set with the parameter added or replaced
+     */
+    public AttributeSet with(String name, String value) {
+        return with(AttributeKey.of(name), value);
+    }
+
+    /**
+     * Returns a new set with the parameter added or replaced
+     */
+    public AttributeSet with(AttributeKey name, String value) {
+        int i = indexOf(name);
+        if (i >= 0) {
+            String[] newValues = values.clone();
+            newValues[i] = value;
+            return new AttributeSet(names, newValues);
+        }
+        AttributeKey[] newNames = Arrays.copyOf(names, names.length + 1);
+        String[] newValues = Arrays.copyOf(values, values.length + 1);
+        newNames[names.length] = name;
+        newValues[values.length] = value;
+        return new AttributeSet(newNames, newValues);
+    }
+
+    /**
+     * Returns the value of the parameter
+     *
+     * @return null if the parameter is not in the set
+     */
+    public String get(String name) {
+        return get(AttributeKey.find(name));
+    }
+
+    /**
+     * Returns the value of the parameter
+     *
+     * @return null if the parameter is not in the set
+     */
+    public String get(AttributeKey name) {
+        int i = indexOf(name);
+        return i < 0 ? null : values[i];
+    }
+
+    public boolean contains(String name) {
+        return indexOf(AttributeKey.find(name)) >= 0;
+    }
+
+    /**
+     * Returns the parameter names in the order they were given
+     */
+    public Set<String> getNames() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < names.length;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next >= names.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return names[next++].getName();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String
+                        && indexOf(AttributeKey.find((String) o)) >= 0;
+            }
+        };
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the key of the parameter at the index, 0 &lt;= index &lt;
+     * {@link #size()}
+     */
+    public AttributeKey getKey(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the value of the parameter at the index, 0 &lt;= index &lt;
+     * {@link #size()}
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    private int indexOf(AttributeKey name) {
+        // The sets are small, a scan is cheaper than hashing
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,58 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded journal of the latest changes in a graph tree. When the journal is
+ * full the oldest change is dropped, after which the changes since an earlier
+ * stamp can no longer be given.
+ */
+class ChangeJournal {
+
+    private final int capacity;
+    private final ArrayDeque<GraphChange> changes;
+    // Stamp of the latest dropped change
+    private long dropped;
+
+    ChangeJournal(int capacity, long stamp) {
+        this.capacity = capacity;
+        changes = new ArrayDeque<GraphChange>(Math.min(capacity, 1024));
+        // Changes before the journal was enabled are not known
+        dropped = stamp;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    synchronized void add(GraphChange change) {
+        if (changes.size() == capacity) {
+            dropped = changes.removeFirst().getStamp();
+        }
+        changes.addLast(change);
+    }
+
+    /**
+     * Returns the changes made after the stamp in the subgraph or any of its
+     * subgraphs
+     *
+     * @return null if some of the changes have been dropped
+     */
+    synchronized List<GraphChange> since(long stamp, Subgraph subgraph) {
+        if (stamp < dropped) {
+            return null;
+        }
+        List<GraphChange> result = new ArrayList<GraphChange>();
+        // Changes made by different threads can be added slightly out of
+        // stamp order, so all changes are checked
+        for (GraphChange change : changes) {
+            if (change.getStamp() > stamp
+                    && subgraph.contains(change.getSubgraph())) {
+                result.add(change);
+            }
+        }
+        return result;
+    }
+}
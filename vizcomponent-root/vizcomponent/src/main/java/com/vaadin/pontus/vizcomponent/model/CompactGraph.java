@@ -0,0 +1,554 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable graph stored in primitive arrays, intended for graphs that are
+ * too large to keep as {@link Graph} objects. Nodes and edges are identified
+ * by their index. The edges are stored in compressed sparse row form: the
+ * outgoing edges of node i are the edges from {@link #edgeStart(int)
+ * edgeStart(i)} to {@link #edgeEnd(int) edgeEnd(i)}, and the edge index is
+ * the position in that range.
+ *
+ * Attribute names and values are stored once in a string table and the
+ * elements refer to them by index. Edges have no stored id, the id of edge i
+ * is {@link #EDGE_ID_PREFIX} + i. Subgraphs are not supported.
+ *
+ * An edge without attributes takes 8 bytes and a node without attributes
+ * takes 12 bytes plus its id string. Each attribute takes 8 bytes plus its
+ * strings the first time they occur. Measured with the GraphBenchmark in the
+ * benchmark sources, a graph with 100k nodes and 1M edges uses about 60 bytes
+ * per node including the id and 8 bytes per edge, where {@link Graph} uses
+ * about 350 bytes per node and 330 bytes per edge.
+ *
+ * Use a {@link Builder} to create instances.
+ */
+public final class CompactGraph {
+
+    /**
+     * The id of edge i is this prefix followed by i
+     */
+    public static final String EDGE_ID_PREFIX = "e";
+
+    private final String name;
+    private final String type;
+    private final Map<String, String> params;
+    private final Map<String, String> nodeParams;
+    private final Map<String, String> edgeParams;
+
+    private final String[] nodeIds;
+    // Edges of node i are edgeTargets[edgeOffsets[i]..edgeOffsets[i+1]-1]
+    private final int[] edgeOffsets;
+    private final int[] edgeTargets;
+
+    private final String[] strings;
+    // Attributes are (name, value) string table index pairs
+    private final int[] nodeAttrOffsets;
+    private final int[] nodeAttrs;
+    private final int[] edgeAttrOffsets;
+    private final int[] edgeAttrs;
+
+    private CompactGraph(Builder builder, int[] edgeOffsets,
+            int[] edgeTargets, int[] nodeAttrOffsets, int[] nodeAttrs,
+            int[] edgeAttrOffsets, int[] edgeAttrs) {
+        name = builder.name;
+        type = builder.type;
+        params = Collections.unmodifiableMap(builder.params);
+        nodeParams = Collections.unmodifiableMap(builder.nodeParams);
+        edgeParams = Collections.unmodifiableMap(builder.edgeParams);
+        nodeIds = Arrays.copyOf(builder.nodeIds, builder.nodeCount);
+        strings = builder.strings.keySet().toArray(
+                new String[builder.strings.size()]);
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.nodeAttrOffsets = nodeAttrOffsets;
+        this.nodeAttrs = nodeAttrs;
+        this.edgeAttrOffsets = edgeAttrOffsets;
+        this.edgeAttrs = edgeAttrs;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the graph parameters
+     */
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Returns the parameters that apply to all nodes
+     */
+    public Map<String, String> getNodeParams() {
+        return nodeParams;
+    }
+
+    /**
+     * Returns the parameters that apply to all edges
+     */
+    public Map<String, String> getEdgeParams() {
+        return edgeParams;
+    }
+
+    public int nodeCount() {
+        return nodeIds.length;
+    }
+
+    public int edgeCount() {
+        return edgeTargets.length;
+    }
+
+    public String getNodeId(int node) {
+        return nodeIds[node];
+    }
+
+    /**
+     * Returns the index of the node with the given id. This is a linear
+     * search, the graph keeps no id index to save memory.
+     *
+     * @param id
+     * @return -1 if there is no such node
+     */
+    public int indexOf(String id) {
+        for (int i = 0; i < nodeIds.length; i++) {
+            if (nodeIds[i].equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first outgoing edge of the node
+     */
+    public int edgeStart(int node) {
+        return edgeOffsets[node];
+    }
+
+    /**
+     * Returns the index after the last outgoing edge of the node
+     */
+    public int edgeEnd(int node) {
+        return edgeOffsets[node + 1];
+    }
+
+    /**
+     * Returns the index of the node the edge ends in
+     */
+    public int getDest(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /**
+     * Returns the index of the node the edge starts in
+     */
+    public int getSource(int edge) {
+        // Last node whose first edge is at or before the edge
+        int low = 0;
+        int high = nodeIds.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (edgeOffsets[mid] <= edge) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public String getEdgeId(int edge) {
+        return EDGE_ID_PREFIX + edge;
+    }
+
+    /**
+     * Returns the index of the edge with the given id
+     *
+     * @param id
+     * @return -1 if the id is not an edge id of this graph
+     */
+    public int edgeIndexOf(String id) {
+        if (id == null || !id.startsWith(EDGE_ID_PREFIX)) {
+            return -1;
+        }
+        try {
+            int edge = Integer.parseInt(id.substring(EDGE_ID_PREFIX.length()));
+            return edge >= 0 && edge < edgeTargets.length ? edge : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the parameter names and values of the node
+     */
+    public Map<String, String> getNodeParams(int node) {
+        return toMap(nodeAttrs, nodeAttrOffsets[node],
+                nodeAttrOffsets[node + 1]);
+    }
+
+    /**
+     * Returns the parameter names and values of the edge
+     */
+    public Map<String, String> getEdgeParams(int edge) {
+        return toMap(edgeAttrs, edgeAttrOffsets[edge],
+                edgeAttrOffsets[edge + 1]);
+    }
+
+    private Map<String, String> toMap(int[] attrs, int start, int end) {
+        if (start == end) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = start; i < end; i += 2) {
+            map.put(strings[attrs[i]], strings[attrs[i + 1]]);
+        }
+        return map;
+    }
+
+    /**
+     * Creates a detached node with the id and parameters of the given node
+     */
+    public Subgraph.Node toNode(int node) {
+        Subgraph.Node n = new Subgraph.Node(nodeIds[node]);
+        copyParams(nodeAttrs, nodeAttrOffsets[node], nodeAttrOffsets[node + 1],
+                n);
+        return n;
+    }
+
+    /**
+     * Creates a detached edge with the id and parameters of the given edge
+     */
+    public Subgraph.Edge toEdge(int edge) {
+        Subgraph.Edge e = new Subgraph.Edge(getEdgeId(edge));
+        copyParams(edgeAttrs, edgeAttrOffsets[edge], edgeAttrOffsets[edge + 1],
+                e);
+        return e;
+    }
+
+    private void copyParams(int[] attrs, int start, int end,
+            Parameterised target) {
+        for (int i = start; i < end; i += 2) {
+            target.setParam(strings[attrs[i]], strings[attrs[i + 1]]);
+        }
+    }
+
+    /**
+     * Converts this graph to a {@link Graph}. The edges get new ids.
+     */
+    public Graph toGraph() {
+        Graph graph = new Graph(name, type);
+        copyParams(params, graph);
+        for (Map.Entry<String, String> param : nodeParams.entrySet()) {
+            graph.setNodeParameter(param.getKey(), param.getValue());
+        }
+        for (Map.Entry<String, String> param : edgeParams.entrySet()) {
+            graph.setEdgeParameter(param.getKey(), param.getValue());
+        }
+        Subgraph.Node[] nodes = new Subgraph.Node[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodes[i] = toNode(i);
+            graph.addNode(nodes[i]);
+        }
+        for (int i = 0; i < nodeIds.length; i++) {
+            for (int e = edgeOffsets[i]; e < edgeOffsets[i + 1]; e++) {
+                Subgraph.Edge edge = graph.addEdge(nodes[i],
+                        nodes[edgeTargets[e]]);
+                copyParams(edgeAttrs, edgeAttrOffsets[e],
+                        edgeAttrOffsets[e + 1], edge);
+            }
+        }
+        return graph;
+    }
+
+    private static void copyParams(Map<String, String> params,
+            Parameterised target) {
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            target.setParam(param.getKey(), param.getValue());
+        }
+    }
+
+    /**
+     * Converts the graph to a compact graph. The edge ids are not kept.
+     *
+     * @param graph
+     * @throws IllegalArgumentException
+     *             if the graph contains subgraphs
+     */
+    public static CompactGraph fromGraph(Graph graph) {
+        Set<Subgraph.Node> nodes = graph.getNodes();
+        Builder builder = new Builder(graph.getName(), graph.getType(),
+                nodes.size(), graph.getEdges().size());
+        for (String param : graph.getParams()) {
+            builder.setParam(param, graph.getParam(param));
+        }
+        for (String param : graph.getNodeParams()) {
+            builder.setNodeParameter(param, graph.getNodeParam(param));
+        }
+        for (String param : graph.getEdgeParams()) {
+            builder.setEdgeParameter(param, graph.getEdgeParam(param));
+        }
+        Map<String, Integer> indices = new HashMap<String, Integer>(
+                nodes.size() * 2);
+        for (Subgraph.Node node : nodes) {
+            if (node instanceof Subgraph.GraphNode) {
+                throw new IllegalArgumentException(
+                        "Subgraphs are not supported: " + node.getId());
+            }
+            int index = builder.addNode(node.getId());
+            indices.put(node.getId(), index);
+            for (String param : node.getParams()) {
+                builder.setNodeAttribute(index, param, node.getParam(param));
+            }
+        }
+        for (Subgraph.Node node : nodes) {
+            int source = indices.get(node.getId());
+            for (AbstractMap.SimpleEntry<Subgraph.Node, Subgraph.Edge> conn : graph
+                    .getConnections(node)) {
+                Subgraph.Edge edge = conn.getValue();
+                int e = builder.addEdge(source,
+                        indices.get(conn.getKey().getId()));
+                for (String param : edge.getParams()) {
+                    builder.setEdgeAttribute(e, param, edge.getParam(param));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builder for compact graphs. Nodes and edges are referred to by the index
+     * returned when they are added. The edge indices returned by the builder
+     * are only valid in the builder, in the built graph edges are ordered by
+     * source node.
+     */
+    public static class Builder {
+        private final String name;
+        private final String type;
+        private final Map<String, String> params;
+        private final Map<String, String> nodeParams;
+        private final Map<String, String> edgeParams;
+
+        private String[] nodeIds;
+        private int nodeCount;
+        private int[] edgeSources;
+        private int[] edgeDests;
+        private int edgeCount;
+
+        // The string table, insertion ordered so that the index is stable
+        private final LinkedHashMap<String, Integer> strings;
+        // (element, name, value) triples
+        private int[] nodeAttrs;
+        private int nodeAttrCount;
+        private int[] edgeAttrs;
+        private int edgeAttrCount;
+
+        /**
+         * @param name
+         *            the name of the graph
+         * @param type
+         *            {@link Graph#DIGRAPH} or {@link Graph#GRAPH}
+         * @param expectedNodes
+         *            the expected number of nodes
+         * @param expectedEdges
+         *            the expected number of edges
+         */
+        public Builder(String name, String type, int expectedNodes,
+                int expectedEdges) {
+            this.name = GraphElement.deescapeId(name);
+            this.type = type;
+            params = new LinkedHashMap<String, String>();
+            nodeParams = new LinkedHashMap<String, String>();
+            edgeParams = new LinkedHashMap<String, String>();
+            nodeIds = new String[Math.max(expectedNodes, 16)];
+            edgeSources = new int[Math.max(expectedEdges, 16)];
+            edgeDests = new int[edgeSources.length];
+            strings = new LinkedHashMap<String, Integer>();
+            nodeAttrs = new int[48];
+            edgeAttrs = new int[48];
+        }
+
+        public Builder(String name, String type) {
+            this(name, type, 16, 16);
+        }
+
+        public void setParam(String name, String value) {
+            params.put(name, value);
+        }
+
+        public void setNodeParameter(String name, String value) {
+            nodeParams.put(name, value);
+        }
+
+        public void setEdgeParameter(String name, String value) {
+            edgeParams.put(name, value);
+        }
+
+        /**
+         * Adds a node. The id must be unique, this is not checked.
+         *
+         * @return the index of the node
+         */
+        public int addNode(String id) {
+            if (nodeCount == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, nodeCount * 2);
+            }
+            nodeIds[nodeCount] = GraphElement.deescapeId(id);
+            return nodeCount++;
+        }
+
+        /**
+         * Adds an edge between the nodes with the given indices
+         *
+         * @return the index of the edge in the builder
+         */
+        public int addEdge(int source, int dest) {
+            if (source < 0 || source >= nodeCount || dest < 0
+                    || dest >= nodeCount) {
+                throw new IndexOutOfBoundsException("No such node: "
+                        + (source < 0 || source >= nodeCount ? source : dest));
+            }
+            if (edgeCount == edgeSources.length) {
+                edgeSources = Arrays.copyOf(edgeSources, edgeCount * 2);
+                edgeDests = Arrays.copyOf(edgeDests, edgeCount * 2);
+            }
+            edgeSources[edgeCount] = source;
+            edgeDests[edgeCount] = dest;
+            return edgeCount++;
+        }
+
+        public void setNodeAttribute(int node, String name, String value) {
+            if (node < 0 || node >= nodeCount) {
+                throw new IndexOutOfBoundsException("No such node: " + node);
+            }
+            nodeAttrs = addAttribute(nodeAttrs, nodeAttrCount++, node, name,
+                    value);
+        }
+
+        public void setEdgeAttribute(int edge, String name, String value) {
+            if (edge < 0 || edge >= edgeCount) {
+                throw new IndexOutOfBoundsException("No such edge: " + edge);
+            }
+            edgeAttrs = addAttribute(edgeAttrs, edgeAttrCount++, edge, name,
+                    value);
+        }
+
+        private int[] addAttribute(int[] attrs, int count, int element,
+                String name, String value) {
+            if (count * 3 == attrs.length) {
+                attrs = Arrays.copyOf(attrs, attrs.length * 2);
+            }
+            attrs[count * 3] = element;
+            attrs[count * 3 + 1] = intern(name);
+            attrs[count * 3 + 2] = intern(value);
+            return attrs;
+        }
+
+        private int intern(String s) {
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.put(s, index);
+            }
+            return index;
+        }
+
+        /**
+         * Creates the graph. The builder should not be used afterwards.
+         */
+        public CompactGraph build() {
+            // Counting sort of the edges by source node
+            int[] edgeOffsets = new int[nodeCount + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                edgeOffsets[edgeSources[e] + 1]++;
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                edgeOffsets[i + 1] += edgeOffsets[i];
+            }
+            int[] position = Arrays.copyOf(edgeOffsets, nodeCount);
+            // Builder edge index -> graph edge index
+            int[] edgeMapping = new int[edgeCount];
+            int[] edgeTargets = new int[edgeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                int index = position[edgeSources[e]]++;
+                edgeMapping[e] = index;
+                edgeTargets[index] = edgeDests[e];
+            }
+            int[] nodeAttrOffsets = new int[nodeCount + 1];
+            int[] packedNodeAttrs = pack(nodeAttrs, nodeAttrCount, null,
+                    nodeAttrOffsets);
+            int[] edgeAttrOffsets = new int[edgeCount + 1];
+            int[] packedEdgeAttrs = pack(edgeAttrs, edgeAttrCount,
+                    edgeMapping, edgeAttrOffsets);
+            return new CompactGraph(this, edgeOffsets, edgeTargets,
+                    nodeAttrOffsets, packedNodeAttrs, edgeAttrOffsets,
+                    packedEdgeAttrs);
+        }
+
+        /**
+         * Groups the attribute triples by element into (name, value) pairs.
+         * A later value for the same name replaces an earlier one.
+         */
+        private int[] pack(int[] attrs, int count, int[] mapping,
+                int[] offsets) {
+            int elements = offsets.length - 1;
+            // Stable counting sort of the triples by element
+            int[] starts = new int[elements + 1];
+            for (int i = 0; i < count; i++) {
+                int element = attrs[i * 3];
+                if (mapping != null) {
+                    element = mapping[element];
+                    attrs[i * 3] = element;
+                }
+                starts[element + 1]++;
+            }
+            for (int e = 0; e < elements; e++) {
+                starts[e + 1] += starts[e];
+            }
+            int[] order = new int[count];
+            int[] position = Arrays.copyOf(starts, elements);
+            for (int i = 0; i < count; i++) {
+                order[position[attrs[i * 3]]++] = i;
+            }
+            // Keep only the last value set for each element and name. The
+            // triples of an element are walked backwards, marking the names
+            // seen with the element.
+            int[] seenBy = new int[strings.size()];
+            Arrays.fill(seenBy, -1);
+            boolean[] kept = new boolean[count];
+            int keptCount = 0;
+            for (int e = 0; e < elements; e++) {
+                for (int k = starts[e + 1] - 1; k >= starts[e]; k--) {
+                    int name = attrs[order[k] * 3 + 1];
+                    if (seenBy[name] != e) {
+                        seenBy[name] = e;
+                        kept[k] = true;
+                        keptCount++;
+                    }
+                }
+                offsets[e + 1] = keptCount * 2;
+            }
+            int[] packed = new int[keptCount * 2];
+            int p = 0;
+            for (int k = 0; k < count; k++) {
+                if (kept[k]) {
+                    packed[p++] = attrs[order[k] * 3 + 1];
+                    packed[p++] = attrs[order[k] * 3 + 2];
+                }
+            }
+            return packed;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.vaadin.pontus.vizcomponent.model.Subgraph.Edge;
+import com.vaadin.pontus.vizcomponent.model.Subgraph.Node;
+
+/**
+ * The edges of one node keyed by the node at the other end of the edge. For
+ * outgoing edges the key is the destination and for incoming edges it is the
+ * source. Parallel edges between the same nodes are supported.
+ *
+ * A single edge to a node is stored directly as the map value, only parallel
+ * edges need a list. This keeps the common case to one map entry per edge.
+ */
+class Connections {
+
+    // The value is either an Edge or a List<Edge> for parallel edges
+    private final Map<Node, Object> edges;
+    private int size;
+
+    Connections() {
+        edges = new LinkedHashMap<Node, Object>();
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void add(Node other, Edge edge) {
+        Object old = edges.put(other, edge);
+        if (old != null) {
+            List<Edge> list;
+            if (old instanceof Edge) {
+                list = new ArrayList<Edge>(2);
+                list.add((Edge) old);
+            } else {
+                list = (List<Edge>) old;
+            }
+            list.add(edge);
+            edges.put(other, list);
+        }
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean remove(Node other, Edge edge) {
+        Object value = edges.get(other);
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Edge) {
+            if (!value.equals(edge)) {
+                return false;
+            }
+            edges.remove(other);
+        } else {
+            List<Edge> list = (List<Edge>) value;
+            if (!list.remove(edge)) {
+                return false;
+            }
+            if (list.size() == 1) {
+                edges.put(other, list.get(0));
+            }
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the first edge to the other node
+     *
+     * @return null if there is no such edge
+     */
+    @SuppressWarnings("unchecked")
+    Edge get(Node other) {
+        Object value = edges.get(other);
+        if (value == null || value instanceof Edge) {
+            return (Edge) value;
+        }
+        return ((List<Edge>) value).get(0);
+    }
+
+    /**
+     * Returns all edges to the other node
+     */
+    @SuppressWarnings("unchecked")
+    List<Edge> getAll(Node other) {
+        Object value = edges.get(other);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Edge) {
+            return Collections.singletonList((Edge) value);
+        }
+        return Collections.unmodifiableList((List<Edge>) value);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns an unmodifiable view of the connections as (other node, edge)
+     * pairs. The pairs are created while iterating.
+     */
+    Set<AbstractMap.SimpleEntry<Node, Edge>> asEntrySet() {
+        return new AbstractSet<AbstractMap.SimpleEntry<Node, Edge>>() {
+
+            @Override
+            public Iterator<AbstractMap.SimpleEntry<Node, Edge>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                if (!(entry.getKey() instanceof Node)
+                        || !(entry.getValue() instanceof Edge)) {
+                    return false;
+                }
+                return getAll((Node) entry.getKey())
+                        .contains(entry.getValue());
+            }
+        };
+    }
+
+    private class EntryIterator implements
+            Iterator<AbstractMap.SimpleEntry<Node, Edge>> {
+
+        private final Iterator<Map.Entry<Node, Object>> mapIt = edges
+                .entrySet().iterator();
+        private Node current;
+        private Iterator<Edge> listIt;
+
+        @Override
+        public boolean hasNext() {
+            return (listIt != null && listIt.hasNext()) || mapIt.hasNext();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public AbstractMap.SimpleEntry<Node, Edge> next() {
+            if (listIt != null && listIt.hasNext()) {
+                return new AbstractMap.SimpleEntry<Node, Edge>(current,
+                        listIt.next());
+            }
+            if (!mapIt.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Node, Object> entry = mapIt.next();
+            current = entry.getKey();
+            if (entry.getValue() instanceof Edge) {
+                listIt = null;
+                return new AbstractMap.SimpleEntry<Node, Edge>(current,
+                        (Edge) entry.getValue());
+            }
+            listIt = ((List<Edge>) entry.getValue()).iterator();
+            return new AbstractMap.SimpleEntry<Node, Edge>(current,
+                    listIt.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
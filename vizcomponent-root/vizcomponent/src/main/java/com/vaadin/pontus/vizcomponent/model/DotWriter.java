@@ -0,0 +1,269 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes graphs in the DOT language of Graphviz. The text is written straight
+ * to the given {@link Appendable}, for example a {@link java.io.Writer} or a
+ * {@link StringBuilder}, without building any intermediate representation.
+ *
+ * All nodes of a graph are written before its edges. An edge to a subgraph is
+ * written as an edge to an empty subgraph statement with the name of the
+ * subgraph, which stands for all the nodes in the subgraph. Edges between
+ * different subgraphs are written last in the root graph.
+ *
+ * Ids are quoted, so any characters can be used in them, except that an id
+ * can not end with a backslash. DOT would read the backslash and the closing
+ * quote as an escaped quote. Parameter values are written as they are, so
+ * values that need quotes must include them.
+ */
+public class DotWriter {
+
+    private final Appendable out;
+    private String nodeIdPrefix;
+    private String edgeIdPrefix;
+    private Map<String, ? extends Map<String, String>> nodeOverrides;
+    private Map<String, ? extends Map<String, String>> edgeOverrides;
+
+    public DotWriter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Makes the writer give every node and edge an id parameter made of the
+     * prefix and the id of the element. Graphviz uses the id parameter as the
+     * id of the element in the SVG output.
+     *
+     * @param nodePrefix
+     *            prefix for node ids, null to not write ids for nodes
+     * @param edgePrefix
+     *            prefix for edge ids, null to not write ids for edges
+     */
+    public void setIdPrefixes(String nodePrefix, String edgePrefix) {
+        nodeIdPrefix = nodePrefix;
+        edgeIdPrefix = edgePrefix;
+    }
+
+    /**
+     * Sets parameters that override the ones of the nodes
+     *
+     * @param overrides
+     *            the parameters by node id, null for none
+     */
+    public void setNodeOverrides(
+            Map<String, ? extends Map<String, String>> overrides) {
+        nodeOverrides = overrides;
+    }
+
+    /**
+     * Sets parameters that override the ones of the edges
+     *
+     * @param overrides
+     *            the parameters by edge id, null for none
+     */
+    public void setEdgeOverrides(
+            Map<String, ? extends Map<String, String>> overrides) {
+        edgeOverrides = overrides;
+    }
+
+    /**
+     * Writes the graph
+     *
+     * @throws IllegalArgumentException
+     *             if an id ends with a backslash
+     */
+    public void write(Graph graph) throws IOException {
+        String connSymbol = Graph.GRAPH.equals(graph.getType()) ? " -- "
+                : " -> ";
+        out.append(graph.getType());
+        if (graph.getName() != null) {
+            out.append(' ');
+            writeId(graph.getName());
+        }
+        List<Subgraph.Edge> crossGraphEdges = new ArrayList<Subgraph.Edge>();
+        out.append(" {\n");
+        writeBody(graph, connSymbol, crossGraphEdges);
+        for (Subgraph.Edge edge : crossGraphEdges) {
+            writeEdge(edge, connSymbol);
+        }
+        out.append("}\n");
+    }
+
+    /**
+     * Throws an exception if the id can not be written in a quoted DOT string
+     *
+     * @throws IllegalArgumentException
+     *             if the id ends with a backslash
+     */
+    public static void checkId(String id) {
+        if (id.endsWith("\\")) {
+            throw new IllegalArgumentException(
+                    "An id can not end with a backslash: " + id);
+        }
+    }
+
+    /**
+     * Returns the graph in the DOT language
+     */
+    public static String toString(Graph graph) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            new DotWriter(builder).write(graph);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    private void writeBody(Subgraph graph, String connSymbol,
+            List<Subgraph.Edge> crossGraphEdges) throws IOException {
+        for (String param : graph.getParams()) {
+            out.append(param).append('=').append(graph.getParam(param))
+                    .append(";\n");
+        }
+        Set<String> nodeParams = graph.getNodeParams();
+        if (!nodeParams.isEmpty()) {
+            out.append("node [");
+            String sep = "";
+            for (String param : nodeParams) {
+                out.append(sep).append(param).append('=')
+                        .append(graph.getNodeParam(param));
+                sep = ",";
+            }
+            out.append("];\n");
+        }
+        Set<String> edgeParams = graph.getEdgeParams();
+        if (!edgeParams.isEmpty()) {
+            out.append("edge [");
+            String sep = "";
+            for (String param : edgeParams) {
+                out.append(sep).append(param).append('=')
+                        .append(graph.getEdgeParam(param));
+                sep = ",";
+            }
+            out.append("];\n");
+        }
+
+        Set<Subgraph.Node> nodes = graph.getNodes();
+        for (Subgraph.Node node : nodes) {
+            if (node instanceof Subgraph.GraphNode) {
+                out.append("subgraph ");
+                writeId(node.getId());
+                out.append(" {\n");
+                writeBody(((Subgraph.GraphNode) node).getGraph(), connSymbol,
+                        crossGraphEdges);
+                out.append("}\n");
+            } else {
+                writeId(node.getId());
+                writeParams(node, nodeIdPrefix, nodeOverrides);
+                out.append(";\n");
+            }
+        }
+        for (Subgraph.Edge edge : graph.getEdges()) {
+            if (nodes.contains(edge.getDest())) {
+                writeEdge(edge, connSymbol);
+            } else {
+                crossGraphEdges.add(edge);
+            }
+        }
+    }
+
+    private void writeEdge(Subgraph.Edge edge, String connSymbol)
+            throws IOException {
+        writeEnd(edge.getSource());
+        out.append(connSymbol);
+        writeEnd(edge.getDest());
+        if (edge.getDest() instanceof Subgraph.GraphNode) {
+            // The parameters of edges to subgraphs are ignored
+            if (edgeIdPrefix != null) {
+                out.append(" [id=");
+                writeId(edgeIdPrefix + edge.getId());
+                out.append(']');
+            }
+        } else {
+            writeParams(edge, edgeIdPrefix, edgeOverrides);
+        }
+        out.append(";\n");
+    }
+
+    private void writeEnd(Subgraph.Node node) throws IOException {
+        if (node instanceof Subgraph.GraphNode) {
+            out.append("subgraph ");
+            writeId(node.getId());
+            out.append(" {}");
+        } else {
+            writeId(node.getId());
+        }
+    }
+
+    private void writeParams(GraphElement element, String idPrefix,
+            Map<String, ? extends Map<String, String>> overrides)
+            throws IOException {
+        Map<String, String> override = overrides == null ? null : overrides
+                .get(element.getId());
+        AttributeSet attributes = element.getAttributes();
+        int ownCount = element.getOwnParamCount();
+        if (idPrefix == null && ownCount == 0
+                && (attributes == null || attributes.size() == 0)
+                && (override == null || override.isEmpty())) {
+            return;
+        }
+        out.append(" [");
+        String sep = "";
+        if (attributes != null) {
+            for (int i = 0; i < attributes.size(); i++) {
+                AttributeKey key = attributes.getKey(i);
+                if (!hasOwnParam(element, key)) {
+                    out.append(sep).append(key.getName()).append('=')
+                            .append(attributes.getValue(i));
+                    sep = ",";
+                }
+            }
+        }
+        for (int i = 0; i < ownCount; i++) {
+            out.append(sep).append(element.getOwnParamKey(i).getName())
+                    .append('=').append(element.getOwnParamValue(i));
+            sep = ",";
+        }
+        if (override != null) {
+            // Later values replace earlier ones
+            for (Map.Entry<String, String> param : override.entrySet()) {
+                out.append(sep).append(param.getKey()).append('=')
+                        .append(param.getValue());
+                sep = ",";
+            }
+        }
+        if (idPrefix != null) {
+            out.append(sep).append("id=");
+            writeId(idPrefix + element.getId());
+        }
+        out.append(']');
+    }
+
+    private static boolean hasOwnParam(GraphElement element, AttributeKey key) {
+        for (int i = 0; i < element.getOwnParamCount(); i++) {
+            if (element.getOwnParamKey(i) == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeId(String id) throws IOException {
+        checkId(id);
+        out.append('"');
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '"') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+}
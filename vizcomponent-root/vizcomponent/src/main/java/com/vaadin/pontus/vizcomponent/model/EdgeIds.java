@@ -0,0 +1,66 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocates the numbers used in generated edge ids, so threads creating edges
+ * concurrently do not get duplicate ids. The numbers are handed out from
+ * stripes picked by a hash of the thread id. Each stripe takes a block of
+ * numbers at a time from a shared counter, so threads only meet on the shared
+ * counter once per block. The numbers are unique but, with several threads,
+ * not in the order the edges were created.
+ */
+final class EdgeIds {
+
+    // Numbers taken by a stripe at a time, a power of two
+    private static final int BLOCK = 1024;
+    private static final int STRIPES = stripes();
+    // The cursors of the stripes are this many slots apart, so that they are
+    // on different cache lines
+    private static final int SPACING = 8;
+    // The next number of each stripe, a multiple of BLOCK when the block of
+    // the stripe has been used up
+    private static final AtomicLongArray cursors = new AtomicLongArray(
+            STRIPES * SPACING);
+    // The start of the next free block
+    private static final AtomicLong blocks = new AtomicLong();
+
+    private EdgeIds() {
+    }
+
+    static long next() {
+        int slot = stripe(Thread.currentThread().getId()) * SPACING;
+        while (true) {
+            long n = cursors.get(slot);
+            if ((n & (BLOCK - 1)) == 0) {
+                long start = blocks.getAndAdd(BLOCK);
+                // If another thread on the stripe took a block first, this
+                // block is left unused
+                if (cursors.compareAndSet(slot, n, start + 1)) {
+                    return start;
+                }
+            } else if (cursors.compareAndSet(slot, n, n + 1)) {
+                return n;
+            }
+        }
+    }
+
+    private static int stripe(long threadId) {
+        long h = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * Returns the number of stripes, a power of two of at least twice the
+     * number of processors
+     */
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < 2 * processors && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
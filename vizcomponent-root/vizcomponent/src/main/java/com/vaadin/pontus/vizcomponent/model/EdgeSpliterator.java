@@ -0,0 +1,185 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import com.vaadin.pontus.vizcomponent.model.Subgraph.Edge;
+
+/**
+ * Spliterator over the edge lists of several subgraphs. Splitting first
+ * divides the lists into two halves with about the same number of edges. When
+ * only one list is left, the splitting is delegated to the spliterator of the
+ * list, which splits it in the middle. The edges have no defined encounter
+ * order.
+ * <p>
+ * The lists hold nulls in the places of removed edges until the subgraph
+ * compacts them. The nulls are skipped, and the size is then only an
+ * estimate.
+ */
+class EdgeSpliterator implements Spliterator<Edge> {
+
+    private final List<List<Edge>> lists;
+    // Remaining lists are [next, end)
+    private int next;
+    private int end;
+    // Spliterator of the list being traversed
+    private Spliterator<Edge> current;
+    private long size;
+    // True if the lists hold no nulls
+    private final boolean exact;
+
+    EdgeSpliterator(List<List<Edge>> lists, boolean exact) {
+        this(lists, exact, 0, lists.size(), null);
+    }
+
+    private EdgeSpliterator(List<List<Edge>> lists, boolean exact, int next,
+            int end, Spliterator<Edge> current) {
+        this.lists = lists;
+        this.exact = exact;
+        this.next = next;
+        this.end = end;
+        this.current = current;
+        size = current == null ? 0 : current.estimateSize();
+        for (int i = next; i < end; i++) {
+            size += lists.get(i).size();
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Edge> action) {
+        while (true) {
+            if (current != null && current.tryAdvance(action)) {
+                size--;
+                return true;
+            }
+            if (next >= end) {
+                return false;
+            }
+            current = spliterator(lists.get(next++));
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Edge> action) {
+        if (current != null) {
+            current.forEachRemaining(action);
+        }
+        while (next < end) {
+            spliterator(lists.get(next++)).forEachRemaining(action);
+        }
+        current = null;
+        size = 0;
+    }
+
+    @Override
+    public Spliterator<Edge> trySplit() {
+        if (current == null && end - next == 1) {
+            current = spliterator(lists.get(next++));
+        }
+        if (current != null && next == end) {
+            Spliterator<Edge> prefix = current.trySplit();
+            if (prefix != null) {
+                size -= prefix.estimateSize();
+                return prefix;
+            }
+            return null;
+        }
+        if (current != null) {
+            // Keep traversing the current list, give away the rest. The
+            // order of the edges is not defined so any part can be split.
+            EdgeSpliterator rest = new EdgeSpliterator(lists, exact, next, end, null);
+            end = next;
+            size -= rest.size;
+            return rest;
+        }
+        if (end - next < 2) {
+            return null;
+        }
+        // Give away the first lists holding about half of the edges
+        long half = size / 2;
+        long count = 0;
+        int split = next;
+        while (split < end - 1 && count < half) {
+            count += lists.get(split++).size();
+        }
+        EdgeSpliterator prefix = new EdgeSpliterator(lists, exact, next, split, null);
+        next = split;
+        size -= prefix.size;
+        return prefix;
+    }
+
+    private Spliterator<Edge> spliterator(List<Edge> list) {
+        return exact ? list.spliterator() : new NonNull(list.spliterator());
+    }
+
+    @Override
+    public long estimateSize() {
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return exact ? SIZED | SUBSIZED | NONNULL | DISTINCT
+                : NONNULL | DISTINCT;
+    }
+
+    /**
+     * Skips the nulls of a list
+     */
+    private static class NonNull implements Spliterator<Edge> {
+
+        private final Spliterator<Edge> list;
+        private Edge edge;
+
+        NonNull(Spliterator<Edge> list) {
+            this.list = list;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Edge> action) {
+            Consumer<Edge> take = new Consumer<Edge>() {
+                @Override
+                public void accept(Edge e) {
+                    edge = e;
+                }
+            };
+            while (list.tryAdvance(take)) {
+                if (edge != null) {
+                    action.accept(edge);
+                    edge = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(final Consumer<? super Edge> action) {
+            list.forEachRemaining(new Consumer<Edge>() {
+                @Override
+                public void accept(Edge e) {
+                    if (e != null) {
+                        action.accept(e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public Spliterator<Edge> trySplit() {
+            Spliterator<Edge> prefix = list.trySplit();
+            return prefix == null ? null : new NonNull(prefix);
+        }
+
+        @Override
+        public long estimateSize() {
+            return list.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | DISTINCT;
+        }
+    }
+}
@@ -13,6 +13,58 @@ public class Graph extends Subgraph {
         id = GraphElement.deescapeId(name);
     }
 
+    /**
+     * Creates a graph sized for the expected number of nodes and edges. This
+     * avoids rehashing when large graphs are built.
+     *
+     * @param name
+     * @param type
+     * @param expectedNodes
+     * @param expectedEdges
+     */
+    public Graph(String name, String type, int expectedNodes,
+            int expectedEdges) {
+        this(name, type, expectedNodes, expectedEdges, false);
+    }
+
+    /**
+     * Creates a graph that can be constructed from several threads. Each
+     * subgraph can be populated by its own thread at the same time, as long
+     * as the threads add disjoint sets of nodes. Changes to a subgraph lock
+     * the subgraph, so several threads can also add to the same subgraph,
+     * but they then run one at a time. Graphs that are not concurrent take no
+     * locks. Reading the graph is safe once the construction threads have
+     * finished, e.g. after joining them or waiting for their futures.
+     *
+     * @param name
+     * @param type
+     * @param expectedNodes
+     * @param expectedEdges
+     * @param concurrent
+     *            true to allow concurrent construction
+     */
+    public Graph(String name, String type, int expectedNodes,
+            int expectedEdges, boolean concurrent) {
+        super(null, expectedNodes, expectedEdges, concurrent);
+        this.type = type;
+        id = GraphElement.deescapeId(name);
+    }
+
+
+    /**
+     * Returns an immutable snapshot of the graph and its subgraphs. The
+     * snapshot can be read from any thread and given to several components
+     * while the graph keeps changing. The snapshot shares all unchanged parts
+     * with the previous snapshot of the graph, so taking snapshots regularly
+     * is cheap when only a small part of the graph changes in between.
+     *
+     * The graph must not be changed while the snapshot is taken, so call this
+     * from the thread that changes the graph.
+     */
+    public GraphSnapshot snapshot() {
+        return snapshot(this);
+    }
+
     public String getType() {
         return type;
     }
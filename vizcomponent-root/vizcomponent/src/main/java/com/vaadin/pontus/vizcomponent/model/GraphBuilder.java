@@ -0,0 +1,193 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds large graphs in bulk. The expected number of nodes and edges are
+ * given up front so that no map in the graph needs to grow, and nodes are
+ * referred to by id. Nodes that are used in edges but not added explicitly are
+ * created automatically. Edges are validated and inserted directly when they
+ * are added, without the membership lookups done by
+ * {@link Subgraph#addEdge(Subgraph.Node, Subgraph.Node) addEdge}.
+ *
+ * <pre>
+ * GraphBuilder builder = new GraphBuilder("G", Graph.DIGRAPH, 1000, 200000);
+ * builder.addNode("a", attrs);
+ * builder.addEdges(batch);
+ * Graph graph = builder.build();
+ * </pre>
+ *
+ * Subgraphs can be added to the built graph with the usual methods.
+ */
+public class GraphBuilder {
+
+    /**
+     * An edge to add, given by the source and destination ids and the edge
+     * parameters.
+     */
+    public static final class EdgeSpec {
+        private final String sourceId;
+        private final String destId;
+        private final Map<String, String> params;
+
+        /**
+         * @param sourceId
+         * @param destId
+         * @param params
+         *            the edge parameters, can be null
+         */
+        public EdgeSpec(String sourceId, String destId,
+                Map<String, String> params) {
+            this.sourceId = sourceId;
+            this.destId = destId;
+            this.params = params;
+        }
+
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        public String getDestId() {
+            return destId;
+        }
+
+        public Map<String, String> getParams() {
+            return params;
+        }
+    }
+
+    private Graph graph;
+    private final Map<String, Subgraph.Node> nodes;
+
+    /**
+     * @param name
+     *            the name of the graph
+     * @param type
+     *            {@link Graph#DIGRAPH} or {@link Graph#GRAPH}
+     * @param expectedNodes
+     *            the expected number of nodes
+     * @param expectedEdges
+     *            the expected number of edges
+     */
+    public GraphBuilder(String name, String type, int expectedNodes,
+            int expectedEdges) {
+        graph = new Graph(name, type, expectedNodes, expectedEdges);
+        nodes = new HashMap<String, Subgraph.Node>(
+                Subgraph.capacity(expectedNodes));
+    }
+
+    /**
+     * Sets the factory used to create the edges
+     */
+    public GraphBuilder setEdgeFactory(Subgraph.EdgeFactory factory) {
+        getGraph().setEdgeFactory(factory);
+        return this;
+    }
+
+    public GraphBuilder setParam(String name, String value) {
+        getGraph().setParam(name, value);
+        return this;
+    }
+
+    public GraphBuilder setNodeParameter(String name, String value) {
+        getGraph().setNodeParameter(name, value);
+        return this;
+    }
+
+    public GraphBuilder setEdgeParameter(String name, String value) {
+        getGraph().setEdgeParameter(name, value);
+        return this;
+    }
+
+    /**
+     * Adds a node with the given parameters. Adding a node with an id that
+     * has been used before adds the parameters to the existing node.
+     *
+     * @param id
+     * @param params
+     *            the node parameters, can be null
+     * @throws IllegalArgumentException
+     *             if the id is null or empty
+     */
+    public GraphBuilder addNode(String id, Map<String, String> params) {
+        Subgraph.Node node = node(id);
+        setParams(node, params);
+        return this;
+    }
+
+    /**
+     * Adds an edge between the nodes with the given ids
+     *
+     * @param sourceId
+     * @param destId
+     * @param params
+     *            the edge parameters, can be null
+     * @throws IllegalArgumentException
+     *             if an id is null or empty
+     */
+    public GraphBuilder addEdge(String sourceId, String destId,
+            Map<String, String> params) {
+        Subgraph.Node source = node(sourceId);
+        Subgraph.Node dest = node(destId);
+        Subgraph.Edge edge = getGraph().insertEdge(source, dest);
+        setParams(edge, params);
+        return this;
+    }
+
+    /**
+     * Adds all edges in the batch
+     *
+     * @param edges
+     * @throws IllegalArgumentException
+     *             if an id is null or empty. The edges before the invalid one
+     *             have been added.
+     */
+    public GraphBuilder addEdges(Iterable<EdgeSpec> edges) {
+        for (EdgeSpec edge : edges) {
+            addEdge(edge.getSourceId(), edge.getDestId(), edge.getParams());
+        }
+        return this;
+    }
+
+    /**
+     * Returns the built graph. The builder can not be used after this.
+     */
+    public Graph build() {
+        Graph built = getGraph();
+        graph = null;
+        nodes.clear();
+        return built;
+    }
+
+    private Graph getGraph() {
+        if (graph == null) {
+            throw new IllegalStateException("The graph has already been built");
+        }
+        return graph;
+    }
+
+    private Subgraph.Node node(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Node id must not be empty");
+        }
+        Subgraph.Node node = nodes.get(id);
+        if (node == null) {
+            node = new Subgraph.Node(id);
+            getGraph().addNode(node);
+            // Both the escaped and the plain id refer to the node
+            nodes.put(id, node);
+            nodes.put(node.getId(), node);
+        }
+        return node;
+    }
+
+    private static void setParams(Parameterised element,
+            Map<String, String> params) {
+        if (params != null) {
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                element.setParam(param.getKey(), param.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+/**
+ * A change made to a graph. Changes are numbered by a stamp that increases
+ * with every change in the graph and its subgraphs, see
+ * {@link Subgraph#getModificationStamp()}.
+ */
+public final class GraphChange {
+
+    public enum Type {
+        NODE_ADDED,
+        NODE_REMOVED,
+        EDGE_ADDED,
+        EDGE_REMOVED,
+        /** The destination of the edge changed */
+        EDGE_RETARGETED,
+        /** A parameter of a node or an edge changed */
+        ATTRIBUTE_CHANGED,
+        /**
+         * A parameter of the subgraph or the default parameters for its nodes
+         * or edges changed
+         */
+        GRAPH_ATTRIBUTE_CHANGED
+    }
+
+    private final Type type;
+    private final long stamp;
+    private final Subgraph subgraph;
+    private final GraphElement element;
+    private final String attribute;
+
+    GraphChange(Type type, long stamp, Subgraph subgraph,
+            GraphElement element, String attribute) {
+        this.type = type;
+        this.stamp = stamp;
+        this.subgraph = subgraph;
+        this.element = element;
+        this.attribute = attribute;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Returns the subgraph the change was made in
+     */
+    public Subgraph getSubgraph() {
+        return subgraph;
+    }
+
+    /**
+     * Returns the node or edge that changed
+     *
+     * @return null for changes of the graph parameters
+     */
+    public GraphElement getElement() {
+        return element;
+    }
+
+    /**
+     * Returns the name of the changed parameter
+     *
+     * @return null if the change is not a parameter change or the shared
+     *         attribute set was replaced
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    @Override
+    public String toString() {
+        return stamp + " " + type
+                + (element == null ? "" : " " + element.getId())
+                + (attribute == null ? "" : " " + attribute);
+    }
+}
@@ -0,0 +1,47 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of all nodes and edges in a graph and its subgraphs. The index is
+ * created by the root graph and shared by all subgraphs created from it. It
+ * maps the id of each node and edge to the subgraph it was added to. In a
+ * concurrent graph the maps are concurrent, since all subgraphs update them.
+ */
+class GraphIndex {
+
+    final Map<String, Subgraph> nodeOwners;
+    final Map<String, Subgraph> edgeOwners;
+    final boolean concurrent;
+    // Stamp of the latest change in the graph tree
+    final AtomicLong stamp;
+    volatile ChangeJournal journal;
+    // Created when the first snapshot is taken
+    volatile SnapshotTracker snapshots;
+
+    GraphIndex(int expectedNodes, int expectedEdges, boolean concurrent) {
+        this.concurrent = concurrent;
+        stamp = new AtomicLong();
+        journal = null;
+        snapshots = null;
+        if (concurrent) {
+            nodeOwners = new ConcurrentHashMap<String, Subgraph>(
+                    Subgraph.capacity(expectedNodes));
+            edgeOwners = new ConcurrentHashMap<String, Subgraph>(
+                    Subgraph.capacity(expectedEdges));
+        } else {
+            nodeOwners = new HashMap<String, Subgraph>(
+                    Subgraph.capacity(expectedNodes));
+            edgeOwners = new HashMap<String, Subgraph>(
+                    Subgraph.capacity(expectedEdges));
+        }
+    }
+
+    void removeNode(String id, Subgraph owner) {
+        nodeOwners.remove(id, owner);
+    }
+
+}
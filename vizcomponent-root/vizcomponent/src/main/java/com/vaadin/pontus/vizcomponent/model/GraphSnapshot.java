@@ -0,0 +1,332 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of a graph or a subgraph at one point in time, created by
+ * {@link Graph#snapshot()}. Snapshots can be read from any number of threads
+ * and given to several components at once while the graph keeps changing.
+ *
+ * The nodes and edges are kept in persistent maps. A new snapshot of the same
+ * graph is built from the previous one and shares everything that has not
+ * changed in between, so taking a snapshot costs time and memory in
+ * proportion to the changes since the previous one.
+ *
+ * The nodes and edges are iterated in the order they were added to the graph.
+ * Each element carries its insertion sequence and is also kept in a
+ * persistent map keyed by it, shared between the snapshots like the maps by
+ * id. The nodes and edges of the subgraphs are kept in persistent maps by id
+ * too, so that they are found without visiting the subgraphs.
+ */
+public final class GraphSnapshot {
+
+    static final AttributeSet EMPTY = AttributeSet.of();
+
+    /**
+     * A node in a snapshot
+     */
+    public static final class Node {
+        private final String id;
+        private final AttributeSet params;
+        private final GraphSnapshot subgraph;
+        // Insertion sequence in the graph
+        final long order;
+
+        Node(String id, AttributeSet params, GraphSnapshot subgraph,
+                long order) {
+            this.id = id;
+            this.params = params;
+            this.subgraph = subgraph;
+            this.order = order;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the parameter value
+         *
+         * @return null if the parameter is not set
+         */
+        public String getParam(String name) {
+            return params.get(name);
+        }
+
+        public Set<String> getParams() {
+            return params.getNames();
+        }
+
+        /**
+         * Returns all parameters, including the ones from a shared attribute
+         * set
+         */
+        public AttributeSet getAttributes() {
+            return params;
+        }
+
+        /**
+         * Returns the subgraph if this node represents one
+         *
+         * @return null for ordinary nodes
+         */
+        public GraphSnapshot getSubgraph() {
+            return subgraph;
+        }
+
+        /**
+         * Creates a detached copy of the node that is not in any graph
+         */
+        public Subgraph.Node toNode() {
+            Subgraph.Node node = new Subgraph.Node(id);
+            node.setAttributes(params);
+            return node;
+        }
+    }
+
+    /**
+     * An edge in a snapshot
+     */
+    public static final class Edge {
+        private final String id;
+        private final String sourceId;
+        private final String destId;
+        private final AttributeSet params;
+        // Insertion sequence in the graph
+        final long order;
+
+        Edge(String id, String sourceId, String destId, AttributeSet params,
+                long order) {
+            this.id = id;
+            this.sourceId = sourceId;
+            this.destId = destId;
+            this.params = params;
+            this.order = order;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        public String getDestId() {
+            return destId;
+        }
+
+        /**
+         * Returns the parameter value
+         *
+         * @return null if the parameter is not set
+         */
+        public String getParam(String name) {
+            return params.get(name);
+        }
+
+        public Set<String> getParams() {
+            return params.getNames();
+        }
+
+        /**
+         * Returns all parameters, including the ones from a shared attribute
+         * set
+         */
+        public AttributeSet getAttributes() {
+            return params;
+        }
+
+        /**
+         * Creates a detached copy of the edge that is not in any graph
+         */
+        public Subgraph.Edge toEdge() {
+            Subgraph.Edge edge = new Subgraph.Edge(id);
+            edge.setAttributes(params);
+            return edge;
+        }
+    }
+
+    private final String name;
+    private final String type;
+    private final long stamp;
+    private final AttributeSet params;
+    private final AttributeSet nodeParams;
+    private final AttributeSet edgeParams;
+    private final PersistentMap<String, Node> nodes;
+    private final PersistentMap<String, Edge> edges;
+    // The same nodes and edges by insertion sequence
+    private final PersistentSequence<Node> nodeOrder;
+    private final PersistentSequence<Edge> edgeOrder;
+    // The nodes and edges of the subgraphs by id
+    private final PersistentMap<String, Node> nestedNodes;
+    private final PersistentMap<String, Edge> nestedEdges;
+
+    GraphSnapshot(String name, String type, long stamp, AttributeSet params,
+            AttributeSet nodeParams, AttributeSet edgeParams,
+            PersistentMap<String, Node> nodes, PersistentMap<String, Edge> edges,
+            PersistentSequence<Node> nodeOrder,
+            PersistentSequence<Edge> edgeOrder,
+            PersistentMap<String, Node> nestedNodes,
+            PersistentMap<String, Edge> nestedEdges) {
+        this.name = name;
+        this.type = type;
+        this.stamp = stamp;
+        this.params = params;
+        this.nodeParams = nodeParams;
+        this.edgeParams = edgeParams;
+        this.nodes = nodes;
+        this.edges = edges;
+        this.nodeOrder = nodeOrder;
+        this.edgeOrder = edgeOrder;
+        this.nestedNodes = nestedNodes;
+        this.nestedEdges = nestedEdges;
+    }
+
+    /**
+     * Returns the name of the graph
+     *
+     * @return null for subgraphs
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns {@link Graph#DIGRAPH} or {@link Graph#GRAPH}
+     *
+     * @return null for subgraphs
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the modification stamp of the graph when the snapshot was taken,
+     * see {@link Subgraph#getModificationStamp()}
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    public String getParam(String name) {
+        return params.get(name);
+    }
+
+    public AttributeSet getParams() {
+        return params;
+    }
+
+    public AttributeSet getNodeParams() {
+        return nodeParams;
+    }
+
+    public AttributeSet getEdgeParams() {
+        return edgeParams;
+    }
+
+    /**
+     * Returns the node with the id in this graph
+     *
+     * @return null if there is no such node
+     */
+    public Node getNode(String id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * Returns the edge with the id in this graph
+     *
+     * @return null if there is no such edge
+     */
+    public Edge getEdge(String id) {
+        return edges.get(id);
+    }
+
+    /**
+     * Returns the node with the id from this graph or any of its subgraphs
+     *
+     * @return null if there is no such node
+     */
+    public Node findNode(String id) {
+        Node node = nodes.get(id);
+        return node != null ? node : nestedNodes.get(id);
+    }
+
+    /**
+     * Returns the edge with the id from this graph or any of its subgraphs
+     *
+     * @return null if there is no such edge
+     */
+    public Edge findEdge(String id) {
+        Edge edge = edges.get(id);
+        return edge != null ? edge : nestedEdges.get(id);
+    }
+
+    /**
+     * Returns an unmodifiable collection of the nodes in this graph, including
+     * the nodes representing subgraphs, in the order they were added
+     */
+    public Collection<Node> getNodes() {
+        return nodeOrder.values();
+    }
+
+    /**
+     * Returns an unmodifiable collection of the edges in this graph, in the
+     * order they were added
+     */
+    public Collection<Edge> getEdges() {
+        return edgeOrder.values();
+    }
+
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    public int edgeCount() {
+        return edges.size();
+    }
+
+    PersistentMap<String, Node> nodeMap() {
+        return nodes;
+    }
+
+    PersistentMap<String, Edge> edgeMap() {
+        return edges;
+    }
+
+    PersistentSequence<Node> nodeOrder() {
+        return nodeOrder;
+    }
+
+    PersistentSequence<Edge> edgeOrder() {
+        return edgeOrder;
+    }
+
+    PersistentMap<String, Node> nestedNodeMap() {
+        return nestedNodes;
+    }
+
+    PersistentMap<String, Edge> nestedEdgeMap() {
+        return nestedEdges;
+    }
+
+    /**
+     * Returns the parameters of the element as an attribute set, reusing the
+     * shared attribute set if no parameters are set directly on the element
+     */
+    static AttributeSet freeze(Parameterised element) {
+        AttributeSet shared = element.getAttributes();
+        if (element.getOwnParamCount() == 0) {
+            return shared != null ? shared : EMPTY;
+        }
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        for (String name : element.getParams()) {
+            params.put(name, element.getParam(name));
+        }
+        return new AttributeSet(params);
+    }
+}
@@ -1,26 +1,206 @@
 package com.vaadin.pontus.vizcomponent.model;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 class Parameterised {
-    private final Map<String, String> params;
+    // Parameters set on this element in the order they were first set. The
+    // arrays are created when the first parameter is set.
+    private AttributeKey[] keys;
+    private String[] values;
+    private int paramCount;
+    // Shared parameters, overridden by the ones above
+    private AttributeSet attributes;
 
     public Parameterised() {
-        params = new HashMap<String, String>();
+        keys = null;
+        values = null;
+        paramCount = 0;
+        attributes = null;
     }
 
     public void setParam(String name, String value) {
-        params.put(name, value);
+        setParam(AttributeKey.of(name), value);
+    }
+
+    public void setParam(AttributeKey key, String value) {
+        int i = indexOf(key);
+        if (i < 0) {
+            if (keys == null) {
+                keys = new AttributeKey[2];
+                values = new String[2];
+            } else if (paramCount == keys.length) {
+                keys = Arrays.copyOf(keys, paramCount * 2);
+                values = Arrays.copyOf(values, paramCount * 2);
+            }
+            i = paramCount++;
+            keys[i] = key;
+        }
+        values[i] = value;
+        paramChanged(key.getName());
+    }
+
+    /**
+     * Sets a numeric parameter
+     *
+     * @throws IllegalArgumentException
+     *             if the attribute does not take a number or the value is not
+     *             a finite number
+     */
+    public void setParam(AttributeKey key, double value) {
+        setParam(key, key.format(value));
     }
 
     public String getParam(String name) {
-        return params.get(name);
+        AttributeKey key = AttributeKey.find(name);
+        return key == null ? null : getParam(key);
     }
 
+    public String getParam(AttributeKey key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return values[i];
+        }
+        return attributes == null ? null : attributes.get(key);
+    }
+
+    /**
+     * Returns the names of all parameters, both the ones set directly and the
+     * ones from the shared attribute set.
+     */
     public Set<String> getParams() {
-        return params.keySet();
+        if (attributes == null || attributes.size() == 0) {
+            return getOwnParams();
+        }
+        if (paramCount == 0) {
+            return attributes.getNames();
+        }
+        Set<String> names = new LinkedHashSet<String>(attributes.getNames());
+        names.addAll(getOwnParams());
+        return names;
+    }
+
+    /**
+     * Returns the names of the parameters set directly on this element,
+     * excluding the ones only in the shared attribute set.
+     */
+    public Set<String> getOwnParams() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < paramCount;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next >= paramCount) {
+                            throw new NoSuchElementException();
+                        }
+                        return keys[next++].getName();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return paramCount;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String
+                        && indexOf(AttributeKey.find((String) o)) >= 0;
+            }
+        };
+    }
+
+    /**
+     * Returns the number of parameters set directly on this element. Together
+     * with {@link #getOwnParamKey(int)} and {@link #getOwnParamValue(int)}
+     * this allows iterating the parameters without any lookups.
+     */
+    public int getOwnParamCount() {
+        return paramCount;
+    }
+
+    /**
+     * Returns the key of the parameter at the index, 0 &lt;= index &lt;
+     * {@link #getOwnParamCount()}
+     */
+    public AttributeKey getOwnParamKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * Returns the value of the parameter at the index, 0 &lt;= index &lt;
+     * {@link #getOwnParamCount()}
+     */
+    public String getOwnParamValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Sets the shared attribute set. Parameters set directly with setParam
+     * override the ones in the set.
+     *
+     * @param attributes
+     *            null to remove the shared attributes
+     */
+    public void setAttributes(AttributeSet attributes) {
+        this.attributes = attributes;
+        paramChanged(null);
+    }
+
+    /**
+     * Returns the shared attribute set
+     *
+     * @return null if no attribute set is used
+     */
+    public AttributeSet getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Called after a parameter or the attribute set has changed
+     *
+     * @param name
+     *            the name of the parameter, null if the attribute set changed
+     */
+    void paramChanged(String name) {
+    }
+
+    private int indexOf(AttributeKey key) {
+        // Elements have few parameters, a scan is cheaper than hashing
+        for (int i = 0; i < paramCount; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= paramCount) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size "
+                    + paramCount);
+        }
     }
 
 }
@@ -0,0 +1,385 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable hash map where a changed copy shares everything but the changed
+ * path with the original. The map is a hash array mapped trie: each level
+ * uses five bits of the hash to choose one of up to 32 branches, so a change
+ * copies at most a few small arrays. Keys with the same hash are kept in a
+ * collision node.
+ *
+ * The iteration order follows the hashes of the keys, it is the same for maps
+ * with the same keys.
+ */
+final class PersistentMap<K, V> {
+
+    private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<Object, Object>(
+            null, 0);
+
+    private static final class Entry<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+
+        Entry(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Trie node. The array holds entries and child nodes, ordered by the bits
+     * set in the bitmap. A collision node has no bitmap and holds entries
+     * with the same hash only.
+     */
+    private static final class TrieNode {
+        final int bitmap;
+        final Object[] array;
+        final boolean collision;
+
+        TrieNode(int bitmap, Object[] array, boolean collision) {
+            this.bitmap = bitmap;
+            this.array = array;
+            this.collision = collision;
+        }
+    }
+
+    private final TrieNode root;
+    private final int size;
+
+    private PersistentMap(TrieNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        int hash = hash(key);
+        TrieNode node = root;
+        int shift = 0;
+        while (node != null) {
+            if (node.collision) {
+                return (V) findInCollision(node, key);
+            }
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object item = node.array[index(node.bitmap, bit)];
+            if (item instanceof Entry) {
+                Entry<K, V> entry = (Entry<K, V>) item;
+                return entry.hash == hash && entry.key.equals(key) ? entry.value
+                        : null;
+            }
+            node = (TrieNode) item;
+            shift += 5;
+        }
+        return null;
+    }
+
+    boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with the key mapped to the value. Null values are not
+     * supported.
+     */
+    PersistentMap<K, V> plus(K key, V value) {
+        Entry<K, V> entry = new Entry<K, V>(hash(key), key, value);
+        if (root == null) {
+            return new PersistentMap<K, V>(new TrieNode(bit(entry.hash, 0),
+                    new Object[] { entry }, false), 1);
+        }
+        boolean[] added = new boolean[1];
+        TrieNode newRoot = put(root, entry, 0, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without the key
+     */
+    PersistentMap<K, V> minus(Object key) {
+        if (root == null) {
+            return this;
+        }
+        TrieNode newRoot = remove(root, key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty();
+        }
+        return new PersistentMap<K, V>(newRoot, size - 1);
+    }
+
+    /**
+     * Returns an unmodifiable collection of the values
+     */
+    Collection<V> values() {
+        return new AbstractCollection<V>() {
+
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator<V>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static TrieNode put(TrieNode node, Entry<?, ?> entry, int shift,
+            boolean[] added) {
+        if (node.collision) {
+            Entry<?, ?> first = (Entry<?, ?>) node.array[0];
+            if (first.hash != entry.hash) {
+                // Push the collision node one level down
+                return merge(node, first.hash, entry, shift, added);
+            }
+            for (int i = 0; i < node.array.length; i++) {
+                Entry<?, ?> old = (Entry<?, ?>) node.array[i];
+                if (old.key.equals(entry.key)) {
+                    if (old.value == entry.value) {
+                        return node;
+                    }
+                    return new TrieNode(0, replaced(node.array, i, entry), true);
+                }
+            }
+            added[0] = true;
+            Object[] array = Arrays.copyOf(node.array, node.array.length + 1);
+            array[node.array.length] = entry;
+            return new TrieNode(0, array, true);
+        }
+        int bit = bit(entry.hash, shift);
+        int index = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] array = new Object[node.array.length + 1];
+            System.arraycopy(node.array, 0, array, 0, index);
+            array[index] = entry;
+            System.arraycopy(node.array, index, array, index + 1,
+                    node.array.length - index);
+            return new TrieNode(node.bitmap | bit, array, false);
+        }
+        Object item = node.array[index];
+        Object newItem;
+        if (item instanceof Entry) {
+            Entry<?, ?> old = (Entry<?, ?>) item;
+            if (old.hash == entry.hash && old.key.equals(entry.key)) {
+                if (old.value == entry.value) {
+                    return node;
+                }
+                newItem = entry;
+            } else {
+                newItem = merge(old, old.hash, entry, shift + 5, added);
+            }
+        } else {
+            newItem = put((TrieNode) item, entry, shift + 5, added);
+            if (newItem == item) {
+                return node;
+            }
+        }
+        return new TrieNode(node.bitmap, replaced(node.array, index, newItem),
+                false);
+    }
+
+    /**
+     * Creates a node holding an existing entry or collision node and a new
+     * entry with a different key
+     */
+    private static TrieNode merge(Object existing, int existingHash,
+            Entry<?, ?> entry, int shift, boolean[] added) {
+        if (existingHash == entry.hash) {
+            if (existing instanceof Entry) {
+                added[0] = true;
+                return new TrieNode(0, new Object[] { existing, entry }, true);
+            }
+            return put((TrieNode) existing, entry, shift, added);
+        }
+        int bit1 = bit(existingHash, shift);
+        int bit2 = bit(entry.hash, shift);
+        if (bit1 == bit2) {
+            return new TrieNode(bit1, new Object[] { merge(existing,
+                    existingHash, entry, shift + 5, added) }, false);
+        }
+        added[0] = true;
+        // The items are ordered by the bit position
+        Object[] array;
+        if (Integer.compareUnsigned(bit1, bit2) > 0) {
+            array = new Object[] { entry, existing };
+        } else {
+            array = new Object[] { existing, entry };
+        }
+        return new TrieNode(bit1 | bit2, array, false);
+    }
+
+    private static TrieNode remove(TrieNode node, Object key, int hash,
+            int shift) {
+        if (node.collision) {
+            for (int i = 0; i < node.array.length; i++) {
+                Entry<?, ?> old = (Entry<?, ?>) node.array[i];
+                if (old.hash == hash && old.key.equals(key)) {
+                    if (node.array.length == 1) {
+                        return null;
+                    }
+                    return new TrieNode(0, removed(node.array, i), true);
+                }
+            }
+            return node;
+        }
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = index(node.bitmap, bit);
+        Object item = node.array[index];
+        Object newItem;
+        if (item instanceof Entry) {
+            Entry<?, ?> old = (Entry<?, ?>) item;
+            if (old.hash != hash || !old.key.equals(key)) {
+                return node;
+            }
+            newItem = null;
+        } else {
+            TrieNode child = remove((TrieNode) item, key, hash, shift + 5);
+            if (child == item) {
+                return node;
+            }
+            newItem = child;
+            // A child with a single entry is replaced by the entry
+            if (child != null && child.array.length == 1
+                    && child.array[0] instanceof Entry) {
+                newItem = child.array[0];
+            }
+        }
+        if (newItem != null) {
+            return new TrieNode(node.bitmap, replaced(node.array, index,
+                    newItem), false);
+        }
+        if (node.array.length == 1) {
+            return null;
+        }
+        return new TrieNode(node.bitmap & ~bit, removed(node.array, index),
+                false);
+    }
+
+    private static Object findInCollision(TrieNode node, Object key) {
+        for (Object item : node.array) {
+            Entry<?, ?> entry = (Entry<?, ?>) item;
+            if (entry.key.equals(key)) {
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
+    private static Object[] replaced(Object[] array, int index, Object item) {
+        Object[] copy = array.clone();
+        copy[index] = item;
+        return copy;
+    }
+
+    private static Object[] removed(Object[] array, int index) {
+        Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        // Spread the bits, the lowest ones are used first
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static final class ValueIterator<V> implements Iterator<V> {
+        // Path from the root to the current node, and the next index in each
+        private final TrieNode[] nodes = new TrieNode[8];
+        private final int[] indexes = new int[8];
+        private int depth;
+        private Entry<?, V> next;
+
+        ValueIterator(TrieNode root) {
+            depth = -1;
+            if (root != null) {
+                depth = 0;
+                nodes[0] = root;
+                indexes[0] = 0;
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                TrieNode node = nodes[depth];
+                if (indexes[depth] >= node.array.length) {
+                    depth--;
+                    continue;
+                }
+                Object item = node.array[indexes[depth]++];
+                if (item instanceof Entry) {
+                    next = (Entry<?, V>) item;
+                    return;
+                }
+                depth++;
+                nodes[depth] = (TrieNode) item;
+                indexes[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            V value = next.value;
+            advance();
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
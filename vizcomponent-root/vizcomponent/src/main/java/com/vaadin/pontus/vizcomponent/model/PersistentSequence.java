@@ -0,0 +1,216 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable map from sequence numbers to values, iterated in the order of the
+ * numbers. A changed copy shares everything but the changed path with the
+ * original. The map is a treap: a binary search tree on the numbers that is
+ * also a heap on priorities mixed from the numbers, which keeps it balanced
+ * on average also when the numbers are added in increasing order.
+ */
+final class PersistentSequence<V> {
+
+    private static final PersistentSequence<Object> EMPTY = new PersistentSequence<Object>(
+            null, 0);
+
+    private static final class TreeNode {
+        final long key;
+        final Object value;
+        final int priority;
+        final TreeNode left;
+        final TreeNode right;
+
+        TreeNode(long key, Object value, int priority, TreeNode left,
+                TreeNode right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+        }
+
+        TreeNode with(TreeNode left, TreeNode right) {
+            return new TreeNode(key, value, priority, left, right);
+        }
+    }
+
+    private final TreeNode root;
+    private final int size;
+
+    private PersistentSequence(TreeNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentSequence<V> empty() {
+        return (PersistentSequence<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        TreeNode node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                node = node.right;
+            } else {
+                return (V) node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a map with the number mapped to the value. Null values are not
+     * supported.
+     */
+    PersistentSequence<V> plus(long key, V value) {
+        boolean added = get(key) == null;
+        return new PersistentSequence<V>(put(root, key, value), added ? size + 1
+                : size);
+    }
+
+    /**
+     * Returns a map without the number
+     */
+    PersistentSequence<V> minus(long key) {
+        if (get(key) == null) {
+            return this;
+        }
+        TreeNode newRoot = remove(root, key);
+        return newRoot == null ? PersistentSequence.<V> empty()
+                : new PersistentSequence<V>(newRoot, size - 1);
+    }
+
+    /**
+     * Returns an unmodifiable collection of the values in the order of their
+     * numbers
+     */
+    Collection<V> values() {
+        return new AbstractCollection<V>() {
+
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator<V>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static TreeNode put(TreeNode node, long key, Object value) {
+        if (node == null) {
+            return new TreeNode(key, value, priority(key), null, null);
+        }
+        if (key < node.key) {
+            TreeNode left = put(node.left, key, value);
+            if (left.priority > node.priority) {
+                // Rotate the new node up
+                return left.with(left.left, node.with(left.right, node.right));
+            }
+            return node.with(left, node.right);
+        }
+        if (key > node.key) {
+            TreeNode right = put(node.right, key, value);
+            if (right.priority > node.priority) {
+                return right.with(node.with(node.left, right.left),
+                        right.right);
+            }
+            return node.with(node.left, right);
+        }
+        return new TreeNode(key, value, node.priority, node.left, node.right);
+    }
+
+    private static TreeNode remove(TreeNode node, long key) {
+        if (key < node.key) {
+            return node.with(remove(node.left, key), node.right);
+        }
+        if (key > node.key) {
+            return node.with(node.left, remove(node.right, key));
+        }
+        return join(node.left, node.right);
+    }
+
+    /**
+     * Joins two trees where all numbers in the left one are smaller
+     */
+    private static TreeNode join(TreeNode left, TreeNode right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, join(left.right, right));
+        }
+        return right.with(join(left, right.left), right.right);
+    }
+
+    private static int priority(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static final class ValueIterator<V> implements Iterator<V> {
+        // The nodes whose left subtrees are being iterated, the deepest last
+        private TreeNode[] path = new TreeNode[16];
+        private int depth;
+
+        ValueIterator(TreeNode root) {
+            descend(root);
+        }
+
+        private void descend(TreeNode node) {
+            for (; node != null; node = node.left) {
+                if (depth == path.length) {
+                    TreeNode[] longer = new TreeNode[depth * 2];
+                    System.arraycopy(path, 0, longer, 0, depth);
+                    path = longer;
+                }
+                path[depth++] = node;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            TreeNode node = path[--depth];
+            path[depth] = null;
+            descend(node.right);
+            return (V) node.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
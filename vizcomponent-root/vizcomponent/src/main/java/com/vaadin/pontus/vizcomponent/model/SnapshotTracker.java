@@ -0,0 +1,508 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the latest snapshot of each subgraph in a graph tree and records which
+ * nodes, edges and parameters have changed since. A new snapshot is built by
+ * applying only the recorded changes to the previous snapshots. A changed
+ * subgraph also gets new snapshots for its parents, since they refer to it.
+ * <p>
+ * Every node and edge gets an increasing insertion sequence, kept while it
+ * stays in the graph, so that snapshots can list them in the order they were
+ * added. The snapshots of removed subgraphs are dropped.
+ * <p>
+ * Each snapshot also maps the ids of the nodes and edges in its subgraphs to
+ * them. The ids whose lookup changed in a subgraph are passed up to the
+ * parent, which looks up only those ids again.
+ */
+class SnapshotTracker {
+
+    private static final class Changes {
+        // In the order of the latest addition
+        final Set<String> nodes = new LinkedHashSet<String>();
+        final Set<String> edges = new LinkedHashSet<String>();
+        // Removed since the previous snapshot, added again if still present
+        final Set<String> removedNodes = new HashSet<String>();
+        final Set<String> removedEdges = new HashSet<String>();
+        boolean params;
+    }
+
+    /**
+     * The ids whose lookup in a subgraph, including its subgraphs, may have
+     * changed in the new snapshot
+     */
+    private static final class Touched {
+        final Set<String> nodes = new HashSet<String>();
+        final Set<String> edges = new HashSet<String>();
+    }
+
+    /**
+     * The maps of a snapshot being built
+     */
+    private static final class Draft {
+        PersistentMap<String, GraphSnapshot.Node> nodes;
+        PersistentMap<String, GraphSnapshot.Edge> edges;
+        PersistentSequence<GraphSnapshot.Node> nodeOrder;
+        PersistentSequence<GraphSnapshot.Edge> edgeOrder;
+        PersistentMap<String, GraphSnapshot.Node> nestedNodes;
+        PersistentMap<String, GraphSnapshot.Edge> nestedEdges;
+
+        Draft() {
+            nodes = PersistentMap.empty();
+            edges = PersistentMap.empty();
+            nodeOrder = PersistentSequence.empty();
+            edgeOrder = PersistentSequence.empty();
+            nestedNodes = PersistentMap.empty();
+            nestedEdges = PersistentMap.empty();
+        }
+
+        Draft(GraphSnapshot previous) {
+            nodes = previous.nodeMap();
+            edges = previous.edgeMap();
+            nodeOrder = previous.nodeOrder();
+            edgeOrder = previous.edgeOrder();
+            nestedNodes = previous.nestedNodeMap();
+            nestedEdges = previous.nestedEdgeMap();
+        }
+
+        void put(GraphSnapshot.Node node) {
+            GraphSnapshot.Node old = nodes.get(node.getId());
+            if (old != null && old.order != node.order) {
+                nodeOrder = nodeOrder.minus(old.order);
+            }
+            nodes = nodes.plus(node.getId(), node);
+            nodeOrder = nodeOrder.plus(node.order, node);
+        }
+
+        void put(GraphSnapshot.Edge edge) {
+            GraphSnapshot.Edge old = edges.get(edge.getId());
+            if (old != null && old.order != edge.order) {
+                edgeOrder = edgeOrder.minus(old.order);
+            }
+            edges = edges.plus(edge.getId(), edge);
+            edgeOrder = edgeOrder.plus(edge.order, edge);
+        }
+
+        GraphSnapshot.Node removeNode(String id) {
+            GraphSnapshot.Node old = nodes.get(id);
+            if (old != null) {
+                nodes = nodes.minus(id);
+                nodeOrder = nodeOrder.minus(old.order);
+            }
+            return old;
+        }
+
+        void removeEdge(String id) {
+            GraphSnapshot.Edge old = edges.get(id);
+            if (old != null) {
+                edges = edges.minus(id);
+                edgeOrder = edgeOrder.minus(old.order);
+            }
+        }
+
+        /**
+         * Adds the nodes and edges of the subgraph and its subgraphs that are
+         * not in the nested maps yet
+         */
+        void addNested(GraphSnapshot child) {
+            for (GraphSnapshot.Node node : child.nodeMap().values()) {
+                addNested(node);
+            }
+            for (GraphSnapshot.Node node : child.nestedNodeMap().values()) {
+                addNested(node);
+            }
+            for (GraphSnapshot.Edge edge : child.edgeMap().values()) {
+                addNested(edge);
+            }
+            for (GraphSnapshot.Edge edge : child.nestedEdgeMap().values()) {
+                addNested(edge);
+            }
+        }
+
+        private void addNested(GraphSnapshot.Node node) {
+            if (!nestedNodes.containsKey(node.getId())) {
+                nestedNodes = nestedNodes.plus(node.getId(), node);
+            }
+        }
+
+        private void addNested(GraphSnapshot.Edge edge) {
+            if (!nestedEdges.containsKey(edge.getId())) {
+                nestedEdges = nestedEdges.plus(edge.getId(), edge);
+            }
+        }
+
+        GraphSnapshot toSnapshot(String name, String type, long stamp,
+                AttributeSet params, AttributeSet nodeParams,
+                AttributeSet edgeParams) {
+            return new GraphSnapshot(name, type, stamp, params, nodeParams,
+                    edgeParams, nodes, edges, nodeOrder, edgeOrder,
+                    nestedNodes, nestedEdges);
+        }
+    }
+
+    // Guards changes
+    private final Object lock = new Object();
+    private Map<Subgraph, Changes> changes = new IdentityHashMap<Subgraph, Changes>();
+    // Only used while holding the monitor of the tracker
+    private final Map<Subgraph, GraphSnapshot> snapshots = new IdentityHashMap<Subgraph, GraphSnapshot>();
+    // The id of the node representing each subgraph
+    private final Map<Subgraph, String> subgraphIds = new IdentityHashMap<Subgraph, String>();
+    // Subgraphs whose nodes were removed since the previous snapshot
+    private Set<Subgraph> removed = Collections
+            .newSetFromMap(new IdentityHashMap<Subgraph, Boolean>());
+    // The latest insertion sequence
+    private long order;
+
+    void record(Subgraph subgraph, GraphChange.Type type, GraphElement element) {
+        synchronized (lock) {
+            Changes subgraphChanges = changes.get(subgraph);
+            if (subgraphChanges == null) {
+                subgraphChanges = new Changes();
+                changes.put(subgraph, subgraphChanges);
+            }
+            if (element instanceof Subgraph.Edge) {
+                record(subgraphChanges.edges, subgraphChanges.removedEdges,
+                        type == GraphChange.Type.EDGE_ADDED,
+                        type == GraphChange.Type.EDGE_REMOVED, element.getId());
+            } else if (element != null) {
+                record(subgraphChanges.nodes, subgraphChanges.removedNodes,
+                        type == GraphChange.Type.NODE_ADDED,
+                        type == GraphChange.Type.NODE_REMOVED, element.getId());
+                if (type == GraphChange.Type.NODE_REMOVED
+                        && element instanceof Subgraph.GraphNode) {
+                    removed.add(((Subgraph.GraphNode) element).getGraph());
+                }
+            } else {
+                subgraphChanges.params = true;
+            }
+        }
+    }
+
+    private static void record(Set<String> ids, Set<String> removedIds,
+            boolean added, boolean removed, String id) {
+        if (added) {
+            // Move it last
+            ids.remove(id);
+        }
+        ids.add(id);
+        if (removed) {
+            removedIds.add(id);
+        }
+    }
+
+    synchronized GraphSnapshot snapshot(Graph graph) {
+        Map<Subgraph, Changes> pending;
+        Set<Subgraph> removedGraphs;
+        synchronized (lock) {
+            pending = changes;
+            changes = new IdentityHashMap<Subgraph, Changes>();
+            removedGraphs = removed;
+            removed = Collections
+                    .newSetFromMap(new IdentityHashMap<Subgraph, Boolean>());
+        }
+        GraphSnapshot previous = snapshots.get(graph);
+        if (previous == null) {
+            return build(graph);
+        }
+        if (pending.isEmpty()) {
+            return previous;
+        }
+        if (!removedGraphs.isEmpty()) {
+            forget(removedGraphs);
+        }
+        // Apply the changes in the deepest subgraphs first, so that the
+        // parents can refer to the new snapshots of their subgraphs
+        final Map<Subgraph, Integer> depths = new IdentityHashMap<Subgraph, Integer>();
+        for (Subgraph sub : pending.keySet()) {
+            for (Subgraph s = sub; s != null && !depths.containsKey(s); s = s
+                    .getParent()) {
+                depths.put(s, depth(s));
+            }
+        }
+        List<Subgraph> order = new ArrayList<Subgraph>(depths.keySet());
+        Collections.sort(order, new Comparator<Subgraph>() {
+            @Override
+            public int compare(Subgraph a, Subgraph b) {
+                return depths.get(b) - depths.get(a);
+            }
+        });
+        Map<Subgraph, Touched> updated = new IdentityHashMap<Subgraph, Touched>();
+        for (Subgraph sub : order) {
+            Touched touched = update(sub, pending.get(sub), updated);
+            if (touched != null) {
+                updated.put(sub, touched);
+            }
+        }
+        return snapshots.get(graph);
+    }
+
+    /**
+     * Drops the snapshots of the removed subgraphs and the subgraphs created
+     * in them. A subgraph added again is built from scratch.
+     */
+    private void forget(Set<Subgraph> removedGraphs) {
+        for (Iterator<Subgraph> i = snapshots.keySet().iterator(); i
+                .hasNext();) {
+            Subgraph sub = i.next();
+            for (Subgraph s = sub; s != null; s = s.getParent()) {
+                if (removedGraphs.contains(s)) {
+                    i.remove();
+                    subgraphIds.remove(sub);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int depth(Subgraph sub) {
+        int depth = 0;
+        for (Subgraph parent = sub.getParent(); parent != null; parent = parent
+                .getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Applies the changes to the previous snapshot of the subgraph. The
+     * subgraphs updated before have their new snapshots in the snapshot map.
+     *
+     * @param updated
+     *            the ids touched in each subgraph updated before
+     * @return the ids touched in this subgraph, null if the subgraph has no
+     *         snapshot yet
+     */
+    private Touched update(Subgraph sub, Changes subChanges,
+            Map<Subgraph, Touched> updated) {
+        GraphSnapshot previous = snapshots.get(sub);
+        if (previous == null) {
+            // Built when a parent refers to it
+            return null;
+        }
+        Draft draft = new Draft(previous);
+        Touched touched = new Touched();
+        // The ids to look up again in the subgraphs, with the subgraph to
+        // look in first, null to look in all of them
+        Map<String, GraphSnapshot> nodeSources = new HashMap<String, GraphSnapshot>();
+        Map<String, GraphSnapshot> edgeSources = new HashMap<String, GraphSnapshot>();
+        AttributeSet params = previous.getParams();
+        AttributeSet nodeParams = previous.getNodeParams();
+        AttributeSet edgeParams = previous.getEdgeParams();
+        if (subChanges != null) {
+            for (String id : subChanges.nodes) {
+                Subgraph.Node node = sub.getNode(id);
+                GraphSnapshot.Node old;
+                GraphSnapshot.Node current = null;
+                if (node != null && sub.getNodes().contains(node)) {
+                    old = draft.nodes.get(id);
+                    current = node(node,
+                            old == null || subChanges.removedNodes.contains(id)
+                                    ? ++order : old.order);
+                    draft.put(current);
+                } else {
+                    old = draft.removeNode(id);
+                }
+                touched.nodes.add(id);
+                // A subgraph added or removed adds or removes all its
+                // nodes and edges
+                GraphSnapshot oldSubgraph = old == null ? null : old
+                        .getSubgraph();
+                GraphSnapshot subgraph = current == null ? null : current
+                        .getSubgraph();
+                if (oldSubgraph != subgraph) {
+                    if (oldSubgraph != null) {
+                        addSources(oldSubgraph, null, nodeSources, edgeSources);
+                    }
+                    if (subgraph != null) {
+                        addSources(subgraph, subgraph, nodeSources,
+                                edgeSources);
+                    }
+                }
+            }
+            for (String id : subChanges.edges) {
+                Subgraph.Edge edge = sub.getEdge(id);
+                if (edge != null && edge.getOwner() == sub) {
+                    GraphSnapshot.Edge old = draft.edges.get(id);
+                    draft.put(edge(edge,
+                            old == null || subChanges.removedEdges.contains(id)
+                                    ? ++order : old.order));
+                } else {
+                    draft.removeEdge(id);
+                }
+                touched.edges.add(id);
+            }
+            if (subChanges.params) {
+                params = GraphSnapshot.freeze(sub);
+                nodeParams = GraphSnapshot.freeze(sub.getNodeDefaults());
+                edgeParams = GraphSnapshot.freeze(sub.getEdgeDefaults());
+            }
+        }
+        // Refer to the new snapshots of the subgraphs
+        for (Map.Entry<Subgraph, Touched> child : updated.entrySet()) {
+            if (child.getKey().getParent() == sub) {
+                String id = subgraphIds.get(child.getKey());
+                GraphSnapshot.Node node = id == null ? null : draft.nodes
+                        .get(id);
+                if (node != null && node.getSubgraph() != null) {
+                    GraphSnapshot snapshot = snapshots.get(child.getKey());
+                    draft.put(new GraphSnapshot.Node(id, node.getAttributes(),
+                            snapshot, node.order));
+                    for (String nodeId : child.getValue().nodes) {
+                        addSource(nodeSources, nodeId, snapshot);
+                    }
+                    for (String edgeId : child.getValue().edges) {
+                        addSource(edgeSources, edgeId, snapshot);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, GraphSnapshot> source : nodeSources.entrySet()) {
+            String id = source.getKey();
+            GraphSnapshot.Node node = source.getValue() == null ? null
+                    : source.getValue().findNode(id);
+            if (node == null && draft.nestedNodes.containsKey(id)) {
+                // The id can also be in another subgraph
+                for (GraphSnapshot child : children(sub, draft)) {
+                    node = child.findNode(id);
+                    if (node != null) {
+                        break;
+                    }
+                }
+            }
+            if (node != draft.nestedNodes.get(id)) {
+                draft.nestedNodes = node == null ? draft.nestedNodes.minus(id)
+                        : draft.nestedNodes.plus(id, node);
+                touched.nodes.add(id);
+            }
+        }
+        for (Map.Entry<String, GraphSnapshot> source : edgeSources.entrySet()) {
+            String id = source.getKey();
+            GraphSnapshot.Edge edge = source.getValue() == null ? null
+                    : source.getValue().findEdge(id);
+            if (edge == null && draft.nestedEdges.containsKey(id)) {
+                for (GraphSnapshot child : children(sub, draft)) {
+                    edge = child.findEdge(id);
+                    if (edge != null) {
+                        break;
+                    }
+                }
+            }
+            if (edge != draft.nestedEdges.get(id)) {
+                draft.nestedEdges = edge == null ? draft.nestedEdges.minus(id)
+                        : draft.nestedEdges.plus(id, edge);
+                touched.edges.add(id);
+            }
+        }
+        snapshots.put(sub, draft.toSnapshot(previous.getName(),
+                previous.getType(), sub.getModificationStamp(), params,
+                nodeParams, edgeParams));
+        return touched;
+    }
+
+    /**
+     * Adds the ids of the nodes and edges of the subgraph and its subgraphs
+     * to be looked up again
+     */
+    private static void addSources(GraphSnapshot subgraph,
+            GraphSnapshot source, Map<String, GraphSnapshot> nodeSources,
+            Map<String, GraphSnapshot> edgeSources) {
+        for (GraphSnapshot.Node node : subgraph.nodeMap().values()) {
+            addSource(nodeSources, node.getId(), source);
+        }
+        for (GraphSnapshot.Node node : subgraph.nestedNodeMap().values()) {
+            addSource(nodeSources, node.getId(), source);
+        }
+        for (GraphSnapshot.Edge edge : subgraph.edgeMap().values()) {
+            addSource(edgeSources, edge.getId(), source);
+        }
+        for (GraphSnapshot.Edge edge : subgraph.nestedEdgeMap().values()) {
+            addSource(edgeSources, edge.getId(), source);
+        }
+    }
+
+    private static void addSource(Map<String, GraphSnapshot> sources,
+            String id, GraphSnapshot source) {
+        // A subgraph that has the id wins over looking in all of them
+        if (source != null || !sources.containsKey(id)) {
+            sources.put(id, source);
+        }
+    }
+
+    /**
+     * Returns the current snapshots of the subgraphs in the subgraph
+     */
+    private List<GraphSnapshot> children(Subgraph sub, Draft draft) {
+        List<GraphSnapshot> children = new ArrayList<GraphSnapshot>();
+        for (Subgraph child : sub.getChildren()) {
+            String id = subgraphIds.get(child);
+            GraphSnapshot.Node node = id == null ? null : draft.nodes.get(id);
+            GraphSnapshot snapshot = snapshots.get(child);
+            if (node != null && node.getSubgraph() == snapshot
+                    && snapshot != null) {
+                children.add(snapshot);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Builds a snapshot of the subgraph from scratch
+     */
+    private GraphSnapshot build(Subgraph sub) {
+        Draft draft = new Draft();
+        for (Subgraph.Node node : sub.getNodes()) {
+            GraphSnapshot.Node snapshotNode = node(node, ++order);
+            draft.put(snapshotNode);
+            if (snapshotNode.getSubgraph() != null) {
+                draft.addNested(snapshotNode.getSubgraph());
+            }
+        }
+        for (Subgraph.Edge edge : sub.getEdges()) {
+            draft.put(edge(edge, ++order));
+        }
+        String name = null;
+        String type = null;
+        if (sub instanceof Graph) {
+            name = ((Graph) sub).getName();
+            type = ((Graph) sub).getType();
+        }
+        GraphSnapshot snapshot = draft.toSnapshot(name, type,
+                sub.getModificationStamp(), GraphSnapshot.freeze(sub),
+                GraphSnapshot.freeze(sub.getNodeDefaults()),
+                GraphSnapshot.freeze(sub.getEdgeDefaults()));
+        snapshots.put(sub, snapshot);
+        return snapshot;
+    }
+
+    private GraphSnapshot.Node node(Subgraph.Node node, long order) {
+        if (node instanceof Subgraph.GraphNode) {
+            Subgraph child = ((Subgraph.GraphNode) node).getGraph();
+            subgraphIds.put(child, node.getId());
+            GraphSnapshot snapshot = snapshots.get(child);
+            if (snapshot == null) {
+                snapshot = build(child);
+            }
+            // The parameters of the node are the ones of the subgraph
+            return new GraphSnapshot.Node(node.getId(), GraphSnapshot.EMPTY,
+                    snapshot, order);
+        }
+        return new GraphSnapshot.Node(node.getId(),
+                GraphSnapshot.freeze(node), null, order);
+    }
+
+    private GraphSnapshot.Edge edge(Subgraph.Edge edge, long order) {
+        return new GraphSnapshot.Edge(edge.getId(), edge.getSource().getId(),
+                edge.getDest().getId(), GraphSnapshot.freeze(edge), order);
+    }
+}
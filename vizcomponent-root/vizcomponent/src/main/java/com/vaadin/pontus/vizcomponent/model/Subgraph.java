@@ -1,11 +1,25 @@
 package com.vaadin.pontus.vizcomponent.model;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class is used to describe the graphs rendered by the VizComponent. A
@@ -21,7 +35,19 @@ import java.util.Set;
  * restrictions</a>.
  *
  * The graphs can also have parameters, they also need to be valid dot
- * parameters. There is at the moment no way to create subgraphs.
+ * parameters. Subgraphs are created with {@link #createNewSubgraph()} and
+ * added to the graph with a {@link GraphNode}. All subgraphs of a graph share
+ * one index of the nodes and edges by id, so nodes and edges anywhere in the
+ * graph are found without searching the subgraphs, see
+ * {@link #findNode(String)}.
+ *
+ * A graph created as concurrent, see
+ * {@link Graph#Graph(String, String, int, int, boolean) Graph}, can be built
+ * from several threads. Each subgraph then has a lock taken by its changes.
+ *
+ * Every change gives the graph a new {@link #getModificationStamp()
+ * modification stamp}. The changes can be kept in a journal, see
+ * {@link #setJournalCapacity(int)}, and listeners can be notified of them.
  *
  * @author Pontus Boström
  *
@@ -36,6 +62,7 @@ public class Subgraph extends Parameterised {
      *
      */
     public static class Node extends GraphElement {
+        private Subgraph owner;
 
         public Node(String id) {
             super(id);
@@ -44,6 +71,22 @@ public class Subgraph extends Parameterised {
         Subgraph getGraph() {
             return null;
         }
+
+        /**
+         * Returns the subgraph the node was added to
+         *
+         * @return null if the node is not in any graph
+         */
+        public Subgraph getOwner() {
+            return owner;
+        }
+
+        @Override
+        void paramChanged(String name) {
+            if (owner != null) {
+                owner.changed(GraphChange.Type.ATTRIBUTE_CHANGED, this, name);
+            }
+        }
     }
 
     public static class GraphNode extends Node {
@@ -75,6 +118,37 @@ public class Subgraph extends Parameterised {
             return subgraph.getParam(name);
         }
 
+        /**
+         * Sets the parameter for the subgraph
+         */
+        @Override
+        public void setParam(AttributeKey key, String value) {
+            subgraph.setParam(key, value);
+        }
+
+        /**
+         * Gets the parameter for the subgraph
+         */
+        @Override
+        public String getParam(AttributeKey key) {
+            return subgraph.getParam(key);
+        }
+
+        @Override
+        public int getOwnParamCount() {
+            return subgraph.getOwnParamCount();
+        }
+
+        @Override
+        public AttributeKey getOwnParamKey(int index) {
+            return subgraph.getOwnParamKey(index);
+        }
+
+        @Override
+        public String getOwnParamValue(int index) {
+            return subgraph.getOwnParamValue(index);
+        }
+
         /**
          * Returns the set of defined parameters for the subgraph
          */
@@ -82,6 +156,30 @@ public class Subgraph extends Parameterised {
         public Set<String> getParams() {
             return subgraph.getParams();
         }
+
+        /**
+         * Returns the set of parameters set directly on the subgraph
+         */
+        @Override
+        public Set<String> getOwnParams() {
+            return subgraph.getOwnParams();
+        }
+
+        /**
+         * Sets the shared attributes for the subgraph
+         */
+        @Override
+        public void setAttributes(AttributeSet attributes) {
+            subgraph.setAttributes(attributes);
+        }
+
+        /**
+         * Gets the shared attributes for the subgraph
+         */
+        @Override
+        public AttributeSet getAttributes() {
+            return subgraph.getAttributes();
+        }
     }
 
     /**
@@ -92,19 +190,72 @@ public class Subgraph extends Parameterised {
      *
      */
     public static class Edge extends GraphElement {
-        private static volatile long counter = 0L;
+        private Node source;
         private Node dest;
+        private Subgraph owner;
+        // Index in the edge list of the owner
+        private int position;
 
+        /**
+         * Creates an edge with a generated id. The ids are unique also when
+         * edges are created in several threads.
+         */
         public Edge() {
-            super("edge" + counter++);
+            super("edge" + EdgeIds.next());
+        }
+
+        /**
+         * Creates an edge with the given id. The id needs to be unique among
+         * the edges in the graph.
+         *
+         * @param id
+         */
+        public Edge(String id) {
+            super(id);
+        }
+
+        /**
+         * Returns the node the edge starts in
+         *
+         * @return null if the edge has not been added to a graph
+         */
+        public Node getSource() {
+            return source;
         }
 
         public Node getDest() {
             return dest;
         }
 
+        /**
+         * Changes the destination of the edge. If the edge is in a graph, the
+         * graph is updated too, see
+         * {@link Subgraph#retarget(Edge, Node) retarget}.
+         *
+         * @param dest
+         */
         public void setDest(Node dest) {
-            this.dest = dest;
+            if (owner != null) {
+                owner.retarget(this, dest);
+            } else {
+                this.dest = dest;
+            }
+        }
+
+        /**
+         * Returns the subgraph the edge was added to
+         *
+         * @return null if the edge is not in any graph
+         */
+        public Subgraph getOwner() {
+            return owner;
+        }
+
+        @Override
+        void paramChanged(String name) {
+            if (owner != null) {
+                owner.changed(GraphChange.Type.ATTRIBUTE_CHANGED, this, name);
+            }
         }
 
     }
@@ -113,13 +264,44 @@ public class Subgraph extends Parameterised {
         public Edge newInstance();
     }
 
+    /**
+     * Listener for changes in a subgraph and the subgraphs created in it. The
+     * listener is called in the thread that made the change, while the
+     * subgraph is locked.
+     */
+    public interface ChangeListener {
+        public void graphChanged(GraphChange change);
+    }
+
     private EdgeFactory edgeFactory;
-    final private Map<Node, Set<AbstractMap.SimpleEntry<Node, Edge>>> graph;
+    // Outgoing edges keyed by destination
+    final private Map<Node, Connections> graph;
+    // Reverse index of graph: incoming edges keyed by source for the edges
+    // stored in this subgraph
+    final private Map<Node, Connections> incoming;
     private Parameterised nodeParams;
     private Parameterised edgeParams;
     private Map<String, Node> nodeMap;
     private Map<String, Edge> edgeMap;
+    // The edges in insertion order in an array list, for views and streams
+    // that split evenly. Removed edges leave a null until the list is
+    // compacted.
+    private final ArrayList<Edge> edgeList;
+    private int removedEdges;
     private Subgraph parent;
+    // Subgraphs created in this subgraph
+    private final List<Subgraph> children;
+    // Number of nodes and edges in this subgraph and all subgraphs created in
+    // it, updated by the subgraphs up to the root
+    private final AtomicInteger totalNodes;
+    private final AtomicInteger totalEdges;
+    // Stamp of the latest change in this subgraph or its subgraphs
+    private final AtomicLong modificationStamp;
+    private volatile List<ChangeListener> listeners;
+    // Shared by the whole graph tree
+    private final GraphIndex index;
+    // Taken by changes, a real lock only in concurrent graphs
+    private final Lock lock;
 
     /**
      * Constructs an empty graph with no nodes and no edges
@@ -130,12 +312,29 @@ public class Subgraph extends Parameterised {
      *            is either a digraph or graph
      */
     Subgraph(Subgraph parent) {
+        this(parent, 16, 16, false);
+    }
+
+    /**
+     * Constructs an empty graph sized for the expected number of nodes and
+     * edges, so that the maps do not need to grow while the graph is filled.
+     */
+    Subgraph(Subgraph parent, int expectedNodes, int expectedEdges,
+            boolean concurrent) {
         super();
-        graph = new LinkedHashMap<Node, Set<AbstractMap.SimpleEntry<Node, Edge>>>();
+        graph = new LinkedHashMap<Node, Connections>(capacity(expectedNodes));
+        incoming = new LinkedHashMap<Node, Connections>(
+                capacity(expectedNodes));
         nodeParams = new Parameterised();
         edgeParams = new Parameterised();
-        nodeMap = new LinkedHashMap<String, Node>();
-        edgeMap = new LinkedHashMap<String, Edge>();
+        nodeMap = new LinkedHashMap<String, Node>(capacity(expectedNodes));
+        edgeMap = new HashMap<String, Edge>(capacity(expectedEdges));
+        edgeList = new ArrayList<Edge>(expectedEdges);
+        children = new ArrayList<Subgraph>();
+        totalNodes = new AtomicInteger();
+        totalEdges = new AtomicInteger();
+        modificationStamp = new AtomicLong();
+        listeners = null;
         edgeFactory = new EdgeFactory() {
 
             @Override
@@ -145,20 +344,81 @@ public class Subgraph extends Parameterised {
 
         };
         this.parent = parent;
+        index = parent == null ? new GraphIndex(expectedNodes, expectedEdges,
+                concurrent) : parent.index;
+        lock = index.concurrent ? new ReentrantLock() : NoLock.INSTANCE;
+    }
+
+    /**
+     * The lock of subgraphs that are only changed by one thread
+     */
+    private static final class NoLock implements Lock {
+
+        static final NoLock INSTANCE = new NoLock();
+
+        @Override
+        public void lock() {
+        }
+
+        @Override
+        public void lockInterruptibly() {
+        }
+
+        @Override
+        public boolean tryLock() {
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     Subgraph() {
         this(null);
     }
 
+    /**
+     * Returns the hash map capacity that holds the number of entries without
+     * rehashing
+     */
+    static int capacity(int expected) {
+        return (int) (expected / 0.75f) + 1;
+    }
+
+    /**
+     * Returns true if the graph this subgraph belongs to allows concurrent
+     * construction, see
+     * {@link Graph#Graph(String, String, int, int, boolean) Graph}.
+     */
+    public boolean isConcurrent() {
+        return index.concurrent;
+    }
+
     /**
      * Creates a new subgraph in the current subgraph. The same edgeFactory will
      * be used in the new subgraph.
      */
     public Subgraph createNewSubgraph() {
-        Subgraph sub = new Subgraph(this);
-        sub.edgeFactory = edgeFactory;
-        return sub;
+        lock.lock();
+        try {
+            Subgraph sub = new Subgraph(this);
+            sub.edgeFactory = edgeFactory;
+            children.add(sub);
+            return sub;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -171,7 +431,12 @@ public class Subgraph extends Parameterised {
      *            The custom factory.
      */
     public void setEdgeFactory(EdgeFactory edgeF) {
-        edgeFactory = edgeF;
+        lock.lock();
+        try {
+            edgeFactory = edgeF;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -181,9 +446,21 @@ public class Subgraph extends Parameterised {
      *            the node to add
      */
     public void addNode(Node node) {
-        nodeMap.put(node.getId(), node);
-        graph.put(node,
-                new LinkedHashSet<AbstractMap.SimpleEntry<Node, Edge>>());
+        lock.lock();
+        try {
+            nodeMap.put(node.getId(), node);
+            node.owner = this;
+            index.nodeOwners.put(node.getId(), this);
+            if (!graph.containsKey(node)) {
+                graph.put(node, new Connections());
+                for (Subgraph sub = this; sub != null; sub = sub.parent) {
+                    sub.totalNodes.incrementAndGet();
+                }
+                changed(GraphChange.Type.NODE_ADDED, node, null);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -198,56 +475,139 @@ public class Subgraph extends Parameterised {
      *            The factory used to create the edge
      * @return The created edge
      */
-    public Edge addEdge(Node source, Node dest, EdgeFactory factory) {
-        Edge edge = factory.newInstance();
-        edgeMap.put(edge.getId(), edge);
-        AbstractMap.SimpleEntry<Node, Edge> edgeDest = new AbstractMap.SimpleEntry<Node, Edge>(
-                dest, edge);
-        if (!graph.containsKey(dest)) {
-            if (!findRecursiveUpward(dest) && !findRecursiveDownward(dest)) {
-                nodeMap.put(dest.getId(), dest);
-                graph.put(
-                        dest,
-                        new LinkedHashSet<AbstractMap.SimpleEntry<Node, Edge>>());
+    public Edge addEdge(Node source, Node dest,
+            EdgeFactory factory) {
+        lock.lock();
+        try {
+            Edge edge = factory.newInstance();
+            store(edge);
+            addDestNode(dest);
+            if (!graph.containsKey(source)) {
+                addNode(source);
             }
+            link(source, dest, edge);
+            changed(GraphChange.Type.EDGE_ADDED, edge, null);
+            return edge;
+        } finally {
+            lock.unlock();
         }
-        Set<AbstractMap.SimpleEntry<Node, Edge>> destSet = graph.get(source);
-        if (destSet == null) {
-            nodeMap.put(source.getId(), source);
-            destSet = new LinkedHashSet<AbstractMap.SimpleEntry<Node, Edge>>();
-            destSet.add(edgeDest);
-            graph.put(source, destSet);
-        } else {
-            destSet.add(edgeDest);
+    }
+
+    /**
+     * Adds an edge between two nodes that are known to be in this subgraph
+     * already. Used when building graphs in bulk.
+     */
+    Edge insertEdge(Node source, Node dest) {
+        lock.lock();
+        try {
+            Edge edge = edgeFactory.newInstance();
+            store(edge);
+            link(source, dest, edge);
+            changed(GraphChange.Type.EDGE_ADDED, edge, null);
+            return edge;
+        } finally {
+            lock.unlock();
         }
-        return edge;
     }
 
-    private boolean findRecursiveDownward(Node node) {
-        for (Node n : graph.keySet()) {
-            Subgraph g = n.getGraph();
-            if (g != null) {
-                if (g.findRecursiveDownward(node)) {
-                    return true;
-                }
+    private void store(Edge edge) {
+        Edge old = edgeMap.put(edge.getId(), edge);
+        if (old != null) {
+            // An edge with the same id is replaced
+            edgeList.set(old.position, edge);
+            edge.position = old.position;
+        } else {
+            edge.position = edgeList.size();
+            edgeList.add(edge);
+            for (Subgraph sub = this; sub != null; sub = sub.parent) {
+                sub.totalEdges.incrementAndGet();
             }
-            if (n.equals(node)) {
-                return true;
+        }
+        index.edgeOwners.put(edge.getId(), this);
+    }
+
+    /**
+     * Removes the nulls left by removed edges from the edge list, keeping the
+     * order of the remaining edges
+     */
+    private void compactEdges() {
+        int j = 0;
+        for (int i = 0; i < edgeList.size(); i++) {
+            Edge edge = edgeList.get(i);
+            if (edge != null) {
+                edge.position = j;
+                edgeList.set(j++, edge);
             }
         }
-        return false;
+        edgeList.subList(j, edgeList.size()).clear();
+        removedEdges = 0;
+    }
+
+    /**
+     * Removes the edge from the edge map and list. The edge must be in this
+     * subgraph.
+     */
+    private void forget(Edge edge) {
+        edgeMap.remove(edge.getId());
+        index.edgeOwners.remove(edge.getId());
+        edgeList.set(edge.position, null);
+        removedEdges++;
+        if (removedEdges > edgeList.size() / 2) {
+            compactEdges();
+        }
+        for (Subgraph sub = this; sub != null; sub = sub.parent) {
+            sub.totalEdges.decrementAndGet();
+        }
     }
 
-    private boolean findRecursiveUpward(Node dest) {
+    /**
+     * Adds the destination of an edge to this subgraph unless it is in this
+     * subgraph, a subgraph created in it or one of its parents. A node in a
+     * sibling subgraph is added to this one too.
+     */
+    private void addDestNode(Node dest) {
         if (graph.containsKey(dest)) {
-            return true;
-        } else {
-            if (parent != null) {
-                return parent.findRecursiveUpward(dest);
+            return;
+        }
+        // The owner is claimed atomically, so that a parent and a subgraph
+        // changed concurrently do not both add the node
+        Subgraph owner = index.nodeOwners.get(dest.getId());
+        while (true) {
+            if (owner == null) {
+                owner = index.nodeOwners.putIfAbsent(dest.getId(), this);
+                if (owner == null) {
+                    break;
+                }
+            } else if (owner.contains(this) || contains(owner)) {
+                return;
+            } else if (index.nodeOwners.replace(dest.getId(), owner, this)) {
+                break;
             } else {
-                return false;
+                owner = index.nodeOwners.get(dest.getId());
             }
         }
+        addNode(dest);
+    }
+
+    private void link(Node source, Node dest, Edge edge) {
+        graph.get(source).add(dest, edge);
+        Connections sources = incoming.get(dest);
+        if (sources == null) {
+            sources = new Connections();
+            incoming.put(dest, sources);
+        }
+        sources.add(source, edge);
+        edge.source = source;
+        edge.dest = dest;
+        edge.owner = this;
+    }
+
+    private void unlink(Edge edge) {
+        Connections dests = graph.get(edge.source);
+        if (dests != null) {
+            dests.remove(edge.dest, edge);
+        }
+        removeIncoming(edge.dest, edge.source, edge);
     }
 
     /**
@@ -261,7 +621,12 @@ public class Subgraph extends Parameterised {
      * @param dest
      */
     public Edge addEdge(Node source, Node dest) {
-        return addEdge(source, dest, edgeFactory);
+        lock.lock();
+        try {
+            return addEdge(source, dest, edgeFactory);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -270,7 +635,76 @@ public class Subgraph extends Parameterised {
      * @return an empty set if there are no nodes
      */
     public Set<Node> getNodes() {
-        return graph.keySet();
+        return Collections.unmodifiableSet(graph.keySet());
+    }
+
+    /**
+     * Returns the number of nodes in this graph, not including the nodes in
+     * subgraphs
+     */
+    public int nodeCount() {
+        return graph.size();
+    }
+
+    /**
+     * Returns the number of nodes in the graph
+     *
+     * @param recursive
+     *            true to include the nodes in all subgraphs created in this
+     *            graph, the nodes representing the subgraphs are included too
+     */
+    public int nodeCount(boolean recursive) {
+        return recursive ? totalNodes.get() : graph.size();
+    }
+
+    /**
+     * Returns the number of edges in this graph, not including the edges in
+     * subgraphs
+     */
+    public int edgeCount() {
+        return edgeMap.size();
+    }
+
+    /**
+     * Returns the number of edges in the graph
+     *
+     * @param recursive
+     *            true to include the edges in all subgraphs created in this
+     *            graph
+     */
+    public int edgeCount(boolean recursive) {
+        return recursive ? totalEdges.get() : edgeMap.size();
+    }
+
+    /**
+     * Returns the number of edges in this graph starting or ending in the
+     * node. A self loop is counted twice.
+     *
+     * @param node
+     * @return 0 if there are no edges
+     */
+    public int degree(Node node) {
+        return inDegree(node) + outDegree(node);
+    }
+
+    /**
+     * Returns the number of edges starting or ending in the node
+     *
+     * @param node
+     * @param recursive
+     *            true to include the edges in all subgraphs created in this
+     *            graph. This visits each subgraph once.
+     * @return 0 if there are no edges
+     */
+    public int degree(Node node, boolean recursive) {
+        if (!recursive) {
+            return degree(node);
+        }
+        int degree = 0;
+        for (Subgraph sub : getSubgraphTree()) {
+            degree += sub.degree(node);
+        }
+        return degree;
     }
 
     /**
@@ -280,7 +714,46 @@ public class Subgraph extends Parameterised {
      * @return empty set if there are no edges
      */
     public Set<AbstractMap.SimpleEntry<Node, Edge>> getConnections(Node node) {
-        return graph.get(node);
+        Connections dests = graph.get(node);
+        return dests == null ? null : dests.asEntrySet();
+    }
+
+    /**
+     * Returns the set of incoming edges to the node. Each entry consists of the
+     * source node and the edge. Only edges added to this graph are included.
+     *
+     * @param node
+     * @return empty set if there are no edges
+     */
+    public Set<AbstractMap.SimpleEntry<Node, Edge>> getIncomingConnections(
+            Node node) {
+        Connections sources = incoming.get(node);
+        if (sources == null) {
+            return Collections.emptySet();
+        }
+        return sources.asEntrySet();
+    }
+
+    /**
+     * Returns the number of edges in this graph ending in the node
+     *
+     * @param node
+     * @return 0 if there are no incoming edges
+     */
+    public int inDegree(Node node) {
+        Connections sources = incoming.get(node);
+        return sources == null ? 0 : sources.size();
+    }
+
+    /**
+     * Returns the number of edges starting in the node
+     *
+     * @param node
+     * @return 0 if there are no outgoing edges or the node is not in the graph
+     */
+    public int outDegree(Node node) {
+        Connections dests = graph.get(node);
+        return dests == null ? 0 : dests.size();
     }
 
     /**
@@ -293,16 +766,74 @@ public class Subgraph extends Parameterised {
      * @return null if there is no edge between the nodes
      */
     public Edge getEdge(Node source, Node dest) {
-        Set<AbstractMap.SimpleEntry<Node, Edge>> destSet = graph.get(source);
-        if (destSet == null || destSet.isEmpty()) {
+        Connections dests = graph.get(source);
+        if (dests == null) {
             return null;
         }
-        for (AbstractMap.SimpleEntry<Node, Edge> pair : destSet) {
-            if (pair.getKey().equals(dest)) {
-                return pair.getValue();
+        return dests.get(dest);
+    }
+
+    /**
+     * Returns all edges between the two nodes, starting at source. There can
+     * be several parallel edges between two nodes.
+     *
+     * @param source
+     * @param dest
+     * @return an empty list if there is no edge between the nodes
+     */
+    public List<Edge> getEdges(Node source, Node dest) {
+        Connections dests = graph.get(source);
+        if (dests == null) {
+            return Collections.emptyList();
+        }
+        return dests.getAll(dest);
+    }
+
+    /**
+     * Returns the node the edge starts in. The edge can also be in another
+     * subgraph than this one.
+     *
+     * @param edge
+     * @return null if the edge is not in any graph
+     */
+    public Node getSource(Edge edge) {
+        Edge stored = resolve(edge);
+        return stored == null ? null : stored.source;
+    }
+
+    /**
+     * Changes the destination of the edge to the given node. The edge keeps
+     * its id and parameters. If the new destination is not in the graph
+     * already, it is added in the same way as for
+     * {@link #addEdge(Node, Node) addEdge}. The edge is updated in the
+     * subgraph it was added to, which can be another subgraph than this one.
+     *
+     * @param edge
+     * @param dest
+     */
+    public void retarget(Edge edge, Node dest) {
+        Subgraph owner = index.edgeOwners.get(edge.getId());
+        if (owner == null) {
+            return;
+        }
+        owner.lock.lock();
+        try {
+            Edge stored = owner.edgeMap.get(edge.getId());
+            if (stored == null) {
+                return;
             }
+            owner.unlink(stored);
+            owner.addDestNode(dest);
+            owner.link(stored.source, dest, stored);
+            owner.changed(GraphChange.Type.EDGE_RETARGETED, stored, null);
+        } finally {
+            owner.lock.unlock();
         }
-        return null;
+    }
+
+    private Edge resolve(Edge edge) {
+        Subgraph owner = index.edgeOwners.get(edge.getId());
+        return owner == null ? null : owner.edgeMap.get(edge.getId());
     }
 
     /**
@@ -311,11 +842,113 @@ public class Subgraph extends Parameterised {
      * @return an empty set if there are no edges
      */
     public Set<Edge> getEdges() {
-        Set<Edge> edges = new LinkedHashSet<Edge>();
-        for (String id : edgeMap.keySet()) {
-            edges.add(edgeMap.get(id));
+        return new AbstractSet<Edge>() {
+
+            @Override
+            public Iterator<Edge> iterator() {
+                final Iterator<Edge> edges = edgeList.iterator();
+                return new Iterator<Edge>() {
+                    private Edge next = advance();
+
+                    private Edge advance() {
+                        while (edges.hasNext()) {
+                            Edge edge = edges.next();
+                            if (edge != null) {
+                                return edge;
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Edge next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Edge edge = next;
+                        next = advance();
+                        return edge;
+                    }
+                };
+            }
+
+            @Override
+            public Spliterator<Edge> spliterator() {
+                return new EdgeSpliterator(
+                        Collections.<List<Edge>> singletonList(edgeList),
+                        removedEdges == 0);
+            }
+
+            @Override
+            public int size() {
+                return edgeMap.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Edge
+                        && edgeMap.containsKey(((Edge) o).getId());
+            }
+        };
+    }
+
+    /**
+     * Returns a stream of the edges in this graph. The stream splits evenly
+     * for parallel processing. The graph must not be modified while the
+     * stream is used.
+     */
+    public Stream<Edge> edgeStream() {
+        return StreamSupport.stream(getEdges().spliterator(), false);
+    }
+
+    /**
+     * Returns a stream of the edges in the graph. The stream splits evenly
+     * for parallel processing, first between the subgraphs and then within
+     * them. The graph must not be modified while the stream is used.
+     *
+     * @param recursive
+     *            true to include the edges in all subgraphs created in this
+     *            graph
+     */
+    public Stream<Edge> edgeStream(boolean recursive) {
+        if (!recursive) {
+            return edgeStream();
+        }
+        List<Subgraph> tree = getSubgraphTree();
+        List<List<Edge>> edgeLists = new ArrayList<List<Edge>>(tree.size());
+        boolean exact = true;
+        for (Subgraph sub : tree) {
+            if (!sub.edgeList.isEmpty()) {
+                edgeLists.add(sub.edgeList);
+                exact &= sub.removedEdges == 0;
+            }
+        }
+        return StreamSupport.stream(new EdgeSpliterator(edgeLists, exact),
+                false);
+    }
+
+    /**
+     * Returns this subgraph and all subgraphs created in it, parents before
+     * children
+     */
+    private List<Subgraph> getSubgraphTree() {
+        List<Subgraph> tree = new ArrayList<Subgraph>();
+        tree.add(this);
+        for (int i = 0; i < tree.size(); i++) {
+            Subgraph sub = tree.get(i);
+            sub.lock.lock();
+            try {
+                tree.addAll(sub.children);
+            } finally {
+                sub.lock.unlock();
+            }
         }
-        return edges;
+        return tree;
     }
 
     /**
@@ -327,6 +960,7 @@ public class Subgraph extends Parameterised {
      */
     public void setNodeParameter(String name, String value) {
         nodeParams.setParam(name, value);
+        changed(GraphChange.Type.GRAPH_ATTRIBUTE_CHANGED, null, name);
     }
 
     /**
@@ -368,6 +1002,41 @@ public class Subgraph extends Parameterised {
         return edgeMap.get(edgeId);
     }
 
+    /**
+     * Get the node with the corresponding id from this graph, its parents or
+     * any of the subgraphs.
+     *
+     * @param nodeId
+     * @return null if there is no such node
+     */
+    public Node findNode(String nodeId) {
+        Subgraph owner = index.nodeOwners.get(nodeId);
+        return owner == null ? null : owner.getNode(nodeId);
+    }
+
+    /**
+     * Get the edge with the corresponding id from this graph, its parents or
+     * any of the subgraphs.
+     *
+     * @param edgeId
+     * @return null if there is no such edge
+     */
+    public Edge findEdge(String edgeId) {
+        Subgraph owner = index.edgeOwners.get(edgeId);
+        return owner == null ? null : owner.getEdge(edgeId);
+    }
+
+    /**
+     * Returns the subgraph the node has been added to. The node can be
+     * anywhere in the graph tree this graph belongs to.
+     *
+     * @param node
+     * @return null if the node is not in the graph
+     */
+    public Subgraph getSubgraph(Node node) {
+        return index.nodeOwners.get(node.getId());
+    }
+
     /**
      * Set the parameter with the given name to the given value. This applies to
      * all edges. The parameter must be a valid dot parameter.
@@ -377,6 +1046,7 @@ public class Subgraph extends Parameterised {
      */
     public void setEdgeParameter(String name, String value) {
         edgeParams.setParam(name, value);
+        changed(GraphChange.Type.GRAPH_ATTRIBUTE_CHANGED, null, name);
     }
 
     /**
@@ -405,52 +1075,266 @@ public class Subgraph extends Parameterised {
      * @param node
      */
     public void remove(Node node) {
-        if (!graph.containsKey(node)) {
+        lock.lock();
+        try {
+            if (!graph.containsKey(node)) {
+                return;
+            }
+            Node stored = nodeMap.remove(node.getId());
+            if (stored != null && stored.owner == this) {
+                stored.owner = null;
+            }
+            if (node.owner == this) {
+                node.owner = null;
+            }
+            index.removeNode(node.getId(), this);
+            for (Subgraph sub = this; sub != null; sub = sub.parent) {
+                sub.totalNodes.decrementAndGet();
+            }
+            // Remove all outgoing edges
+            Connections connections = graph.remove(node);
+            for (AbstractMap.SimpleEntry<Node, Edge> pair : connections
+                    .asEntrySet()) {
+                forget(pair.getValue());
+                removeIncoming(pair.getKey(), node, pair.getValue());
+                pair.getValue().owner = null;
+                changed(GraphChange.Type.EDGE_REMOVED, pair.getValue(), null);
+            }
+            // Remove all incoming edges, the reverse index gives the sources
+            connections = incoming.remove(node);
+            if (connections != null) {
+                for (AbstractMap.SimpleEntry<Node, Edge> pair : connections
+                        .asEntrySet()) {
+                    forget(pair.getValue());
+                    Connections dests = graph.get(pair.getKey());
+                    if (dests != null) {
+                        dests.remove(node, pair.getValue());
+                    }
+                    pair.getValue().owner = null;
+                    changed(GraphChange.Type.EDGE_REMOVED, pair.getValue(), null);
+                }
+            }
+            changed(GraphChange.Type.NODE_REMOVED, stored != null ? stored : node,
+                    null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the stamp of the latest change in this subgraph or any subgraph
+     * created in it. The stamps are shared by the whole graph and increase
+     * with every change, so a graph has not changed if the stamp is the same
+     * as before.
+     *
+     * @return 0 if the subgraph has not been changed
+     */
+    public long getModificationStamp() {
+        return modificationStamp.get();
+    }
+
+    /**
+     * Keeps a journal of the latest changes in the whole graph this subgraph
+     * belongs to, see {@link #getChangesSince(long)}. Changes made before the
+     * journal is enabled are not recorded.
+     *
+     * @param capacity
+     *            the maximum number of changes to keep, 0 to disable the
+     *            journal
+     */
+    public void setJournalCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        lock.lock();
+        try {
+            index.journal = capacity == 0 ? null : new ChangeJournal(capacity,
+                    index.stamp.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of changes kept in the journal, see
+     * {@link #setJournalCapacity(int)}
+     *
+     * @return 0 if the journal is not enabled
+     */
+    public int getJournalCapacity() {
+        ChangeJournal journal = index.journal;
+        return journal == null ? 0 : journal.getCapacity();
+    }
+
+    /**
+     * Returns the changes made in this subgraph and the subgraphs created in
+     * it after the given stamp, oldest first.
+     *
+     * @param stamp
+     *            a stamp from {@link #getModificationStamp()}
+     * @return null if the changes are not known, because the journal is not
+     *         enabled or the changes have been dropped from it
+     */
+    public List<GraphChange> getChangesSince(long stamp) {
+        ChangeJournal journal = index.journal;
+        return journal == null ? null : journal.since(stamp, this);
+    }
+
+    /**
+     * Adds a listener notified of changes in this subgraph and the subgraphs
+     * created in it
+     */
+    public synchronized void addChangeListener(ChangeListener listener) {
+        List<ChangeListener> newListeners = new ArrayList<ChangeListener>();
+        if (listeners != null) {
+            newListeners.addAll(listeners);
+        }
+        newListeners.add(listener);
+        listeners = newListeners;
+    }
+
+    public synchronized void removeChangeListener(ChangeListener listener) {
+        if (listeners == null) {
             return;
         }
-        nodeMap.remove(node.getId());
-        // Remove all outgoing edges
-        Set<AbstractMap.SimpleEntry<Node, Edge>> connections = graph.get(node);
-        graph.remove(node);
-        for (AbstractMap.SimpleEntry<Node, Edge> pair : connections) {
-            edgeMap.remove(pair.getValue().getId());
-        }
-        // Remove all incoming edges
-        for (Node otherNode : graph.keySet()) {
-            connections = graph.get(otherNode);
-            Iterator<AbstractMap.SimpleEntry<Node, Edge>> pairIt = connections
-                    .iterator();
-            while (pairIt.hasNext()) {
-                AbstractMap.SimpleEntry<Node, Edge> pair = pairIt.next();
-                if (pair.getKey().equals(node)) {
-                    edgeMap.remove(pair.getValue().getId());
-                    pairIt.remove();
+        List<ChangeListener> newListeners = new ArrayList<ChangeListener>(
+                listeners);
+        newListeners.remove(listener);
+        listeners = newListeners.isEmpty() ? null : newListeners;
+    }
+
+    @Override
+    void paramChanged(String name) {
+        changed(GraphChange.Type.GRAPH_ATTRIBUTE_CHANGED, null, name);
+    }
+
+    /**
+     * Returns an immutable snapshot of this subgraph, see
+     * {@link Graph#snapshot()}. Only the root graph can take snapshots.
+     */
+    GraphSnapshot snapshot(Graph root) {
+        SnapshotTracker snapshots;
+        synchronized (index) {
+            snapshots = index.snapshots;
+            if (snapshots == null) {
+                snapshots = new SnapshotTracker();
+                index.snapshots = snapshots;
+            }
+        }
+        return snapshots.snapshot(root);
+    }
+
+    Subgraph getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the subgraphs created in this subgraph
+     */
+    List<Subgraph> getChildren() {
+        lock.lock();
+        try {
+            return new ArrayList<Subgraph>(children);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Parameterised getNodeDefaults() {
+        return nodeParams;
+    }
+
+    Parameterised getEdgeDefaults() {
+        return edgeParams;
+    }
+
+    /**
+     * Returns true if the other subgraph is this one or created in this one
+     */
+    boolean contains(Subgraph other) {
+        for (Subgraph sub = other; sub != null; sub = sub.parent) {
+            if (sub == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records a change in this subgraph. The change object is only created if
+     * there is a journal or a listener.
+     */
+    void changed(GraphChange.Type type, GraphElement element, String attribute) {
+        SnapshotTracker snapshots = index.snapshots;
+        if (snapshots != null) {
+            snapshots.record(this, type, element);
+        }
+        long stamp = index.stamp.incrementAndGet();
+        boolean listened = false;
+        for (Subgraph sub = this; sub != null; sub = sub.parent) {
+            // Another thread can have stored a later stamp already
+            long current = sub.modificationStamp.get();
+            while (current < stamp
+                    && !sub.modificationStamp.compareAndSet(current, stamp)) {
+                current = sub.modificationStamp.get();
+            }
+            listened |= sub.listeners != null;
+        }
+        ChangeJournal journal = index.journal;
+        if (journal == null && !listened) {
+            return;
+        }
+        GraphChange change = new GraphChange(type, stamp, this, element,
+                attribute);
+        if (journal != null) {
+            journal.add(change);
+        }
+        if (listened) {
+            for (Subgraph sub = this; sub != null; sub = sub.parent) {
+                List<ChangeListener> current = sub.listeners;
+                if (current != null) {
+                    for (ChangeListener listener : current) {
+                        listener.graphChanged(change);
+                    }
                 }
             }
         }
+    }
 
+    private void removeIncoming(Node dest, Node source, Edge edge) {
+        Connections sources = incoming.get(dest);
+        if (sources != null) {
+            sources.remove(source, edge);
+            if (sources.isEmpty()) {
+                incoming.remove(dest);
+            }
+        }
     }
 
     /**
      * Remove the edge from the graph. Nodes are not removed even if the become
-     * unconnected.
+     * unconnected. The edge is removed from the subgraph it was added to, also
+     * when that is another subgraph than this one.
      *
      * @param edge
      */
     public void remove(Edge edge) {
-        edgeMap.remove(edge.getId());
-        for (Node node : graph.keySet()) {
-            Set<AbstractMap.SimpleEntry<Node, Edge>> connections = graph
-                    .get(node);
-            Iterator<AbstractMap.SimpleEntry<Node, Edge>> pairIt = connections
-                    .iterator();
-            while (pairIt.hasNext()) {
-                AbstractMap.SimpleEntry<Node, Edge> pair = pairIt.next();
-                if (pair.getValue().equals(edge)) {
-                    pairIt.remove();
-                    return;// One edge can only be in one place
-                }
+        Subgraph owner = index.edgeOwners.get(edge.getId());
+        if (owner == null) {
+            return;
+        }
+        owner.lock.lock();
+        try {
+            Edge stored = owner.edgeMap.get(edge.getId());
+            if (stored == null) {
+                return;
             }
+            owner.forget(stored);
+            owner.unlink(stored);
+            stored.owner = null;
+            owner.changed(GraphChange.Type.EDGE_REMOVED, stored, null);
+        } finally {
+            owner.lock.unlock();
         }
     }
 
@@ -0,0 +1,221 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.client.Edge;
+import com.vaadin.pontus.vizcomponent.client.GraphDelta;
+import com.vaadin.pontus.vizcomponent.client.GraphModel;
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+public class DeltaConverterTest {
+
+    @Test
+    public void testDeltaGivesSameGraph() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setJournalCapacity(100);
+        Subgraph sub = graph.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_0", sub));
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("b");
+        Graph.Node c = new Graph.Node("c");
+        graph.addEdge(a, b);
+        Subgraph.Edge bc = graph.addEdge(b, c);
+        Graph.Node d = new Graph.Node("d");
+        sub.addNode(d);
+
+        GraphConverter converter = new GraphConverter();
+        Node root = converter.convert(graph);
+        Map<String, String> sent = describe(root, converter.getAttributeSets());
+        // Like the connector, apply the changes to a copy
+        GraphModel model = new GraphModel(GraphModel.copy(root));
+        long stamp = graph.getModificationStamp();
+
+        a.setAttributes(AttributeSet.of("color", "red"));
+        c.setParam("label", "C");
+        graph.remove(bc);
+        graph.remove(b);
+        Graph.Node e = new Graph.Node("e");
+        sub.addEdge(e, d).setParam("color", "blue");
+        // Edge from the subgraph to the root graph
+        sub.addEdge(d, c);
+
+        GraphDelta delta = new DeltaConverter(graph,
+                converter.getSubgraphIds()).convert(graph
+                .getChangesSince(stamp));
+        assertTrue(delta.topologyChanged);
+        assertTrue(model.apply(delta));
+        GraphConverter full = new GraphConverter();
+        assertEquals(describe(full.convert(graph), full.getAttributeSets()),
+                describe(model.getRoot(), converter.getAttributeSets()));
+        // The graph received from the server is not changed
+        assertEquals(sent, describe(root, converter.getAttributeSets()));
+    }
+
+    @Test
+    public void testAttributeChanges() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setJournalCapacity(100);
+        Graph.Node a = new Graph.Node("a");
+        Subgraph.Edge edge = graph.addEdge(a, new Graph.Node("b"));
+        GraphConverter converter = new GraphConverter();
+        converter.convert(graph);
+        long stamp = graph.getModificationStamp();
+
+        a.setParam("color", "red");
+        a.setParam("color", "green");
+        edge.setParam("color", "blue");
+
+        GraphDelta delta = new DeltaConverter(graph,
+                converter.getSubgraphIds()).convert(graph
+                .getChangesSince(stamp));
+        assertFalse(delta.topologyChanged);
+        // The node is sent once with its current parameters
+        assertEquals(1, delta.nodes.size());
+        assertEquals("green", delta.nodes.get(0).params.get("color"));
+        assertEquals(1, delta.edges.size());
+        assertEquals("blue", delta.edges.get(0).params.get("color"));
+    }
+
+    @Test
+    public void testRemovedEdgeDeclaresEnds() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setJournalCapacity(100);
+        Subgraph.Edge edge = graph.addEdge(new Graph.Node("a"),
+                new Graph.Node("b"));
+        GraphConverter converter = new GraphConverter();
+        GraphModel model = new GraphModel(GraphModel.copy(converter
+                .convert(graph)));
+        assertNull(model.getNode("a"));
+        long stamp = graph.getModificationStamp();
+
+        graph.remove(edge);
+        GraphDelta delta = new DeltaConverter(graph,
+                converter.getSubgraphIds()).convert(graph
+                .getChangesSince(stamp));
+        assertTrue(model.apply(delta));
+        // The nodes were declared by the edge only
+        assertEquals("[\"a\", \"b\"]", declared(model.getRoot()).toString());
+    }
+
+    @Test
+    public void testSubgraphChangesAreNotDeltas() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setJournalCapacity(100);
+        GraphConverter converter = new GraphConverter();
+        converter.convert(graph);
+        long stamp = graph.getModificationStamp();
+
+        graph.addNode(new Graph.GraphNode("cluster_0",
+                graph.createNewSubgraph()));
+        assertNull(new DeltaConverter(graph, converter.getSubgraphIds())
+                .convert(graph.getChangesSince(stamp)));
+    }
+
+    @Test
+    public void testRepeatedDeltas() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setJournalCapacity(1000);
+        Graph.Node[] nodes = new Graph.Node[20];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Graph.Node("n" + i);
+            nodes[i].setParam("label", "N" + i);
+            if (i > 0) {
+                graph.addEdge(nodes[i - 1], nodes[i]);
+            }
+        }
+        GraphConverter converter = new GraphConverter();
+        GraphModel model = new GraphModel(GraphModel.copy(converter
+                .convert(graph)));
+
+        // Enough removals to compact the lists, with changes in between
+        for (int i = 0; i < nodes.length - 2; i += 2) {
+            long stamp = graph.getModificationStamp();
+            graph.remove(nodes[i]);
+            nodes[i + 1].setParam("color", "red");
+            graph.addEdge(nodes[i + 1], nodes[nodes.length - 1]);
+            model.apply(new DeltaConverter(graph, converter.getSubgraphIds())
+                    .convert(graph.getChangesSince(stamp)));
+            GraphConverter full = new GraphConverter();
+            assertEquals(describe(full.convert(graph),
+                    full.getAttributeSets()), describe(model.getRoot(),
+                    converter.getAttributeSets()));
+        }
+        // The nodes are declared before the edges
+        boolean edgeSeen = false;
+        for (Edge edge : model.getRoot().graph) {
+            assertFalse(edgeSeen && edge.dest == null);
+            edgeSeen |= edge.dest != null;
+        }
+    }
+
+    private static List<String> declared(Node graph) {
+        List<String> ids = new ArrayList<String>();
+        for (Edge edge : graph.graph) {
+            if (edge.dest == null) {
+                ids.add(edge.source.id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Describes the nodes and edges of the graph in each subgraph, ignoring
+     * the order. Nodes declared only by edges are described as nodes without
+     * parameters.
+     */
+    private static Map<String, String> describe(Node root,
+            Map<String, HashMap<String, String>> attributeSets) {
+        Map<String, String> description = new TreeMap<String, String>();
+        describe(root, "", attributeSets, description);
+        return description;
+    }
+
+    private static void describe(Node graph, String path,
+            Map<String, HashMap<String, String>> attributeSets,
+            Map<String, String> description) {
+        for (Edge edge : graph.graph) {
+            if (edge.dest == null && edge.source.graph != null) {
+                describe(edge.source, path + edge.source.id + "/",
+                        attributeSets, description);
+            } else if (edge.dest == null) {
+                description.put(path + edge.source.id,
+                        params(edge.source.params, edge.source.attributeSet,
+                                attributeSets).toString());
+            } else {
+                description.put(path + edge.id, edge.source.id + "->"
+                        + edge.dest.id
+                        + params(edge.params, edge.attributeSet, attributeSets));
+                for (Node end : new Node[] { edge.source, edge.dest }) {
+                    if (!description.containsKey(path + end.id)) {
+                        description.put(path + end.id, "{}");
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> params(Map<String, String> params,
+            String attributeSet,
+            Map<String, HashMap<String, String>> attributeSets) {
+        Map<String, String> all = new TreeMap<String, String>();
+        if (attributeSet != null) {
+            all.putAll(attributeSets.get(attributeSet));
+        }
+        all.putAll(params);
+        return all;
+    }
+}
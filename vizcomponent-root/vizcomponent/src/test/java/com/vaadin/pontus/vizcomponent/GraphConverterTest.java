@@ -0,0 +1,174 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.client.Edge;
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+public class GraphConverterTest {
+
+    @Test
+    public void testEdgesToSubgraphsAreReferences() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        Graph.GraphNode cluster = new Graph.GraphNode("cluster_0", sub);
+        graph.addNode(cluster);
+        Graph.Node b = new Graph.Node("b");
+        Graph.Node c = new Graph.Node("c");
+        sub.addEdge(b, c);
+        Graph.Node a = new Graph.Node("a");
+        graph.addEdge(a, cluster).setParam("color", "red");
+        graph.addEdge(new Graph.Node("d"), cluster);
+
+        Node root = new GraphConverter().convert(graph);
+        // Declaration of cluster_0 and the two edges
+        assertEquals(3, root.graph.size());
+        Node declared = root.graph.get(0).source;
+        assertEquals("\"cluster_0\"", declared.id);
+        // The edge, which declares b and c
+        assertEquals(1, declared.graph.size());
+
+        Edge first = root.graph.get(1);
+        Edge second = root.graph.get(2);
+        assertEquals("\"a\"", first.source.id);
+        // The subgraph is not converted again
+        assertEquals("\"cluster_0\"", first.dest.id);
+        assertTrue(first.dest.graph.isEmpty());
+        assertTrue(first.dest == second.dest);
+        // The parameters of edges to subgraphs are ignored
+        assertTrue(first.params.isEmpty());
+        assertNull(first.attributeSet);
+    }
+
+    @Test
+    public void testNodesDeclaredByEdges() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_0", sub));
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("b");
+        b.setParam("color", "red");
+        graph.addEdge(a, b);
+        graph.addNode(new Graph.Node("c"));
+        // Only linked to the root graph, so declared in the subgraph
+        Graph.Node d = new Graph.Node("d");
+        sub.addNode(d);
+        sub.addEdge(d, a);
+
+        for (Node root : new Node[] { new GraphConverter().convert(graph),
+                new GraphConverter().convert(graph.snapshot()) }) {
+            List<String> declared = new ArrayList<String>();
+            for (Edge edge : root.graph) {
+                if (edge.dest == null) {
+                    declared.add(edge.source.id);
+                }
+            }
+            assertEquals("[\"cluster_0\", \"b\", \"c\"]", declared.toString());
+            Node cluster = root.graph.get(0).source;
+            assertEquals(1, cluster.graph.size());
+            assertEquals("\"d\"", cluster.graph.get(0).source.id);
+            assertNull(cluster.graph.get(0).dest);
+        }
+    }
+
+    @Test
+    public void testCrossGraphEdgesInOrder() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node target = new Graph.Node("target");
+        graph.addNode(target);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            Subgraph sub = graph.createNewSubgraph();
+            graph.addNode(new Graph.GraphNode("cluster_" + i, sub));
+            Subgraph.Edge edge = sub.addEdge(new Graph.Node("n" + i), target);
+            expected.add("\"" + edge.getId() + "\"");
+        }
+
+        Node root = new GraphConverter().convert(graph);
+        List<String> actual = new ArrayList<String>();
+        for (Edge edge : root.graph) {
+            if (edge.dest != null) {
+                actual.add(edge.id);
+                assertTrue(edge.dest == root.graph.get(21).dest);
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDeepClustersConvertedOnce() {
+        Graph graph = createClusters(6, 3, 4);
+
+        Node root = new GraphConverter().convert(graph);
+        // 3 + 9 + ... + 729 clusters
+        assertEquals(1092, countClusters(root));
+        // The root node and the three top level clusters
+        assertNull(root.graph.get(0).source.graph);
+        assertNotNull(root.graph.get(1).source.graph);
+    }
+
+    /**
+     * Creates a tree of clusters with the given depth where every cluster has
+     * the given number of child clusters and nodes. The nodes have edges to
+     * each other, to the child clusters and to a node in the root graph.
+     */
+    static Graph createClusters(int depth, int children, int nodes) {
+        Graph graph = new Graph("bench", Graph.DIGRAPH);
+        Graph.Node root = new Graph.Node("root");
+        graph.addNode(root);
+        addClusters(graph, root, "c", depth, children, nodes);
+        return graph;
+    }
+
+    private static void addClusters(Subgraph parent, Graph.Node root,
+            String prefix, int depth, int children, int nodes) {
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < children; i++) {
+            String name = prefix + "_" + i;
+            Subgraph sub = parent.createNewSubgraph();
+            Graph.GraphNode cluster = new Graph.GraphNode("cluster_" + name,
+                    sub);
+            parent.addNode(cluster);
+            List<Graph.Node> list = new ArrayList<Graph.Node>();
+            for (int n = 0; n < nodes; n++) {
+                Graph.Node node = new Graph.Node(name + "_n" + n);
+                sub.addNode(node);
+                list.add(node);
+            }
+            for (int n = 0; n + 1 < nodes; n++) {
+                sub.addEdge(list.get(n), list.get(n + 1));
+            }
+            sub.addEdge(list.get(0), root);
+            addClusters(sub, root, name, depth - 1, children, nodes);
+            // Edges to the child clusters
+            for (Subgraph.Node child : new ArrayList<Subgraph.Node>(
+                    sub.getNodes())) {
+                if (child instanceof Graph.GraphNode) {
+                    sub.addEdge(list.get(nodes - 1), child);
+                }
+            }
+        }
+    }
+
+    private static int countClusters(Node graph) {
+        int count = 0;
+        for (Edge edge : graph.graph) {
+            if (edge.dest == null && edge.source.graph != null) {
+                count += 1 + countClusters(edge.source);
+            }
+        }
+        return count;
+    }
+}
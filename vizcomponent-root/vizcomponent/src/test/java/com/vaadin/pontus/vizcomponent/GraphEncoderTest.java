@@ -0,0 +1,139 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.client.EncodedGraph;
+import com.vaadin.pontus.vizcomponent.client.EncodedGraphDecoder;
+import com.vaadin.pontus.vizcomponent.client.Node;
+import com.vaadin.pontus.vizcomponent.client.VizComponentState;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.CompactGraph;
+import com.vaadin.pontus.vizcomponent.model.DotWriter;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+import com.vaadin.server.JsonCodec;
+
+public class GraphEncoderTest {
+
+    @Test
+    public void testDecodesToSameDot() {
+        Graph graph = GraphConverterTest.createClusters(3, 3, 4);
+        graph.setParam("rankdir", "LR");
+        graph.setNodeParameter("shape", "box");
+        AttributeSet red = AttributeSet.of("color", "red", "style", "bold");
+        Graph.Node a = new Graph.Node("a \"quoted\"");
+        a.setAttributes(red);
+        a.setParam("color", "blue");
+        Graph.Node b = new Graph.Node("b");
+        b.setAttributes(red);
+        Subgraph.Edge edge = graph.addEdge(a, b);
+        edge.setParam("label", "\"ab\"");
+        graph.addEdge(b, a);
+
+        EncodedGraph encoded = new GraphEncoder().encode(graph);
+        EncodedGraphDecoder decoder = new EncodedGraphDecoder(encoded);
+        assertEquals(DotWriter.toString(graph), decoder.toDot(graph.getType()));
+    }
+
+    @Test
+    public void testGeneratedEdgeIds() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("b");
+        Subgraph.Edge first = graph.addEdge(a, b);
+        Subgraph.Edge named = graph.addEdge(b, a);
+        Subgraph.Edge last = graph.addEdge(b, b);
+
+        EncodedGraph encoded = new GraphEncoder().encode(graph);
+        EncodedGraphDecoder decoder = new EncodedGraphDecoder(encoded);
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        for (int i = 0; i < decoder.getEdgeCount(); i++) {
+            ids.put(decoder.getEdgeId(i), i);
+        }
+        assertEquals(3, ids.size());
+        assertTrue(ids.containsKey(first.getId()));
+        assertTrue(ids.containsKey(named.getId()));
+        assertTrue(ids.containsKey(last.getId()));
+        for (String s : encoded.strings) {
+            // Generated ids are not in the string table
+            assertTrue(!s.equals(first.getId()) && !s.equals(last.getId()));
+        }
+    }
+
+    @Test
+    public void testCompactGraph() {
+        CompactGraph.Builder builder = new CompactGraph.Builder("G",
+                Graph.DIGRAPH);
+        builder.setNodeParameter("shape", "box");
+        int a = builder.addNode("a");
+        int b = builder.addNode("b");
+        builder.addNode("c");
+        builder.setNodeAttribute(a, "color", "red");
+        builder.addEdge(b, a);
+        builder.setEdgeAttribute(builder.addEdge(a, b), "label", "ab");
+        CompactGraph graph = builder.build();
+
+        EncodedGraph encoded = new GraphEncoder().encode(graph);
+        EncodedGraphDecoder decoder = new EncodedGraphDecoder(encoded);
+        assertEquals(DotWriter.toString(graph.toGraph()),
+                decoder.toDot(graph.getType()));
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            assertEquals(graph.getEdgeId(e), decoder.getEdgeId(e));
+        }
+        // Only the names and values are in the string table
+        assertEquals(10, encoded.strings.length);
+    }
+
+    @Test
+    public void testSmallerThanGraphStructure() throws Exception {
+        // About 15% and 10% of the size of the graph structure
+        assertSmaller(createChain(2000), 0.2);
+        assertSmaller(GraphConverterTest.createClusters(4, 4, 5), 0.15);
+    }
+
+    /**
+     * Asserts that the encoded graph is at most the given fraction of the
+     * size of the graph structure as JSON
+     */
+    private static void assertSmaller(Graph graph, double fraction)
+            throws Exception {
+        GraphConverter converter = new GraphConverter();
+        Node root = converter.convert(graph);
+        int treeSize = jsonSize(root, Node.class)
+                + jsonSize(converter.getAttributeSets(), VizComponentState.class
+                        .getField("attributeSets").getGenericType());
+        int encodedSize = jsonSize(new GraphEncoder().encode(graph),
+                EncodedGraph.class);
+        assertTrue(encodedSize + " of " + treeSize + " bytes",
+                encodedSize < fraction * treeSize);
+    }
+
+    private static int jsonSize(Object value, Type type) {
+        return JsonCodec.encode(value, null, type, null).getEncodedValue()
+                .toJson().length();
+    }
+
+    private static Graph createChain(int length) {
+        Graph graph = new Graph("chain", Graph.DIGRAPH);
+        AttributeSet style = AttributeSet.of("shape", "box", "color", "gray");
+        Graph.Node previous = null;
+        for (int i = 0; i < length; i++) {
+            Graph.Node node = new Graph.Node("node" + i);
+            node.setAttributes(style);
+            node.setParam("label", "\"Step " + i + "\"");
+            if (previous != null) {
+                graph.addEdge(previous, node).setParam("color", "black");
+            } else {
+                graph.addNode(node);
+            }
+            previous = node;
+        }
+        return graph;
+    }
+}
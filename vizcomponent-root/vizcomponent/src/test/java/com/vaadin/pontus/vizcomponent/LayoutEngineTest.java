@@ -0,0 +1,46 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+/**
+ * Runs only on JVMs with a Javascript engine, Nashorn or GraalJS
+ */
+public class LayoutEngineTest {
+
+    @Test
+    public void testLayout() {
+        assumeTrue(LayoutEngine.isAvailable());
+        LayoutEngine engine = new LayoutEngine();
+        String svg = engine.layout("digraph G { a [id=\"node:a\"]; a -> b }");
+        assertTrue(svg.contains("<svg"));
+        assertTrue(svg.contains("id=\"node:a\""));
+    }
+
+    @Test
+    public void testSyntaxError() {
+        assumeTrue(LayoutEngine.isAvailable());
+        LayoutEngine engine = new LayoutEngine();
+        try {
+            engine.layout("digraph G { a -> }");
+            fail("Expected LayoutException");
+        } catch (LayoutException e) {
+            // The engine can still be used
+            assertTrue(engine.layout("digraph G { a }").contains("<svg"));
+        }
+    }
+
+    @Test
+    public void testNoEngine() {
+        assumeTrue(!LayoutEngine.isAvailable());
+        try {
+            new LayoutEngine();
+            fail("Expected LayoutException");
+        } catch (LayoutException e) {
+            // Expected
+        }
+    }
+}
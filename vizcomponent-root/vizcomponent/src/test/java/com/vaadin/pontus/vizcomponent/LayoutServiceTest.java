@@ -0,0 +1,155 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LayoutServiceTest {
+
+    // Released to let the blocking layouts finish
+    private final CountDownLatch release = new CountDownLatch(1);
+    private LayoutService service;
+
+    /**
+     * Engines returning the DOT text, blocking for graphs named "block"
+     */
+    private LayoutService.EngineFactory factory = new LayoutService.EngineFactory() {
+        @Override
+        public LayoutEngine create() {
+            return new LayoutEngine(null) {
+                @Override
+                public String layout(String dot) {
+                    if (dot.contains("block")) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // Engines can not be interrupted
+                        }
+                    }
+                    return "<svg>" + dot + "</svg>";
+                }
+            };
+        }
+    };
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private LayoutService start(int poolSize, int queueCapacity,
+            long timeoutMillis) throws InterruptedException {
+        service = new LayoutService(factory, poolSize, queueCapacity,
+                timeoutMillis);
+        // Wait for the engines to be created
+        for (int i = 0; i < 100 && service.getIdleEngineCount() < poolSize; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(poolSize, service.getIdleEngineCount());
+        return service;
+    }
+
+    @Test
+    public void testLayout() throws InterruptedException {
+        start(2, 10, 1000);
+        assertEquals("<svg>digraph G { a }</svg>",
+                service.layout("digraph G { a }"));
+        assertEquals(1, service.getCompletedCount());
+        assertEquals(2, service.getEngineCount());
+        assertEquals(2, service.getIdleEngineCount());
+        assertEquals(0, service.getQueueDepth());
+        assertTrue(service.getMaxRenderMillis() >= 0);
+    }
+
+    @Test
+    public void testQueueFull() throws InterruptedException {
+        start(1, 1, 10000);
+        service.submit("digraph block { }", null);
+        // Wait for the first graph to be taken from the queue
+        for (int i = 0; i < 100 && service.getIdleEngineCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        service.submit("digraph G { }", null);
+        assertEquals(1, service.getQueueDepth());
+        try {
+            service.submit("digraph H { }", null);
+            fail("Expected the graph to be rejected");
+        } catch (LayoutException e) {
+            assertEquals(1, service.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        start(1, 10, 50);
+        try {
+            service.layout("digraph block { }");
+            fail("Expected a timeout");
+        } catch (LayoutException e) {
+            assertEquals(1, service.getTimedOutCount());
+        }
+    }
+
+    @Test
+    public void testShutdownDefault() {
+        LayoutService created = LayoutService.getDefault();
+        LayoutService.shutdownDefault();
+        LayoutService next = LayoutService.getDefault();
+        assertFalse(created == next);
+        // A service set by the application is left running
+        service = new LayoutService(factory, 1, 1, 1000);
+        LayoutService.setDefault(service);
+        LayoutService.shutdownDefault();
+        assertTrue(LayoutService.getDefault() == service);
+        LayoutService.setDefault(null);
+        next.shutdown();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        start(1, 10, 10000);
+        final AtomicBoolean called = new AtomicBoolean();
+        LayoutService.LayoutCallback callback = new LayoutService.LayoutCallback() {
+            @Override
+            public void done(String svg) {
+                called.set(true);
+            }
+
+            @Override
+            public void failed(LayoutException e) {
+                called.set(true);
+            }
+        };
+        service.submit("digraph block { }", null);
+        Future<String> future = service.submit("digraph G { }", callback);
+        future.cancel(true);
+        release.countDown();
+        final CountDownLatch done = new CountDownLatch(1);
+        service.submit("digraph H { }", new LayoutService.LayoutCallback() {
+            @Override
+            public void done(String svg) {
+                done.countDown();
+            }
+
+            @Override
+            public void failed(LayoutException e) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertFalse(called.get());
+        assertEquals(2, service.getCompletedCount());
+    }
+}
@@ -0,0 +1,157 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.client.VizComponentState;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+import com.vaadin.server.ExternalResource;
+import com.vaadin.server.StreamResource;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+
+public class SharedGraphTest {
+
+    @Test
+    public void testConversion() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setParam("rankdir", "LR");
+        AttributeSet red = AttributeSet.of("color", "red");
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("b");
+        a.setAttributes(red);
+        b.setAttributes(red);
+        Subgraph.Edge ab = graph.addEdge(a, b);
+        ab.setParam("label", "x");
+        Subgraph sub = graph.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_0", sub));
+        Graph.Node c = new Graph.Node("c");
+        sub.addEdge(c, a);
+
+        SharedGraph shared = new SharedGraph(graph);
+        assertEquals(graph.getModificationStamp(),
+                shared.getSnapshot().getStamp());
+        JsonObject json = parse(shared);
+        // The graph and attribute sets are encoded like in the state
+        JsonObject root = json.getObject(VizComponentState.SHARED_GRAPH);
+        assertEquals("\"G\"", root.getString("id"));
+        assertEquals("LR", root.getObject("params").getString("rankdir"));
+
+        // Three declarations, one edge in the graph and one from the subgraph
+        JsonArray graphEdges = root.getArray("graph");
+        assertEquals(5, graphEdges.length());
+        HashMap<String, JsonObject> edges = new HashMap<String, JsonObject>();
+        HashMap<String, JsonObject> nodes = new HashMap<String, JsonObject>();
+        for (int i = 0; i < graphEdges.length(); i++) {
+            JsonObject edge = graphEdges.getObject(i);
+            JsonObject source = edge.getObject("source");
+            if (isNull(edge, "dest")) {
+                nodes.put(source.getString("id"), source);
+            } else {
+                edges.put(source.getString("id"), edge);
+            }
+        }
+        assertEquals(3, nodes.size());
+        JsonObject a1 = nodes.get("\"a\"");
+        // The attribute set is used by two nodes, so it is shared
+        assertEquals(0, a1.getArray("params").length());
+        String attributeSet = a1.getString("attributeSet");
+        assertEquals("red", json
+                .getObject(VizComponentState.SHARED_ATTRIBUTE_SETS)
+                .getObject(attributeSet).getString("color"));
+        assertEquals(attributeSet,
+                nodes.get("\"b\"").getString("attributeSet"));
+        JsonObject edgeA = edges.get("\"a\"");
+        assertEquals("x", edgeA.getObject("params").getString("label"));
+        assertTrue(isNull(edgeA, "attributeSet"));
+        // The edge from the subgraph is drawn in the root graph
+        assertEquals("\"a\"",
+                edges.get("\"c\"").getObject("dest").getString("id"));
+        JsonArray cluster = nodes.get("\"cluster_0\"").getArray("graph");
+        assertEquals(1, cluster.length());
+        assertEquals("\"c\"",
+                cluster.getObject(0).getObject("source").getString("id"));
+    }
+
+    @Test
+    public void testSharedGraphIsNotChangedByGraph() {
+        Graph graph = new Graph("G", Graph.GRAPH);
+        Graph.Node a = new Graph.Node("a");
+        a.setParam("color", "red");
+        graph.addNode(a);
+
+        SharedGraph shared = new SharedGraph(graph);
+        a.setParam("color", "blue");
+        graph.addNode(new Graph.Node("b"));
+
+        JsonArray edges = parse(shared)
+                .getObject(VizComponentState.SHARED_GRAPH).getArray("graph");
+        assertEquals(1, edges.length());
+        assertEquals("red", edges.getObject(0).getObject("source")
+                .getObject("params").getString("color"));
+        assertEquals("red",
+                shared.getSnapshot().findNode("a").getParam("color"));
+    }
+
+    @Test
+    public void testGraphIsNotInState() {
+        Graph graph = new Graph("G", Graph.GRAPH);
+        Graph.Node a = new Graph.Node("a");
+        graph.addNode(a);
+        SharedGraph shared = new SharedGraph(graph);
+
+        VizComponent component = new VizComponent();
+        component.drawGraph(shared);
+        component.overrideParam(a, "color", "red");
+        VizComponentState state = component.getState();
+        assertNull(state.graph);
+        assertNull(state.attributeSets);
+        assertTrue(state.resources
+                .containsKey(VizComponentState.SHARED_GRAPH_RESOURCE));
+        assertEquals("red", state.overlay.nodeParams.get("a").get("color"));
+
+        component.clearGraph();
+        assertFalse(state.resources
+                .containsKey(VizComponentState.SHARED_GRAPH_RESOURCE));
+    }
+
+    @Test
+    public void testServedByHandler() {
+        Graph graph = new Graph("G", Graph.GRAPH);
+        graph.addNode(new Graph.Node("a"));
+        SharedGraph shared = new SharedGraph(graph);
+        assertTrue(shared.getFileName()
+                .matches("graph\\.[0-9a-f]{32}\\.json"));
+        assertTrue(SharedGraph.getPublished(shared.getFileName()) == shared);
+        assertTrue(shared.getResource() instanceof StreamResource);
+
+        StaticResources.setHandlerInstalled(true);
+        try {
+            assertEquals("app://" + StaticResources.PATH
+                    + shared.getFileName(),
+                    ((ExternalResource) shared.getResource()).getURL());
+        } finally {
+            StaticResources.setHandlerInstalled(false);
+        }
+    }
+
+    private static JsonObject parse(SharedGraph shared) {
+        return Json.parse(new String(shared.getJson(), StandardCharsets.UTF_8));
+    }
+
+    private static boolean isNull(JsonObject object, String key) {
+        return object.get(key).getType() == JsonType.NULL;
+    }
+}
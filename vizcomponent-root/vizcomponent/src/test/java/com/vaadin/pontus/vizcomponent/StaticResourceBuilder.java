@@ -0,0 +1,152 @@
+package com.vaadin.pontus.vizcomponent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build step writing the Javascript libraries with content hashed file names
+ * and precompressed variants, served by {@link StaticResourceHandler}. Run by
+ * Maven in a separate process in the process-test-classes phase with the class
+ * output directory as argument. It is kept in the test sources so that it is
+ * not on the class path of applications. Maven writes the output of the
+ * process to its log, and an exception fails the build.
+ * <p>
+ * A gzip variant is always written. A brotli variant is written if the
+ * brotli command line tool is found, as there is no brotli encoder in the
+ * JDK.
+ */
+public class StaticResourceBuilder {
+
+    static final int HASH_LENGTH = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException(
+                    "Usage: StaticResourceBuilder <output dir>");
+        }
+        Properties manifest = build(new File(args[0]));
+        for (String name : manifest.stringPropertyNames()) {
+            System.out.println(
+                    "Wrote " + name + " as " + manifest.getProperty(name));
+        }
+    }
+
+    /**
+     * Writes the libraries and the manifest mapping their names to the
+     * hashed file names into the static resource directory under the given
+     * class output directory
+     *
+     * @return the manifest
+     */
+    static Properties build(File outputDir) throws IOException {
+        File dir = new File(outputDir, StaticResources.DIRECTORY);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        boolean brotli = true;
+        Properties manifest = new Properties();
+        for (String name : StaticResources.RESOURCES) {
+            byte[] content = read(name);
+            String fileName = hashedName(name, content);
+            File file = new File(dir, fileName);
+            Files.write(file.toPath(), content);
+            gzip(content, new File(dir, fileName + ".gz"));
+            brotli = brotli && brotli(file, new File(dir, fileName + ".br"));
+            manifest.setProperty(name, fileName);
+        }
+        OutputStream out = new FileOutputStream(
+                new File(dir, StaticResources.MANIFEST));
+        try {
+            manifest.store(out, "Generated by StaticResourceBuilder");
+        } finally {
+            out.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the name with a hash of the content inserted before the first
+     * dot, viz.js becomes viz.0123456789abcdef.js
+     */
+    static String hashedName(String name, byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(content);
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < HASH_LENGTH / 2; i++) {
+            hex.append(String.format("%02x", hash[i] & 0xff));
+        }
+        int dot = name.indexOf('.');
+        return name.substring(0, dot) + "." + hex + name.substring(dot);
+    }
+
+    private static byte[] read(String name) throws IOException {
+        // The libraries are next to the component in the class output
+        InputStream in = VizComponent.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Resource " + name + " not found");
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void gzip(byte[] content, File file) throws IOException {
+        GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file)) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Compresses the file with the brotli command line tool
+     *
+     * @return false if the tool is not available
+     */
+    private static boolean brotli(File file, File target) {
+        try {
+            Process process = new ProcessBuilder("brotli", "-f", "-q", "11",
+                    "-o", target.getPath(), file.getPath()).inheritIO()
+                            .start();
+            if (!process.waitFor(5, TimeUnit.MINUTES)) {
+                process.destroy();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
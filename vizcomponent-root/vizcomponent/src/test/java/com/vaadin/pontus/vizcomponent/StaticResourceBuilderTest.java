@@ -0,0 +1,84 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class StaticResourceBuilderTest {
+
+    @Test
+    public void testHashedName() {
+        String name = StaticResourceBuilder.hashedName("svg-pan-zoom.min.js",
+                new byte[] { 1, 2, 3 });
+        assertTrue(name.matches("svg-pan-zoom\\.[0-9a-f]{16}\\.min\\.js"));
+        assertEquals(name, StaticResourceBuilder
+                .hashedName("svg-pan-zoom.min.js", new byte[] { 1, 2, 3 }));
+        assertFalse(name.equals(StaticResourceBuilder
+                .hashedName("svg-pan-zoom.min.js", new byte[] { 1, 2, 4 })));
+    }
+
+    @Test
+    public void testBuild() throws IOException {
+        File dir = Files.createTempDirectory("static").toFile();
+        File staticDir = new File(dir, StaticResources.DIRECTORY);
+        try {
+            Properties manifest = StaticResourceBuilder.build(dir);
+            for (String name : StaticResources.RESOURCES) {
+                String fileName = manifest.getProperty(name);
+                byte[] content = Files
+                        .readAllBytes(new File(staticDir, fileName).toPath());
+                byte[] unzipped = read(new GZIPInputStream(new FileInputStream(
+                        new File(staticDir, fileName + ".gz"))));
+                assertArrayEquals(content, unzipped);
+            }
+            assertTrue(new File(staticDir, StaticResources.MANIFEST).exists());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testAcceptEncoding() {
+        assertTrue(StaticResourceHandler.accepts("gzip, deflate, br", "br"));
+        assertTrue(StaticResourceHandler.accepts("gzip;q=0.5", "gzip"));
+        assertFalse(StaticResourceHandler.accepts("gzip;q=0, br", "gzip"));
+        assertFalse(StaticResourceHandler.accepts("identity", "gzip"));
+        assertFalse(StaticResourceHandler.accepts(null, "gzip"));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.client.StyleChanges;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+public class StyleBatchTest {
+
+    @Test
+    public void testStringsAreSentOnce() {
+        StyleBatch batch = new StyleBatch();
+        for (int i = 0; i < 1000; i++) {
+            batch.addCss(new Graph.Node("n" + i), "fill", "yellow");
+        }
+        StyleChanges changes = batch.toChanges();
+        assertEquals(1000, changes.size());
+        // The ids, the property and the value
+        assertEquals(1002, changes.strings.length);
+        assertEquals(4000, changes.changes.length);
+    }
+
+    @Test
+    public void testChangesInOrder() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node a = new Graph.Node("a");
+        Subgraph.Edge edge = graph.addEdge(a, new Graph.Node("b"));
+        Map<Graph.Node, Map<String, String>> styles = new LinkedHashMap<Graph.Node, Map<String, String>>();
+        Map<String, String> style = new HashMap<String, String>();
+        style.put("stroke", null);
+        styles.put(a, style);
+
+        StyleBatch batch = new StyleBatch();
+        batch.addTextCss(edge, "fill", "red").addCss(styles);
+        StyleChanges changes = batch.toChanges();
+
+        assertEquals(StyleChanges.EDGE_TEXT, changes.changes[0]);
+        assertEquals(edge.getId(), changes.strings[changes.changes[1]]);
+        assertEquals("red", changes.strings[changes.changes[3]]);
+        assertEquals(StyleChanges.NODE, changes.changes[4]);
+        assertEquals("a", changes.strings[changes.changes[5]]);
+        assertEquals("stroke", changes.strings[changes.changes[6]]);
+        // Removed
+        assertEquals(-1, changes.changes[7]);
+    }
+}
@@ -0,0 +1,135 @@
+package com.vaadin.pontus.vizcomponent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.client.GraphDelta;
+import com.vaadin.pontus.vizcomponent.client.GraphModel;
+import com.vaadin.pontus.vizcomponent.client.Overlay;
+import com.vaadin.pontus.vizcomponent.client.StylePatcher;
+import com.vaadin.pontus.vizcomponent.model.AttributeSet;
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.pontus.vizcomponent.model.Subgraph;
+
+public class StylePatcherTest {
+
+    private Graph graph;
+    private GraphConverter converter;
+    private GraphModel model;
+    private long stamp;
+
+    private void convert() {
+        graph.setJournalCapacity(100);
+        converter = new GraphConverter();
+        model = new GraphModel(converter.convert(graph));
+        stamp = graph.getModificationStamp();
+    }
+
+    private StylePatcher prepare(Overlay overlay, boolean expected) {
+        GraphDelta delta = new DeltaConverter(graph,
+                converter.getSubgraphIds()).convert(graph
+                .getChangesSince(stamp));
+        StylePatcher patcher = new StylePatcher(model,
+                converter.getAttributeSets(), overlay);
+        assertEquals(expected, patcher.prepare(delta));
+        return patcher;
+    }
+
+    @Test
+    public void testColorChangesArePatched() {
+        graph = new Graph("G", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        sub.setNodeParameter("style", "filled");
+        graph.addNode(new Graph.GraphNode("cluster_0", sub));
+        Graph.Node a = new Graph.Node("a");
+        sub.addNode(a);
+        Subgraph.Edge edge = graph.addEdge(new Graph.Node("b"),
+                new Graph.Node("c"));
+        convert();
+
+        a.setParam("fillcolor", "\"#ff0000\"");
+        edge.setParam("color", "blue");
+        edge.setParam("style", "dashed");
+        StylePatcher patcher = prepare(null, true);
+
+        StylePatcher.Style node = patcher.getNodeStyles().get("a");
+        // Filled by the default of the subgraph
+        assertEquals("#ff0000", node.fill);
+        assertEquals("black", node.stroke);
+        StylePatcher.Style line = patcher.getEdgeStyles().get(edge.getId());
+        assertEquals("blue", line.stroke);
+        assertEquals("none", line.fill);
+        assertEquals("blue", line.arrowFill);
+        assertEquals("5,2", line.strokeDasharray);
+    }
+
+    @Test
+    public void testAttributeSetReplaced() {
+        graph = new Graph("G", Graph.DIGRAPH);
+        AttributeSet ok = AttributeSet.of("style", "filled", "fillcolor",
+                "green");
+        AttributeSet failed = ok.with("fillcolor", "red");
+        Graph.Node a = new Graph.Node("a");
+        a.setAttributes(ok);
+        graph.addNode(a);
+        convert();
+
+        a.setAttributes(failed);
+        StylePatcher patcher = prepare(null, true);
+        assertEquals("red", patcher.getNodeStyles().get("a").fill);
+
+        a.setAttributes(failed.with("shape", "box"));
+        prepare(null, false);
+    }
+
+    @Test
+    public void testLayoutChangesAreNotPatched() {
+        graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node a = new Graph.Node("a");
+        graph.addEdge(a, new Graph.Node("b"));
+        convert();
+
+        a.setParam("label", "\"A longer label\"");
+        prepare(null, false);
+    }
+
+    @Test
+    public void testUnsupportedValuesAreNotPatched() {
+        graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node a = new Graph.Node("a");
+        graph.addNode(a);
+        convert();
+
+        a.setParam("color", "\"red:blue\"");
+        prepare(null, false);
+    }
+
+    @Test
+    public void testOverridesWin() {
+        graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node a = new Graph.Node("a");
+        graph.addNode(a);
+        convert();
+        Overlay overlay = new Overlay();
+        overlay.nodeParams.put("a", new HashMap<String, String>());
+        overlay.nodeParams.get("a").put("color", "orange");
+        overlay.nodeParams.get("a").put("shape", "box");
+
+        // The overridden shape does not change
+        a.setParam("shape", "circle");
+        a.setParam("color", "red");
+        StylePatcher patcher = prepare(overlay, true);
+        StylePatcher.Style style = patcher.getNodeStyles().get("a");
+        assertEquals("orange", style.stroke);
+        assertEquals("none", style.fill);
+        assertNull(style.strokeDasharray);
+        assertFalse(patcher.getNodeStyles().isEmpty());
+        assertTrue(patcher.getEdgeStyles().isEmpty());
+    }
+}
@@ -1,8 +1,17 @@
 package com.vaadin.pontus.vizcomponent;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.Assert;
+
 import org.junit.Test;
 
+import com.vaadin.pontus.vizcomponent.model.Graph;
+import com.vaadin.server.ClientMethodInvocation;
+
 // JUnit tests here
 public class VizComponentTest {
 
@@ -10,4 +19,29 @@ public class VizComponentTest {
 	public void thisAlwaysPasses() {
 		Assert.assertEquals(true, true);
 	}
+
+	@Test
+	public void testRedrawClearsCss() {
+		Graph graph = new Graph("G", Graph.DIGRAPH);
+		Graph.Node a = new Graph.Node("a");
+		graph.addEdge(a, new Graph.Node("b"));
+		VizComponent component = new VizComponent();
+		component.drawGraph(graph);
+		component.retrievePendingRpcCalls();
+
+		component.addCss(a, "fill", "red");
+		component.drawGraph(graph);
+		// The unchanged graph is not sent again, but the css is still reset
+		assertEquals("[addNodeCss, clearCss]",
+				methodNames(component.retrievePendingRpcCalls()).toString());
+	}
+
+	private static List<String> methodNames(
+			List<ClientMethodInvocation> invocations) {
+		List<String> names = new ArrayList<String>();
+		for (ClientMethodInvocation invocation : invocations) {
+			names.add(invocation.getMethodName());
+		}
+		return names;
+	}
 }
@@ -0,0 +1,99 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CompactGraphTest {
+
+    @Test
+    public void testBuildSortsEdgesBySource() {
+        CompactGraph.Builder builder = new CompactGraph.Builder("test",
+                Graph.DIGRAPH);
+        int a = builder.addNode("a");
+        int b = builder.addNode("b");
+        int c = builder.addNode("c");
+        int e1 = builder.addEdge(c, a);
+        builder.addEdge(a, b);
+        builder.addEdge(a, c);
+        builder.setEdgeAttribute(e1, "color", "red");
+        builder.setNodeAttribute(b, "shape", "box");
+        builder.setNodeAttribute(b, "shape", "ellipse");
+
+        CompactGraph graph = builder.build();
+
+        assertEquals(3, graph.nodeCount());
+        assertEquals(3, graph.edgeCount());
+        assertEquals(2, graph.edgeEnd(a) - graph.edgeStart(a));
+        assertEquals(0, graph.edgeEnd(b) - graph.edgeStart(b));
+        int e = graph.edgeStart(c);
+        assertEquals(a, graph.getDest(e));
+        assertEquals(c, graph.getSource(e));
+        assertEquals(a, graph.getSource(graph.edgeStart(a) + 1));
+        assertEquals("red", graph.getEdgeParams(e).get("color"));
+        assertTrue(graph.getEdgeParams(graph.edgeStart(a)).isEmpty());
+        assertEquals(1, graph.getNodeParams(b).size());
+        assertEquals("ellipse", graph.getNodeParams(b).get("shape"));
+        assertEquals(b, graph.indexOf("b"));
+        assertEquals(e, graph.edgeIndexOf(graph.getEdgeId(e)));
+        assertEquals(-1, graph.edgeIndexOf("edge1"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAttributeOfMissingNode() {
+        CompactGraph.Builder builder = new CompactGraph.Builder("test",
+                Graph.DIGRAPH);
+        builder.addNode("a");
+        builder.setNodeAttribute(1, "shape", "box");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAttributeOfMissingEdge() {
+        CompactGraph.Builder builder = new CompactGraph.Builder("test",
+                Graph.DIGRAPH);
+        int a = builder.addNode("a");
+        builder.addEdge(a, a);
+        builder.setEdgeAttribute(-1, "color", "red");
+    }
+
+    @Test
+    public void testConvertFromAndToGraph() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        graph.setParam("rankdir", "LR");
+        graph.setNodeParameter("shape", "box");
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        Graph.Node node3 = new Graph.Node("3");
+        node1.setParam("label", "one");
+        graph.addNode(node3);
+        graph.addEdge(node1, node2).setParam("color", "red");
+        graph.addEdge(node2, node1);
+
+        CompactGraph compact = CompactGraph.fromGraph(graph);
+
+        assertEquals(3, compact.nodeCount());
+        assertEquals(2, compact.edgeCount());
+        assertEquals("LR", compact.getParams().get("rankdir"));
+        assertEquals("box", compact.getNodeParams().get("shape"));
+
+        Graph back = compact.toGraph();
+
+        assertEquals("test", back.getName());
+        assertEquals(3, back.getNodes().size());
+        assertEquals(2, back.getEdges().size());
+        assertEquals("one", back.getNode("1").getParam("label"));
+        assertEquals("red", back.getEdge(node1, node2).getParam("color"));
+        assertNull(back.getEdge(node2, node1).getParam("color"));
+        assertEquals("LR", back.getParam("rankdir"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubgraphsNotSupported() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        graph.addNode(new Graph.GraphNode("cluster_0",
+                graph.createNewSubgraph()));
+        CompactGraph.fromGraph(graph);
+    }
+}
@@ -0,0 +1,86 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DotWriterTest {
+
+    @Test
+    public void testWriteGraph() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.setParam("rankdir", "LR");
+        graph.setNodeParameter("shape", "box");
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("say \"b\"");
+        a.setAttributes(AttributeSet.of("color", "red", "label", "x"));
+        a.setParam("label", "\"A\"");
+        Subgraph.Edge edge = graph.addEdge(a, b);
+        edge.setParam("color", "blue");
+
+        assertEquals("digraph \"G\" {\n" //
+                + "rankdir=LR;\n" //
+                + "node [shape=box];\n" //
+                // addEdge adds the destination first
+                + "\"say \\\"b\\\"\";\n" //
+                + "\"a\" [color=red,label=\"A\"];\n" //
+                + "\"a\" -> \"say \\\"b\\\"\" [color=blue];\n" //
+                + "}\n", DotWriter.toString(graph));
+    }
+
+    @Test
+    public void testBackslashInId() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.addNode(new Graph.Node("a\\b"));
+        assertEquals("digraph \"G\" {\n\"a\\b\";\n}\n",
+                DotWriter.toString(graph));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrailingBackslashInId() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        graph.addNode(new Graph.Node("a\\"));
+        DotWriter.toString(graph);
+    }
+
+    @Test
+    public void testSubgraphs() throws IOException {
+        Graph graph = new Graph("G", Graph.GRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        sub.setParam("label", "\"sub\"");
+        Graph.GraphNode cluster = new Graph.GraphNode("cluster_0", sub);
+        graph.addNode(cluster);
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("b");
+        graph.addNode(b);
+        Subgraph.Edge inner = sub.addEdge(a, b);
+        Subgraph.Edge toCluster = graph.addEdge(b, cluster);
+        toCluster.setParam("color", "red");
+
+        StringWriter out = new StringWriter();
+        DotWriter writer = new DotWriter(out);
+        writer.setIdPrefixes("n:", "e:");
+        Map<String, Map<String, String>> overrides = new HashMap<String, Map<String, String>>();
+        overrides.put("a", Collections.singletonMap("color", "green"));
+        writer.setNodeOverrides(overrides);
+        writer.write(graph);
+
+        assertEquals("graph \"G\" {\n" //
+                + "subgraph \"cluster_0\" {\n" //
+                + "label=\"sub\";\n" //
+                + "\"a\" [color=green,id=\"n:a\"];\n" //
+                + "}\n" //
+                + "\"b\" [id=\"n:b\"];\n" //
+                + "\"b\" -- subgraph \"cluster_0\" {} [id=\"e:"
+                + toCluster.getId() + "\"];\n" //
+                // The edge from the subgraph is written last
+                + "\"a\" -- \"b\" [id=\"e:" + inner.getId() + "\"];\n" //
+                + "}\n", out.toString());
+    }
+}
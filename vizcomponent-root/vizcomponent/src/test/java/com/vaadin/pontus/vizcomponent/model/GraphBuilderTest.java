@@ -0,0 +1,56 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vaadin.pontus.vizcomponent.model.GraphBuilder.EdgeSpec;
+
+public class GraphBuilderTest {
+
+    @Test
+    public void testBuildGraph() {
+        GraphBuilder builder = new GraphBuilder("test", Graph.DIGRAPH, 3, 3);
+        builder.setNodeParameter("shape", "box");
+        builder.addNode("1", Collections.singletonMap("label", "one"));
+        List<EdgeSpec> batch = new ArrayList<EdgeSpec>();
+        batch.add(new EdgeSpec("1", "2",
+                Collections.singletonMap("color", "red")));
+        batch.add(new EdgeSpec("2", "3", null));
+        batch.add(new EdgeSpec("\"3\"", "1", null));
+        builder.addEdges(batch);
+
+        Graph graph = builder.build();
+
+        assertEquals("test", graph.getName());
+        assertEquals("box", graph.getNodeParam("shape"));
+        assertEquals(3, graph.getNodes().size());
+        assertEquals(3, graph.getEdges().size());
+        assertEquals("one", graph.getNode("1").getParam("label"));
+        Subgraph.Edge edge = graph.getEdge(graph.getNode("1"),
+                graph.getNode("2"));
+        assertEquals("red", edge.getParam("color"));
+        assertNotNull(graph.getEdge(graph.getNode("3"), graph.getNode("1")));
+        assertEquals(1, graph.inDegree(graph.getNode("1")));
+        assertEquals(graph, graph.getSubgraph(graph.getNode("3")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidEdge() {
+        GraphBuilder builder = new GraphBuilder("test", Graph.DIGRAPH, 1, 1);
+        builder.addEdges(Collections.singletonList(new EdgeSpec("1", null,
+                null)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuildTwice() {
+        GraphBuilder builder = new GraphBuilder("test", Graph.DIGRAPH, 1, 1);
+        builder.build();
+        builder.addNode("1", null);
+    }
+}
@@ -0,0 +1,362 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class GraphSnapshotTest {
+
+    @Test
+    public void testSnapshotDoesNotChange() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Graph.Node a = new Graph.Node("a");
+        Graph.Node b = new Graph.Node("b");
+        a.setParam("color", "red");
+        Subgraph.Edge edge = graph.addEdge(a, b);
+        graph.setParam("rankdir", "LR");
+
+        GraphSnapshot first = graph.snapshot();
+        assertEquals("G", first.getName());
+        assertEquals(Graph.DIGRAPH, first.getType());
+        assertEquals(2, first.nodeCount());
+        assertEquals(1, first.edgeCount());
+        assertEquals("red", first.getNode("a").getParam("color"));
+        assertEquals("LR", first.getParam("rankdir"));
+        assertEquals("a", first.getEdge(edge.getId()).getSourceId());
+        assertEquals(graph.getModificationStamp(), first.getStamp());
+
+        a.setParam("color", "blue");
+        graph.addEdge(b, new Graph.Node("c"));
+        graph.remove(edge);
+        graph.setParam("rankdir", "TB");
+
+        assertEquals("red", first.getNode("a").getParam("color"));
+        assertEquals(2, first.nodeCount());
+        assertEquals(1, first.edgeCount());
+        assertEquals("LR", first.getParam("rankdir"));
+
+        GraphSnapshot second = graph.snapshot();
+        assertEquals("blue", second.getNode("a").getParam("color"));
+        assertEquals(3, second.nodeCount());
+        assertEquals(1, second.edgeCount());
+        assertNull(second.getEdge(edge.getId()));
+        assertEquals("TB", second.getParam("rankdir"));
+        assertEquals(graph.getModificationStamp(), second.getStamp());
+        // Nothing changed since the last snapshot
+        assertTrue(graph.snapshot() == second);
+    }
+
+    @Test
+    public void testUnchangedPartsAreShared() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Subgraph quiet = graph.createNewSubgraph();
+        Subgraph busy = graph.createNewSubgraph();
+        Subgraph inner = busy.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_quiet", quiet));
+        graph.addNode(new Graph.GraphNode("cluster_busy", busy));
+        busy.addNode(new Graph.GraphNode("cluster_inner", inner));
+        for (int i = 0; i < 100; i++) {
+            quiet.addEdge(new Graph.Node("q" + i), new Graph.Node("q"
+                    + (i + 1)));
+        }
+        Graph.Node x = new Graph.Node("x");
+        inner.addEdge(x, new Graph.Node("y"));
+
+        GraphSnapshot first = graph.snapshot();
+        GraphSnapshot quietFirst = first.getNode("cluster_quiet")
+                .getSubgraph();
+        x.setParam("label", "changed");
+        GraphSnapshot second = graph.snapshot();
+
+        assertTrue(quietFirst == second.getNode("cluster_quiet")
+                .getSubgraph());
+        GraphSnapshot innerFirst = first.getNode("cluster_busy").getSubgraph()
+                .getNode("cluster_inner").getSubgraph();
+        GraphSnapshot innerSecond = second.getNode("cluster_busy")
+                .getSubgraph().getNode("cluster_inner").getSubgraph();
+        assertTrue(innerFirst != innerSecond);
+        assertNull(innerFirst.getNode("x").getParam("label"));
+        assertEquals("changed", innerSecond.getNode("x").getParam("label"));
+        // The unchanged node is shared between the versions
+        assertTrue(innerFirst.getNode("y") == innerSecond.getNode("y"));
+        assertEquals("changed", second.findNode("x").getParam("label"));
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            ids.add("n" + i);
+            graph.addNode(new Graph.Node("n" + i));
+        }
+        Subgraph.Edge first = graph.addEdge(graph.getNode("n0"),
+                graph.getNode("n1"));
+        Subgraph.Edge second = graph.addEdge(graph.getNode("n1"),
+                graph.getNode("n2"));
+        assertEquals(ids, nodeIds(graph.snapshot()));
+
+        graph.getNode("n10").setParam("color", "red");
+        graph.remove(graph.getNode("n20"));
+        graph.addNode(new Graph.Node("n20"));
+        graph.addNode(new Graph.Node("new"));
+        ids.remove("n20");
+        ids.add("n20");
+        ids.add("new");
+        Subgraph.Edge third = graph.addEdge(graph.getNode("n0"),
+                graph.getNode("n3"));
+        graph.remove(first);
+        GraphSnapshot snapshot = graph.snapshot();
+        assertEquals(ids, nodeIds(snapshot));
+        List<String> edgeIds = new ArrayList<String>();
+        for (GraphSnapshot.Edge edge : snapshot.getEdges()) {
+            edgeIds.add(edge.getId());
+        }
+        assertEquals(Arrays.asList(second.getId(), third.getId()), edgeIds);
+    }
+
+    private static List<String> nodeIds(GraphSnapshot snapshot) {
+        List<String> ids = new ArrayList<String>();
+        for (GraphSnapshot.Node node : snapshot.getNodes()) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRemovedSubgraphAddedAgain() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        Graph.GraphNode cluster = new Graph.GraphNode("cluster_1", sub);
+        graph.addNode(cluster);
+        sub.addNode(new Graph.Node("a"));
+        assertEquals(1, graph.snapshot().getNode("cluster_1").getSubgraph()
+                .nodeCount());
+
+        graph.remove(cluster);
+        assertNull(graph.snapshot().getNode("cluster_1"));
+        sub.addNode(new Graph.Node("b"));
+        graph.addNode(cluster);
+        GraphSnapshot added = graph.snapshot().getNode("cluster_1")
+                .getSubgraph();
+        assertEquals(2, added.nodeCount());
+        sub.getNode("a").setParam("color", "red");
+        assertEquals("red", graph.snapshot().findNode("a").getParam("color"));
+    }
+
+    @Test
+    public void testFindInSubgraphs() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        List<Subgraph> subgraphs = new ArrayList<Subgraph>();
+        List<Graph.GraphNode> clusters = new ArrayList<Graph.GraphNode>();
+        subgraphs.add(graph);
+        Random random = new Random(7);
+        int nodes = 0;
+        for (int step = 0; step < 2000; step++) {
+            Subgraph sub = subgraphs.get(random.nextInt(subgraphs.size()));
+            int choice = random.nextInt(10);
+            if (choice == 0 && subgraphs.size() < 8) {
+                Subgraph child = sub.createNewSubgraph();
+                Graph.GraphNode cluster = new Graph.GraphNode("cluster_"
+                        + subgraphs.size(), child);
+                sub.addNode(cluster);
+                subgraphs.add(child);
+                clusters.add(cluster);
+            } else if (choice == 1 && !clusters.isEmpty()) {
+                // Remove a subgraph or add it back
+                Graph.GraphNode cluster = clusters.get(random.nextInt(clusters
+                        .size()));
+                Subgraph parent = subgraphs.get(subgraphs.indexOf(cluster
+                        .getGraph().getParent()));
+                if (parent.getNodes().contains(cluster)) {
+                    parent.remove(cluster);
+                } else {
+                    parent.addNode(cluster);
+                }
+            } else if (choice < 4 && sub.nodeCount() > 0) {
+                List<Subgraph.Node> present = plainNodes(sub);
+                if (!present.isEmpty()) {
+                    sub.remove(present.get(random.nextInt(present.size())));
+                }
+            } else if (choice < 6 && sub.edgeCount() > 0) {
+                List<Subgraph.Edge> edges = new ArrayList<Subgraph.Edge>(
+                        sub.getEdges());
+                sub.remove(edges.get(random.nextInt(edges.size())));
+            } else if (choice < 8) {
+                List<Subgraph.Node> present = plainNodes(sub);
+                Subgraph.Node source = new Graph.Node("n" + nodes++);
+                Subgraph.Node dest = present.isEmpty() ? new Graph.Node("n"
+                        + nodes++) : present.get(random.nextInt(present
+                        .size()));
+                sub.addEdge(source, dest).setParam("step", "" + step);
+            } else {
+                List<Subgraph.Node> present = plainNodes(sub);
+                if (!present.isEmpty()) {
+                    present.get(random.nextInt(present.size())).setParam(
+                            "step", "" + step);
+                }
+            }
+            if (step % 50 == 0) {
+                assertFound(graph, graph.snapshot());
+            }
+        }
+        assertFound(graph, graph.snapshot());
+    }
+
+    private static List<Subgraph.Node> plainNodes(Subgraph sub) {
+        List<Subgraph.Node> nodes = new ArrayList<Subgraph.Node>();
+        for (Subgraph.Node node : sub.getNodes()) {
+            if (!(node instanceof Graph.GraphNode)) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Checks that the snapshot finds every node and edge of the graph in
+     * the subgraphs in it, and nothing else
+     */
+    private static void assertFound(Subgraph sub, GraphSnapshot snapshot) {
+        Map<String, String> nodes = new HashMap<String, String>();
+        Map<String, String> edges = new HashMap<String, String>();
+        collect(sub, nodes, edges);
+        assertEquals(nodes.size(), count(snapshot, true));
+        assertEquals(edges.size(), count(snapshot, false));
+        for (Map.Entry<String, String> node : nodes.entrySet()) {
+            assertEquals(node.getValue(), snapshot.findNode(node.getKey())
+                    .getParam("step"));
+        }
+        for (Map.Entry<String, String> edge : edges.entrySet()) {
+            assertEquals(edge.getValue(), snapshot.findEdge(edge.getKey())
+                    .getParam("step"));
+        }
+        // Removed nodes and edges are not found
+        for (GraphSnapshot.Node node : snapshot.nestedNodeMap().values()) {
+            assertTrue(nodes.containsKey(node.getId()));
+        }
+        for (GraphSnapshot.Edge edge : snapshot.nestedEdgeMap().values()) {
+            assertTrue(edges.containsKey(edge.getId()));
+        }
+        for (GraphSnapshot.Node node : snapshot.getNodes()) {
+            if (node.getSubgraph() != null) {
+                assertFound(((Graph.GraphNode) sub.getNode(node.getId()))
+                        .getGraph(), node.getSubgraph());
+            }
+        }
+    }
+
+    private static void collect(Subgraph sub, Map<String, String> nodes,
+            Map<String, String> edges) {
+        for (Subgraph.Node node : sub.getNodes()) {
+            nodes.put(node.getId(), node.getParam("step"));
+            if (node instanceof Graph.GraphNode) {
+                collect(((Graph.GraphNode) node).getGraph(), nodes, edges);
+            }
+        }
+        for (Subgraph.Edge edge : sub.getEdges()) {
+            edges.put(edge.getId(), edge.getParam("step"));
+        }
+    }
+
+    /**
+     * Returns the number of distinct ids found in the snapshot
+     */
+    private static int count(GraphSnapshot snapshot, boolean nodes) {
+        Set<String> ids = new HashSet<String>();
+        count(snapshot, nodes, ids);
+        return ids.size();
+    }
+
+    private static void count(GraphSnapshot snapshot, boolean nodes,
+            Set<String> ids) {
+        for (GraphSnapshot.Node node : snapshot.getNodes()) {
+            if (nodes) {
+                ids.add(node.getId());
+            }
+            if (node.getSubgraph() != null) {
+                count(node.getSubgraph(), nodes, ids);
+            }
+        }
+        if (!nodes) {
+            for (GraphSnapshot.Edge edge : snapshot.getEdges()) {
+                ids.add(edge.getId());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedAttributeSetsAreReused() {
+        Graph graph = new Graph("G", Graph.DIGRAPH);
+        AttributeSet style = AttributeSet.of("shape", "box");
+        Graph.Node a = new Graph.Node("a");
+        a.setAttributes(style);
+        graph.addNode(a);
+        GraphSnapshot snapshot = graph.snapshot();
+        assertTrue(snapshot.getNode("a").getAttributes() == style);
+        assertEquals("a", snapshot.getNode("a").toNode().getId());
+        assertEquals("box", snapshot.getNode("a").toNode().getParam("shape"));
+    }
+
+    @Test
+    public void testReadWhileChanging() throws Exception {
+        final Graph graph = new Graph("G", Graph.DIGRAPH);
+        final AtomicReference<GraphSnapshot> latest = new AtomicReference<GraphSnapshot>(
+                graph.snapshot());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?> writer = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    graph.addEdge(new Graph.Node("n" + i), new Graph.Node("n"
+                            + (i + 1)));
+                    if (i % 10 == 0) {
+                        latest.set(graph.snapshot());
+                    }
+                }
+            }
+        });
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        GraphSnapshot snapshot = latest.get();
+                        int edges = 0;
+                        for (GraphSnapshot.Edge edge : snapshot.getEdges()) {
+                            // Every edge refers to nodes in the snapshot
+                            assertTrue(snapshot.getNode(edge.getSourceId()) != null);
+                            assertTrue(snapshot.getNode(edge.getDestId()) != null);
+                            edges++;
+                        }
+                        assertEquals(snapshot.edgeCount(), edges);
+                        assertEquals(edges == 0 ? 0 : edges + 1,
+                                snapshot.nodeCount());
+                    }
+                }
+            }));
+        }
+        writer.get();
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        executor.shutdown();
+        assertEquals(2000, graph.snapshot().edgeCount());
+    }
+}
@@ -4,7 +4,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -249,6 +261,597 @@ public class GraphTest {
 
     }
 
+    @Test
+    public void testIncomingConnections() {
+
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        Graph.Node node3 = new Graph.Node("3");
+
+        Edge e1 = graph.addEdge(node1, node3);
+        Edge e2 = graph.addEdge(node2, node3);
+        graph.addEdge(node3, node1);
+
+        assertEquals(2, graph.inDegree(node3));
+        assertEquals(1, graph.outDegree(node3));
+        assertEquals(0, graph.inDegree(node2));
+        Set<AbstractMap.SimpleEntry<Graph.Node, Edge>> in = graph
+                .getIncomingConnections(node3);
+        assertTrue(in.contains(
+                new AbstractMap.SimpleEntry<Graph.Node, Edge>(node1, e1)));
+        assertTrue(in.contains(
+                new AbstractMap.SimpleEntry<Graph.Node, Edge>(node2, e2)));
+        assertTrue(graph.getIncomingConnections(node2).isEmpty());
+
+        graph.remove(e1);
+        assertEquals(1, graph.inDegree(node3));
+
+        graph.remove(node3);
+        assertEquals(0, graph.outDegree(node1));
+        assertEquals(0, graph.outDegree(node2));
+        assertEquals(0, graph.inDegree(node1));
+        assertTrue(graph.getEdges().isEmpty());
+    }
+
+    @Test
+    public void testRemoveSelfLoopNode() {
+
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+
+        graph.addEdge(node1, node1);
+        graph.addEdge(node2, node1);
+
+        graph.remove(node1);
+
+        assertEquals(1, graph.getNodes().size());
+        assertEquals(0, graph.getEdges().size());
+        assertTrue(graph.getConnections(node2).isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testRemoveManyNodes() {
+
+        // Quadratic removal would not finish within the timeout
+        Graph graph = createChain(100000);
+        for (Graph.Node node : new ArrayList<Graph.Node>(graph.getNodes())) {
+            graph.remove(node);
+        }
+        assertTrue(graph.getNodes().isEmpty());
+        assertTrue(graph.getEdges().isEmpty());
+    }
+
+    @Test
+    public void testEdgeSourceAndRetarget() {
+
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        Graph.Node node3 = new Graph.Node("3");
+
+        Edge e = graph.addEdge(node1, node2);
+
+        assertEquals(node1, graph.getSource(e));
+        assertEquals(node1, e.getSource());
+        assertEquals(node2, e.getDest());
+        assertEquals(graph, e.getOwner());
+
+        graph.retarget(e, node3);
+
+        assertEquals(node3, e.getDest());
+        assertEquals(3, graph.getNodes().size());
+        assertEquals(e, graph.getEdge(node1, node3));
+        assertNull(graph.getEdge(node1, node2));
+        assertEquals(0, graph.inDegree(node2));
+        assertEquals(1, graph.inDegree(node3));
+
+        e.setDest(node2);
+        assertEquals(e, graph.getEdge(node1, node2));
+        assertEquals(0, graph.inDegree(node3));
+
+        graph.remove(e);
+        assertNull(e.getOwner());
+        assertNull(graph.getSource(e));
+        assertEquals(0, graph.outDegree(node1));
+    }
+
+    @Test
+    public void testRemoveCrossSubgraphEdge() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+
+        Subgraph subgraph = graph.createNewSubgraph();
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node3 = new Graph.Node("3");
+        graph.addNode(node1);
+        graph.addNode(new Graph.GraphNode("2", subgraph));
+
+        Edge e = subgraph.addEdge(node3, node1);
+
+        assertEquals(subgraph, e.getOwner());
+        assertEquals(node3, graph.getSource(e));
+
+        graph.remove(e);
+
+        assertTrue(subgraph.getEdges().isEmpty());
+        assertTrue(subgraph.getConnections(node3).isEmpty());
+        assertEquals(0, subgraph.inDegree(node1));
+    }
+
+    @Test
+    public void testParallelEdges() {
+
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+
+        Edge e1 = graph.addEdge(node1, node2);
+        Edge e2 = graph.addEdge(node1, node2);
+
+        assertEquals(e1, graph.getEdge(node1, node2));
+        assertEquals(2, graph.getEdges(node1, node2).size());
+        assertEquals(2, graph.getConnections(node1).size());
+        assertTrue(graph.getConnections(node1).contains(
+                new AbstractMap.SimpleEntry<Graph.Node, Edge>(node2, e2)));
+        assertEquals(2, graph.inDegree(node2));
+
+        graph.remove(e1);
+
+        assertEquals(e2, graph.getEdge(node1, node2));
+        assertEquals(1, graph.getConnections(node1).size());
+        assertTrue(graph.getEdges(node2, node1).isEmpty());
+
+        graph.remove(e2);
+
+        assertNull(graph.getEdge(node1, node2));
+        assertTrue(graph.getConnections(node1).isEmpty());
+    }
+
+    @Test
+    public void testFindInNestedSubgraphs() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+
+        Subgraph sub1 = graph.createNewSubgraph();
+        Subgraph sub2 = sub1.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_1", sub1));
+        sub1.addNode(new Graph.GraphNode("cluster_2", sub2));
+
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        Graph.Node node3 = new Graph.Node("3");
+        graph.addNode(node1);
+        Edge e = sub2.addEdge(node2, node1);
+        sub1.addEdge(node3, node2);
+
+        assertEquals(node2, graph.findNode("2"));
+        assertEquals(sub2, graph.getSubgraph(node2));
+        assertEquals(sub1, graph.getSubgraph(node3));
+        assertEquals(graph, sub2.getSubgraph(node1));
+        assertEquals(e, graph.findEdge(e.getId()));
+        assertNull(graph.getNode("2"));
+        assertNull(graph.findNode("4"));
+
+        // Existing nodes are not added again in another subgraph
+        assertEquals(1, sub2.getNodes().size());
+        assertEquals(2, sub1.getNodes().size());
+
+        sub2.remove(node2);
+        assertNull(graph.findNode("2"));
+        assertNull(graph.findEdge(e.getId()));
+    }
+
+    @Test
+    public void testDestNodeInSiblingSubgraph() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Subgraph sub1 = graph.createNewSubgraph();
+        Subgraph sub2 = graph.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_1", sub1));
+        graph.addNode(new Graph.GraphNode("cluster_2", sub2));
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        sub1.addNode(node1);
+
+        // A node in a sibling subgraph is added to this one too
+        sub2.addEdge(node2, node1);
+        assertTrue(sub2.getNodes().contains(node1));
+        assertTrue(sub1.getNodes().contains(node1));
+        assertEquals(sub2, graph.getSubgraph(node1));
+    }
+
+    @Test
+    public void testEdgeIdsUniqueAcrossThreads() throws Exception {
+        final int threads = 4;
+        final int edges = 10000;
+        final Set<String> ids = Collections
+                .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < edges; i++) {
+                        ids.add(new Edge().getId());
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * edges, ids.size());
+    }
+
+    @Test
+    public void testConcurrentConstruction() throws Exception {
+        final Graph graph = new Graph("test", Graph.DIGRAPH, 100, 100, true);
+        assertTrue(graph.isConcurrent());
+        final int parts = 4;
+        final int size = 2000;
+        final Graph.Node root = new Graph.Node("root");
+        graph.addNode(root);
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int p = 0; p < parts; p++) {
+            final Subgraph sub = graph.createNewSubgraph();
+            assertTrue(sub.isConcurrent());
+            graph.addNode(new Graph.GraphNode("cluster_" + p, sub));
+            final String prefix = "p" + p + "_";
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Graph.Node previous = new Graph.Node(prefix + 0);
+                    for (int i = 1; i < size; i++) {
+                        Graph.Node node = new Graph.Node(prefix + i);
+                        sub.addEdge(previous, node);
+                        // Edges to the root graph from every part
+                        sub.addEdge(node, root);
+                        previous = node;
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(parts + 1, graph.getNodes().size());
+        assertTrue(graph.getEdges().isEmpty());
+        Set<String> edgeIds = new HashSet<String>();
+        for (int p = 0; p < parts; p++) {
+            Graph.Node node = graph.findNode("p" + p + "_" + (size - 1));
+            Subgraph sub = graph.getSubgraph(node);
+            assertEquals(size, sub.getNodes().size());
+            assertEquals(2 * (size - 1), sub.getEdges().size());
+            assertEquals(size - 1, sub.inDegree(root));
+            for (Edge e : sub.getEdges()) {
+                edgeIds.add(e.getId());
+                assertEquals(e, graph.findEdge(e.getId()));
+            }
+        }
+        assertEquals(parts * 2 * (size - 1), edgeIds.size());
+    }
+
+    @Test
+    public void testSharedAttributes() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        AttributeSet style = AttributeSet.of("shape", "box", "color", "gray");
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        node1.setAttributes(style);
+        node2.setAttributes(style);
+        node2.setParam("color", "red");
+        Edge edge = graph.addEdge(node1, node2);
+        edge.setAttributes(AttributeSet.of("style", "dashed"));
+
+        assertTrue(node1.getAttributes() == node2.getAttributes());
+        assertEquals("gray", node1.getParam("color"));
+        assertEquals("red", node2.getParam("color"));
+        assertEquals("box", node2.getParam("shape"));
+        assertEquals(2, node2.getParams().size());
+        assertTrue(node1.getOwnParams().isEmpty());
+        assertEquals(Collections.singleton("color"), node2.getOwnParams());
+        assertEquals("dashed", edge.getParam("style"));
+        // The shared set is not changed
+        assertEquals("gray", style.get("color"));
+        AttributeSet changed = style.with("color", "blue");
+        assertEquals("blue", changed.get("color"));
+        assertEquals("gray", style.get("color"));
+        assertEquals(3, changed.with("label", "x").size());
+    }
+
+    @Test
+    public void testGraphNodeSharedAttributes() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        Graph.GraphNode node = new Graph.GraphNode("cluster_1", sub);
+        graph.addNode(node);
+        node.setAttributes(AttributeSet.of("color", "blue"));
+        assertEquals("blue", sub.getParam("color"));
+        assertEquals("blue", node.getParam("color"));
+        assertTrue(sub.getAttributes() == node.getAttributes());
+    }
+
+    @Test
+    public void testAttributeKeys() {
+        assertTrue(AttributeKey.of("label") == AttributeKey.LABEL);
+        AttributeKey custom = AttributeKey.of("xlabel");
+        assertTrue(AttributeKey.of("xlabel") == custom);
+        assertTrue(AttributeKey.forOrdinal(custom.ordinal()) == custom);
+        assertTrue(custom.ordinal() < AttributeKey.count());
+
+        Graph.Node node = new Graph.Node("1");
+        node.setParam(AttributeKey.LABEL, "Node");
+        node.setParam("color", "red");
+        node.setParam(AttributeKey.PENWIDTH, 2.5);
+        node.setParam(AttributeKey.FONTSIZE, 12);
+        node.setParam(AttributeKey.COLOR, "blue");
+        assertEquals("Node", node.getParam("label"));
+        assertEquals("blue", node.getParam("color"));
+        assertEquals("2.5", node.getParam(AttributeKey.PENWIDTH));
+        assertEquals("12", node.getParam("fontsize"));
+        assertNull(node.getParam("no such attribute"));
+
+        // Parameters are kept in the order they were first set
+        assertEquals(4, node.getOwnParamCount());
+        assertTrue(node.getOwnParamKey(1) == AttributeKey.COLOR);
+        assertEquals("blue", node.getOwnParamValue(1));
+        assertEquals(new ArrayList<String>(Arrays.asList("label", "color",
+                "penwidth", "fontsize")),
+                new ArrayList<String>(node.getOwnParams()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNumericValueForTextAttribute() {
+        new Graph.Node("1").setParam(AttributeKey.LABEL, 1.0);
+    }
+
+    @Test
+    public void testLiveViewsAndCounts() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Graph.Node node1 = new Graph.Node("1");
+        Graph.Node node2 = new Graph.Node("2");
+        Graph.Node node3 = new Graph.Node("3");
+        Set<Edge> edges = graph.getEdges();
+        Set<Graph.Node> nodes = graph.getNodes();
+        Edge e1 = graph.addEdge(node1, node2);
+        Edge e2 = graph.addEdge(node2, node3);
+        Edge e3 = graph.addEdge(node3, node1);
+        // The views follow the changes in the graph
+        assertEquals(3, edges.size());
+        assertEquals(3, nodes.size());
+        assertTrue(edges.contains(e2));
+        assertEquals(3, graph.edgeCount());
+        assertEquals(3, graph.nodeCount());
+        assertEquals(2, graph.degree(node1));
+
+        graph.remove(e1);
+        assertEquals(2, edges.size());
+        assertTrue(!edges.contains(e1));
+        assertEquals(new HashSet<Edge>(Arrays.asList(e2, e3)),
+                new HashSet<Edge>(edges));
+        assertEquals(1, graph.degree(node1));
+        graph.remove(node3);
+        assertTrue(edges.isEmpty());
+        assertEquals(2, graph.nodeCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testEdgeViewUnmodifiable() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Edge e = graph.addEdge(new Graph.Node("1"), new Graph.Node("2"));
+        graph.getEdges().remove(e);
+    }
+
+    @Test
+    public void testEdgeOrderAfterRemove() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        List<Edge> edges = new ArrayList<Edge>();
+        for (int i = 0; i < 10; i++) {
+            edges.add(graph.addEdge(new Graph.Node("n" + i),
+                    new Graph.Node("n" + (i + 1))));
+        }
+        graph.remove(edges.remove(0));
+        graph.remove(edges.remove(3));
+        assertEquals(edges, new ArrayList<Edge>(graph.getEdges()));
+        assertEquals(edges.size(), graph.edgeStream().count());
+        // Removing most of the edges compacts the list
+        for (int i = 0; i < 5; i++) {
+            graph.remove(edges.remove(1));
+        }
+        assertEquals(edges, new ArrayList<Edge>(graph.getEdges()));
+        assertEquals(new HashSet<Edge>(edges), graph.edgeStream(true)
+                .parallel().collect(Collectors.toSet()));
+        Edge added = graph.addEdge(new Graph.Node("a"), new Graph.Node("b"));
+        edges.add(added);
+        assertEquals(edges, new ArrayList<Edge>(graph.getEdges()));
+    }
+
+    @Test
+    public void testRecursiveCountsAndStreams() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        final Graph.Node hub = new Graph.Node("hub");
+        graph.addNode(hub);
+        int clusters = 20;
+        int size = 100;
+        Subgraph last = null;
+        for (int c = 0; c < clusters; c++) {
+            Subgraph sub = graph.createNewSubgraph();
+            graph.addNode(new Graph.GraphNode("cluster_" + c, sub));
+            // Nest every other cluster one level deeper
+            Subgraph target = sub;
+            if (c % 2 == 1) {
+                target = sub.createNewSubgraph();
+                sub.addNode(new Graph.GraphNode("inner_" + c, target));
+            }
+            for (int i = 0; i < size; i++) {
+                target.addEdge(new Graph.Node(c + "_" + i), hub);
+            }
+            last = sub;
+        }
+        graph.addEdge(hub, new Graph.Node("out"));
+
+        assertEquals(2 + clusters, graph.nodeCount());
+        assertEquals(1, graph.edgeCount());
+        assertEquals(2 + clusters + clusters / 2 + clusters * size,
+                graph.nodeCount(true));
+        assertEquals(1 + clusters * size, graph.edgeCount(true));
+        assertEquals(1 + size, last.nodeCount(true));
+        assertEquals(size, last.edgeCount(true));
+        assertEquals(0, last.edgeCount());
+        assertEquals(1, graph.degree(hub));
+        assertEquals(1 + clusters * size, graph.degree(hub, true));
+
+        assertEquals(1 + clusters * size, graph.edgeStream(true).parallel()
+                .count());
+        Set<Edge> collected = graph.edgeStream(true).parallel()
+                .collect(Collectors.toSet());
+        assertEquals(1 + clusters * size, collected.size());
+        assertEquals(size, last.edgeStream(true).filter(new Predicate<Edge>() {
+            @Override
+            public boolean test(Edge e) {
+                return e.getDest().equals(hub);
+            }
+        }).count());
+
+        graph.remove(graph.getSubgraph(new Graph.Node("0_0")).getEdges()
+                .iterator().next());
+        assertEquals(clusters * size, graph.edgeCount(true));
+        assertEquals(clusters * size, graph.edgeStream(true).count());
+    }
+
+    @Test
+    public void testModificationStamp() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        graph.addNode(new Graph.GraphNode("cluster_1", sub));
+        long stamp = graph.getModificationStamp();
+        assertTrue(stamp > 0);
+        assertEquals(0, sub.getModificationStamp());
+
+        Graph.Node node = new Graph.Node("1");
+        Edge edge = sub.addEdge(node, new Graph.Node("2"));
+        assertTrue(graph.getModificationStamp() > stamp);
+        assertEquals(graph.getModificationStamp(), sub.getModificationStamp());
+
+        stamp = graph.getModificationStamp();
+        graph.getNodes();
+        graph.getEdges();
+        sub.getEdge(node, edge.getDest());
+        assertEquals(stamp, graph.getModificationStamp());
+
+        node.setParam("color", "red");
+        assertTrue(graph.getModificationStamp() > stamp);
+        stamp = graph.getModificationStamp();
+        graph.setParam("rankdir", "LR");
+        assertTrue(graph.getModificationStamp() > stamp);
+        // Changes in the root graph do not change the subgraph
+        assertTrue(sub.getModificationStamp() < graph.getModificationStamp());
+    }
+
+    @Test
+    public void testChangeJournal() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        Graph.Node node1 = new Graph.Node("1");
+        graph.addNode(node1);
+        assertNull(graph.getChangesSince(0));
+        assertEquals(0, graph.getJournalCapacity());
+
+        graph.setJournalCapacity(5);
+        assertEquals(5, sub.getJournalCapacity());
+        long stamp = graph.getModificationStamp();
+        assertTrue(graph.getChangesSince(stamp).isEmpty());
+        Graph.Node node2 = new Graph.Node("2");
+        Edge edge = sub.addEdge(node2, node1);
+        edge.setParam("color", "blue");
+        List<GraphChange> changes = graph.getChangesSince(stamp);
+        assertEquals(3, changes.size());
+        assertEquals(GraphChange.Type.NODE_ADDED, changes.get(0).getType());
+        assertEquals(node2, changes.get(0).getElement());
+        assertEquals(GraphChange.Type.EDGE_ADDED, changes.get(1).getType());
+        assertEquals(GraphChange.Type.ATTRIBUTE_CHANGED, changes.get(2)
+                .getType());
+        assertEquals("color", changes.get(2).getAttribute());
+        assertTrue(changes.get(2).getSubgraph() == sub);
+        // Only the changes after the stamp are given
+        assertEquals(1, graph.getChangesSince(changes.get(1).getStamp())
+                .size());
+
+        long before = graph.getModificationStamp();
+        graph.remove(node1);
+        changes = sub.getChangesSince(before);
+        // The edge to node1 is stored in the subgraph and remains
+        assertTrue(changes.isEmpty());
+        changes = graph.getChangesSince(before);
+        assertEquals(1, changes.size());
+        assertEquals(GraphChange.Type.NODE_REMOVED, changes.get(0).getType());
+
+        sub.remove(edge);
+        assertEquals(GraphChange.Type.EDGE_REMOVED,
+                sub.getChangesSince(before).get(0).getType());
+
+        // The journal only keeps the latest 5 changes
+        before = graph.getModificationStamp();
+        for (int i = 0; i < 5; i++) {
+            graph.setParam("label", "x" + i);
+        }
+        assertNull(graph.getChangesSince(stamp));
+        assertNull(graph.getChangesSince(before - 1));
+        assertEquals(5, graph.getChangesSince(before).size());
+    }
+
+    @Test
+    public void testChangeListener() {
+        Graph graph = new Graph("test", Graph.DIGRAPH);
+        Subgraph sub = graph.createNewSubgraph();
+        Subgraph inner = sub.createNewSubgraph();
+        final List<GraphChange> received = new ArrayList<GraphChange>();
+        Subgraph.ChangeListener listener = new Subgraph.ChangeListener() {
+            @Override
+            public void graphChanged(GraphChange change) {
+                received.add(change);
+            }
+        };
+        sub.addChangeListener(listener);
+        graph.addNode(new Graph.Node("1"));
+        assertTrue(received.isEmpty());
+        Edge edge = inner.addEdge(new Graph.Node("2"), new Graph.Node("3"));
+        assertEquals(3, received.size());
+        edge.setDest(new Graph.Node("4"));
+        assertEquals(GraphChange.Type.EDGE_RETARGETED, received.get(4)
+                .getType());
+        sub.removeChangeListener(listener);
+        inner.remove(edge);
+        assertEquals(5, received.size());
+    }
+
+    /**
+     * Creates a graph where node i has edges to node i+1 and node i+2
+     */
+    static Graph createChain(int size) {
+        Graph graph = new Graph("bench", Graph.DIGRAPH);
+        List<Graph.Node> nodes = new ArrayList<Graph.Node>(size);
+        for (int i = 0; i < size; i++) {
+            Graph.Node node = new Graph.Node("n" + i);
+            graph.addNode(node);
+            nodes.add(node);
+        }
+        for (int i = 0; i < size; i++) {
+            if (i + 1 < size) {
+                graph.addEdge(nodes.get(i), nodes.get(i + 1));
+            }
+            if (i + 2 < size) {
+                graph.addEdge(nodes.get(i), nodes.get(i + 2));
+            }
+        }
+        return graph;
+    }
+
     static public class CustomEdge extends Graph.Edge {
 
     }
@@ -0,0 +1,111 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentMapTest {
+
+    /**
+     * Key with a chosen hash code, to test collisions
+     */
+    static class Key {
+        final int hash;
+        final String name;
+
+        Key(int hash, String name) {
+            this.hash = hash;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).name.equals(name);
+        }
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            // Few distinct hashes give many collisions
+            int n = random.nextInt(2000);
+            Key key = new Key(n % 3 == 0 ? n % 50 : n * 7919, "k" + n);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Key, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertEquals(new HashSet<Integer>(expected.values()),
+                new HashSet<Integer>(map.values()));
+        assertEquals(expected.size(), new ArrayList<Integer>(map.values())
+                .size());
+        for (Key key : new ArrayList<Key>(expected.keySet())) {
+            map = map.minus(key);
+        }
+        assertTrue(map.isEmpty());
+        assertTrue(map.values().isEmpty());
+    }
+
+    @Test
+    public void testVersionsAreIndependent() {
+        PersistentMap<String, String> v1 = PersistentMap.empty();
+        for (int i = 0; i < 1000; i++) {
+            v1 = v1.plus("n" + i, "a");
+        }
+        PersistentMap<String, String> v2 = v1.plus("n1", "b").minus("n2")
+                .plus("new", "c");
+        assertEquals("a", v1.get("n1"));
+        assertEquals("a", v1.get("n2"));
+        assertNull(v1.get("new"));
+        assertEquals(1000, v1.size());
+        assertEquals("b", v2.get("n1"));
+        assertNull(v2.get("n2"));
+        assertEquals("c", v2.get("new"));
+        assertEquals(1000, v2.size());
+        // Unchanged operations return the same map
+        assertTrue(v2.minus("missing") == v2);
+        assertTrue(v2.plus("new", v2.get("new")) == v2);
+    }
+
+    @Test
+    public void testIterationOrderIsDeterministic() {
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            keys.add("id" + i);
+        }
+        PersistentMap<String, String> forward = PersistentMap.empty();
+        for (String key : keys) {
+            forward = forward.plus(key, key);
+        }
+        PersistentMap<String, String> backward = PersistentMap.empty();
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            backward = backward.plus(keys.get(i), keys.get(i));
+        }
+        assertEquals(new ArrayList<String>(forward.values()),
+                new ArrayList<String>(backward.values()));
+    }
+}
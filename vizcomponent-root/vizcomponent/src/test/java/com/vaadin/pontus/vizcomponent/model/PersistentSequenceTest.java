@@ -0,0 +1,74 @@
+package com.vaadin.pontus.vizcomponent.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class PersistentSequenceTest {
+
+    @Test
+    public void testAgainstTreeMap() {
+        Random random = new Random(42);
+        TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+        PersistentSequence<Integer> sequence = PersistentSequence.empty();
+        long next = 0;
+        for (int i = 0; i < 20000; i++) {
+            int choice = random.nextInt(4);
+            if (choice == 0 && !expected.isEmpty()) {
+                // Remove an existing number
+                Long key = expected.ceilingKey((long) random
+                        .nextInt((int) next));
+                if (key != null) {
+                    expected.remove(key);
+                    sequence = sequence.minus(key);
+                }
+            } else if (choice == 1 && next > 0) {
+                // Replace or add an earlier number
+                long key = random.nextInt((int) next);
+                expected.put(key, i);
+                sequence = sequence.plus(key, i);
+            } else {
+                // Numbers are mostly added in increasing order
+                expected.put(next, i);
+                sequence = sequence.plus(next++, i);
+            }
+            assertEquals(expected.size(), sequence.size());
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), sequence.get(entry.getKey()));
+        }
+        assertEquals(new ArrayList<Integer>(expected.values()),
+                new ArrayList<Integer>(sequence.values()));
+        for (Long key : new ArrayList<Long>(expected.keySet())) {
+            sequence = sequence.minus(key);
+        }
+        assertTrue(sequence.isEmpty());
+        assertTrue(sequence.values().isEmpty());
+    }
+
+    @Test
+    public void testVersionsAreIndependent() {
+        PersistentSequence<String> v1 = PersistentSequence.empty();
+        for (int i = 0; i < 1000; i++) {
+            v1 = v1.plus(i, "a");
+        }
+        PersistentSequence<String> v2 = v1.plus(1, "b").minus(2)
+                .plus(1000, "c");
+        assertEquals("a", v1.get(1));
+        assertEquals("a", v1.get(2));
+        assertNull(v1.get(1000));
+        assertEquals(1000, v1.size());
+        assertEquals("b", v2.get(1));
+        assertNull(v2.get(2));
+        assertEquals("c", v2.get(1000));
+        assertEquals(1000, v2.size());
+        assertTrue(v2.minus(2) == v2);
+    }
+}